@@ -0,0 +1,58 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Searches a proteome file with {@link AAMatchFinder}, which summarizes the matches of each protein.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AAMatchFinderBenchmark {
+
+  @Param
+  public PatternFamily family;
+
+  @Param({ "20000" })
+  public int proteins;
+
+  @Param({ "2000" })
+  public int maxProteinLength;
+
+  private File proteome;
+  private Pattern pattern;
+  private AAMatchFinder finder;
+
+  @Setup
+  public void setUp() throws Exception {
+    proteome = SyntheticSequences.writeProteome(2, proteins, maxProteinLength);
+    pattern = AbstractMotifPlugin.translateExpression(family.getProteinExpression(),
+        new ProteinMotifPlugin().getSymbols());
+    finder = new AAMatchFinder(new MotifConfig(new Properties(), ProteinMotifPlugin.FIELD_REGEX,
+        AAMotifPlugin.DEFAULT_REGEX));
+  }
+
+  @Benchmark
+  public void findMatches(Blackhole blackhole) throws Exception {
+    finder.findMatches(proteome, pattern, blackhole::consume, organism -> "PlasmoDB");
+  }
+}
@@ -0,0 +1,62 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.BufferedDnaMotifFinder;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.CompiledMotif;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Streams a chromosome through {@link BufferedDnaMotifFinder#match}, for each pattern family and buffer size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BufferedDnaMotifFinderBenchmark {
+
+  private static final int CONTEXT_LENGTH = 20;
+  private static final int MAX_MATCH_LENGTH = 1024;
+
+  @Param({ "4096", "65536", "1048576" })
+  public int bufferSize;
+
+  @Param
+  public PatternFamily family;
+
+  @Param({ "8000000" })
+  public int chromosomeLength;
+
+  @Param({ "false", "true" })
+  public boolean bothStrands;
+
+  private String chromosome;
+  private Pattern pattern;
+
+  @Setup
+  public void setUp() {
+    chromosome = SyntheticSequences.dna(1, chromosomeLength);
+    pattern = AbstractMotifPlugin.translateExpression(family.getDnaExpression(), DnaMotifPlugin.SYMBOL_MAP);
+  }
+
+  @Benchmark
+  public int match(Blackhole blackhole) throws Exception {
+    return BufferedDnaMotifFinder.match(new StringReader(chromosome), pattern, bothStrands, CONTEXT_LENGTH,
+        bufferSize, MAX_MATCH_LENGTH, CompiledMotif.DEFAULT_REGEX_STEPS_PER_CHARACTER, blackhole::consume);
+  }
+}
@@ -0,0 +1,36 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+/**
+ * Kinds of motifs users search for, each of which stresses a different part of the engines.  Expressions are in
+ * the syntax of the search forms, before {@link AbstractMotifPlugin#translateExpression}.
+ */
+public enum PatternFamily {
+
+  /** plain sequence, as pasted from a paper */
+  LITERAL("GATTACA", "WHEAT"),
+
+  /** ambiguity codes, each expanding to a character class */
+  IUPAC_CLASS("RGWYNNCCR", "C1P4X2"),
+
+  /** bounded repeats and alternation */
+  BOUNDED_REPEAT("GA{2,4}(TC|CT){1,3}G", "C.{2,4}C.{3}[LIVMFYWC].{8}H.{3,5}H"),
+
+  /** nested quantifiers that make backtracking engines retry exponentially many ways */
+  PATHOLOGICAL("(A|T|AT)*(AT)*C{2}", "(S|T|ST)*(ST)*W{2}");
+
+  private final String dnaExpression;
+  private final String proteinExpression;
+
+  private PatternFamily(String dnaExpression, String proteinExpression) {
+    this.dnaExpression = dnaExpression;
+    this.proteinExpression = proteinExpression;
+  }
+
+  public String getDnaExpression() {
+    return dnaExpression;
+  }
+
+  public String getProteinExpression() {
+    return proteinExpression;
+  }
+}
@@ -0,0 +1,63 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifMatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Builds the {@link PluginMatch} of a DNA match and formats its location, source id and highlighted sequence, as is
+ * done for every match reported: the first on the scanning thread, the second on the thread writing the rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PluginMatchBenchmark {
+
+  @Param({ "20", "100" })
+  public int contextLength;
+
+  private MotifMatch forward;
+  private MotifMatch reverse;
+
+  @Setup
+  public void setUp() {
+    String context = SyntheticSequences.dna(4, 2 * contextLength);
+    forward = newMatch(false, context, "GATTACA");
+    reverse = newMatch(true, context, "TGTAATC");
+  }
+
+  private MotifMatch newMatch(boolean reversed, String context, String match) {
+    return new MotifMatch.Builder()
+        .reversed(reversed)
+        .match(match)
+        .startPos(1234567)
+        .endPos(1234574)
+        .leadingContext(context.substring(0, contextLength))
+        .trailingContext(context.substring(contextLength))
+        .build();
+  }
+
+  @Benchmark
+  public PluginMatch forwardStrand() {
+    return PluginMatch.ofForwardMatch(forward, "PlasmoDB", "Pf3D7_01_v3").format();
+  }
+
+  @Benchmark
+  public PluginMatch reverseStrand() {
+    return PluginMatch.ofReverseMatch(reverse, 3000000, "PlasmoDB", "Pf3D7_01_v3").format();
+  }
+}
@@ -0,0 +1,64 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.File;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.SequenceReaderProvider.FastaReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads every sequence of a genome file through {@link SequenceReaderProvider}, which all streaming scans go
+ * through, in reads of the given size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SequenceReaderProviderBenchmark {
+
+  @Param({ "4096", "65536" })
+  public int bufferSize;
+
+  @Param({ "16" })
+  public int chromosomes;
+
+  @Param({ "1000000" })
+  public int chromosomeLength;
+
+  private File genome;
+  private char[] buffer;
+
+  @Setup
+  public void setUp() throws Exception {
+    genome = SyntheticSequences.writeGenome(3, chromosomes, chromosomeLength);
+    buffer = new char[bufferSize];
+  }
+
+  @Benchmark
+  public long readAll() throws Exception {
+    long checksum = 0;
+    try (SequenceReaderProvider provider = new SequenceReaderProvider(genome)) {
+      for (Optional<FastaReader> reader = provider.nextSequence(); reader.isPresent();
+          reader = provider.nextSequence()) {
+        for (int read = reader.get().read(buffer, 0, bufferSize); read != -1;
+            read = reader.get().read(buffer, 0, bufferSize)) {
+          checksum += read + buffer[0];
+        }
+      }
+    }
+    return checksum;
+  }
+}
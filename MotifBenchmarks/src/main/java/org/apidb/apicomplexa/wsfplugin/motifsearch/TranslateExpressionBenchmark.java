@@ -0,0 +1,49 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Translates search form expressions into patterns, which every search does once per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TranslateExpressionBenchmark {
+
+  @Param
+  public PatternFamily family;
+
+  private Map<Character, String> proteinSymbols;
+
+  @Setup
+  public void setUp() {
+    proteinSymbols = new ProteinMotifPlugin().getSymbols();
+  }
+
+  @Benchmark
+  public Pattern translateDna() {
+    return AbstractMotifPlugin.translateExpression(family.getDnaExpression(), DnaMotifPlugin.SYMBOL_MAP);
+  }
+
+  @Benchmark
+  public Pattern translateProtein() {
+    return AbstractMotifPlugin.translateExpression(family.getProteinExpression(), proteinSymbols);
+  }
+}
@@ -1,61 +1,201 @@
 package org.apidb.apicomplexa.wsfplugin.motifsearch;
 
-import java.util.regex.Matcher;
+import java.io.File;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.BufferedDnaMotifFinder;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifMatch;
 import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
 import org.gusdb.fgputil.functional.FunctionalInterfaces.FunctionWithException;
 
-public class AAMatchFinder extends HighMemoryMatchFinder {
+/**
+ * Finds motifs in protein sequences.  Each sequence is streamed through the bounded buffer of
+ * {@link BufferedDnaMotifFinder}, so memory use does not grow with the length of the sequence but with the longest
+ * match allowed ({@link MotifConfig#getProteinMaxMatchLength()}), and its matches are summarized into a single
+ * {@link PluginMatch} whose locations and sequence columns are truncated to fit in 4000 characters.
+ *
+ * If the dataset file has a {@link KmerIndex}, only the sequences that the index selects for the pattern are
+ * scanned, read directly at the offsets of the file's {@link FastaIndex}.  Several patterns are searched for in one
+ * pass, over the sequences that the index selects for any of them, with one match per sequence and pattern.
+ */
+public class AAMatchFinder extends StreamingMatchFinder {
 
   private static final Logger LOG = Logger.getLogger(AAMatchFinder.class);
 
+  static final int BUFFER_SIZE = 65536;
+
+  // columns are truncated with "..." once they would reach this length
+  private static final int MAX_COLUMN_LENGTH = 4000;
+
   public AAMatchFinder(MotifConfig config) {
     super(config);
   }
 
+  @Override
+  protected Defline.Format getDeflineFormat() {
+    return Defline.Format.PROTEIN;
+  }
+
+  @Override
+  protected void scanSequences(
+      File fastaFile,
+      Optional<FastaIndex> index,
+      List<Pattern> searchPatterns,
+      SequenceScanner scanner) throws Exception {
+    Optional<BitSet> candidates = index.flatMap(KmerIndex::load).flatMap(kmers -> getCandidates(kmers, searchPatterns));
+    if (!candidates.isPresent()) {
+      super.scanSequences(fastaFile, index, searchPatterns, scanner);
+      return;
+    }
+
+    List<SequenceRange> ranges = index.get().getRanges();
+    List<Defline> deflines = index.get().getDeflines();
+    LOG.debug("Scanning " + candidates.get().cardinality() + " of " + ranges.size() + " sequences of " + fastaFile
+        + " selected by its k-mer index");
+    try (SequenceRange.Source source = BgzfFile.openSource(fastaFile)) {
+      for (int i = candidates.get().nextSetBit(0); i >= 0; i = candidates.get().nextSetBit(i + 1)) {
+        Defline defline = checkDefline(deflines.get(i), ranges.get(i).getDefline());
+        _metrics.addSequence();
+        _metrics.addBytes(ranges.get(i).getEnd() - ranges.get(i).getStart());
+        try (Reader sequence = ranges.get(i).newReader(source)) {
+          scanner.scan(defline, Optional.of(ranges.get(i)), sequence);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the sequences that the index selects for any of the patterns, or empty if it cannot select the
+   * sequences of one of them
+   */
+  static Optional<BitSet> getCandidates(KmerIndex kmers, List<Pattern> searchPatterns) {
+    BitSet candidates = new BitSet();
+    for (Pattern pattern : searchPatterns) {
+      Optional<BitSet> patternCandidates = kmers.getCandidates(pattern);
+      if (!patternCandidates.isPresent()) {
+        return Optional.empty();
+      }
+      candidates.or(patternCandidates.get());
+    }
+    return Optional.of(candidates);
+  }
+
   @Override
   protected void findMatchesInSequence(
-      String defLine,
-      Pattern searchPattern,
-      String sequence,
+      Defline defline,
+      List<Pattern> searchPatterns,
+      Reader sequence,
+      Optional<SequenceRange> range,
       ConsumerWithException<PluginMatch> consumer,
       FunctionWithException<String, String> orgToProjectId) throws Exception {
+    MatchSummary[] summaries = newSummaries(defline, searchPatterns, orgToProjectId);
 
-    // parse the headline
-    Matcher deflineMatcher = _config.getDeflinePattern().matcher(defLine);
-    if (!deflineMatcher.find()) {
-      LOG.warn("Invalid defline: " + defLine + " Against Pattern "
-          + _config.getDeflinePattern().pattern());
-      return;
+    // the context of a match is up to twice the context length of the gap before it, plus one character to tell
+    // whether the sequence goes on beyond the context after the last match
+    BufferedDnaMotifFinder.match(new WhitespaceFilter(sequence), searchPatterns, false,
+        2 * _config.getContextLength() + 1, BUFFER_SIZE, _config.getProteinMaxMatchLength(),
+        _config.getRegexStepsPerCharacter(), motifMatch -> summaries[motifMatch.getPatternIndex()].add(motifMatch));
+
+    passSummaries(summaries, consumer);
+  }
+
+  /**
+   * Matches the patterns in one pass against a sequence that is fully addressable, such as a view of a mapped file.
+   * The summaries are passed on in the order of the patterns, as by {@link #findMatchesInSequence}.
+   */
+  protected void matchSequence(
+      Defline defline,
+      List<Pattern> searchPatterns,
+      CharSequence sequence,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    MatchSummary[] summaries = newSummaries(defline, searchPatterns, orgToProjectId);
+    BufferedDnaMotifFinder.match(sequence, searchPatterns, false, 2 * _config.getContextLength() + 1, BUFFER_SIZE,
+        _config.getProteinMaxMatchLength(), _config.getRegexStepsPerCharacter(),
+        motifMatch -> summaries[motifMatch.getPatternIndex()].add(motifMatch));
+    passSummaries(summaries, consumer);
+  }
+
+  /**
+   * Passes on the summaries of the patterns that matched the sequence, in the order of the patterns
+   */
+  static void passSummaries(MatchSummary[] summaries, ConsumerWithException<PluginMatch> consumer) throws Exception {
+    for (MatchSummary summary : summaries) {
+      if (summary.match.matchCount == 0) continue;
+      summary.finish();
+      consumer.accept(summary.match);
     }
+  }
+
+  private MatchSummary[] newSummaries(
+      Defline defline,
+      List<Pattern> searchPatterns,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    // the gene source id is in group(1) of the defline regex,
+    // organism is in group(2),
+    String projectId = orgToProjectId.apply(defline.getOrganism());
+    MatchSummary[] summaries = new MatchSummary[searchPatterns.size()];
+    for (int i = 0; i < summaries.length; i++) {
+      PluginMatch match = new PluginMatch();
+      match.sourceId = defline.getSourceId();
+      match.projectId = projectId;
+      match.patternIndex = i;
+      summaries[i] = new MatchSummary(match, _config.getContextLength());
+    }
+    return summaries;
+  }
+
+  @Override
+  protected void countMatchesInSequence(
+      Defline defline,
+      Pattern searchPattern,
+      Reader sequence,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    int matchCount = BufferedDnaMotifFinder.count(new WhitespaceFilter(sequence), searchPattern, false, BUFFER_SIZE,
+        _config.getProteinMaxMatchLength(), _config.getRegexStepsPerCharacter());
+    if (matchCount == 0) return;
+    consumer.accept(PluginMatch.ofCount(defline.getSourceId(), orgToProjectId.apply(defline.getOrganism()),
+        matchCount));
+  }
+
+  /**
+   * Accumulates the locations and sequence columns of the matches in one sequence.  The sequence column shows the
+   * sequence between matches, eliding the middle of gaps longer than twice the context length.  Locations are those
+   * of the residues in the sequence, unless {@link #formatLocation(MotifMatch)} is overridden.
+   */
+  static class MatchSummary {
 
-    // the gene source id has to be in group(1),
-    // organism has to be in group(2),
-    String sourceId = deflineMatcher.group(1);
-    String organism = deflineMatcher.group(2).replace('_', ' ');
+    final PluginMatch match;
+    private final int contextLength;
 
-    // workaround: trim "-p1" suffix to turn protein ID into transcript ID
-    // sourceId = sourceId.replace("-p1", "");
+    private final StringBuilder sbLoc = new StringBuilder();
+    private final StringBuilder sbSeq = new StringBuilder();
+    private boolean longLoc = false, longSeq = false;
 
-    PluginMatch match = new PluginMatch();
-    match.sourceId = sourceId;
-    match.projectId = orgToProjectId.apply(organism);
+    // end of the previous match, and the context after it
+    private int prev = 0;
+    private String prevTrailingContext = "";
 
-    StringBuffer sbLoc = new StringBuffer();
-    StringBuffer sbSeq = new StringBuffer();
-    int prev = 0;
-    int contextLength = _config.getContextLength();
+    MatchSummary(PluginMatch match, int contextLength) {
+      this.match = match;
+      this.contextLength = contextLength;
+    }
+
+    void add(MotifMatch motifMatch) {
+      int start = motifMatch.getStartPos();
 
-    Matcher matcher = searchPattern.matcher(sequence);
-    boolean longLoc = false, longSeq = false;
-    while (matcher.find()) {
       // add locations only while we have room.
       if (!longLoc) {
-        String location = AbstractMotifPlugin.formatLocation(0, matcher.start(), matcher.end() - 1, false);
-        location = "(" + location + ")";
-        if (sbLoc.length() + location.length() >= 3997) {
+        String location = "(" + formatLocation(motifMatch) + ")";
+        if (sbLoc.length() + location.length() >= MAX_COLUMN_LENGTH - 3) {
           sbLoc.append("...");
           longLoc = true;
         } else {
@@ -68,17 +208,17 @@ public class AAMatchFinder extends HighMemoryMatchFinder {
       if (!longSeq) {
         StringBuilder seq = new StringBuilder();
         // obtain the context sequence
-        if ((matcher.start() - prev) <= (contextLength * 2)) {
+        String leadingContext = motifMatch.getLeadingContext();
+        if ((start - prev) <= (contextLength * 2)) {
           // no need to trim
-          seq.append(sequence.substring(prev, matcher.start()));
+          seq.append(leadingContext.substring(leadingContext.length() - (start - prev)));
         } else { // need to trim some
           if (prev != 0)
-            seq.append(sequence.substring(prev, prev + contextLength));
+            seq.append(prevTrailingContext, 0, contextLength);
           seq.append("... ");
-          seq.append(sequence.substring(matcher.start() - contextLength,
-              matcher.start()));
+          seq.append(leadingContext.substring(leadingContext.length() - contextLength));
         }
-        String motif = sequence.substring(matcher.start(), matcher.end());
+        String motif = motifMatch.getMatch();
         match.matchSequences.add(motif);
 
         seq.append("<span class=\"" + AbstractMotifPlugin.MOTIF_STYLE_CLASS + "\">");
@@ -86,7 +226,7 @@ public class AAMatchFinder extends HighMemoryMatchFinder {
         seq.append("</span>");
 
         // determine if we have enough space for the new sequence
-        if (sbSeq.length() + seq.length() >= 3997) {
+        if (sbSeq.length() + seq.length() >= MAX_COLUMN_LENGTH - 3) {
           sbSeq.append("...");
           longSeq = true;
         } else {
@@ -94,24 +234,55 @@ public class AAMatchFinder extends HighMemoryMatchFinder {
         }
       }
 
-      prev = matcher.end();
+      prev = motifMatch.getEndPos();
+      prevTrailingContext = motifMatch.getTrailingContext();
       match.matchCount++;
     }
 
-    if (match.matchCount == 0) return;
-
-    // grab the last context
-    if (!longSeq) {
-      String remain = ((prev + contextLength) < sequence.length()) 
-          ? sequence.substring(prev, prev + contextLength) + "..."
-          : sequence.substring(prev);
-      if (remain.length() + sbSeq.length() < 4000)
-        sbSeq.append(remain);
+    String formatLocation(MotifMatch motifMatch) {
+      return AbstractMotifPlugin.formatLocation(0, motifMatch.getStartPos(), motifMatch.getEndPos() - 1, false);
     }
 
-    match.locations = sbLoc.toString();
-    match.sequence = sbSeq.toString();
-    consumer.accept(match);
+    void finish() {
+      // grab the last context
+      if (!longSeq) {
+        String remain = prevTrailingContext.length() > contextLength
+            ? prevTrailingContext.substring(0, contextLength) + "..."
+            : prevTrailingContext;
+        if (remain.length() + sbSeq.length() < MAX_COLUMN_LENGTH)
+          sbSeq.append(remain);
+      }
+      match.locations = sbLoc.toString();
+      match.sequence = sbSeq.toString();
+    }
   }
 
+  /**
+   * Drops the whitespace (such as carriage returns) left in sequence lines, which used to be trimmed
+   */
+  private static class WhitespaceFilter extends FilterReader {
+
+    WhitespaceFilter(Reader in) {
+      super(in);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      int read;
+      int kept;
+      do {
+        read = in.read(cbuf, off, len);
+        if (read <= 0) {
+          return read;
+        }
+        kept = 0;
+        for (int i = off; i < off + read; i++) {
+          if (cbuf[i] > ' ') {
+            cbuf[off + kept++] = cbuf[i];
+          }
+        }
+      } while (kept == 0);
+      return kept;
+    }
+  }
 }
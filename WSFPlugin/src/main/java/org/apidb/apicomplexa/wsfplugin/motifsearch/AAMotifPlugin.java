@@ -14,7 +14,7 @@ import java.util.Map;
 abstract class AAMotifPlugin extends AbstractMotifPlugin {
 
   //protected static final String DEFAULT_REGEX = ">(?:\\w*\\|)*([^|\\s]+)\\s*\\|.*?\\s*organism=([^|\\s]+)";
-  private static final String DEFAULT_REGEX = ">.*transcript=([^|\\s]+).*organism=([^|\\s]+)";
+  public static final String DEFAULT_REGEX = ">.*transcript=([^|\\s]+).*organism=([^|\\s]+)";
 
   private static final Map<Character, String> SYMBOL_MAP = new HashMap<>(){{
     put('0', "DE");
@@ -49,6 +49,11 @@ abstract class AAMotifPlugin extends AbstractMotifPlugin {
 
   @Override
   protected MatchFinder getMatchFinder(MotifConfig config) {
-    return new AAMatchFinder(config);
+    switch (config.getProteinScanMode()) {
+      case MAPPED:
+        return new MappedAAMatchFinder(config);
+      default:
+        return new AAMatchFinder(config);
+    }
   }
 }
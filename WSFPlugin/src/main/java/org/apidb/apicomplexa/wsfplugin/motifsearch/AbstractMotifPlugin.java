@@ -2,13 +2,26 @@ package org.apidb.apicomplexa.wsfplugin.motifsearch;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import org.apache.log4j.Logger;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.MotifConfig.DatasetExecution;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.PatternComplexity;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.exception.MotifTooComplexException;
 import org.apidb.apicomplexa.wsfplugin.motifsearch.exception.MotifTooLongException;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.exception.UnsupportedMotifException;
 import org.eupathdb.common.model.ProjectMapper;
 import org.eupathdb.common.service.PostValidationUserException;
 import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
@@ -44,6 +57,77 @@ public abstract class AbstractMotifPlugin extends AbstractPlugin {
         Pattern searchPattern,
         ConsumerWithException<PluginMatch> consumer,
         FunctionWithException<String, String> orgToProjectId) throws Exception;
+
+    /**
+     * Finds matches of several patterns in the given file and submits them to the consumer, each tagged with the
+     * index of its pattern in {@link PluginMatch#patternIndex}.  Matches are passed on as they are found, so those
+     * of different patterns may be interleaved.  This searches for the patterns one by one; finders that can scan
+     * the file once for all of them override it.
+     *
+     * @param fastaFile file to read
+     * @param searchPatterns patterns to search for
+     * @param consumer consumes the matches, writing them to the plugin response
+     * @param orgToProjectId function that looks up projectId by organism
+     */
+    default void findMatches(
+        File fastaFile,
+        List<Pattern> searchPatterns,
+        ConsumerWithException<PluginMatch> consumer,
+        FunctionWithException<String, String> orgToProjectId) throws Exception {
+      for (int i = 0; i < searchPatterns.size(); i++) {
+        final int patternIndex = i;
+        findMatches(fastaFile, searchPatterns.get(i), match -> {
+          match.patternIndex = patternIndex;
+          consumer.accept(match);
+        }, orgToProjectId);
+      }
+    }
+
+    /**
+     * Counts the matches of the passed pattern in each sequence of the given file, and submits a match with the
+     * count (see {@link PluginMatch#ofCount}) for each sequence that has any.  This totals the matches found by
+     * {@link #findMatches(File, Pattern, ConsumerWithException, FunctionWithException)}; finders that can count
+     * without building the matches override it.
+     *
+     * @param fastaFile file to read
+     * @param searchPattern pattern to search for
+     * @param consumer consumes the counts, writing them to the plugin response
+     * @param orgToProjectId function that looks up projectId by organism
+     */
+    default void countMatches(
+        File fastaFile,
+        Pattern searchPattern,
+        ConsumerWithException<PluginMatch> consumer,
+        FunctionWithException<String, String> orgToProjectId) throws Exception {
+      Map<String, PluginMatch> counts = new LinkedHashMap<>();
+      findMatches(fastaFile, searchPattern, match -> {
+        // matches without a source id are not reported
+        if (!match.hasRow()) return;
+        String sequenceId = match.sequenceId != null ? match.sequenceId : match.sourceId;
+        counts.computeIfAbsent(sequenceId, id -> PluginMatch.ofCount(id, match.projectId, 0)).matchCount +=
+            match.matchCount;
+      }, orgToProjectId);
+      for (PluginMatch count : counts.values()) {
+        consumer.accept(count);
+      }
+    }
+
+    /**
+     * Records the sequences and bytes the following scans of this finder go through, and the time reading and
+     * parsing them takes, in the given metrics.  Finders that do not record anything ignore it.
+     */
+    default void setMetrics(ScanMetrics metrics) {
+      // nothing recorded
+    }
+
+    /**
+     * Limits the following scans of this finder to the given permit, which the caller holds while the finder
+     * scans.  Finders that wait for their files to be read hand the permit back while they wait; the others ignore
+     * it, keeping the permit for the whole scan.
+     */
+    default void setScanPermit(ScanPermit scanPermit) {
+      // the permit is held throughout
+    }
   }
 
   // motif search property file
@@ -57,6 +141,12 @@ public abstract class AbstractMotifPlugin extends AbstractPlugin {
       PARAM_DATASET
   };
 
+  // optional parameters: what the search returns, and how many rows at most
+  public static final String PARAM_RESULT_MODE = "motif_result_mode";
+  public static final String PARAM_MAX_RESULTS = "motif_max_results";
+  public static final String RESULT_MODE_MATCHES = "matches";
+  public static final String RESULT_MODE_COUNT = "count";
+
   // column definitions for returned results
   public static final String COLUMN_SOURCE_ID = "SourceID";
   public static final String COLUMN_PROJECT_ID = "ProjectId";
@@ -82,6 +172,16 @@ public abstract class AbstractMotifPlugin extends AbstractPlugin {
   // provides record type specific match finder
   protected abstract MatchFinder getMatchFinder(MotifConfig config);
 
+  // factory of executors running each task on a virtual thread, looked up at run time as the plugin is built for
+  // Java 17 and virtual threads need Java 21; empty on older JVMs
+  private static final Optional<Method> VIRTUAL_EXECUTOR_FACTORY = findVirtualExecutorFactory();
+
+  // permits to scan datasets scanned on virtual threads, shared by all searches
+  private static Semaphore _scanPermits;
+
+  // threads datasets are scanned on in pool mode, shared by all searches
+  private static ExecutorService _datasetPool;
+
   // fields initialized in constructor
   private final String _regexField;
   private final String _defaultRegex;
@@ -89,6 +189,7 @@ public abstract class AbstractMotifPlugin extends AbstractPlugin {
   // fields initialized in initialize()
   private MotifConfig _config;
   private ProjectMapper _projectMapper;
+  private ProjectLookup _projects;
   private Map<String, Integer> _columnOrders;
   
   protected AbstractMotifPlugin(String regexField, String defaultRegex) {
@@ -104,12 +205,21 @@ public abstract class AbstractMotifPlugin extends AbstractPlugin {
 
     // create motif-specific config
     _config = new MotifConfig(properties, _regexField, _defaultRegex);
+    if (_config.getDatasetExecution() == DatasetExecution.VIRTUAL && !VIRTUAL_EXECUTOR_FACTORY.isPresent()) {
+      LOG.warn(MotifConfig.FIELD_DATASET_EXECUTION + " is virtual, but virtual threads need Java 21 or later and "
+          + "this is Java " + System.getProperty("java.version") + "; datasets are scanned on the shared pool of "
+          + MotifConfig.FIELD_DATASET_THREADS + " threads instead");
+    }
+
+    // the first search creates the shared genome cache, which starts loading the configured genomes
+    GenomeCache.getInstance(_config);
 
     // create project mapper
     String projectId = request.getProjectId();
     try {
       WdkModel wdkModel = InstanceManager.getInstance(WdkModel.class, projectId);
       _projectMapper = ProjectMapper.getMapper(wdkModel);
+      _projects = new ProjectLookup(this::getProjectByOrganism);
     }
     catch (WdkModelException ex) {
       throw new PluginModelException(ex);
@@ -151,15 +261,18 @@ public abstract class AbstractMotifPlugin extends AbstractPlugin {
     String expression = params.get(PARAM_EXPRESSION);
     Pattern searchPattern = translateExpression(expression, getSymbols());
 
+    // count-only searches return a row per sequence with the number of its matches, without their context
+    boolean countOnly = isCountOnly(params.get(PARAM_RESULT_MODE));
+    MatchLimit limit = getLimit(params.get(PARAM_MAX_RESULTS));
+
     LOG.debug("datasetIDs: " + datasetIDs);
     LOG.debug("expression: " + expression);
+    SearchMetrics metrics = new SearchMetrics(searchPattern.pattern(), countOnly);
 
     // open the flatfile database assigned by the user
     try {
-      String[] dsIds = datasetIDs.split(",");
-
-      // scan on each dataset, and add matched motifs in the result
-      for (String dsId : dsIds) {
+      List<String> dsIds = new ArrayList<>();
+      for (String dsId : datasetIDs.split(",")) {
         LOG.debug("execute(): dsId: " + dsId);
         // parent organisms in a treeParam, we only need the leave nodes
         if (dsId.equals("-1") || dsId.length() <= 3) {
@@ -167,25 +280,268 @@ public abstract class AbstractMotifPlugin extends AbstractPlugin {
               + ") not included; we only care about leaf nodes\n");
           continue;
         }
+        dsIds.add(dsId.trim());
+      }
 
-        getMatchFinder(_config).findMatches(
-            openDataFile(dsId.trim()),
-            searchPattern,
-            match -> addMatch(match, response, _columnOrders),
-            _projectMapper::getProjectByOrganism);
+      // scan on each dataset, and add matched motifs in the result; rows are formatted and written by a thread of
+      // their own
+      ConsumerWithException<PluginMatch> rows = metrics.timeRows(
+          match -> addMatch(match.format(), response, _columnOrders));
+      if (limit != null) {
+        rows = limit.limit(rows);
+      }
+      RowWriter writer = _config.getRowQueueSize() > 0 ? new RowWriter(_config.getRowQueueSize(), rows) : null;
+      int parallelism = Math.min(_config.getDatasetParallelism(), dsIds.size());
+      try {
+        ConsumerWithException<PluginMatch> consumer = writer != null ? writer : rows;
+        if (parallelism <= 1) {
+          for (String dsId : dsIds) {
+            findMatches(dsId, searchPattern, countOnly, consumer, metrics.newDataset(dsId));
+          }
+        }
+        else {
+          findMatchesInParallel(dsIds, parallelism, searchPattern, countOnly, limit, consumer, metrics);
+        }
+        if (writer != null) {
+          writer.finish();
+        }
+      }
+      catch (MatchLimit.ReachedException e) {
+        LOG.info(e.getMessage());
+      }
+      finally {
+        if (writer != null) {
+          writer.close();
+        }
+      }
+      if (MotifResultCache.getInstance(_config).isEnabled()) {
+        // its counters are published by the MotifSearchMonitor
+        LOG.debug(MotifResultCache.getInstance(_config));
+      }
+      if (GenomeCache.getInstance(_config).isEnabled()) {
+        LOG.info(GenomeCache.getInstance(_config));
+      }
+      if (DeflineCache.getInstance(_config).isEnabled()) {
+        LOG.info(DeflineCache.getInstance(_config));
       }
       return 0;
     }
-    catch (MotifTooLongException e) {
+    catch (MotifTooLongException | MotifTooComplexException | UnsupportedMotifException e) {
+      metrics.setFailure(e);
       throw new PostValidationUserException(e.getMessage());
     }
     catch (PluginModelException e) {
+      metrics.setFailure(e);
       throw e;
     }
     catch (Exception e) {
+      metrics.setFailure(e);
       // wrap with PluginModelException only if needed
       throw new PluginModelException(e);
     }
+    finally {
+      metrics.finish();
+      LOG.info("Motif search metrics: " + metrics.toJson());
+      MotifSearchMonitor.getInstance().record(metrics);
+    }
+  }
+
+  private static boolean isCountOnly(String resultMode) {
+    if (resultMode == null || resultMode.isBlank() || resultMode.equals(RESULT_MODE_MATCHES)) {
+      return false;
+    }
+    if (resultMode.equals(RESULT_MODE_COUNT)) {
+      return true;
+    }
+    throw new PostValidationUserException("Unknown result mode '" + resultMode + "'; expected '"
+        + RESULT_MODE_MATCHES + "' or '" + RESULT_MODE_COUNT + "'.");
+  }
+
+  /**
+   * @return the limit on the rows of the search, or null if there is none
+   */
+  private static MatchLimit getLimit(String maxResults) {
+    if (maxResults == null || maxResults.isBlank()) {
+      return null;
+    }
+    try {
+      int maxRows = Integer.parseInt(maxResults.trim());
+      if (maxRows > 0) {
+        return new MatchLimit(maxRows);
+      }
+    }
+    catch (NumberFormatException e) {
+      // reported below
+    }
+    throw new PostValidationUserException("The maximum number of results must be a positive number, not '"
+        + maxResults + "'.");
+  }
+
+  /**
+   * Finds the matches in one dataset, recording what the scan costs in the given metrics.  When datasets are
+   * scanned on virtual threads, the scan first takes one of the shared scan permits.
+   */
+  private void findMatches(String dsId, Pattern searchPattern, boolean countOnly,
+      ConsumerWithException<PluginMatch> consumer, ScanMetrics metrics) throws Exception {
+    long start = System.nanoTime();
+    ScanPermit scanPermit = _config.getDatasetExecution() == DatasetExecution.VIRTUAL
+        ? new ScanPermit(getScanPermits(_config)) : null;
+    try {
+      if (scanPermit != null) {
+        scanPermit.acquire();
+      }
+      MatchFinder finder = getMatchFinder(_config);
+      finder.setMetrics(metrics);
+      finder.setScanPermit(scanPermit);
+      findMatches(finder, dsId, searchPattern, countOnly, metrics.timeEmit(consumer),
+          metrics.timeLookup(_projects), metrics);
+    }
+    finally {
+      if (scanPermit != null) {
+        scanPermit.release();
+      }
+      metrics.setElapsedNanos(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * @return the scan permits shared by all searches, created once with as many permits as the ScanConcurrency of
+   * the first search scanning on virtual threads; all motif plugins read the same configuration file, so it is
+   * the same for all of them, and changing it takes a restart
+   */
+  private static synchronized Semaphore getScanPermits(MotifConfig config) {
+    if (_scanPermits == null) {
+      _scanPermits = new Semaphore(config.getScanConcurrency(), true);
+    }
+    return _scanPermits;
+  }
+
+  /**
+   * @return the pool datasets are scanned on in pool mode, shared by all searches, with as many threads as
+   * configured (DatasetThreads) by the first search that uses it; all plugins read the same configuration file
+   */
+  private static synchronized ExecutorService getDatasetPool(MotifConfig config) {
+    if (_datasetPool == null) {
+      _datasetPool = Executors.newFixedThreadPool(config.getDatasetThreads(), r -> {
+        Thread thread = new Thread(r, "motif-dataset-scan");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return _datasetPool;
+  }
+
+  /**
+   * @return Executors.newVirtualThreadPerTaskExecutor() if the JVM has virtual threads (Java 21 and later), or empty
+   * otherwise
+   */
+  private static Optional<Method> findVirtualExecutorFactory() {
+    try {
+      return Optional.of(Executors.class.getMethod("newVirtualThreadPerTaskExecutor"));
+    }
+    catch (NoSuchMethodException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * @return an executor running each task of a search on a virtual thread of its own if the JVM has them, or empty
+   * otherwise, which is warned about when the plugin is initialized
+   */
+  private static Optional<ExecutorService> newVirtualExecutor() throws ReflectiveOperationException {
+    if (!VIRTUAL_EXECUTOR_FACTORY.isPresent()) {
+      return Optional.empty();
+    }
+    return Optional.of((ExecutorService) VIRTUAL_EXECUTOR_FACTORY.get().invoke(null));
+  }
+
+  /**
+   * Finds the matches in one dataset, answering from the result cache when the same pattern has already been
+   * searched for in the same version of the dataset file.  Counts are not cached.
+   */
+  private void findMatches(MatchFinder finder, String dsId, Pattern searchPattern, boolean countOnly,
+      ConsumerWithException<PluginMatch> consumer, FunctionWithException<String, String> orgToProjectId,
+      ScanMetrics metrics) throws Exception {
+    File datasetFile = openDataFile(dsId);
+    if (countOnly) {
+      finder.countMatches(datasetFile, searchPattern, consumer, orgToProjectId);
+      return;
+    }
+    MotifResultCache cache = MotifResultCache.getInstance(_config);
+    if (!cache.isEnabled()) {
+      finder.findMatches(datasetFile, searchPattern, consumer, orgToProjectId);
+      return;
+    }
+
+    String key = MotifResultCache.key(getClass(), searchPattern, datasetFile, _config);
+    Optional<List<PluginMatch>> cached = cache.get(key);
+    if (cached.isPresent()) {
+      metrics.setCached(true);
+      for (PluginMatch match : cached.get()) {
+        consumer.accept(match);
+      }
+      return;
+    }
+    MotifResultCache.Recorder recorder = cache.newRecorder(key);
+    finder.findMatches(
+        datasetFile,
+        searchPattern,
+        match -> {
+          // recorded before it is handed to the writer, which formats it
+          recorder.accept(match);
+          consumer.accept(match);
+        },
+        orgToProjectId);
+    recorder.finish();
+  }
+
+  /**
+   * Scans up to parallelism datasets at a time on the pool shared by all searches, or on virtual threads (see
+   * {@link DatasetExecution}).  The matches are passed to the rows consumer by this (the request) thread in dataset
+   * order, so the rows have a single producer and the same order as in a serial scan: those of the dataset at the
+   * head of the order as they are found, while each dataset scanned ahead of it holds at most RowQueueSize matches
+   * and then waits for its turn (see {@link OrderedTaskRunner}).  With a limit, a worker stops once its dataset
+   * alone fills the limit, or once the rows written already do.
+   */
+  private void findMatchesInParallel(List<String> dsIds, int parallelism, Pattern searchPattern,
+      boolean countOnly, MatchLimit limit, ConsumerWithException<PluginMatch> rows, SearchMetrics metrics)
+      throws Exception {
+    LOG.debug("Scanning " + dsIds.size() + " datasets with parallelism " + parallelism);
+    Optional<ExecutorService> virtual = _config.getDatasetExecution() == DatasetExecution.VIRTUAL
+        ? newVirtualExecutor() : Optional.empty();
+    try {
+      Iterator<OrderedTaskRunner.Task<PluginMatch>> tasks = dsIds.stream()
+          .map(dsId -> {
+            // the metrics are created here, in dataset order, rather than by the workers
+            ScanMetrics datasetMetrics = metrics.newDataset(dsId);
+            return (OrderedTaskRunner.Task<PluginMatch>) output -> {
+              if (limit == null) {
+                findMatches(dsId, searchPattern, countOnly, output, datasetMetrics);
+              }
+              else if (!limit.isReached()) {
+                try {
+                  findMatches(dsId, searchPattern, countOnly, limit.bound(output), datasetMetrics);
+                }
+                catch (MatchLimit.ReachedException e) {
+                  // the rows found so far are all the writer can use
+                }
+              }
+            };
+          })
+          .iterator();
+      OrderedTaskRunner.run(virtual.orElseGet(() -> getDatasetPool(_config)), parallelism,
+          Math.max(1, _config.getRowQueueSize()), tasks, rows);
+    }
+    finally {
+      virtual.ifPresent(ExecutorService::shutdownNow);
+    }
+  }
+
+  private String getProjectByOrganism(String organism) throws WdkModelException {
+    // project mapper is shared by the dataset workers
+    synchronized (_projectMapper) {
+      return _projectMapper.getProjectByOrganism(organism);
+    }
   }
 
   private static File openDataFile(String datasetID) throws IOException {
@@ -220,11 +576,20 @@ public abstract class AbstractMotifPlugin extends AbstractPlugin {
     LOG.debug("translated expression: " + builder);
 
     int option = Pattern.CASE_INSENSITIVE;
+    Pattern pattern;
     try {
-      return Pattern.compile(builder.toString(), option);
+      pattern = Pattern.compile(builder.toString(), option);
     } catch (PatternSyntaxException e) {
       throw new PostValidationUserException("Failed to parse input pattern.");
     }
+
+    // reject patterns that could backtrack exponentially before they tie up a search
+    Optional<String> hazard = PatternComplexity.findHazard(pattern);
+    if (hazard.isPresent()) {
+      throw new PostValidationUserException("The motif pattern you provided, '" + expression
+          + "', is too complex to search for: " + hazard.get() + ". Please simplify the pattern.");
+    }
+    return pattern;
   }
 
   protected void addMatch(PluginMatch match, PluginResponse response,
@@ -0,0 +1,522 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A dataset file compressed in the BGZF format of bgzip (htslib): a series of gzip members, each holding at most
+ * 64 KiB of the file and recording its own compressed size, so every block can be decompressed independently.  The
+ * blocks are located through the .gzi index that "bgzip -i" writes next to the file or, if there is none, by
+ * reading the header of every block once.
+ *
+ * Sequence data is addressed by its offset in the uncompressed file, so {@link SequenceRange}s, {@link FastaIndex}es
+ * and the other indexes of a compressed dataset are the same as those of the uncompressed one.  Positional reads
+ * ({@link #read(ByteBuffer, long)}) decompress the block holding the position, which lets the sequences of a file be
+ * scanned in parallel; a sequential stream ({@link #openInputStream(File)}) has the blocks ahead of the reader
+ * decompressed on a small shared thread pool while the reader scans the current one.
+ */
+public class BgzfFile implements SequenceRange.Source {
+
+  private static final Logger LOG = Logger.getLogger(BgzfFile.class);
+
+  public static final String INDEX_SUFFIX = ".gzi";
+
+  // gzip member header up to the extra field, and the CRC and size that end a member
+  private static final int HEADER_SIZE = 12;
+  private static final int FOOTER_SIZE = 8;
+  private static final int MAX_BLOCK_SIZE = 65536;
+  // uncompressed bytes per written block, leaving room for incompressible data within MAX_BLOCK_SIZE
+  private static final int WRITE_BLOCK_SIZE = 0xff00;
+
+  // the empty block that ends a BGZF file
+  private static final byte[] EOF_BLOCK = {
+      31, -117, 8, 4, 0, 0, 0, 0, 0, -1, 6, 0, 66, 67, 2, 0, 27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+  };
+
+  private static final int DECOMPRESSION_THREADS =
+      Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+  // blocks decompressed ahead of a sequential reader
+  private static final int READ_AHEAD = 2 * DECOMPRESSION_THREADS;
+
+  private static final ExecutorService DECOMPRESSION_POOL = Executors.newFixedThreadPool(DECOMPRESSION_THREADS, r -> {
+    Thread thread = new Thread(r, "bgzf-decompression");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final File file;
+  private final FileChannel channel;
+  // compressed and uncompressed offsets of the blocks, followed by those of the end of the file
+  private final long[] compressedOffsets;
+  private final long[] uncompressedOffsets;
+
+  // the block last decompressed by each thread, as positional reads usually continue in the same block
+  private final ThreadLocal<Block> lastBlock = new ThreadLocal<>();
+
+  private static class Block {
+    final int index;
+    final byte[] data;
+
+    Block(int index, byte[] data) {
+      this.index = index;
+      this.data = data;
+    }
+  }
+
+  private BgzfFile(File file, FileChannel channel, long[] compressedOffsets, long[] uncompressedOffsets) {
+    this.file = file;
+    this.channel = channel;
+    this.compressedOffsets = compressedOffsets;
+    this.uncompressedOffsets = uncompressedOffsets;
+  }
+
+  public static File getIndexFile(File bgzfFile) {
+    return new File(bgzfFile.getPath() + INDEX_SUFFIX);
+  }
+
+  /**
+   * @return true if the file starts with a BGZF block
+   */
+  public static boolean isBgzf(File file) throws IOException {
+    if (file.length() < EOF_BLOCK.length) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return getBlockSize(channel, 0) > 0;
+    }
+  }
+
+  /**
+   * Opens a BGZF file, locating its blocks through its .gzi index if that is current.
+   *
+   * @throws IOException if the file cannot be read or is not in BGZF format
+   */
+  public static BgzfFile open(File file) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      long[][] offsets = readIndex(file, channel);
+      if (offsets == null) {
+        offsets = scanBlocks(file, channel);
+      }
+      return new BgzfFile(file, channel, offsets[0], offsets[1]);
+    }
+    catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens a stream of the content of a dataset file, decompressing it if it is a BGZF file.
+   */
+  public static InputStream openInputStream(File file) throws IOException {
+    if (!isBgzf(file)) {
+      return new FileInputStream(file);
+    }
+    return open(file).newInputStream();
+  }
+
+  /**
+   * Opens a source of the content of a dataset file for positional reads, decompressing it if it is a BGZF file.
+   */
+  public static SequenceRange.Source openSource(File file) throws IOException {
+    if (isBgzf(file)) {
+      return open(file);
+    }
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    return new SequenceRange.Source() {
+      @Override
+      public int read(ByteBuffer dst, long position) throws IOException {
+        return channel.read(dst, position);
+      }
+
+      @Override
+      public void close() throws IOException {
+        channel.close();
+      }
+    };
+  }
+
+  /**
+   * @return size of the uncompressed content
+   */
+  public long getUncompressedSize() {
+    return uncompressedOffsets[uncompressedOffsets.length - 1];
+  }
+
+  /**
+   * @return number of blocks, including empty ones
+   */
+  public int getBlockCount() {
+    return compressedOffsets.length - 1;
+  }
+
+  @Override
+  public int read(ByteBuffer dst, long position) throws IOException {
+    if (position >= getUncompressedSize()) {
+      return -1;
+    }
+    int index = findBlock(position);
+    Block block = lastBlock.get();
+    if (block == null || block.index != index) {
+      block = new Block(index, decompress(index));
+      lastBlock.set(block);
+    }
+    int offset = (int) (position - uncompressedOffsets[index]);
+    int count = Math.min(dst.remaining(), block.data.length - offset);
+    dst.put(block.data, offset, count);
+    return count;
+  }
+
+  /**
+   * @return a stream of the uncompressed content, with the blocks ahead of the reader decompressed concurrently; it
+   * closes this file when it is closed
+   */
+  public InputStream newInputStream() {
+    return new ReadAheadStream();
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * @return index of the non-empty block holding the given uncompressed position
+   */
+  private int findBlock(long position) {
+    int index = Arrays.binarySearch(uncompressedOffsets, 0, getBlockCount(), position);
+    if (index < 0) {
+      return -index - 2;
+    }
+    // skip empty blocks starting at the same offset
+    while (uncompressedOffsets[index + 1] == position) index++;
+    return index;
+  }
+
+  private byte[] decompress(int index) throws IOException {
+    long start = compressedOffsets[index];
+    ByteBuffer compressed = ByteBuffer.allocate((int) (compressedOffsets[index + 1] - start));
+    while (compressed.hasRemaining()) {
+      if (channel.read(compressed, start + compressed.position()) == -1) {
+        throw new IOException("Unexpected end of " + file + " in block at offset " + start);
+      }
+    }
+    byte[] block = compressed.array();
+    int extraLength = (block[10] & 0xff) | (block[11] & 0xff) << 8;
+    int dataStart = HEADER_SIZE + extraLength;
+    ByteBuffer footer = ByteBuffer.wrap(block, block.length - FOOTER_SIZE, FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    int crc = footer.getInt();
+    byte[] data = new byte[footer.getInt()];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(block, dataStart, block.length - FOOTER_SIZE - dataStart);
+      int inflated = 0;
+      while (inflated < data.length && !inflater.finished()) {
+        int count = inflater.inflate(data, inflated, data.length - inflated);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+        inflated += count;
+      }
+      if (inflated != data.length) {
+        throw new IOException("Truncated block at offset " + start + " of " + file);
+      }
+    }
+    catch (DataFormatException e) {
+      throw new IOException("Corrupt block at offset " + start + " of " + file, e);
+    }
+    finally {
+      inflater.end();
+    }
+    CRC32 checksum = new CRC32();
+    checksum.update(data);
+    if ((int) checksum.getValue() != crc) {
+      throw new IOException("Checksum mismatch in block at offset " + start + " of " + file);
+    }
+    return data;
+  }
+
+  /**
+   * @return the total size of the BGZF block at the given offset, or -1 if there is none
+   */
+  private static int getBlockSize(FileChannel channel, long offset) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    while (header.hasRemaining() && channel.read(header, offset + header.position()) != -1);
+    if (header.hasRemaining() || header.get(0) != 31 || header.get(1) != (byte) 139 || header.get(2) != 8
+        || (header.get(3) & 4) == 0) {
+      return -1;
+    }
+    int extraLength = header.getShort(10) & 0xffff;
+    ByteBuffer extra = ByteBuffer.allocate(extraLength).order(ByteOrder.LITTLE_ENDIAN);
+    while (extra.hasRemaining() && channel.read(extra, offset + HEADER_SIZE + extra.position()) != -1);
+    // find the BC subfield among the extra subfields
+    for (int i = 0; i + 4 <= extraLength; ) {
+      int length = extra.getShort(i + 2) & 0xffff;
+      if (extra.get(i) == 'B' && extra.get(i + 1) == 'C' && length == 2 && i + 6 <= extraLength) {
+        return (extra.getShort(i + 4) & 0xffff) + 1;
+      }
+      i += 4 + length;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the offsets of the blocks listed in the file's .gzi index, or null if there is no current one
+   */
+  private static long[][] readIndex(File file, FileChannel channel) throws IOException {
+    File indexFile = getIndexFile(file);
+    if (!indexFile.isFile() || indexFile.lastModified() < file.lastModified()) {
+      return null;
+    }
+    ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexFile.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    long entries = index.remaining() >= Long.BYTES ? index.getLong() : -1;
+    if (entries < 0 || index.remaining() != entries * 2 * Long.BYTES) {
+      LOG.warn("Ignoring malformed index " + indexFile);
+      return null;
+    }
+    // the first block, at offset 0, is implicit
+    long[] compressedOffsets = new long[(int) entries + 1];
+    long[] uncompressedOffsets = new long[(int) entries + 1];
+    for (int i = 1; i <= entries; i++) {
+      compressedOffsets[i] = index.getLong();
+      uncompressedOffsets[i] = index.getLong();
+    }
+    if (compressedOffsets[(int) entries] >= channel.size()) {
+      LOG.warn("Ignoring index " + indexFile + "; it does not match " + file);
+      return null;
+    }
+    // whether the index lists the empty block that ends the file varies, so the blocks after the last one listed
+    // are read
+    long[][] rest = scanBlocks(file, channel, compressedOffsets[(int) entries], uncompressedOffsets[(int) entries]);
+    return new long[][] { concat(compressedOffsets, rest[0]), concat(uncompressedOffsets, rest[1]) };
+  }
+
+  private static long[] concat(long[] listed, long[] scanned) {
+    long[] offsets = Arrays.copyOf(listed, listed.length - 1 + scanned.length);
+    System.arraycopy(scanned, 0, offsets, listed.length - 1, scanned.length);
+    return offsets;
+  }
+
+  private static long[][] scanBlocks(File file, FileChannel channel) throws IOException {
+    LOG.debug("No current index of " + file + "; reading its block headers");
+    return scanBlocks(file, channel, 0, 0);
+  }
+
+  /**
+   * Reads the header and size of every block of the file from the block at the given offsets on
+   *
+   * @return the offsets of the blocks, followed by those of the end of the file
+   */
+  private static long[][] scanBlocks(File file, FileChannel channel, long compressed, long uncompressed)
+      throws IOException {
+    long fileSize = channel.size();
+    long[] compressedOffsets = new long[1024];
+    long[] uncompressedOffsets = new long[1024];
+    int count = 0;
+    ByteBuffer size = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    while (compressed < fileSize) {
+      int blockSize = getBlockSize(channel, compressed);
+      if (blockSize < HEADER_SIZE + FOOTER_SIZE || compressed + blockSize > fileSize) {
+        throw new IOException(file + " is not a BGZF file: no valid block at offset " + compressed);
+      }
+      if (count + 1 >= compressedOffsets.length) {
+        compressedOffsets = Arrays.copyOf(compressedOffsets, 2 * compressedOffsets.length);
+        uncompressedOffsets = Arrays.copyOf(uncompressedOffsets, 2 * uncompressedOffsets.length);
+      }
+      compressedOffsets[count] = compressed;
+      uncompressedOffsets[count] = uncompressed;
+      count++;
+      size.clear();
+      while (size.hasRemaining() && channel.read(size, compressed + blockSize - Integer.BYTES + size.position()) != -1);
+      compressed += blockSize;
+      uncompressed += size.getInt(0) & 0xffffffffL;
+    }
+    compressedOffsets[count] = compressed;
+    uncompressedOffsets[count] = uncompressed;
+    return new long[][] { Arrays.copyOf(compressedOffsets, count + 1), Arrays.copyOf(uncompressedOffsets, count + 1) };
+  }
+
+  /**
+   * Compresses a file into BGZF format, as "bgzip -i" does, and writes the .gzi index of the compressed file.
+   *
+   * @return number of blocks written, not counting the empty block that ends the file
+   */
+  public static int compress(File input, File output) throws IOException {
+    File tempFile = new File(output.getPath() + ".tmp");
+    ByteBuffer index = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+    int blocks = 0;
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try (InputStream in = new FileInputStream(input);
+         OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+      byte[] data = new byte[WRITE_BLOCK_SIZE];
+      byte[] compressed = new byte[MAX_BLOCK_SIZE];
+      long compressedOffset = 0;
+      long uncompressedOffset = 0;
+      int length;
+      while ((length = in.readNBytes(data, 0, data.length)) > 0) {
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+          compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        int blockSize = HEADER_SIZE + 6 + compressedLength + FOOTER_SIZE;
+        if (blocks > 0) {
+          if (index.remaining() < 2 * Long.BYTES) {
+            index = ByteBuffer.allocate(2 * index.capacity()).order(ByteOrder.LITTLE_ENDIAN).put(index.flip());
+          }
+          index.putLong(compressedOffset).putLong(uncompressedOffset);
+        }
+        ByteBuffer block = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+        block.put(EOF_BLOCK, 0, 16).putShort((short) (blockSize - 1)).put(compressed, 0, compressedLength);
+        CRC32 checksum = new CRC32();
+        checksum.update(data, 0, length);
+        block.putInt((int) checksum.getValue()).putInt(length);
+        out.write(block.array());
+        compressedOffset += blockSize;
+        uncompressedOffset += length;
+        blocks++;
+      }
+      out.write(EOF_BLOCK);
+    }
+    finally {
+      deflater.end();
+    }
+    Files.move(tempFile.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    File indexFile = getIndexFile(output);
+    File tempIndex = new File(indexFile.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempIndex)))) {
+      ByteBuffer entries = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      out.write(entries.putLong(Math.max(0, blocks - 1)).array());
+      out.write(index.array(), 0, index.position());
+    }
+    Files.move(tempIndex.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return blocks;
+  }
+
+  /**
+   * Reads the blocks in order, each decompressed on the decompression pool up to READ_AHEAD blocks ahead
+   */
+  private class ReadAheadStream extends InputStream {
+
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private int nextBlock = 0;
+    private byte[] current = new byte[0];
+    private int position = 0;
+    private boolean closed = false;
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) return -1;
+      return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      if (!fill()) return -1;
+      int count = Math.min(len, current.length - position);
+      System.arraycopy(current, position, b, off, count);
+      position += count;
+      return count;
+    }
+
+    /**
+     * @return the bytes left in the current block, plus those of the next one if it is already decompressed, so
+     * readers can tell whether a read would wait for decompression
+     */
+    @Override
+    public int available() throws IOException {
+      if (closed) {
+        throw new IOException("Stream has already been closed.");
+      }
+      int available = current.length - position;
+      Future<byte[]> next = pending.peekFirst();
+      if (next != null && next.isDone() && !next.isCancelled()) {
+        try {
+          available += next.get().length;
+        }
+        catch (ExecutionException e) {
+          // the failure is reported by the read that needs the block
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return available;
+    }
+
+    /**
+     * @return false at the end of the file
+     */
+    private boolean fill() throws IOException {
+      if (closed) {
+        throw new IOException("Stream has already been closed.");
+      }
+      while (position == current.length) {
+        while (pending.size() < READ_AHEAD && nextBlock < getBlockCount()) {
+          final int index = nextBlock++;
+          pending.addLast(DECOMPRESSION_POOL.submit(() -> decompress(index)));
+        }
+        if (pending.isEmpty()) {
+          return false;
+        }
+        current = await(pending.removeFirst());
+        position = 0;
+      }
+      return true;
+    }
+
+    private byte[] await(Future<byte[]> block) throws IOException {
+      try {
+        return block.get();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while reading " + file, e);
+      }
+      catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+        throw new IOException("Cannot read " + file, e.getCause());
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) return;
+      closed = true;
+      for (Future<byte[]> block : pending) {
+        // not interrupted: an interrupt would close the channel under the other reads
+        block.cancel(false);
+      }
+      pending.clear();
+      BgzfFile.this.close();
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fields of a .fasta defline needed to report motif matches, as parsed by the configured defline regex.
+ */
+public class Defline {
+
+  /**
+   * Layout of the groups captured by a defline regex, as documented in motifSearch-config.xml
+   */
+  public enum Format {
+    /** group(1) = sequence source id, group(2) = strand ('+' or '-'), group(3) = organism */
+    DNA,
+    /** group(1) = source id, group(2) = organism */
+    PROTEIN;
+  }
+
+  private final String sourceId;
+  private final String organism;
+  private final String strand;
+
+  public Defline(String sourceId, String organism, String strand) {
+    this.sourceId = sourceId;
+    this.organism = organism;
+    this.strand = strand;
+  }
+
+  /**
+   * @param line defline to parse
+   * @param pattern defline regex
+   * @param format layout of the groups captured by the regex
+   * @return parsed fields, or null if the line does not match the regex
+   */
+  public static Defline parse(String line, Pattern pattern, Format format) {
+    Matcher matcher = pattern.matcher(line);
+    if (!matcher.find()) {
+      return null;
+    }
+    switch (format) {
+      case DNA:
+        return new Defline(matcher.group(1), matcher.group(3).replace('_', ' '), matcher.group(2));
+      default:
+        return new Defline(matcher.group(1), matcher.group(2).replace('_', ' '), null);
+    }
+  }
+
+  public String getSourceId() {
+    return sourceId;
+  }
+
+  /**
+   * @return organism name, with underscores replaced by spaces
+   */
+  public String getOrganism() {
+    return organism;
+  }
+
+  /**
+   * @return '+' or '-' for DNA sequences; null for proteins
+   */
+  public String getStrand() {
+    return strand;
+  }
+}
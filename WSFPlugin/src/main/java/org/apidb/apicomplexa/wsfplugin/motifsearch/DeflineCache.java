@@ -0,0 +1,177 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Process-wide cache of the parsed deflines of dataset files without a {@link FastaIndex}, so that each defline is
+ * run through the defline regex once per release of its dataset rather than once per search.  Proteomes have tens
+ * of thousands of sequences, so parsing their deflines on every search costs as much as scanning short proteins.
+ *
+ * The deflines of a dataset are keyed by the path, modification time and size of the file, and by the defline
+ * regex, so a new release of a dataset is parsed again.  The cache holds at most a fixed number of deflines, and
+ * evicts the least recently searched datasets to make room for more; a dataset with more deflines than that is
+ * only partly cached.  The organism names and strands of the deflines are shared through a {@link StringTable}.
+ */
+public class DeflineCache {
+
+  // bound on the distinct organism names and strands shared
+  private static final int MAX_STRINGS = 4096;
+
+  private static DeflineCache _instance;
+
+  /**
+   * @return the cache shared by all motif searches, created with the configuration of the first one
+   */
+  public static synchronized DeflineCache getInstance(MotifConfig config) {
+    if (_instance == null) {
+      _instance = new DeflineCache(config.getDeflineCacheSize());
+    }
+    return _instance;
+  }
+
+  private final int maxDeflines;
+  private final StringTable strings = new StringTable(MAX_STRINGS);
+
+  // deflines by dataset file and regex, least recently used first
+  private final LinkedHashMap<String, Deflines> datasets = new LinkedHashMap<>(16, 0.75f, true);
+  private int size = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param maxDeflines bound on the number of deflines cached; 0 disables the cache
+   */
+  public DeflineCache(int maxDeflines) {
+    this.maxDeflines = maxDeflines;
+  }
+
+  public boolean isEnabled() {
+    return maxDeflines > 0;
+  }
+
+  /**
+   * @return the deflines of the current release of the dataset file parsed so far, to which those parsed next are
+   * added; empty if the cache is disabled
+   */
+  public Optional<Deflines> get(File fastaFile, Pattern pattern, Defline.Format format) {
+    if (!isEnabled()) {
+      return Optional.empty();
+    }
+    String key = String.join("\u0000", fastaFile.getAbsolutePath(), pattern.pattern(),
+        Integer.toString(pattern.flags()), format.name());
+    long lastModified = fastaFile.lastModified();
+    long fileSize = fastaFile.length();
+    synchronized (this) {
+      Deflines deflines = datasets.get(key);
+      if (deflines == null || deflines.lastModified != lastModified || deflines.fileSize != fileSize) {
+        if (deflines != null) {
+          remove(deflines);
+          datasets.remove(key);
+        }
+        deflines = new Deflines(pattern, format, lastModified, fileSize);
+        datasets.put(key, deflines);
+      }
+      return Optional.of(deflines);
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public synchronized int getSize() {
+    return size;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "defline cache: " + getHits() + " hits, " + getMisses() + " misses, " + getEvictions() + " evictions, "
+        + size + " deflines of " + datasets.size() + " datasets (bound " + maxDeflines + ")";
+  }
+
+  /**
+   * Evicts the least recently used datasets, other than the given one, until another defline fits
+   *
+   * @return whether another defline fits
+   */
+  private boolean makeRoom(Deflines keep) {
+    Iterator<Deflines> lru = datasets.values().iterator();
+    while (size >= maxDeflines && lru.hasNext()) {
+      Deflines evicted = lru.next();
+      if (evicted != keep) {
+        lru.remove();
+        remove(evicted);
+        evictions.incrementAndGet();
+      }
+    }
+    return size < maxDeflines;
+  }
+
+  private void remove(Deflines deflines) {
+    deflines.removed = true;
+    size -= deflines.parsed.size();
+  }
+
+  /**
+   * Parsed deflines of one release of a dataset file, by defline.  Deflines may be parsed by several threads.
+   */
+  public class Deflines {
+
+    private final Pattern pattern;
+    private final Defline.Format format;
+    private final long lastModified;
+    private final long fileSize;
+    private final ConcurrentHashMap<String, Defline> parsed = new ConcurrentHashMap<>();
+    // set once the deflines are no longer in the cache, after which no more are added
+    private boolean removed = false;
+
+    private Deflines(Pattern pattern, Defline.Format format, long lastModified, long fileSize) {
+      this.pattern = pattern;
+      this.format = format;
+      this.lastModified = lastModified;
+      this.fileSize = fileSize;
+    }
+
+    /**
+     * @param line a defline of the dataset file
+     * @return parsed fields, or null if the line does not match the defline regex
+     */
+    public Defline parse(String line) {
+      Defline defline = parsed.get(line);
+      if (defline != null) {
+        hits.incrementAndGet();
+        return defline;
+      }
+      misses.incrementAndGet();
+      defline = Defline.parse(line, pattern, format);
+      if (defline == null) {
+        // invalid deflines are rare, and logged on every search
+        return null;
+      }
+      defline = new Defline(defline.getSourceId(), strings.get(defline.getOrganism()),
+          strings.get(defline.getStrand()));
+      synchronized (DeflineCache.this) {
+        if (!removed && makeRoom(this) && parsed.putIfAbsent(line, defline) == null) {
+          size++;
+        }
+      }
+      return defline;
+    }
+  }
+}
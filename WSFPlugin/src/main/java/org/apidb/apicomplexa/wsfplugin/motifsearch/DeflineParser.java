@@ -0,0 +1,71 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the deflines of one dataset file, in file order.  If the file has a {@link FastaIndex}, parsed fields are
+ * taken from the index as long as the deflines read match the indexed ones, and the defline regex is only run if
+ * they do not.  Otherwise deflines are taken from the {@link DeflineCache}, if it is enabled, which parses each
+ * defline of a release of the file once.
+ */
+public class DeflineParser {
+
+  private final Pattern pattern;
+  private final Defline.Format format;
+
+  private final Optional<DeflineCache.Deflines> cached;
+
+  private List<SequenceRange> indexedRanges;
+  private List<Defline> indexedDeflines;
+  private int next = 0;
+  private SequenceRange lastRange;
+
+  public DeflineParser(Pattern pattern, Defline.Format format, Optional<FastaIndex> index) {
+    this(pattern, format, index, Optional.empty());
+  }
+
+  /**
+   * @param cached parsed deflines of the file, used once the deflines are not taken from the index
+   */
+  public DeflineParser(Pattern pattern, Defline.Format format, Optional<FastaIndex> index,
+      Optional<DeflineCache.Deflines> cached) {
+    this.pattern = pattern;
+    this.format = format;
+    this.cached = cached;
+    index.ifPresent(idx -> {
+      indexedRanges = idx.getRanges();
+      indexedDeflines = idx.getDeflines();
+    });
+  }
+
+  /**
+   * @param line the next defline read from the dataset file
+   * @return parsed fields, or null if the line does not match the defline regex
+   */
+  public Defline parse(String line) {
+    lastRange = null;
+    if (indexedRanges != null) {
+      if (next < indexedRanges.size() && indexedRanges.get(next).getDefline().equals(line)) {
+        lastRange = indexedRanges.get(next);
+        return indexedDeflines.get(next++);
+      }
+      // out of step with the index; parse the rest of the file
+      indexedRanges = null;
+      indexedDeflines = null;
+    }
+    if (cached.isPresent()) {
+      return cached.get().parse(line);
+    }
+    return Defline.parse(line, pattern, format);
+  }
+
+  /**
+   * @return the indexed range of the sequence of the last defline parsed, or empty if the defline was not taken
+   * from the index
+   */
+  public Optional<SequenceRange> getIndexedRange() {
+    return Optional.ofNullable(lastRange);
+  }
+}
@@ -1,55 +1,280 @@
 package org.apidb.apicomplexa.wsfplugin.motifsearch;
 
 import org.apache.log4j.Logger;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.MappedSequenceProvider.MappedSequence;
 import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.BufferedDnaMotifFinder;
 import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifMatch;
 import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
 import org.gusdb.fgputil.functional.FunctionalInterfaces.FunctionWithException;
 
+import java.io.File;
 import java.io.Reader;
-import java.util.regex.Matcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.regex.Pattern;
 
+/**
+ * DNA match finder that streams the sequences of the dataset files.  Datasets held in the {@link GenomeCache} are
+ * scanned in the cache instead, in place.
+ */
 public class DnaMatchFinder extends StreamingMatchFinder {
-  private static final int BUFFER_SIZE = 65536;
-  private static final int MAX_MATCH_LENGTH = 1024;
 
   private static final Logger LOG = Logger.getLogger(DnaMatchFinder.class);
 
+  protected static final int BUFFER_SIZE = 65536;
+  protected static final int MAX_MATCH_LENGTH = 1024;
+
+  private final GenomeCache _genomeCache;
+
   public DnaMatchFinder(MotifConfig config) {
+    this(config, GenomeCache.getInstance(config));
+  }
+
+  /**
+   * @param genomeCache cache of dataset content scanned in place of the dataset files
+   */
+  public DnaMatchFinder(MotifConfig config, GenomeCache genomeCache) {
     super(config);
+    _genomeCache = genomeCache;
+  }
+
+  @Override
+  protected Defline.Format getDeflineFormat() {
+    return Defline.Format.DNA;
+  }
+
+  /**
+   * Scans the cached content of the file if it is (or can be) held in the genome cache, and the file itself (see
+   * {@link #findMatchesInFile}) otherwise.
+   */
+  @Override
+  public void findMatches(
+      File fastaFile,
+      List<Pattern> searchPatterns,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    Optional<GenomeCache.Content> content = getCachedContent(fastaFile);
+    if (content.isPresent()) {
+      try (GenomeCache.Content lease = content.get()) {
+        Optional<FastaIndex> index = loadIndex(fastaFile);
+        try (MappedSequenceProvider sequenceProvider = new MappedSequenceProvider(lease.getBuffer(), index)) {
+          findMatchesInSequences(fastaFile, sequenceProvider, index, searchPatterns, consumer, orgToProjectId);
+        }
+      }
+      return;
+    }
+    findMatchesInFile(fastaFile, searchPatterns, consumer, orgToProjectId);
+  }
+
+  /**
+   * Scans a dataset file that is not cached; streams its sequences unless overridden
+   */
+  protected void findMatchesInFile(
+      File fastaFile,
+      List<Pattern> searchPatterns,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    super.findMatches(fastaFile, searchPatterns, consumer, orgToProjectId);
+  }
+
+  /**
+   * @return a lease on the content of the file held in the genome cache, to be closed once it is scanned, or empty
+   * if the cache is disabled or the file does not fit in it
+   */
+  protected Optional<GenomeCache.Content> getCachedContent(File fastaFile) throws Exception {
+    return _genomeCache.get(fastaFile);
+  }
+
+  /**
+   * Runs the patterns directly over each sequence of the provider of the content of the file, in file order.
+   */
+  protected void findMatchesInSequences(
+      File fastaFile,
+      MappedSequenceProvider sequenceProvider,
+      Optional<FastaIndex> index,
+      List<Pattern> searchPatterns,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    DeflineParser deflineParser = newDeflineParser(fastaFile, index);
+    Optional<MappedSequence> sequence = sequenceProvider.nextSequence();
+    while (sequence.isPresent()) {
+      Defline defline = parseDefline(deflineParser, sequence.get().getDefline());
+      if (!isSkipped(defline)) {
+        _metrics.addBytes(sequence.get().getSequence().length());
+        matchSequence(defline, searchPatterns, sequence.get().getSequence(), consumer, orgToProjectId);
+      }
+      sequence = sequenceProvider.nextSequence();
+    }
   }
 
   @Override
   protected void findMatchesInSequence(
-      String defLine,
+      Defline defline,
+      List<Pattern> searchPatterns,
+      Reader sequence,
+      Optional<SequenceRange> range,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    if (isSkipped(defline)) {
+      sequence.skip(Long.MAX_VALUE);
+      return;
+    }
+    matchSequence(defline, searchPatterns, sequence, range.map(DnaMatchFinder::getReadLength).orElse(-1), consumer,
+        orgToProjectId);
+  }
+
+  /**
+   * @return the number of characters a reader of the range reads, or -1 if that is not known before it is read.
+   * Readers only drop newlines, so the length of the range, which excludes all whitespace, is only that of a range
+   * whose lines are of uniform width, and so hold no other whitespace.
+   */
+  static int getReadLength(SequenceRange range) {
+    return range.getLineWidth() > 0 ? (int) range.getLength() : -1;
+  }
+
+  /**
+   * Counts are reported per forward strand, under its source id, as matches are.  If both strands are searched, the
+   * count includes the matches on the reverse strand; otherwise reverse strand sequences are not reported, just as
+   * their matches are not.
+   */
+  @Override
+  protected void countMatchesInSequence(
+      Defline defline,
       Pattern searchPattern,
       Reader sequence,
       ConsumerWithException<PluginMatch> consumer,
       FunctionWithException<String, String> orgToProjectId) throws Exception {
-    Matcher deflineMatcher = _config.getDeflinePattern().matcher(defLine);
-    if (!deflineMatcher.find()) {
-      LOG.warn("Invalid defline: " + defLine);
+    if (defline.getStrand().equals("-")) {
+      sequence.skip(Long.MAX_VALUE);
       return;
     }
-    // the sequence id has to be in group(1),
-    // strand info has to be in group(2)
-    // organism has to be in group(3),
-    String sequenceId = deflineMatcher.group(1).intern();
-    String strand = deflineMatcher.group(2).intern().equals("-") ? "r" : "f";
-    String organism = deflineMatcher.group(3).replace('_', ' ').intern();
-    String projectId = orgToProjectId.apply(organism).intern();
-    final ConsumerWithException<MotifMatch> matchConsumer = match -> consumer.accept(new PluginMatch(
-        match.getStartPos(),
-        match.getEndPos(),
-        projectId,
-        sequenceId,
-        1,
-        strand,
-        match.getLeadingContext(),
-        match.getTrailingContext(),
-        match.getMatch()));
-    BufferedDnaMotifFinder.match(sequence, searchPattern, _config.getContextLength(), BUFFER_SIZE,
-        MAX_MATCH_LENGTH, matchConsumer);
+    int matchCount = BufferedDnaMotifFinder.count(sequence, searchPattern, _config.isBothStrands(), BUFFER_SIZE,
+        MAX_MATCH_LENGTH, _config.getRegexStepsPerCharacter());
+    if (matchCount == 0) return;
+    consumer.accept(PluginMatch.ofCount(defline.getSourceId(), orgToProjectId.apply(defline.getOrganism()),
+        matchCount));
+  }
+
+  /**
+   * Scans a sequence for all of the patterns in one pass.  Matches are passed on as they are found, tagged with the
+   * index of their pattern, so those of different patterns are interleaved.  Reverse strand matches are held until
+   * the end of the sequence unless its length is known up front (see {@link SequenceMatchConsumer}).
+   *
+   * @param sequenceLength number of characters the sequence reader reads, or -1 if it is not known before it is read
+   */
+  protected void matchSequence(
+      Defline defline,
+      List<Pattern> searchPatterns,
+      Reader sequence,
+      int sequenceLength,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    SequenceMatchConsumer matchConsumer = new SequenceMatchConsumer(defline, sequenceLength, consumer,
+        orgToProjectId);
+    int length = BufferedDnaMotifFinder.match(sequence, searchPatterns, _config.isBothStrands(),
+        _config.getContextLength(), BUFFER_SIZE, MAX_MATCH_LENGTH, _config.getRegexStepsPerCharacter(),
+        matchConsumer);
+    matchConsumer.finish(length);
+  }
+
+  /**
+   * Scans a sequence that is fully addressable for all of the patterns in one pass, as by {@link
+   * #matchSequence(Defline, List, Reader, int, ConsumerWithException, FunctionWithException)}.  Its length is known,
+   * so reverse strand matches are passed on as they are found.
+   */
+  protected void matchSequence(
+      Defline defline,
+      List<Pattern> searchPatterns,
+      CharSequence sequence,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    SequenceMatchConsumer matchConsumer = new SequenceMatchConsumer(defline, sequence.length(), consumer,
+        orgToProjectId);
+    BufferedDnaMotifFinder.match(sequence, searchPatterns, _config.isBothStrands(), _config.getContextLength(),
+        BUFFER_SIZE, MAX_MATCH_LENGTH, _config.getRegexStepsPerCharacter(), matchConsumer);
+    matchConsumer.finish(sequence.length());
+  }
+
+  /**
+   * @return true if the sequence is not scanned because it is a reverse strand, and reverse strand matches are
+   * found by scanning the forward strands
+   */
+  protected boolean isSkipped(Defline defline) {
+    return _config.isBothStrands() && defline.getStrand().equals("-");
+  }
+
+  /**
+   * Converts matches found in the sequence with the given defline to {@link PluginMatch}es, tagged with the index of
+   * their pattern, before passing them to the given consumer.  Reverse strand matches found on a forward strand are
+   * located from the end of the sequence.  If its length is known up front, as it is for indexed and addressable
+   * sequences, they are passed on as they are found; otherwise they are held until {@link #finish(int)} is called
+   * with its length, and then passed on in reverse strand order.
+   */
+  protected static class SequenceMatchConsumer implements ConsumerWithException<MotifMatch> {
+
+    private final ConsumerWithException<PluginMatch> consumer;
+    private final String sequenceId;
+    private final String strand;
+    private final String projectId;
+    private final int sequenceLength;
+    private final List<MotifMatch> reverseMatches = new ArrayList<>();
+
+    /**
+     * @param sequenceLength length of the sequence, or -1 if it is not known until the sequence is read
+     */
+    public SequenceMatchConsumer(
+        Defline defline,
+        int sequenceLength,
+        ConsumerWithException<PluginMatch> consumer,
+        FunctionWithException<String, String> orgToProjectId) throws Exception {
+      this.consumer = consumer;
+      // the source id and project are shared by the rows of the sequence, and the project by those of the search
+      // (see ProjectLookup)
+      this.sequenceId = defline.getSourceId();
+      this.strand = defline.getStrand().equals("-") ? "r" : "f";
+      this.projectId = orgToProjectId.apply(defline.getOrganism());
+      this.sequenceLength = sequenceLength;
+    }
+
+    @Override
+    public void accept(MotifMatch match) throws Exception {
+      if (match.isReversed()) {
+        if (sequenceLength == -1) {
+          reverseMatches.add(match);
+        }
+        else {
+          consumer.accept(PluginMatch.ofReverseMatch(match, sequenceLength, projectId, sequenceId));
+        }
+        return;
+      }
+      if (strand.equals("r")) {
+        // matches of reverse strand sequences are not reported (see PluginMatch)
+        PluginMatch reverseStrandMatch = new PluginMatch(match.getStartPos(), match.getEndPos(), projectId,
+            sequenceId, 1, strand, match.getLeadingContext(), match.getTrailingContext(), match.getMatch());
+        reverseStrandMatch.patternIndex = match.getPatternIndex();
+        consumer.accept(reverseStrandMatch);
+        return;
+      }
+      // the rows are formatted by the thread writing them
+      consumer.accept(PluginMatch.ofForwardMatch(match, projectId, sequenceId));
+    }
+
+    /**
+     * Passes on the reverse strand matches held until the end of the sequence, which has the given length.
+     *
+     * @throws IllegalStateException if the length differs from the one known up front, which the matches passed on
+     * already were located from
+     */
+    public void finish(int sequenceLength) throws Exception {
+      if (this.sequenceLength != -1 && sequenceLength != this.sequenceLength) {
+        throw new IllegalStateException("Sequence " + sequenceId + " is " + sequenceLength + " long, not "
+            + this.sequenceLength + " as expected");
+      }
+      for (int i = reverseMatches.size() - 1; i >= 0; i--) {
+        consumer.accept(PluginMatch.ofReverseMatch(reverseMatches.get(i), sequenceLength, projectId, sequenceId));
+      }
+      reverseMatches.clear();
+    }
   }
 }
@@ -38,6 +38,15 @@ public class DnaMotifPlugin extends AbstractMotifPlugin {
 
   @Override
   protected MatchFinder getMatchFinder(MotifConfig config) {
-    return new DnaMatchFinder(config);
+    switch (config.getDnaScanMode()) {
+      case SHARDED:
+        return new ShardedDnaMatchFinder(config);
+      case MAPPED:
+        return new MappedDnaMatchFinder(config);
+      case PACKED:
+        return new PackedDnaMatchFinder(config);
+      default:
+        return new DnaMatchFinder(config);
+    }
   }
 }
@@ -0,0 +1,189 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sidecar index of a motif search dataset file, stored next to it as &lt;dataset&gt;.mfai.  Similar to a samtools
+ * .fai index, it records for each sequence the byte range of its data, its length and line width, and in addition
+ * its defline with the fields parsed out of it.  Finders use it, when present and current, to address sequences
+ * directly and to skip running the defline regex.
+ *
+ * The index is a tab-delimited text file.  The header line records the version of the format, the size and
+ * modification time of the dataset file, and the defline format and regex used to parse the deflines:
+ *
+ * <pre>
+ * #mfai  2  size  lastModified  DNA|PROTEIN  regex
+ * </pre>
+ *
+ * followed by one line per sequence:
+ *
+ * <pre>
+ * sourceId  organism  strand  start  end  length  lineWidth  defline
+ * </pre>
+ *
+ * The parsed fields are empty for deflines that do not match the regex, and strand is '.' for proteins.  An index
+ * is ignored if the dataset file or the configured regex has changed since it was built.
+ */
+public class FastaIndex {
+
+  private static final Logger LOG = Logger.getLogger(FastaIndex.class);
+
+  public static final String FILE_SUFFIX = ".mfai";
+
+  private static final String HEADER_PREFIX = "#mfai";
+  // version 2: lengths exclude carriage returns, and lines holding them are not of uniform width
+  private static final int VERSION = 2;
+  private static final String NO_STRAND = ".";
+  private static final int NUM_COLUMNS = 8;
+
+  private final File fastaFile;
+  private final Defline.Format format;
+  private final String regex;
+  private final List<SequenceRange> ranges;
+  private final List<Defline> deflines;
+
+  private FastaIndex(File fastaFile, Defline.Format format, String regex,
+      List<SequenceRange> ranges, List<Defline> deflines) {
+    this.fastaFile = fastaFile;
+    this.format = format;
+    this.regex = regex;
+    this.ranges = Collections.unmodifiableList(ranges);
+    this.deflines = Collections.unmodifiableList(deflines);
+  }
+
+  public static File getIndexFile(File fastaFile) {
+    return new File(fastaFile.getPath() + FILE_SUFFIX);
+  }
+
+  /**
+   * Scans a dataset file and parses its deflines to create its index.
+   */
+  public static FastaIndex build(File fastaFile, Pattern deflinePattern, Defline.Format format) throws IOException {
+    List<SequenceRange> ranges = SequenceRange.scan(fastaFile);
+    List<Defline> deflines = new ArrayList<>(ranges.size());
+    for (SequenceRange range : ranges) {
+      Defline defline = Defline.parse(range.getDefline(), deflinePattern, format);
+      if (defline == null) {
+        LOG.warn("Invalid defline: " + range.getDefline() + " Against Pattern " + deflinePattern.pattern());
+      }
+      deflines.add(defline);
+    }
+    return new FastaIndex(fastaFile, format, deflinePattern.pattern(), ranges, deflines);
+  }
+
+  /**
+   * Loads the index of a dataset file if one exists and is current.
+   *
+   * @param fastaFile dataset file
+   * @param deflinePattern defline regex currently configured; the index is not used if it was built with another
+   * @param format defline format currently in use
+   * @return the index, or empty if there is no usable index
+   */
+  public static Optional<FastaIndex> load(File fastaFile, Pattern deflinePattern, Defline.Format format) {
+    File indexFile = getIndexFile(fastaFile);
+    if (!indexFile.isFile()) {
+      return Optional.empty();
+    }
+    try (BufferedReader in = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.ISO_8859_1)) {
+      String[] header = split(in.readLine(), 6);
+      if (header.length != 6 || !header[0].equals(HEADER_PREFIX) || Integer.parseInt(header[1]) != VERSION) {
+        LOG.warn("Ignoring index " + indexFile + " with unrecognized header.");
+        return Optional.empty();
+      }
+      if (Long.parseLong(header[2]) != fastaFile.length() || Long.parseLong(header[3]) != fastaFile.lastModified()) {
+        LOG.warn("Ignoring index " + indexFile + "; " + fastaFile + " has changed since it was indexed.");
+        return Optional.empty();
+      }
+      if (!header[4].equals(format.name()) || !header[5].equals(deflinePattern.pattern())) {
+        LOG.warn("Ignoring index " + indexFile + "; it was built with a different defline regex.");
+        return Optional.empty();
+      }
+      List<SequenceRange> ranges = new ArrayList<>();
+      List<Defline> deflines = new ArrayList<>();
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] columns = split(line, NUM_COLUMNS);
+        if (columns.length != NUM_COLUMNS) {
+          throw new IOException("Expected " + NUM_COLUMNS + " columns in line: " + line);
+        }
+        ranges.add(new SequenceRange(columns[7], Long.parseLong(columns[3]), Long.parseLong(columns[4]),
+            Long.parseLong(columns[5]), Integer.parseInt(columns[6])));
+        deflines.add(columns[0].isEmpty() ? null : new Defline(columns[0], columns[1],
+            columns[2].equals(NO_STRAND) ? null : columns[2]));
+      }
+      return Optional.of(new FastaIndex(fastaFile, format, deflinePattern.pattern(), ranges, deflines));
+    }
+    catch (IOException | RuntimeException e) {
+      LOG.warn("Ignoring unreadable index " + indexFile, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Writes this index next to its dataset file, replacing any existing index.
+   */
+  public void write() throws IOException {
+    File indexFile = getIndexFile(fastaFile);
+    File tempFile = new File(indexFile.getPath() + ".tmp");
+    try (BufferedWriter out = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.ISO_8859_1)) {
+      out.write(String.join("\t", HEADER_PREFIX, String.valueOf(VERSION), String.valueOf(fastaFile.length()),
+          String.valueOf(fastaFile.lastModified()), format.name(), regex));
+      out.newLine();
+      for (int i = 0; i < ranges.size(); i++) {
+        SequenceRange range = ranges.get(i);
+        Defline defline = deflines.get(i);
+        out.write(String.join("\t",
+            defline == null ? "" : defline.getSourceId(),
+            defline == null ? "" : defline.getOrganism(),
+            defline == null || defline.getStrand() == null ? NO_STRAND : defline.getStrand(),
+            String.valueOf(range.getStart()),
+            String.valueOf(range.getEnd()),
+            String.valueOf(range.getLength()),
+            String.valueOf(range.getLineWidth()),
+            range.getDefline()));
+        out.newLine();
+      }
+    }
+    Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static String[] split(String line, int limit) throws IOException {
+    if (line == null) {
+      throw new IOException("Unexpected end of index file.");
+    }
+    // the defline (or regex) is the last column and may itself contain tabs
+    return line.split("\t", limit);
+  }
+
+  public File getFastaFile() {
+    return fastaFile;
+  }
+
+  /**
+   * @return ranges of the sequences in the dataset file, in file order
+   */
+  public List<SequenceRange> getRanges() {
+    return ranges;
+  }
+
+  /**
+   * @return parsed deflines of the sequences, parallel to {@link #getRanges()}; null for deflines that do not
+   * match the defline regex
+   */
+  public List<Defline> getDeflines() {
+    return deflines;
+  }
+}
@@ -0,0 +1,103 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import static org.gusdb.fgputil.FormatUtil.NL;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.gusdb.fgputil.FormatUtil;
+
+/**
+ * Builds the {@link FastaIndex} (and optionally {@link KmerIndex}) sidecar files of motif search dataset files.
+ * Should be run whenever dataset files are (re)generated; finders ignore indexes that are older than their dataset
+ * file.
+ */
+public class FastaIndexCli {
+
+  private enum DatasetType {
+    DNA(DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX, Defline.Format.DNA),
+    PROTEIN(ProteinMotifPlugin.FIELD_REGEX, AAMotifPlugin.DEFAULT_REGEX, Defline.Format.PROTEIN),
+    ORF(OrfMotifPlugin.FIELD_REGEX, AAMotifPlugin.DEFAULT_REGEX, Defline.Format.PROTEIN);
+
+    private final String _regexField;
+    private final String _defaultRegex;
+    private final Defline.Format _format;
+
+    private DatasetType(String regexField, String defaultRegex, Defline.Format format) {
+      _regexField = regexField;
+      _defaultRegex = defaultRegex;
+      _format = format;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    // parse args; some minimal validation
+    System.err.println("Args: " + FormatUtil.arrayToString(args, ", "));
+    if (args.length < 2) usageAndExit();
+    DatasetType type = null;
+    try {
+      type = DatasetType.valueOf(args[0].trim().toUpperCase());
+    }
+    catch (IllegalArgumentException e) {
+      usageAndExit();
+    }
+    int firstFile = 1;
+    Properties properties = new Properties();
+    boolean kmers = false;
+    while (firstFile < args.length && args[firstFile].startsWith("-")) {
+      if (args[firstFile].equals("-config") && firstFile + 1 < args.length) {
+        try (InputStream in = new FileInputStream(args[firstFile + 1])) {
+          properties.loadFromXML(in);
+        }
+        firstFile += 2;
+      }
+      else if (args[firstFile].equals("-kmers") && type != DatasetType.DNA) {
+        kmers = true;
+        firstFile++;
+      }
+      else {
+        usageAndExit();
+      }
+    }
+    if (firstFile == args.length) usageAndExit();
+
+    // use the same defline regex as the plugin will
+    MotifConfig config = new MotifConfig(properties, type._regexField, type._defaultRegex);
+    Pattern deflinePattern = config.getDeflinePattern();
+
+    List<String> files = Arrays.asList(args).subList(firstFile, args.length);
+    for (String fileName : files) {
+      File file = new File(fileName);
+      if (!file.isFile() || !file.canRead()) {
+        System.err.println(file.getAbsolutePath() + " is not a readable file.");
+        System.exit(2);
+      }
+      FastaIndex index = FastaIndex.build(file, deflinePattern, type._format);
+      index.write();
+      long unparsed = index.getDeflines().stream().filter(defline -> defline == null).count();
+      System.out.println("Indexed " + index.getRanges().size() + " sequences of " + file + " into "
+          + FastaIndex.getIndexFile(file) + (unparsed == 0 ? "" : " (" + unparsed + " invalid deflines)"));
+      if (kmers) {
+        int distinct = KmerIndex.write(index);
+        System.out.println("Indexed " + distinct + " distinct k-mers of " + file + " into "
+            + KmerIndex.getIndexFile(file));
+      }
+    }
+  }
+
+  private static void usageAndExit() {
+    System.err.println("USAGE: fgpJava " + FastaIndexCli.class.getName()
+        + " <dataset_type> [-config <motifSearch-config.xml>] [-kmers] <fasta_file> [<fasta_file> ...]" + NL
+        + "  where dataset_type is one of " + Arrays.toString(DatasetType.values()) + NL
+        + "  Defline regexes are read from the config file if given, otherwise the plugin defaults are used." + NL
+        + "  -kmers also writes the k-mer index of PROTEIN and ORF datasets, so selective motifs only scan the" + NL
+        + "  sequences that can match.");
+    System.exit(1);
+  }
+}
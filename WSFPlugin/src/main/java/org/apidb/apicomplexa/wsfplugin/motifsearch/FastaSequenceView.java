@@ -0,0 +1,82 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Read-only {@link CharSequence} view of ASCII sequence data held in a {@link ByteBuffer}, typically a region of a
+ * memory-mapped .fasta file.  Bytes are widened to chars on access without any charset decoding or copying.
+ *
+ * Sequence data in a .fasta file is broken into lines of a fixed width; the view skips the newline that follows
+ * each full line by index arithmetic, so the lines do not need to be joined first.  Data without fixed-width lines
+ * (or with carriage returns or other whitespace) has to be compacted (whitespace removed) into a buffer and viewed
+ * with {@link #UNBROKEN} as the line width.
+ *
+ * Only absolute gets are used on the buffer, so a view may be shared by concurrent readers.  Sub-sequences are
+ * views of the same buffer.
+ */
+public class FastaSequenceView implements CharSequence {
+
+  /**
+   * Line width to use for buffers that contain no newlines
+   */
+  public static final int UNBROKEN = Integer.MAX_VALUE;
+
+  private final ByteBuffer bytes;
+  private final int offset;
+  private final int length;
+  private final int lineWidth;
+
+  // position / lineWidth is computed as (position * reciprocal) >>> shift, which is exact for all non-negative
+  // int positions and avoids a division on every character access
+  private final long reciprocal;
+  private final int shift;
+
+  /**
+   * @param bytes buffer holding the sequence data, starting at index 0
+   * @param length number of sequence characters (excluding newlines)
+   * @param lineWidth number of sequence characters on each line, each line followed by a single '\n' byte
+   */
+  public FastaSequenceView(ByteBuffer bytes, int length, int lineWidth) {
+    this(bytes, 0, length, lineWidth);
+  }
+
+  private FastaSequenceView(ByteBuffer bytes, int offset, int length, int lineWidth) {
+    if (lineWidth <= 0) {
+      throw new IllegalArgumentException("Line width must be positive: " + lineWidth);
+    }
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+    this.lineWidth = lineWidth;
+    this.shift = 31 + (32 - Integer.numberOfLeadingZeros(lineWidth - 1));
+    this.reciprocal = ((1L << shift) + lineWidth - 1) / lineWidth;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    Objects.checkIndex(index, length);
+    int position = offset + index;
+    return (char)(bytes.get(position + (int)((position * reciprocal) >>> shift)) & 0xff);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    Objects.checkFromToIndex(start, end, length);
+    return new FastaSequenceView(bytes, offset + start, end - start, lineWidth);
+  }
+
+  @Override
+  public String toString() {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = charAt(i);
+    }
+    return new String(chars);
+  }
+}
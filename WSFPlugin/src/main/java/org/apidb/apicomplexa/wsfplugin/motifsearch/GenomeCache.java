@@ -0,0 +1,359 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Process-wide cache of the content of popular dataset files, held in direct buffers outside the Java heap.  The
+ * same few genomes are searched many times a day; once one is cached, its searches scan the buffer in place rather
+ * than reading, and possibly decompressing ({@link BgzfFile}), the dataset file again.
+ *
+ * The cache holds at most a fixed number of bytes, and evicts the least recently used genomes to make room for
+ * another.  An entry is checked against the modification time and size of its dataset file on every use, so a new
+ * release of a dataset is read again.  Datasets larger than the bound, or than 2GB, are never cached.
+ *
+ * Searches lease the content they scan ({@link Content}) and close the lease when done.  Genomes being scanned are
+ * never evicted, and the content of a replaced release still being scanned counts against the bound until its last
+ * lease is closed, after which nothing refers to its buffer and the collector frees it; a genome that does not fit
+ * beside the content in use is not cached.
+ */
+public class GenomeCache {
+
+  private static final Logger LOG = Logger.getLogger(GenomeCache.class);
+
+  private static GenomeCache _instance;
+
+  /**
+   * @return the cache shared by all motif searches, created with the configuration of the first one, which also
+   * starts loading the configured datasets in the background
+   */
+  public static synchronized GenomeCache getInstance(MotifConfig config) {
+    if (_instance == null) {
+      _instance = new GenomeCache(config.getGenomeCacheSize());
+      _instance.preload(config.getGenomeCachePreload());
+    }
+    return _instance;
+  }
+
+  /**
+   * Lease on the cached content of a dataset file, which keeps the content from being evicted until it is closed
+   */
+  public class Content implements AutoCloseable {
+
+    private final Entry entry;
+    private final ByteBuffer buffer;
+    private boolean closed = false;
+
+    private Content(Entry entry, ByteBuffer buffer) {
+      this.entry = entry;
+      this.buffer = buffer;
+    }
+
+    /**
+     * @return a read-only buffer of the uncompressed content of the file, valid until the lease is closed
+     */
+    public ByteBuffer getBuffer() {
+      return buffer;
+    }
+
+    @Override
+    public void close() {
+      synchronized (GenomeCache.this) {
+        if (!closed) {
+          closed = true;
+          release(entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Cached content of one release of a dataset file
+   */
+  private static class Entry {
+    final long lastModified;
+    final long fileSize;
+    final long size;
+    final CompletableFuture<ByteBuffer> content = new CompletableFuture<>();
+
+    // open leases on the content, and whether the entry has left the cache; guarded by the cache
+    int leases = 0;
+    boolean removed = false;
+
+    Entry(File file, long size) {
+      this.lastModified = file.lastModified();
+      this.fileSize = file.length();
+      this.size = size;
+    }
+
+    boolean isCurrent(File file) {
+      return file.lastModified() == lastModified && file.length() == fileSize;
+    }
+  }
+
+  private final long maxBytes;
+
+  // entries by absolute path of the dataset file, least recently used first
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  // size of the cached content and of the removed content still leased
+  private long bytes = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong rejections = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong evictedBytes = new AtomicLong();
+
+  /**
+   * @param maxBytes bound on the size of the cached content; 0 disables the cache
+   */
+  public GenomeCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  /**
+   * Returns the content of a dataset file, reading it into the cache first if it is not cached yet.  If another
+   * search is reading it, waits for that search to finish reading.  The lease returned must be closed.
+   *
+   * @return a lease on the content of the file, or empty if it cannot be cached
+   */
+  public Optional<Content> get(File datasetFile) throws IOException, InterruptedException {
+    if (!isEnabled()) {
+      return Optional.empty();
+    }
+    String key = datasetFile.getAbsolutePath();
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry != null && !entry.isCurrent(datasetFile)) {
+        remove(key);
+        entry = null;
+      }
+      if (entry != null) {
+        entry.leases++;
+      }
+    }
+    if (entry != null) {
+      hits.incrementAndGet();
+      return Optional.of(await(entry));
+    }
+
+    // sizing a compressed file reads its index, so it is done before taking the lock
+    long size = getContentSize(datasetFile);
+    Entry loading = new Entry(datasetFile, size);
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry == null || !entry.isCurrent(datasetFile)) {
+        if (size > maxBytes || size > Integer.MAX_VALUE) {
+          rejections.incrementAndGet();
+          return Optional.empty();
+        }
+        if (entry != null) {
+          remove(key);
+        }
+        if (!makeRoom(size)) {
+          // the content being scanned leaves no room for it
+          rejections.incrementAndGet();
+          return Optional.empty();
+        }
+        entries.put(key, loading);
+        bytes += size;
+        entry = loading;
+      }
+      entry.leases++;
+    }
+    if (entry != loading) {
+      // another search started reading it in the meantime
+      hits.incrementAndGet();
+      return Optional.of(await(entry));
+    }
+
+    misses.incrementAndGet();
+    try {
+      loading.content.complete(read(datasetFile, (int) size));
+      LOG.info("Cached " + size + " bytes of " + datasetFile);
+    }
+    catch (IOException | RuntimeException | Error e) {
+      loading.content.completeExceptionally(e);
+      synchronized (this) {
+        if (entries.get(key) == loading) {
+          remove(key);
+        }
+        release(loading);
+      }
+      throw e;
+    }
+    return Optional.of(await(loading));
+  }
+
+  /**
+   * Starts reading the given dataset files into the cache on a background thread, in order, as long as they fit.
+   */
+  public void preload(List<File> datasetFiles) {
+    if (!isEnabled() || datasetFiles.isEmpty()) {
+      return;
+    }
+    Thread thread = new Thread(() -> {
+      for (File file : datasetFiles) {
+        try {
+          Optional<Content> content = get(file);
+          if (!content.isPresent()) {
+            LOG.warn("Dataset " + file + " does not fit in the genome cache");
+          }
+          content.ifPresent(Content::close);
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        catch (Exception e) {
+          LOG.warn("Could not preload " + file + " into the genome cache", e);
+        }
+      }
+      LOG.info(this);
+    }, "motif-genome-preload");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return number of dataset files too large to be cached, or for which the content in use left no room
+   */
+  public long getRejections() {
+    return rejections.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public long getEvictedBytes() {
+    return evictedBytes.get();
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  /**
+   * @return size of the cached content, including content being read and replaced content still in use
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "genome cache: " + getHits() + " hits, " + getMisses() + " misses, " + getRejections() + " rejections, "
+        + getEvictions() + " evictions of " + getEvictedBytes() + " bytes, " + getEntryCount() + " genomes of "
+        + getBytes() + " bytes (bound " + maxBytes + ")";
+  }
+
+  /**
+   * Evicts the least recently used entries that are not leased until the given number of bytes fits
+   *
+   * @return whether the bytes fit
+   */
+  private boolean makeRoom(long size) {
+    Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+    while (bytes + size > maxBytes && eldest.hasNext()) {
+      Entry entry = eldest.next().getValue();
+      if (entry.leases > 0) {
+        continue;
+      }
+      eldest.remove();
+      entry.removed = true;
+      bytes -= entry.size;
+      evictions.incrementAndGet();
+      evictedBytes.addAndGet(entry.size);
+    }
+    return bytes + size <= maxBytes;
+  }
+
+  /**
+   * Removes an entry from the cache; its content still counts against the bound until its leases are closed
+   */
+  private void remove(String key) {
+    Entry entry = entries.remove(key);
+    entry.removed = true;
+    if (entry.leases == 0) {
+      bytes -= entry.size;
+    }
+  }
+
+  private synchronized void release(Entry entry) {
+    entry.leases--;
+    if (entry.leases == 0 && entry.removed) {
+      bytes -= entry.size;
+    }
+  }
+
+  /**
+   * Waits for the content of a leased entry; the lease is released if the content could not be read
+   */
+  private Content await(Entry entry) throws IOException, InterruptedException {
+    try {
+      return new Content(entry, entry.content.get().asReadOnlyBuffer());
+    }
+    catch (ExecutionException e) {
+      release(entry);
+      throw new IOException("Could not read " + entry.size + " bytes into the genome cache", e.getCause());
+    }
+    catch (InterruptedException e) {
+      release(entry);
+      throw e;
+    }
+  }
+
+  private static long getContentSize(File datasetFile) throws IOException {
+    if (!BgzfFile.isBgzf(datasetFile)) {
+      return datasetFile.length();
+    }
+    try (BgzfFile bgzf = BgzfFile.open(datasetFile)) {
+      return bgzf.getUncompressedSize();
+    }
+  }
+
+  private static ByteBuffer read(File datasetFile, int size) throws IOException {
+    ByteBuffer content = ByteBuffer.allocateDirect(size);
+    byte[] chunk = new byte[65536];
+    try (InputStream in = BgzfFile.openInputStream(datasetFile)) {
+      int count;
+      while (content.hasRemaining() && (count = in.read(chunk, 0, Math.min(chunk.length, content.remaining()))) != -1) {
+        content.put(chunk, 0, count);
+      }
+    }
+    if (content.hasRemaining()) {
+      throw new IOException(datasetFile + " changed while it was being cached");
+    }
+    content.flip();
+    return content;
+  }
+}
@@ -0,0 +1,299 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifFactors;
+
+/**
+ * Index of the k-mers (k = 3) of the sequences of a protein or ORF dataset file, stored next to it as
+ * &lt;dataset&gt;.mkmi.  For each k-mer of letters it lists the sequences containing it, by their ordinal in the
+ * file's {@link FastaIndex}.  A search looks up the k-mers that the {@link MotifFactors} of its pattern require,
+ * and only scans the sequences containing all of them; a selective motif is then verified against a few sequences
+ * instead of the whole proteome.
+ *
+ * The file starts with a header (all numbers big-endian):
+ *
+ * <pre>
+ * int magic 'MKMI', int version, long size and long lastModified of the dataset file, int k, int sequenceCount
+ * </pre>
+ *
+ * followed by the offsets of the postings of each k-mer, long[27^k + 1], relative to the end of the offsets, and
+ * the postings themselves: the ordinals of the sequences containing the k-mer in increasing order, each written as
+ * a variable-length (7 bits per byte) difference to the previous one.
+ *
+ * Letters are indexed case-insensitively; k-mers containing anything else are not indexed at all, and whitespace
+ * within the sequence data is skipped as when scanning.  An index is ignored if the dataset file has changed since
+ * it was built, or if the file's {@link FastaIndex} does not list the same number of sequences.
+ */
+public class KmerIndex {
+
+  private static final Logger LOG = Logger.getLogger(KmerIndex.class);
+
+  public static final String FILE_SUFFIX = ".mkmi";
+
+  private static final int MAGIC = 0x4D4B4D49;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+
+  private static final int K = 3;
+  // code 0 is for characters other than letters, which are not indexed
+  private static final int ALPHABET_SIZE = 27;
+  private static final int KMER_COUNT = ALPHABET_SIZE * ALPHABET_SIZE * ALPHABET_SIZE;
+
+  // a window of the pattern's factors is looked up only if it expands into at most this many k-mers
+  private static final int MAX_EXPANSION = 64;
+  // candidates are the intersection of the sequences of at most this many of the most selective windows
+  private static final int MAX_WINDOWS = 4;
+
+  private final FastaIndex fastaIndex;
+  private final ByteBuffer offsets;
+  private final ByteBuffer postings;
+
+  private KmerIndex(FastaIndex fastaIndex, ByteBuffer offsets, ByteBuffer postings) {
+    this.fastaIndex = fastaIndex;
+    this.offsets = offsets;
+    this.postings = postings;
+  }
+
+  public static File getIndexFile(File fastaFile) {
+    return new File(fastaFile.getPath() + FILE_SUFFIX);
+  }
+
+  /**
+   * Loads the k-mer index of an indexed dataset file if one exists and is current.  The index is memory mapped.
+   *
+   * @param fastaIndex current index of the dataset file
+   * @return the k-mer index, or empty if there is no usable one
+   */
+  public static Optional<KmerIndex> load(FastaIndex fastaIndex) {
+    File fastaFile = fastaIndex.getFastaFile();
+    File indexFile = getIndexFile(fastaFile);
+    if (!indexFile.isFile()) {
+      return Optional.empty();
+    }
+    try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        LOG.warn("Ignoring k-mer index " + indexFile + " with unrecognized header.");
+      }
+      else if (buffer.getLong() != fastaFile.length() || buffer.getLong() != fastaFile.lastModified()) {
+        LOG.warn("Ignoring k-mer index " + indexFile + "; " + fastaFile + " has changed since it was indexed.");
+      }
+      else if (buffer.getInt() != K || buffer.getInt() != fastaIndex.getRanges().size()) {
+        LOG.warn("Ignoring k-mer index " + indexFile + "; it does not match " + FastaIndex.getIndexFile(fastaFile));
+      }
+      else {
+        int postingsStart = HEADER_SIZE + (KMER_COUNT + 1) * Long.BYTES;
+        buffer.position(HEADER_SIZE).limit(postingsStart);
+        ByteBuffer offsets = buffer.slice();
+        buffer.limit(buffer.capacity()).position(postingsStart);
+        return Optional.of(new KmerIndex(fastaIndex, offsets, buffer.slice()));
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      LOG.warn("Ignoring unreadable k-mer index " + indexFile, e);
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Reads every sequence of an indexed dataset file and writes its k-mer index next to it, replacing any existing
+   * index.
+   *
+   * @return number of distinct k-mers found
+   */
+  public static int write(FastaIndex fastaIndex) throws IOException {
+    List<SequenceRange> ranges = fastaIndex.getRanges();
+    int[][] postings = new int[KMER_COUNT][];
+    int[] postingCounts = new int[KMER_COUNT];
+    int[] lastSequence = new int[KMER_COUNT];
+    Arrays.fill(lastSequence, -1);
+
+    File fastaFile = fastaIndex.getFastaFile();
+    try (SequenceRange.Source source = BgzfFile.openSource(fastaFile)) {
+      char[] buffer = new char[65536];
+      for (int sequence = 0; sequence < ranges.size(); sequence++) {
+        try (Reader reader = ranges.get(sequence).newReader(source)) {
+          int kmer = 0;
+          int letters = 0;
+          for (int read = reader.read(buffer); read != -1; read = reader.read(buffer)) {
+            for (int i = 0; i < read; i++) {
+              char c = buffer[i];
+              if (c <= ' ') continue;
+              int code = code(c);
+              if (code == 0) {
+                letters = 0;
+                continue;
+              }
+              kmer = (kmer * ALPHABET_SIZE + code) % KMER_COUNT;
+              if (++letters >= K && lastSequence[kmer] != sequence) {
+                lastSequence[kmer] = sequence;
+                if (postings[kmer] == null) {
+                  postings[kmer] = new int[4];
+                }
+                else if (postingCounts[kmer] == postings[kmer].length) {
+                  postings[kmer] = Arrays.copyOf(postings[kmer], 2 * postings[kmer].length);
+                }
+                postings[kmer][postingCounts[kmer]++] = sequence;
+              }
+            }
+          }
+        }
+      }
+    }
+
+    File indexFile = getIndexFile(fastaFile);
+    File tempFile = new File(indexFile.getPath() + ".tmp");
+    int distinct = 0;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(fastaFile.length());
+      out.writeLong(fastaFile.lastModified());
+      out.writeInt(K);
+      out.writeInt(ranges.size());
+      ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+      for (int kmer = 0; kmer < KMER_COUNT; kmer++) {
+        out.writeLong(encoded.size());
+        if (postingCounts[kmer] > 0) distinct++;
+        int previous = -1;
+        for (int i = 0; i < postingCounts[kmer]; i++) {
+          writeVarint(encoded, postings[kmer][i] - previous);
+          previous = postings[kmer][i];
+        }
+      }
+      out.writeLong(encoded.size());
+      encoded.writeTo(out);
+    }
+    Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return distinct;
+  }
+
+  /**
+   * Selects the sequences that can contain a match of the pattern.
+   *
+   * @param pattern motif pattern
+   * @return ordinals (in the {@link FastaIndex}) of the sequences that contain all k-mers of the most selective
+   * factors of the pattern, or empty if the pattern has no factor that can be looked up, so every sequence has to
+   * be scanned
+   */
+  public Optional<BitSet> getCandidates(Pattern pattern) {
+    List<int[]> windows = new ArrayList<>();
+    for (char[][] factor : MotifFactors.of(pattern)) {
+      for (int start = 0; start + K <= factor.length; start++) {
+        int[] kmers = expand(factor, start);
+        if (kmers != null) windows.add(kmers);
+      }
+    }
+    if (windows.isEmpty()) {
+      return Optional.empty();
+    }
+
+    // the size of the postings estimates the number of sequences a window selects
+    windows.sort(Comparator.comparingLong(this::getPostingsSize));
+    BitSet candidates = null;
+    for (int[] kmers : windows.subList(0, Math.min(MAX_WINDOWS, windows.size()))) {
+      BitSet sequences = new BitSet(fastaIndex.getRanges().size());
+      for (int kmer : kmers) {
+        readPostings(kmer, sequences);
+      }
+      if (candidates == null) {
+        candidates = sequences;
+      }
+      else {
+        candidates.and(sequences);
+      }
+      if (candidates.isEmpty()) break;
+    }
+    return Optional.of(candidates);
+  }
+
+  public FastaIndex getFastaIndex() {
+    return fastaIndex;
+  }
+
+  /**
+   * @return the k-mers of the K positions of the factor from start on, or null if there are too many or a
+   * position does not constrain the sequence
+   */
+  private static int[] expand(char[][] factor, int start) {
+    int count = 1;
+    for (int i = start; i < start + K; i++) {
+      if (factor[i] == null || factor[i].length == 0) return null;
+      count *= factor[i].length;
+      if (count > MAX_EXPANSION) return null;
+    }
+    int[] kmers = { 0 };
+    for (int i = start; i < start + K; i++) {
+      int[] extended = new int[kmers.length * factor[i].length];
+      int n = 0;
+      for (int kmer : kmers) {
+        for (char letter : factor[i]) {
+          extended[n++] = kmer * ALPHABET_SIZE + code(letter);
+        }
+      }
+      kmers = extended;
+    }
+    return kmers;
+  }
+
+  private long getPostingsSize(int[] kmers) {
+    long size = 0;
+    for (int kmer : kmers) {
+      size += offsets.getLong((kmer + 1) * Long.BYTES) - offsets.getLong(kmer * Long.BYTES);
+    }
+    return size;
+  }
+
+  private void readPostings(int kmer, BitSet sequences) {
+    int position = (int) offsets.getLong(kmer * Long.BYTES);
+    int end = (int) offsets.getLong((kmer + 1) * Long.BYTES);
+    int sequence = -1;
+    while (position < end) {
+      int delta = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = postings.get(position++);
+        delta |= (b & 0x7f) << shift;
+        shift += 7;
+      } while (b < 0);
+      sequence += delta;
+      sequences.set(sequence);
+    }
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  private static int code(char c) {
+    if (c >= 'a' && c <= 'z') return c - 'a' + 1;
+    if (c >= 'A' && c <= 'Z') return c - 'A' + 1;
+    return 0;
+  }
+}
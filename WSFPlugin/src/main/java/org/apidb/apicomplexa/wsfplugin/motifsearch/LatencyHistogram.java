@@ -0,0 +1,65 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts of durations in buckets whose bounds double: the first bucket holds durations up to 1ms, the next up to
+ * 2ms, then 4ms, and so on, the last holding everything beyond about 18 minutes.  Percentiles are reported as the
+ * upper bound of the bucket they fall in, so they are within a factor of two of the true value, which is enough to
+ * tell a slow search from a normal one.  Durations may be recorded by several threads.
+ */
+public class LatencyHistogram {
+
+  private static final int BUCKETS = 21;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  public void record(long nanos) {
+    long millis = Math.max(0, nanos - 1) / 1000000;
+    int bucket = 64 - Long.numberOfLeadingZeros(millis);
+    counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * @return number of durations in each bucket; bucket i holds durations up to 2^i milliseconds
+   */
+  public long[] getCounts() {
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+    }
+    return snapshot;
+  }
+
+  /**
+   * @param quantile fraction of the durations, between 0 and 1
+   * @return bound in milliseconds below which the given fraction of the durations fall, or 0 if none were recorded
+   */
+  public long getPercentileMillis(double quantile) {
+    long[] snapshot = getCounts();
+    long total = 0;
+    for (long count : snapshot) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return 1L << i;
+      }
+    }
+    return 1L << (BUCKETS - 1);
+  }
+}
@@ -0,0 +1,67 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+/**
+ * Tracks the line structure of one sequence's data while it is scanned byte by byte: the number of sequence
+ * characters, and whether all lines but the last have the same width (in which case the data can be addressed by
+ * character index without removing the newlines first).
+ *
+ * Carriage returns and other whitespace are not sequence characters, as they are not to readers that strip
+ * whitespace; data that holds any (such as that of a file with CRLF line endings) is reported as not having
+ * uniform lines, so that it is compacted before it is addressed by index.
+ */
+class LineLayout {
+
+  private int lineWidth = -1;
+  private int lineLength = 0;
+  private long skipped = 0;
+  private long bytes = 0;
+  private boolean shortLineSeen = false;
+  private boolean uniform = true;
+
+  void accept(byte b) {
+    bytes++;
+    if (b == '\n') {
+      skipped++;
+      if (lineWidth == -1) lineWidth = lineLength;
+      else if (lineLength > lineWidth || (shortLineSeen && lineLength > 0)) uniform = false;
+      if (lineLength < lineWidth) shortLineSeen = true;
+      lineLength = 0;
+    }
+    else if (b <= ' ' && b >= 0) {
+      skipped++;
+      uniform = false;
+    }
+    else {
+      lineLength++;
+    }
+  }
+
+  /**
+   * @return true if no sequence characters have been seen on the current line yet
+   */
+  boolean atLineStart() {
+    return lineLength == 0;
+  }
+
+  /**
+   * @return number of sequence characters seen, excluding newlines and other whitespace
+   */
+  long getLength() {
+    return bytes - skipped;
+  }
+
+  /**
+   * @return number of sequence characters on each line if the lines have a uniform width, or 0 if they do not (or
+   * there are no sequence characters at all)
+   */
+  int getLineWidth() {
+    int width = lineWidth;
+    boolean isUniform = uniform;
+    if (lineLength > 0) {
+      // last line is not terminated by a newline
+      if (width == -1) width = lineLength;
+      else if (lineLength > width || shortLineSeen) isUniform = false;
+    }
+    return isUniform && width > 0 ? width : 0;
+  }
+}
@@ -0,0 +1,82 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.File;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.MappedSequenceProvider.MappedSequence;
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+import org.gusdb.fgputil.functional.FunctionalInterfaces.FunctionWithException;
+
+/**
+ * Protein match finder that memory maps the dataset file through {@link MappedSequenceProvider} and runs the search
+ * patterns directly over each mapped sequence, a {@link FastaSequenceView} of the file's bytes, rather than
+ * decoding the sequences through a {@link java.io.Reader} into the buffers of {@link AAMatchFinder}.  If the file
+ * has a {@link KmerIndex}, only the sequences it selects are mapped, at the offsets of the file's
+ * {@link FastaIndex}.  Compressed dataset files ({@link BgzfFile}) are scanned as in streaming mode.
+ *
+ * Sequences whose lines end with a single newline are viewed in place; those with carriage returns or other
+ * whitespace are compacted first (see {@link LineLayout}).
+ */
+public class MappedAAMatchFinder extends AAMatchFinder {
+
+  private static final Logger LOG = Logger.getLogger(MappedAAMatchFinder.class);
+
+  public MappedAAMatchFinder(MotifConfig config) {
+    super(config);
+  }
+
+  @Override
+  public void findMatches(
+      File fastaFile,
+      List<Pattern> searchPatterns,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    if (BgzfFile.isBgzf(fastaFile)) {
+      LOG.debug(fastaFile + " is compressed and cannot be mapped; scanning it as in streaming mode");
+      super.findMatches(fastaFile, searchPatterns, consumer, orgToProjectId);
+      return;
+    }
+    Optional<FastaIndex> index = loadIndex(fastaFile);
+    Optional<BitSet> candidates = index.flatMap(KmerIndex::load).flatMap(kmers -> getCandidates(kmers, searchPatterns));
+    try (MappedSequenceProvider sequenceProvider = new MappedSequenceProvider(fastaFile, index)) {
+      if (candidates.isPresent()) {
+        List<SequenceRange> ranges = index.get().getRanges();
+        List<Defline> deflines = index.get().getDeflines();
+        LOG.debug("Mapping " + candidates.get().cardinality() + " of " + ranges.size() + " sequences of "
+            + fastaFile + " selected by its k-mer index");
+        for (int i = candidates.get().nextSetBit(0); i >= 0; i = candidates.get().nextSetBit(i + 1)) {
+          Defline defline = checkDefline(deflines.get(i), ranges.get(i).getDefline());
+          _metrics.addSequence();
+          matchMappedSequence(defline, searchPatterns, sequenceProvider.map(ranges.get(i)), consumer,
+              orgToProjectId);
+        }
+        return;
+      }
+      DeflineParser deflineParser = newDeflineParser(fastaFile, index);
+      Optional<MappedSequence> sequence = sequenceProvider.nextSequence();
+      while (sequence.isPresent()) {
+        Defline defline = parseDefline(deflineParser, sequence.get().getDefline());
+        matchMappedSequence(defline, searchPatterns, sequence.get(), consumer, orgToProjectId);
+        sequence = sequenceProvider.nextSequence();
+      }
+    }
+  }
+
+  private void matchMappedSequence(
+      Defline defline,
+      List<Pattern> searchPatterns,
+      MappedSequence sequence,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    // the sequences are not read through a buffer that checks for cancellation, so check between them
+    if (Thread.interrupted()) {
+      throw new InterruptedException("Motif search cancelled");
+    }
+    _metrics.addBytes(sequence.getSequence().length());
+    matchSequence(defline, searchPatterns, sequence.getSequence(), consumer, orgToProjectId);
+  }
+}
@@ -0,0 +1,46 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.File;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+import org.gusdb.fgputil.functional.FunctionalInterfaces.FunctionWithException;
+
+/**
+ * DNA match finder that memory maps the dataset file through {@link MappedSequenceProvider} and runs the search
+ * pattern directly over each mapped sequence, skipping the charset decoding and buffer copies of the
+ * {@link java.io.Reader} based streaming path.  Compressed dataset files ({@link BgzfFile}) are scanned as in
+ * streaming mode, unless they are held in the {@link GenomeCache}.
+ */
+public class MappedDnaMatchFinder extends DnaMatchFinder {
+
+  private static final Logger LOG = Logger.getLogger(MappedDnaMatchFinder.class);
+
+  public MappedDnaMatchFinder(MotifConfig config) {
+    super(config);
+  }
+
+  public MappedDnaMatchFinder(MotifConfig config, GenomeCache genomeCache) {
+    super(config, genomeCache);
+  }
+
+  @Override
+  protected void findMatchesInFile(
+      File fastaFile,
+      List<Pattern> searchPatterns,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    if (BgzfFile.isBgzf(fastaFile)) {
+      LOG.debug(fastaFile + " is compressed and cannot be mapped; scanning it as in streaming mode");
+      super.findMatchesInFile(fastaFile, searchPatterns, consumer, orgToProjectId);
+      return;
+    }
+    Optional<FastaIndex> index = loadIndex(fastaFile);
+    try (MappedSequenceProvider sequenceProvider = new MappedSequenceProvider(fastaFile, index)) {
+      findMatchesInSequences(fastaFile, sequenceProvider, index, searchPatterns, consumer, orgToProjectId);
+    }
+  }
+}
@@ -0,0 +1,220 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Optional;
+
+/**
+ * Memory-mapped alternative to {@link SequenceReaderProvider}.  Takes a .fasta file as input and serially returns
+ * its sequences as {@link FastaSequenceView}s over the mapped file, so sequence bytes are never decoded or copied
+ * onto the heap.  Files larger than 2GB are supported as long as each individual sequence is smaller than 2GB.
+ *
+ * Sequences whose lines are not all the same width (other than the last one) cannot be viewed in place; their data
+ * is compacted into a heap buffer instead.  When a {@link FastaIndex} of the file is available, its sequences are
+ * mapped directly at the indexed offsets.  The content of a file may also be provided in a buffer, such as one of
+ * the {@link GenomeCache}, in which case sequences are viewed in the buffer rather than mapped.
+ *
+ * The file is mapped in windows of {@link #SCAN_WINDOW} bytes, and sequences are views of the window that holds
+ * them, so that scanning a file of many small sequences (such as a proteome) maps it a few times, rather than once
+ * per sequence; only a sequence larger than a window, or one that straddles the end of a window, is mapped on its
+ * own.
+ */
+public class MappedSequenceProvider implements AutoCloseable {
+
+  // size of the regions mapped while looking for deflines and line breaks, and of those sequences are viewed in
+  private static final long SCAN_WINDOW = 1L << 28;
+  private static final byte DEF_LINE_START_INDICATOR = '>';
+
+  // the mapped file, or null if the content is provided in a buffer
+  private final FileChannel channel;
+  private final ByteBuffer content;
+  private final long fileSize;
+
+  private ByteBuffer scanBuffer;
+  private long scanStart;
+  private long position = 0;
+
+  // the window of the file that sequences were last mapped in, shared by the threads mapping ranges
+  private ByteBuffer dataWindow;
+  private long dataWindowStart;
+
+  // ranges of the file's sequences, if known from an index; otherwise sequences are found by scanning
+  private final Iterator<SequenceRange> indexedRanges;
+
+  public MappedSequenceProvider(File input) throws IOException {
+    this(input, Optional.empty());
+  }
+
+  /**
+   * @param index index of the input file; if present, sequences are mapped at the offsets it records without
+   * scanning the file for deflines and line breaks
+   */
+  public MappedSequenceProvider(File input, Optional<FastaIndex> index) throws IOException {
+    this.channel = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+    this.content = null;
+    this.fileSize = channel.size();
+    this.indexedRanges = index.map(idx -> idx.getRanges().iterator()).orElse(null);
+  }
+
+  /**
+   * @param content the content of a .fasta file, from its position to its limit
+   * @param index index of the file the content was read from, if it has one
+   */
+  public MappedSequenceProvider(ByteBuffer content, Optional<FastaIndex> index) {
+    this.channel = null;
+    this.content = content.slice();
+    this.fileSize = this.content.limit();
+    this.indexedRanges = index.map(idx -> idx.getRanges().iterator()).orElse(null);
+  }
+
+  /**
+   * Provides the next sequence from the file, or empty if the end of the file is reached.  Unlike
+   * {@link SequenceReaderProvider}, previously returned sequences remain valid and need not be consumed.
+   */
+  public Optional<MappedSequence> nextSequence() throws IOException {
+    if (indexedRanges != null) {
+      return indexedRanges.hasNext() ? Optional.of(map(indexedRanges.next())) : Optional.empty();
+    }
+    if (position >= fileSize) {
+      return Optional.empty();
+    }
+
+    // read the defline
+    StringBuilder defline = new StringBuilder();
+    while (position < fileSize) {
+      byte b = byteAt(position++);
+      if (b == '\n') break;
+      defline.append((char)(b & 0xff));
+    }
+
+    // find the end of the sequence data, checking whether all lines have the same width
+    long start = position;
+    LineLayout layout = new LineLayout();
+    scan:
+    while (position < fileSize) {
+      mapScanWindow(position);
+      int limit = scanBuffer.limit();
+      for (int i = (int)(position - scanStart); i < limit; i++, position++) {
+        byte b = scanBuffer.get(i);
+        if (b == DEF_LINE_START_INDICATOR && layout.atLineStart()) {
+          break scan;
+        }
+        layout.accept(b);
+      }
+    }
+
+    return Optional.of(map(new SequenceRange(defline.toString(), start, position,
+        layout.getLength(), layout.getLineWidth())));
+  }
+
+  /**
+   * Maps the sequence in the given range of the file, independently of the sequences returned by
+   * {@link #nextSequence()}; it may be called by several threads at once.
+   */
+  MappedSequence map(SequenceRange range) throws IOException {
+    long byteLength = range.getEnd() - range.getStart();
+    if (byteLength > Integer.MAX_VALUE) {
+      throw new IOException("Sequence '" + range.getDefline() + "' is too long to be memory mapped (" + byteLength + " bytes)");
+    }
+    int length = (int)range.getLength();
+    ByteBuffer data = view(range.getStart(), byteLength);
+    CharSequence sequence = range.getLineWidth() > 0 || length == 0
+        ? new FastaSequenceView(data, length, Math.max(1, range.getLineWidth()))
+        : new FastaSequenceView(compact(data, length), length, FastaSequenceView.UNBROKEN);
+    return new MappedSequence(range.getDefline(), sequence);
+  }
+
+  /**
+   * @return the sequence characters of the data, without its newlines and other whitespace (see {@link LineLayout})
+   */
+  private static ByteBuffer compact(ByteBuffer data, int length) {
+    byte[] bases = new byte[length];
+    int count = 0;
+    for (int i = 0; i < data.limit(); i++) {
+      byte b = data.get(i);
+      if (b > ' ' || b < 0) bases[count++] = b;
+    }
+    return ByteBuffer.wrap(bases);
+  }
+
+  private byte byteAt(long offset) throws IOException {
+    mapScanWindow(offset);
+    return scanBuffer.get((int)(offset - scanStart));
+  }
+
+  private void mapScanWindow(long offset) throws IOException {
+    if (scanBuffer == null || offset < scanStart || offset >= scanStart + scanBuffer.limit()) {
+      scanStart = offset;
+      scanBuffer = map(offset, Math.min(SCAN_WINDOW, fileSize - offset));
+    }
+  }
+
+  /**
+   * @return the given region of the file, sliced from the data window, which is moved to start at the region if it
+   * does not hold it
+   */
+  private ByteBuffer view(long offset, long length) throws IOException {
+    if (channel == null) {
+      return map(offset, length);
+    }
+    ByteBuffer window;
+    long windowStart;
+    synchronized (this) {
+      if (dataWindow == null || offset < dataWindowStart || offset + length > dataWindowStart + dataWindow.limit()) {
+        dataWindow = map(offset, Math.min(Math.max(length, SCAN_WINDOW), fileSize - offset));
+        dataWindowStart = offset;
+      }
+      window = dataWindow;
+      windowStart = dataWindowStart;
+    }
+    ByteBuffer data = window.duplicate();
+    data.position((int) (offset - windowStart)).limit((int) (offset - windowStart + length));
+    return data.slice();
+  }
+
+  private ByteBuffer map(long offset, long length) throws IOException {
+    if (channel != null) {
+      return channel.map(MapMode.READ_ONLY, offset, length);
+    }
+    if (offset + length > fileSize) {
+      throw new IOException("Range " + offset + "-" + (offset + length) + " is beyond the end of the content");
+    }
+    ByteBuffer data = content.duplicate();
+    data.position((int) offset).limit((int) (offset + length));
+    return data.slice();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+  public static class MappedSequence {
+
+    private final String defline;
+    private final CharSequence sequence;
+
+    public MappedSequence(String defline, CharSequence sequence) {
+      this.defline = defline;
+      this.sequence = sequence;
+    }
+
+    public String getDefline() {
+      return defline;
+    }
+
+    /**
+     * @return the sequence data without newlines
+     */
+    public CharSequence getSequence() {
+      return sequence;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+
+/**
+ * Maximum number of rows a search returns.  Once the last row is passed on, {@link ReachedException} is thrown to
+ * the finder producing the matches, which ends the scan where it is instead of finding matches nobody reads.  The
+ * count is shared by the datasets of a search, whichever thread scans them.  Matches without a source id are not
+ * written as rows, so they are dropped here rather than counted.
+ */
+public class MatchLimit {
+
+  /**
+   * Thrown once a search has produced as many rows as its limit allows
+   */
+  public static class ReachedException extends Exception {
+    private static final long serialVersionUID = 1L;
+    ReachedException(int maxRows) {
+      super("Search stopped after " + maxRows + " rows");
+    }
+  }
+
+  private final int maxRows;
+  private final AtomicInteger rows = new AtomicInteger();
+
+  /**
+   * @param maxRows maximum number of rows, at least 1
+   */
+  public MatchLimit(int maxRows) {
+    if (maxRows < 1) {
+      throw new IllegalArgumentException("maxRows must be positive: " + maxRows);
+    }
+    this.maxRows = maxRows;
+  }
+
+  public int getMaxRows() {
+    return maxRows;
+  }
+
+  public boolean isReached() {
+    return rows.get() >= maxRows;
+  }
+
+  /**
+   * @return a consumer passing matches on to the given one, counted against this limit; it throws
+   * {@link ReachedException} after passing on the last match the limit allows, and before any further one
+   */
+  public ConsumerWithException<PluginMatch> limit(ConsumerWithException<PluginMatch> consumer) {
+    return match -> {
+      if (!match.hasRow()) return;
+      if (isReached()) {
+        throw new ReachedException(maxRows);
+      }
+      consumer.accept(match);
+      if (rows.incrementAndGet() >= maxRows) {
+        throw new ReachedException(maxRows);
+      }
+    };
+  }
+
+  /**
+   * @return a consumer passing on the matches of a dataset scanned ahead of the rows being counted; it throws
+   * {@link ReachedException} once the dataset alone has as many matches as the limit allows, or once the limit is
+   * reached by the rows already counted
+   */
+  public ConsumerWithException<PluginMatch> bound(ConsumerWithException<PluginMatch> consumer) {
+    int[] matches = new int[1];
+    return match -> {
+      if (!match.hasRow()) return;
+      if (isReached()) {
+        throw new ReachedException(maxRows);
+      }
+      consumer.accept(match);
+      if (++matches[0] >= maxRows) {
+        throw new ReachedException(maxRows);
+      }
+    };
+  }
+}
@@ -1,14 +1,110 @@
 package org.apidb.apicomplexa.wsfplugin.motifsearch;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.regex.Pattern;
 
 public class MotifConfig {
 
+  public static final String FIELD_BOTH_STRANDS = "BothStrands";
   public static final String FIELD_CONTEXT_LENGTH = "ContextLength";
+  public static final String FIELD_DATASET_EXECUTION = "DatasetExecution";
+  public static final String FIELD_DATASET_PARALLELISM = "DatasetParallelism";
+  public static final String FIELD_DATASET_THREADS = "DatasetThreads";
+  public static final String FIELD_DEFLINE_CACHE_SIZE = "DeflineCacheSize";
+  public static final String FIELD_DNA_SCAN_MODE = "DnaScanMode";
+  public static final String FIELD_GENOME_CACHE_PRELOAD = "GenomeCachePreload";
+  public static final String FIELD_GENOME_CACHE_SIZE = "GenomeCacheSize";
+  public static final String FIELD_ORF_MIN_LENGTH = "OrfMinLength";
+  public static final String FIELD_ORF_SCAN_MODE = "OrfScanMode";
+  public static final String FIELD_PROTEIN_MAX_MATCH_LENGTH = "ProteinMaxMatchLength";
+  public static final String FIELD_PROTEIN_SCAN_MODE = "ProteinScanMode";
+  public static final String FIELD_REGEX_STEPS_PER_CHARACTER = "RegexStepsPerCharacter";
+  public static final String FIELD_RESULT_CACHE_DIR = "ResultCacheDir";
+  public static final String FIELD_RESULT_CACHE_DISK_SIZE = "ResultCacheDiskSize";
+  public static final String FIELD_RESULT_CACHE_SIZE = "ResultCacheSize";
+  public static final String FIELD_ROW_QUEUE_SIZE = "RowQueueSize";
+  public static final String FIELD_SCAN_CONCURRENCY = "ScanConcurrency";
+  public static final String FIELD_SEQUENCE_PARALLELISM = "SequenceParallelism";
+
+  /**
+   * How DNA datasets are scanned
+   */
+  public enum DnaScanMode {
+    /** sequences are streamed and scanned one at a time */
+    STREAMING,
+    /** sequences of a dataset are scanned concurrently, see {@link ShardedDnaMatchFinder} */
+    SHARDED,
+    /** dataset files are memory mapped and scanned in place, see {@link MappedDnaMatchFinder} */
+    MAPPED,
+    /** two-bit packed copies of the dataset files are scanned, see {@link PackedDnaMatchFinder} */
+    PACKED;
+  }
+
+  /**
+   * How ORF datasets are scanned
+   */
+  public enum OrfScanMode {
+    /** the datasets are .fasta files of the ORFs, translated beforehand */
+    FILES,
+    /**
+     * the datasets are the genome .fasta files, whose ORFs are translated as they are scanned, see
+     * {@link TranslatedOrfMatchFinder}
+     */
+    TRANSLATED;
+  }
+
+  /**
+   * How protein and ORF datasets are scanned
+   */
+  public enum ProteinScanMode {
+    /** sequences are streamed and scanned one at a time */
+    STREAMING,
+    /** dataset files are memory mapped and scanned in place, see {@link MappedAAMatchFinder} */
+    MAPPED;
+  }
+
+  /**
+   * Threads the datasets of a search are scanned on
+   */
+  public enum DatasetExecution {
+    /** a pool of DatasetThreads platform threads shared by all searches */
+    POOL,
+    /**
+     * a virtual thread per dataset, up to DatasetParallelism at a time, with ScanConcurrency of them scanning at
+     * once across all searches; a scan waiting for its file to be read lets another one scan.  Virtual threads need
+     * a Java 21 or later runtime; on older ones, such as the Java 17 the plugin is built for, datasets are scanned
+     * as in POOL mode, and a warning is logged.
+     */
+    VIRTUAL;
+  }
 
   private Pattern pattern;
+  private Pattern genomeDeflinePattern;
+  private boolean bothStrands = false;
   private int contextLength = 20;
+  private DatasetExecution datasetExecution = DatasetExecution.POOL;
+  private int datasetParallelism = 1;
+  private int datasetThreads = Runtime.getRuntime().availableProcessors();
+  private int deflineCacheSize = 100000;
+  private DnaScanMode dnaScanMode = DnaScanMode.STREAMING;
+  private List<File> genomeCachePreload = Collections.emptyList();
+  private long genomeCacheSize = 0;
+  private int orfMinLength = 50;
+  private OrfScanMode orfScanMode = OrfScanMode.FILES;
+  private int proteinMaxMatchLength = 50000;
+  private ProteinScanMode proteinScanMode = ProteinScanMode.STREAMING;
+  private long regexStepsPerCharacter = 1000;
+  private Optional<File> resultCacheDir = Optional.empty();
+  private long resultCacheDiskSize = 1024L << 20;
+  private long resultCacheSize = 0;
+  private int rowQueueSize = 4096;
+  private int scanConcurrency = Runtime.getRuntime().availableProcessors();
+  private int sequenceParallelism = Runtime.getRuntime().availableProcessors();
 
   public MotifConfig(Properties properties, String regexField,
       String defaultRegex) {
@@ -16,17 +112,220 @@ public class MotifConfig {
     // load optional properties
     String regex = properties.getProperty(regexField, defaultRegex);
     pattern = Pattern.compile(regex);
+    genomeDeflinePattern = Pattern.compile(properties.getProperty(DnaMotifPlugin.FIELD_REGEX,
+        DnaMotifPlugin.DEFAULT_REGEX));
+
+    if (properties.containsKey(FIELD_BOTH_STRANDS))
+      bothStrands = Boolean.parseBoolean(properties.getProperty(FIELD_BOTH_STRANDS).trim());
 
     if (properties.containsKey(FIELD_CONTEXT_LENGTH))
       contextLength = Integer.valueOf(properties.getProperty(FIELD_CONTEXT_LENGTH));
+
+    if (properties.containsKey(FIELD_DATASET_EXECUTION))
+      datasetExecution = DatasetExecution.valueOf(properties.getProperty(FIELD_DATASET_EXECUTION).trim().toUpperCase());
+
+    if (properties.containsKey(FIELD_DATASET_PARALLELISM))
+      datasetParallelism = Math.max(1, Integer.valueOf(properties.getProperty(FIELD_DATASET_PARALLELISM)));
+
+    if (properties.containsKey(FIELD_DATASET_THREADS))
+      datasetThreads = Math.max(1, Integer.valueOf(properties.getProperty(FIELD_DATASET_THREADS).trim()));
+
+    if (properties.containsKey(FIELD_DEFLINE_CACHE_SIZE))
+      deflineCacheSize = Math.max(0, Integer.valueOf(properties.getProperty(FIELD_DEFLINE_CACHE_SIZE).trim()));
+
+    if (properties.containsKey(FIELD_DNA_SCAN_MODE))
+      dnaScanMode = DnaScanMode.valueOf(properties.getProperty(FIELD_DNA_SCAN_MODE).trim().toUpperCase());
+
+    if (properties.containsKey(FIELD_GENOME_CACHE_PRELOAD)) {
+      genomeCachePreload = new ArrayList<>();
+      for (String path : properties.getProperty(FIELD_GENOME_CACHE_PRELOAD).split(",")) {
+        if (!path.trim().isEmpty()) genomeCachePreload.add(new File(path.trim()));
+      }
+    }
+
+    if (properties.containsKey(FIELD_GENOME_CACHE_SIZE))
+      genomeCacheSize = Long.valueOf(properties.getProperty(FIELD_GENOME_CACHE_SIZE).trim()) << 20;
+
+    if (properties.containsKey(FIELD_ORF_MIN_LENGTH))
+      orfMinLength = Math.max(1, Integer.valueOf(properties.getProperty(FIELD_ORF_MIN_LENGTH).trim()));
+
+    if (properties.containsKey(FIELD_PROTEIN_MAX_MATCH_LENGTH))
+      proteinMaxMatchLength = Math.max(1,
+          Integer.valueOf(properties.getProperty(FIELD_PROTEIN_MAX_MATCH_LENGTH).trim()));
+
+    if (properties.containsKey(FIELD_ORF_SCAN_MODE))
+      orfScanMode = OrfScanMode.valueOf(properties.getProperty(FIELD_ORF_SCAN_MODE).trim().toUpperCase());
+
+    if (properties.containsKey(FIELD_PROTEIN_SCAN_MODE))
+      proteinScanMode = ProteinScanMode.valueOf(properties.getProperty(FIELD_PROTEIN_SCAN_MODE).trim().toUpperCase());
+
+    if (properties.containsKey(FIELD_REGEX_STEPS_PER_CHARACTER))
+      regexStepsPerCharacter = Long.valueOf(properties.getProperty(FIELD_REGEX_STEPS_PER_CHARACTER).trim());
+
+    if (properties.containsKey(FIELD_RESULT_CACHE_DIR))
+      resultCacheDir = Optional.of(new File(properties.getProperty(FIELD_RESULT_CACHE_DIR).trim()));
+
+    if (properties.containsKey(FIELD_RESULT_CACHE_DISK_SIZE))
+      resultCacheDiskSize = Long.valueOf(properties.getProperty(FIELD_RESULT_CACHE_DISK_SIZE).trim()) << 20;
+
+    if (properties.containsKey(FIELD_RESULT_CACHE_SIZE))
+      resultCacheSize = Long.valueOf(properties.getProperty(FIELD_RESULT_CACHE_SIZE).trim()) << 20;
+
+    if (properties.containsKey(FIELD_ROW_QUEUE_SIZE))
+      rowQueueSize = Math.max(0, Integer.valueOf(properties.getProperty(FIELD_ROW_QUEUE_SIZE).trim()));
+
+    if (properties.containsKey(FIELD_SCAN_CONCURRENCY))
+      scanConcurrency = Math.max(1, Integer.valueOf(properties.getProperty(FIELD_SCAN_CONCURRENCY).trim()));
+
+    if (properties.containsKey(FIELD_SEQUENCE_PARALLELISM))
+      sequenceParallelism = Math.max(1, Integer.valueOf(properties.getProperty(FIELD_SEQUENCE_PARALLELISM)));
   }
 
   public Pattern getDeflinePattern() {
     return pattern;
   }
 
+  /**
+   * @return regex of the deflines of genome .fasta files (DnaDeflineRegex), whatever the plugin, as ORFs may be
+   * translated from them
+   */
+  public Pattern getGenomeDeflinePattern() {
+    return genomeDeflinePattern;
+  }
+
+  /**
+   * @return true if DNA motifs are searched for on both strands of the forward strand sequences, skipping any
+   * reverse strand sequences stored in the datasets
+   */
+  public boolean isBothStrands() {
+    return bothStrands;
+  }
+
   public int getContextLength() {
     return contextLength;
   }
 
+  public DatasetExecution getDatasetExecution() {
+    return datasetExecution;
+  }
+
+  /**
+   * @return maximum number of datasets (organisms) scanned concurrently by a single search; 1 scans them serially
+   */
+  public int getDatasetParallelism() {
+    return datasetParallelism;
+  }
+
+  /**
+   * @return number of threads of the pool datasets are scanned on, shared by all searches; the pool is created with
+   * the configuration of the first search that uses it
+   */
+  public int getDatasetThreads() {
+    return datasetThreads;
+  }
+
+  /**
+   * @return bound on the number of deflines of dataset files without an index held parsed by the
+   * {@link DeflineCache}; 0 disables the defline cache
+   */
+  public int getDeflineCacheSize() {
+    return deflineCacheSize;
+  }
+
+  public DnaScanMode getDnaScanMode() {
+    return dnaScanMode;
+  }
+
+  /**
+   * @return dataset files read into the genome cache when it is created
+   */
+  public List<File> getGenomeCachePreload() {
+    return genomeCachePreload;
+  }
+
+  /**
+   * @return bound in bytes on the size of the dataset content held off-heap by the {@link GenomeCache}; 0 disables
+   * the genome cache
+   */
+  public long getGenomeCacheSize() {
+    return genomeCacheSize;
+  }
+
+  /**
+   * @return minimum number of residues of the ORFs translated from genomes
+   */
+  public int getOrfMinLength() {
+    return orfMinLength;
+  }
+
+  /**
+   * @return maximum number of residues of a protein or ORF match; longer matches fail the search, except that
+   * streamed sequences, scanned in windows of about four times this length, only detect those of up to twice it
+   */
+  public int getProteinMaxMatchLength() {
+    return proteinMaxMatchLength;
+  }
+
+  public OrfScanMode getOrfScanMode() {
+    return orfScanMode;
+  }
+
+  public ProteinScanMode getProteinScanMode() {
+    return proteinScanMode;
+  }
+
+  /**
+   * @return number of steps a backtracking (java.util.regex) search may take per character of sequence it advances
+   * before it is aborted; 0 disables the limit
+   */
+  public long getRegexStepsPerCharacter() {
+    return regexStepsPerCharacter;
+  }
+
+  /**
+   * @return directory in which the matches of searches are also cached, so they survive restarts
+   */
+  public Optional<File> getResultCacheDir() {
+    return resultCacheDir;
+  }
+
+  /**
+   * @return bound in bytes on the size of the matches cached in the result cache directory
+   */
+  public long getResultCacheDiskSize() {
+    return resultCacheDiskSize;
+  }
+
+  /**
+   * @return bound in bytes on the size of the matches cached in memory; 0, the default, disables the result cache
+   */
+  public long getResultCacheSize() {
+    return resultCacheSize;
+  }
+
+  /**
+   * @return number of matches that may wait for the thread writing the rows of a search, see {@link RowWriter}; 0
+   * writes the rows on the scanning thread instead
+   */
+  public int getRowQueueSize() {
+    return rowQueueSize;
+  }
+
+  /**
+   * @return maximum number of datasets scanning (rather than waiting for reads) at once across all searches, when
+   * datasets are scanned on virtual threads; read once, by the first such search
+   */
+  public int getScanConcurrency() {
+    return scanConcurrency;
+  }
+
+  /**
+   * @return number of threads sequences are scanned on in sharded scan mode, shared by all searches, and so the
+   * maximum number of sequences of one dataset scanned concurrently; the pool is created with the configuration of
+   * the first search that uses it
+   */
+  public int getSequenceParallelism() {
+    return sequenceParallelism;
+  }
+
 }
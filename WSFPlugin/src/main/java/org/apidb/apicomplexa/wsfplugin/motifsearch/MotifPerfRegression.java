@@ -0,0 +1,339 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import static org.gusdb.fgputil.FormatUtil.NL;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.AbstractMotifPlugin.MatchFinder;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.MotifConfig.DnaScanMode;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.SyntheticSequences.Type;
+import org.json.JSONObject;
+
+/**
+ * Performance regression run of the motif search engines.  Generates deterministic synthetic datasets of each type
+ * (see {@link SyntheticSequences}), scans them with every match finder, and reports as JSON, per finder:
+ * throughput (MB/s of dataset file and matches/s), the median and 99th percentile of the per-sequence latency, and
+ * peak heap use.  The per-sequence latency is the time between the first results of successive sequences (for
+ * DNA, chromosomes), as the plugin response sees them.
+ *
+ * Given the JSON of an earlier run as a baseline, reports every metric that got worse by more than a tolerance,
+ * or match count that changed, and exits with status 3 if there are any; run on the same host and settings as the
+ * baseline.
+ */
+public class MotifPerfRegression {
+
+  private static final String PROJECT_ID = "PlasmoDB";
+
+  // planted motifs, and the motif searched for, which also matches elsewhere
+  private static final String DNA_MOTIF = "GATTACA";
+  private static final String DNA_EXPRESSION = "GATWACA";
+  private static final String PROTEIN_MOTIF = "WHEAT";
+  private static final String PROTEIN_EXPRESSION = "WH0AT";
+
+  // latencies within this many milliseconds of the baseline are not regressions, however small the baseline
+  private static final double LATENCY_NOISE_MILLIS = 1.0;
+
+  private static final int REGRESSION_STATUS = 3;
+
+  private static final Map<String, String> DEFAULT_SETTINGS = new LinkedHashMap<>();
+  static {
+    DEFAULT_SETTINGS.put("seed", "1");
+    DEFAULT_SETTINGS.put("runs", "3");
+    DEFAULT_SETTINGS.put("motifsPerKb", "0.05");
+    DEFAULT_SETTINGS.put("dnaSequences", "8");
+    DEFAULT_SETTINGS.put("dnaLength", "2000000");
+    DEFAULT_SETTINGS.put("proteinSequences", "5000");
+    DEFAULT_SETTINGS.put("proteinLength", "2000");
+    DEFAULT_SETTINGS.put("orfSequences", "20000");
+    DEFAULT_SETTINGS.put("orfLength", "500");
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> settings = new LinkedHashMap<>(DEFAULT_SETTINGS);
+    Properties properties = new Properties();
+    File baselineFile = null;
+    File outputFile = null;
+    double tolerance = 0.2;
+    if (args.length % 2 != 0) usageAndExit();
+    for (int i = 0; i < args.length; i += 2) {
+      String option = args[i].startsWith("-") ? args[i].substring(1) : "";
+      String value = args[i + 1];
+      if (option.equals("config")) {
+        try (InputStream in = new FileInputStream(value)) {
+          properties.loadFromXML(in);
+        }
+      }
+      else if (option.equals("baseline")) baselineFile = new File(value);
+      else if (option.equals("output")) outputFile = new File(value);
+      else if (option.equals("tolerance")) tolerance = Double.parseDouble(value);
+      else if (settings.containsKey(option)) settings.put(option, value);
+      else usageAndExit();
+    }
+
+    JSONObject report = new MotifPerfRegression(settings, properties).run();
+    String json = report.toString(2);
+    if (outputFile == null) {
+      System.out.println(json);
+    }
+    else {
+      Files.write(outputFile.toPath(), json.getBytes(StandardCharsets.UTF_8));
+      System.err.println("Wrote " + outputFile);
+    }
+
+    if (baselineFile != null) {
+      JSONObject baseline = new JSONObject(new String(Files.readAllBytes(baselineFile.toPath()), StandardCharsets.UTF_8));
+      List<String> regressions = compare(baseline, report, tolerance);
+      for (String regression : regressions) {
+        System.err.println("REGRESSION " + regression);
+      }
+      System.err.println(regressions.size() + " regressions against " + baselineFile + " (tolerance "
+          + Math.round(tolerance * 100) + "%)");
+      if (!regressions.isEmpty()) System.exit(REGRESSION_STATUS);
+    }
+  }
+
+  private static void usageAndExit() {
+    System.err.println("USAGE: fgpJava " + MotifSearchPerfCli.class.getName() + " -regression"
+        + " [-config <motifSearch-config.xml>] [-output <report.json>] [-baseline <report.json>] [-tolerance <fraction>]"
+        + " [-<setting> <value> ...]" + NL
+        + "  where the settings and their defaults are " + DEFAULT_SETTINGS);
+    System.exit(1);
+  }
+
+  /**
+   * One finder scanning one dataset
+   */
+  private static class Case {
+    final String name;
+    final MatchFinder finder;
+    final File file;
+    final Pattern pattern;
+
+    Case(String name, MatchFinder finder, File file, Pattern pattern) {
+      this.name = name;
+      this.finder = finder;
+      this.file = file;
+      this.pattern = pattern;
+    }
+  }
+
+  /**
+   * Metrics of one scan
+   */
+  private static class Measurement {
+    int sequences;
+    long matches;
+    long elapsedNanos;
+    final List<Long> latencyNanos = new ArrayList<>();
+    long peakHeapBytes;
+  }
+
+  private final Map<String, String> settings;
+  private final Properties properties;
+
+  public MotifPerfRegression(Map<String, String> settings, Properties properties) {
+    this.settings = settings;
+    this.properties = properties;
+  }
+
+  private int getInt(String setting) {
+    return Integer.parseInt(settings.get(setting));
+  }
+
+  public JSONObject run() throws Exception {
+    long seed = Long.parseLong(settings.get("seed"));
+    double motifsPerKb = Double.parseDouble(settings.get("motifsPerKb"));
+
+    System.err.println("Generating datasets with " + settings);
+    File genome = new SyntheticSequences(Type.DNA).seed(seed).sequences(getInt("dnaSequences"))
+        .lengths(getInt("dnaLength") / 2, getInt("dnaLength")).plant(DNA_MOTIF, motifsPerKb).write();
+    File proteome = new SyntheticSequences(Type.PROTEIN).seed(seed).sequences(getInt("proteinSequences"))
+        .lengths(30, getInt("proteinLength")).plant(PROTEIN_MOTIF, motifsPerKb).write();
+    File orfs = new SyntheticSequences(Type.ORF).seed(seed).sequences(getInt("orfSequences"))
+        .lengths(30, getInt("orfLength")).plant(PROTEIN_MOTIF, motifsPerKb).write();
+
+    // prepare the sidecar files deployments have
+    MotifConfig dnaConfig = new MotifConfig(properties, DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+    MotifConfig proteinConfig = new MotifConfig(properties, ProteinMotifPlugin.FIELD_REGEX, AAMotifPlugin.DEFAULT_REGEX);
+    MotifConfig orfConfig = new MotifConfig(properties, OrfMotifPlugin.FIELD_REGEX,
+        SyntheticSequences.ORF_DEFLINE_REGEX);
+    writeIndex(genome, dnaConfig, Defline.Format.DNA);
+    writeKmerIndex(writeIndex(proteome, proteinConfig, Defline.Format.PROTEIN));
+    writeKmerIndex(writeIndex(orfs, orfConfig, Defline.Format.PROTEIN));
+    PackedGenome.write(genome);
+    PackedGenome.getPackedFile(genome).deleteOnExit();
+
+    List<Case> cases = new ArrayList<>();
+    Pattern dnaPattern = AbstractMotifPlugin.translateExpression(DNA_EXPRESSION, DnaMotifPlugin.SYMBOL_MAP);
+    for (DnaScanMode mode : DnaScanMode.values()) {
+      Properties modeProperties = new Properties();
+      modeProperties.putAll(properties);
+      modeProperties.setProperty(MotifConfig.FIELD_DNA_SCAN_MODE, mode.name());
+      MotifConfig config = new MotifConfig(modeProperties, DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+      cases.add(new Case("DNA/" + mode, new DnaMotifPlugin().getMatchFinder(config), genome, dnaPattern));
+    }
+    ProteinMotifPlugin proteinPlugin = new ProteinMotifPlugin();
+    Pattern proteinPattern = AbstractMotifPlugin.translateExpression(PROTEIN_EXPRESSION, proteinPlugin.getSymbols());
+    cases.add(new Case("PROTEIN", proteinPlugin.getMatchFinder(proteinConfig), proteome, proteinPattern));
+    cases.add(new Case("ORF", new OrfMotifPlugin().getMatchFinder(orfConfig), orfs, proteinPattern));
+
+    JSONObject results = new JSONObject();
+    for (Case c : cases) {
+      // the first scan compiles the code and fills the page cache
+      measure(c);
+      List<Measurement> runs = new ArrayList<>();
+      for (int run = 0; run < getInt("runs"); run++) {
+        runs.add(measure(c));
+      }
+      runs.sort(Comparator.comparingLong(m -> m.elapsedNanos));
+      JSONObject result = toJson(runs.get(runs.size() / 2), c.file.length());
+      System.err.println(c.name + ": " + result);
+      results.put(c.name, result);
+    }
+
+    JSONObject report = new JSONObject();
+    report.put("settings", new JSONObject(settings));
+    report.put("java", System.getProperty("java.version"));
+    report.put("results", results);
+    return report;
+  }
+
+  private static FastaIndex writeIndex(File file, MotifConfig config, Defline.Format format) throws IOException {
+    FastaIndex index = FastaIndex.build(file, config.getDeflinePattern(), format);
+    index.write();
+    FastaIndex.getIndexFile(file).deleteOnExit();
+    return index;
+  }
+
+  private static void writeKmerIndex(FastaIndex index) throws IOException {
+    KmerIndex.write(index);
+    KmerIndex.getIndexFile(index.getFastaFile()).deleteOnExit();
+  }
+
+  private static Measurement measure(Case c) throws Exception {
+    List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) heapPools.add(pool);
+    }
+    System.gc();
+    heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+    Measurement measurement = new Measurement();
+    long start = System.nanoTime();
+    long[] sequenceStart = { start };
+    String[] sequence = { null };
+    c.finder.findMatches(c.file, c.pattern, match -> {
+      // reverse strand matches of reverse strand sequences are not reported (see PluginMatch)
+      if (!match.hasRow()) return;
+      // DNA matches carry their sequence; protein matches are one per sequence
+      String id = match.sequenceId != null ? match.sequenceId : match.sourceId;
+      if (!id.equals(sequence[0])) {
+        long now = System.nanoTime();
+        if (sequence[0] != null) measurement.latencyNanos.add(now - sequenceStart[0]);
+        sequenceStart[0] = now;
+        sequence[0] = id;
+        measurement.sequences++;
+      }
+      measurement.matches++;
+    }, organism -> PROJECT_ID);
+    long end = System.nanoTime();
+    measurement.latencyNanos.add(end - sequenceStart[0]);
+    measurement.elapsedNanos = end - start;
+
+    for (MemoryPoolMXBean pool : heapPools) {
+      measurement.peakHeapBytes += pool.getPeakUsage().getUsed();
+    }
+    return measurement;
+  }
+
+  private static JSONObject toJson(Measurement measurement, long fileSize) {
+    double seconds = measurement.elapsedNanos / 1e9;
+    List<Long> latencies = new ArrayList<>(measurement.latencyNanos);
+    Collections.sort(latencies);
+    JSONObject result = new JSONObject();
+    result.put("sequences", measurement.sequences);
+    result.put("matches", measurement.matches);
+    result.put("megabytes", round(fileSize / 1048576.0));
+    result.put("elapsedMillis", round(measurement.elapsedNanos / 1e6));
+    result.put("mbPerSecond", round(fileSize / 1048576.0 / seconds));
+    result.put("matchesPerSecond", round(measurement.matches / seconds));
+    result.put("p50LatencyMillis", round(percentile(latencies, 50) / 1e6));
+    result.put("p99LatencyMillis", round(percentile(latencies, 99) / 1e6));
+    result.put("peakHeapMB", round(measurement.peakHeapBytes / 1048576.0));
+    return result;
+  }
+
+  /**
+   * @return nearest-rank percentile of sorted values
+   */
+  private static long percentile(List<Long> sorted, int percent) {
+    int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+    return sorted.get(Math.max(0, rank - 1));
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 1000) / 1000.0;
+  }
+
+  /**
+   * Compares a report with a baseline report of the same settings.
+   *
+   * @return descriptions of the metrics that got worse by more than the tolerance, and of changed match counts
+   */
+  public static List<String> compare(JSONObject baseline, JSONObject report, double tolerance) {
+    if (!baseline.getJSONObject("settings").similar(report.getJSONObject("settings"))) {
+      throw new IllegalArgumentException("The baseline was run with different settings: "
+          + baseline.getJSONObject("settings"));
+    }
+    List<String> regressions = new ArrayList<>();
+    JSONObject baselineResults = baseline.getJSONObject("results");
+    JSONObject results = report.getJSONObject("results");
+    for (String name : baselineResults.keySet()) {
+      if (!results.has(name)) {
+        regressions.add(name + ": not run");
+        continue;
+      }
+      JSONObject before = baselineResults.getJSONObject(name);
+      JSONObject after = results.getJSONObject(name);
+      if (before.getLong("matches") != after.getLong("matches")) {
+        regressions.add(name + ": " + after.getLong("matches") + " matches, baseline " + before.getLong("matches"));
+      }
+      for (String higherIsBetter : Arrays.asList("mbPerSecond", "matchesPerSecond")) {
+        double limit = before.getDouble(higherIsBetter) * (1 - tolerance);
+        if (after.getDouble(higherIsBetter) < limit) {
+          regressions.add(describe(name, higherIsBetter, before, after));
+        }
+      }
+      for (String lowerIsBetter : Arrays.asList("p50LatencyMillis", "p99LatencyMillis", "peakHeapMB")) {
+        double value = after.getDouble(lowerIsBetter);
+        double baselineValue = before.getDouble(lowerIsBetter);
+        boolean noise = lowerIsBetter.endsWith("LatencyMillis") && value - baselineValue <= LATENCY_NOISE_MILLIS;
+        if (value > baselineValue * (1 + tolerance) && !noise) {
+          regressions.add(describe(name, lowerIsBetter, before, after));
+        }
+      }
+    }
+    return regressions;
+  }
+
+  private static String describe(String name, String metric, JSONObject before, JSONObject after) {
+    return name + ": " + metric + " " + after.getDouble(metric) + ", baseline " + before.getDouble(metric);
+  }
+}
@@ -0,0 +1,444 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.log4j.Logger;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifMatch;
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+
+/**
+ * Cache of the matches of motif patterns in dataset files.  The same motifs are searched for over and over against
+ * datasets that only change at release time, so the matches found in each dataset are kept, deflate-encoded, in a
+ * size-bounded LRU map, and optionally in a directory so they survive restarts.
+ *
+ * An entry is keyed by the translated pattern, the path, modification time and size of the dataset file, and the
+ * configuration the matches depend on, so a new release of a dataset is never answered from the cache; entries for
+ * old releases simply age out.  Matches of datasets whose encoding exceeds an eighth of the memory bound are not
+ * cached.
+ *
+ * Matches are recorded as they were found, before they are formatted (see {@link PluginMatch#format()}), so
+ * caching them adds no formatting to the scanning thread; those read from the cache are formatted by the thread
+ * writing the rows, as found ones are.
+ */
+public class MotifResultCache {
+
+  private static final Logger LOG = Logger.getLogger(MotifResultCache.class);
+
+  private static final int DISK_MAGIC = 0x4d524332; // "MRC2"
+  private static final String DISK_SUFFIX = ".mrc";
+
+  // tags of the encoded matches
+  private static final int END = 0;
+  private static final int FORMATTED = 1;
+  private static final int UNFORMATTED = 2;
+
+  private static MotifResultCache _instance;
+
+  /**
+   * @return the cache shared by all motif searches, created with the configuration of the first one; its counters
+   * are published by the {@link MotifSearchMonitor}
+   */
+  public static synchronized MotifResultCache getInstance(MotifConfig config) {
+    if (_instance == null) {
+      _instance = new MotifResultCache(config.getResultCacheSize(), config.getResultCacheDir(),
+          config.getResultCacheDiskSize());
+      MotifSearchMonitor.getInstance().setResultCache(_instance);
+    }
+    return _instance;
+  }
+
+  /**
+   * @return the cache key of the matches of the pattern in the dataset file, found by the given plugin (the ORF
+   * plugin may search the genome files the DNA plugin does)
+   */
+  public static String key(Class<?> plugin, Pattern pattern, File datasetFile, MotifConfig config) {
+    return String.join("\u0000",
+        plugin.getName(),
+        pattern.pattern(),
+        Integer.toString(pattern.flags()),
+        datasetFile.getAbsolutePath(),
+        Long.toString(datasetFile.lastModified()),
+        Long.toString(datasetFile.length()),
+        Integer.toString(config.getContextLength()),
+        Boolean.toString(config.isBothStrands()),
+        config.getDeflinePattern().pattern(),
+        Integer.toString(config.getOrfMinLength()),
+        Integer.toString(config.getProteinMaxMatchLength()),
+        Long.toString(config.getRegexStepsPerCharacter()));
+  }
+
+  private final long maxMemoryBytes;
+  private final long maxEntryBytes;
+  private final Optional<File> diskDir;
+  private final long maxDiskBytes;
+
+  // encoded matches by key, least recently used first
+  private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long memoryBytes = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param maxMemoryBytes bound on the size of the entries kept in memory; 0 disables the cache
+   * @param diskDir        directory of the on-disk tier, if any
+   * @param maxDiskBytes   bound on the size of the entries kept on disk
+   */
+  public MotifResultCache(long maxMemoryBytes, Optional<File> diskDir, long maxDiskBytes) {
+    this.maxMemoryBytes = maxMemoryBytes;
+    this.maxEntryBytes = maxMemoryBytes / 8;
+    this.diskDir = maxMemoryBytes > 0 ? diskDir : Optional.empty();
+    this.maxDiskBytes = maxDiskBytes;
+    this.diskDir.ifPresent(File::mkdirs);
+  }
+
+  public boolean isEnabled() {
+    return maxMemoryBytes > 0;
+  }
+
+  /**
+   * @return the cached matches, or empty if there are none
+   */
+  public Optional<List<PluginMatch>> get(String key) {
+    if (!isEnabled()) {
+      return Optional.empty();
+    }
+    byte[] encoded;
+    synchronized (this) {
+      encoded = entries.get(key);
+    }
+    if (encoded != null) {
+      hits.incrementAndGet();
+    }
+    else {
+      encoded = readFromDisk(key);
+      if (encoded == null) {
+        misses.incrementAndGet();
+        return Optional.empty();
+      }
+      diskHits.incrementAndGet();
+      putInMemory(key, encoded);
+    }
+    try {
+      return Optional.of(decode(encoded));
+    }
+    catch (IOException e) {
+      LOG.warn("Could not decode cached matches; searching again", e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Creates a recorder of the matches of a search, which are cached under the given key if the search completes.
+   */
+  public Recorder newRecorder(String key) {
+    return new Recorder(key);
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getDiskHits() {
+    return diskHits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  public synchronized long getMemoryBytes() {
+    return memoryBytes;
+  }
+
+  /**
+   * Clears the hit, miss and eviction counters; the entries are kept
+   */
+  public void resetCounters() {
+    for (AtomicLong counter : new AtomicLong[] { hits, diskHits, misses, evictions }) {
+      counter.set(0);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "motif result cache: " + getHits() + " hits, " + getDiskHits() + " disk hits, " + getMisses() +
+        " misses, " + getEvictions() + " evictions, " + getEntryCount() + " entries of " + getMemoryBytes() + " bytes";
+  }
+
+  private synchronized void putInMemory(String key, byte[] encoded) {
+    byte[] previous = entries.put(key, encoded);
+    memoryBytes += encoded.length - (previous == null ? 0 : previous.length);
+    Iterator<byte[]> eldest = entries.values().iterator();
+    while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+      memoryBytes -= eldest.next().length;
+      eldest.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  private void put(String key, byte[] encoded) {
+    putInMemory(key, encoded);
+    if (diskDir.isPresent()) {
+      try {
+        writeToDisk(key, encoded);
+      }
+      catch (IOException e) {
+        LOG.warn("Could not write cached matches to " + diskDir.get(), e);
+      }
+    }
+  }
+
+  /**
+   * Records the matches of one search as they are found, without formatting them; a match must be recorded before
+   * it is passed on to be formatted.  The recording is abandoned once it grows beyond the entry size bound, and is
+   * only deflated once the search completes.
+   */
+  public class Recorder implements ConsumerWithException<PluginMatch> {
+
+    private final String key;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private DataOutputStream out = new DataOutputStream(bytes);
+
+    private Recorder(String key) {
+      this.key = key;
+    }
+
+    @Override
+    public void accept(PluginMatch match) throws IOException {
+      if (out == null) {
+        return;
+      }
+      MotifMatch motifMatch = match.getUnformattedMatch();
+      if (motifMatch != null) {
+        out.writeByte(UNFORMATTED);
+        writeString(out, match.projectId);
+        writeString(out, match.sequenceId);
+        out.writeInt(match.getSequenceLength());
+        out.writeBoolean(motifMatch.isReversed());
+        out.writeInt(motifMatch.getStartPos());
+        out.writeInt(motifMatch.getEndPos());
+        out.writeInt(motifMatch.getPatternIndex());
+        writeString(out, motifMatch.getLeadingContext());
+        writeString(out, motifMatch.getMatch());
+        writeString(out, motifMatch.getTrailingContext());
+      }
+      else {
+        out.writeByte(FORMATTED);
+        writeString(out, match.sourceId);
+        writeString(out, match.projectId);
+        writeString(out, match.locations);
+        out.writeInt(match.matchCount);
+        writeString(out, match.sequence);
+        writeString(out, match.sequenceId);
+        out.writeInt(match.matchSequences.size());
+        for (String matchSequence : match.matchSequences) {
+          writeString(out, matchSequence);
+        }
+      }
+      if (bytes.size() > maxEntryBytes) {
+        out = null;
+      }
+    }
+
+    /**
+     * Caches the recorded matches; called once all matches of the search have been recorded.
+     */
+    public void finish() throws IOException {
+      if (out == null) {
+        LOG.debug("Matches are too large to cache");
+        return;
+      }
+      out.writeByte(END);
+      out = null;
+      ByteArrayOutputStream encoded = new ByteArrayOutputStream(bytes.size() / 4);
+      try (DeflaterOutputStream deflater = new DeflaterOutputStream(encoded)) {
+        bytes.writeTo(deflater);
+      }
+      put(key, encoded.toByteArray());
+    }
+  }
+
+  private static List<PluginMatch> decode(byte[] encoded) throws IOException {
+    List<PluginMatch> matches = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(encoded)))) {
+      for (int tag = in.readByte(); tag != END; tag = in.readByte()) {
+        matches.add(tag == UNFORMATTED ? decodeUnformatted(in) : decodeFormatted(in));
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * @return a match left to be formatted by the thread writing the rows, as it was when it was found
+   */
+  private static PluginMatch decodeUnformatted(DataInputStream in) throws IOException {
+    String projectId = readString(in);
+    String sequenceId = readString(in);
+    int sequenceLength = in.readInt();
+    MotifMatch motifMatch = new MotifMatch.Builder()
+        .reversed(in.readBoolean())
+        .startPos(in.readInt())
+        .endPos(in.readInt())
+        .patternIndex(in.readInt())
+        .leadingContext(readString(in))
+        .match(readString(in))
+        .trailingContext(readString(in))
+        .build();
+    return motifMatch.isReversed()
+        ? PluginMatch.ofReverseMatch(motifMatch, sequenceLength, projectId, sequenceId)
+        : PluginMatch.ofForwardMatch(motifMatch, projectId, sequenceId);
+  }
+
+  private static PluginMatch decodeFormatted(DataInputStream in) throws IOException {
+    PluginMatch match = new PluginMatch();
+    match.sourceId = readString(in);
+    match.projectId = readString(in);
+    match.locations = readString(in);
+    match.matchCount = in.readInt();
+    match.sequence = readString(in);
+    match.sequenceId = readString(in);
+    int matchSequences = in.readInt();
+    for (int i = 0; i < matchSequences; i++) {
+      match.matchSequences.add(readString(in));
+    }
+    return match;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private File diskFile(String key) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      StringBuilder name = new StringBuilder();
+      for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8))) {
+        name.append(String.format("%02x", b));
+      }
+      return new File(diskDir.get(), name.append(DISK_SUFFIX).toString());
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return the encoded matches stored on disk under the key, or null if there are none
+   */
+  private byte[] readFromDisk(String key) {
+    if (!diskDir.isPresent()) {
+      return null;
+    }
+    File file = diskFile(key);
+    if (!file.isFile()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      // the key is stored in full, as file names are only digests of it
+      if (in.readInt() != DISK_MAGIC || !key.equals(readString(in))) {
+        return null;
+      }
+      byte[] encoded = new byte[in.readInt()];
+      in.readFully(encoded);
+      // keep recently used entries from being evicted
+      file.setLastModified(System.currentTimeMillis());
+      return encoded;
+    }
+    catch (IOException e) {
+      LOG.warn("Could not read cached matches from " + file, e);
+      return null;
+    }
+  }
+
+  private void writeToDisk(String key, byte[] encoded) throws IOException {
+    File file = diskFile(key);
+    File temp = File.createTempFile("matches", ".tmp", diskDir.get());
+    try {
+      try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+        out.writeInt(DISK_MAGIC);
+        writeString(out, key);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally {
+      temp.delete();
+    }
+    evictFromDisk();
+  }
+
+  /**
+   * Deletes the least recently used files of the on-disk tier until it fits in its bound
+   */
+  private synchronized void evictFromDisk() {
+    File[] files = diskDir.get().listFiles((dir, name) -> name.endsWith(DISK_SUFFIX));
+    if (files == null) {
+      return;
+    }
+    long size = Arrays.stream(files).mapToLong(File::length).sum();
+    if (size <= maxDiskBytes) {
+      return;
+    }
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    for (File file : files) {
+      if (size <= maxDiskBytes) {
+        break;
+      }
+      size -= file.length();
+      if (file.delete()) {
+        evictions.incrementAndGet();
+      }
+    }
+  }
+}
@@ -0,0 +1,255 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Totals and latency histograms of the motif searches of this process, published through JMX (as
+ * {@value #OBJECT_NAME}) so that slow searches, and the datasets and patterns behind them, can be spotted in
+ * production.  Each search is added once it ends, see {@link SearchMetrics}.  The counters of the
+ * {@link MotifResultCache} shared by the searches are published along with them.
+ */
+public class MotifSearchMonitor implements MotifSearchMonitorMBean {
+
+  private static final Logger LOG = Logger.getLogger(MotifSearchMonitor.class);
+
+  public static final String OBJECT_NAME = "org.apidb.apicomplexa.wsfplugin:type=MotifSearch";
+
+  private static MotifSearchMonitor _instance;
+
+  /**
+   * @return the monitor of all motif searches, registered with the platform MBean server when it is created
+   */
+  public static synchronized MotifSearchMonitor getInstance() {
+    if (_instance == null) {
+      _instance = new MotifSearchMonitor();
+      try {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(_instance, new ObjectName(OBJECT_NAME));
+      }
+      catch (JMException e) {
+        // such as another web application of the same server having registered its own
+        LOG.warn("Could not register " + OBJECT_NAME + "; motif search metrics are only logged", e);
+      }
+    }
+    return _instance;
+  }
+
+  private final LongAdder searches = new LongAdder();
+  private final LongAdder failedSearches = new LongAdder();
+  private final LongAdder rows = new LongAdder();
+  private final LongAdder datasetScans = new LongAdder();
+  private final LongAdder datasetCacheHits = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder sequences = new LongAdder();
+  private final LongAdder readNanos = new LongAdder();
+  private final LongAdder scanNanos = new LongAdder();
+  private final LongAdder formatNanos = new LongAdder();
+  private final LongAdder emitNanos = new LongAdder();
+  private volatile LatencyHistogram searchLatency = new LatencyHistogram();
+  private volatile LatencyHistogram datasetLatency = new LatencyHistogram();
+
+  private long slowestNanos = -1;
+  private String slowestSearch = "";
+
+  // null until the result cache is created
+  private volatile MotifResultCache resultCache;
+
+  /**
+   * Publishes the counters of the result cache shared by the searches
+   */
+  public void setResultCache(MotifResultCache resultCache) {
+    this.resultCache = resultCache;
+  }
+
+  /**
+   * Adds a search that has ended
+   */
+  public void record(SearchMetrics search) {
+    searches.increment();
+    if (search.isFailed()) {
+      failedSearches.increment();
+    }
+    rows.add(search.getRows());
+    searchLatency.record(search.getElapsedNanos());
+    for (ScanMetrics dataset : search.getDatasets()) {
+      if (dataset.isCached()) {
+        datasetCacheHits.increment();
+        continue;
+      }
+      datasetScans.increment();
+      datasetLatency.record(dataset.getElapsedNanos());
+      bytes.add(dataset.getBytes());
+      sequences.add(dataset.getSequences());
+      readNanos.add(dataset.getReadNanos());
+      scanNanos.add(dataset.getScanNanos());
+      formatNanos.add(dataset.getFormatNanos());
+      emitNanos.add(dataset.getEmitNanos());
+    }
+    synchronized (this) {
+      if (search.getElapsedNanos() > slowestNanos) {
+        slowestNanos = search.getElapsedNanos();
+        slowestSearch = search.toJson().toString();
+      }
+    }
+  }
+
+  @Override
+  public long getSearches() {
+    return searches.sum();
+  }
+
+  @Override
+  public long getFailedSearches() {
+    return failedSearches.sum();
+  }
+
+  @Override
+  public long getRows() {
+    return rows.sum();
+  }
+
+  @Override
+  public long getDatasetScans() {
+    return datasetScans.sum();
+  }
+
+  @Override
+  public long getDatasetCacheHits() {
+    return datasetCacheHits.sum();
+  }
+
+  @Override
+  public long getBytesScanned() {
+    return bytes.sum();
+  }
+
+  @Override
+  public long getSequencesScanned() {
+    return sequences.sum();
+  }
+
+  @Override
+  public long getReadMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(readNanos.sum());
+  }
+
+  @Override
+  public long getScanMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(scanNanos.sum());
+  }
+
+  @Override
+  public long getFormatMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(formatNanos.sum());
+  }
+
+  @Override
+  public long getEmitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(emitNanos.sum());
+  }
+
+  @Override
+  public long getSearchMillisP50() {
+    return searchLatency.getPercentileMillis(0.5);
+  }
+
+  @Override
+  public long getSearchMillisP95() {
+    return searchLatency.getPercentileMillis(0.95);
+  }
+
+  @Override
+  public long getSearchMillisP99() {
+    return searchLatency.getPercentileMillis(0.99);
+  }
+
+  @Override
+  public long[] getSearchMillisHistogram() {
+    return searchLatency.getCounts();
+  }
+
+  @Override
+  public long getDatasetMillisP50() {
+    return datasetLatency.getPercentileMillis(0.5);
+  }
+
+  @Override
+  public long getDatasetMillisP95() {
+    return datasetLatency.getPercentileMillis(0.95);
+  }
+
+  @Override
+  public long getDatasetMillisP99() {
+    return datasetLatency.getPercentileMillis(0.99);
+  }
+
+  @Override
+  public long[] getDatasetMillisHistogram() {
+    return datasetLatency.getCounts();
+  }
+
+  @Override
+  public long getResultCacheHits() {
+    return getResultCache(MotifResultCache::getHits);
+  }
+
+  @Override
+  public long getResultCacheDiskHits() {
+    return getResultCache(MotifResultCache::getDiskHits);
+  }
+
+  @Override
+  public long getResultCacheMisses() {
+    return getResultCache(MotifResultCache::getMisses);
+  }
+
+  @Override
+  public long getResultCacheEvictions() {
+    return getResultCache(MotifResultCache::getEvictions);
+  }
+
+  @Override
+  public long getResultCacheEntries() {
+    return getResultCache(MotifResultCache::getEntryCount);
+  }
+
+  @Override
+  public long getResultCacheBytes() {
+    return getResultCache(MotifResultCache::getMemoryBytes);
+  }
+
+  private long getResultCache(ToLongFunction<MotifResultCache> counter) {
+    MotifResultCache cache = resultCache;
+    return cache == null ? 0 : counter.applyAsLong(cache);
+  }
+
+  @Override
+  public synchronized String getSlowestSearch() {
+    return slowestSearch;
+  }
+
+  @Override
+  public void reset() {
+    for (LongAdder total : new LongAdder[] { searches, failedSearches, rows, datasetScans, datasetCacheHits, bytes,
+        sequences, readNanos, scanNanos, formatNanos, emitNanos }) {
+      total.reset();
+    }
+    searchLatency = new LatencyHistogram();
+    datasetLatency = new LatencyHistogram();
+    MotifResultCache cache = resultCache;
+    if (cache != null) {
+      cache.resetCounters();
+    }
+    synchronized (this) {
+      slowestNanos = -1;
+      slowestSearch = "";
+    }
+  }
+}
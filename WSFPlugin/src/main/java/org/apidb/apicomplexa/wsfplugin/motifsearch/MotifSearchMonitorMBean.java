@@ -0,0 +1,74 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+/**
+ * Management interface of the {@link MotifSearchMonitor}.  Totals are counted from the start of the service;
+ * percentiles are the upper bounds of {@link LatencyHistogram} buckets.
+ */
+public interface MotifSearchMonitorMBean {
+
+  long getSearches();
+
+  long getFailedSearches();
+
+  long getRows();
+
+  long getDatasetScans();
+
+  long getDatasetCacheHits();
+
+  long getBytesScanned();
+
+  long getSequencesScanned();
+
+  long getReadMillis();
+
+  long getScanMillis();
+
+  long getFormatMillis();
+
+  long getEmitMillis();
+
+  long getSearchMillisP50();
+
+  long getSearchMillisP95();
+
+  long getSearchMillisP99();
+
+  long[] getSearchMillisHistogram();
+
+  long getDatasetMillisP50();
+
+  long getDatasetMillisP95();
+
+  long getDatasetMillisP99();
+
+  long[] getDatasetMillisHistogram();
+
+  long getResultCacheHits();
+
+  long getResultCacheDiskHits();
+
+  long getResultCacheMisses();
+
+  long getResultCacheEvictions();
+
+  /**
+   * @return the number of entries of the result cache in memory
+   */
+  long getResultCacheEntries();
+
+  /**
+   * @return the size of the entries of the result cache in memory
+   */
+  long getResultCacheBytes();
+
+  /**
+   * @return the metrics of the slowest search, as logged
+   */
+  String getSlowestSearch();
+
+  /**
+   * Clears the totals and histograms, and the counters of the result cache
+   */
+  void reset();
+}
@@ -3,13 +3,20 @@ package org.apidb.apicomplexa.wsfplugin.motifsearch;
 import static org.gusdb.fgputil.FormatUtil.NL;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.regex.Pattern;
 
+import org.apidb.apicomplexa.wsfplugin.motifsearch.MotifConfig.DnaScanMode;
 import org.gusdb.fgputil.FormatUtil;
 import org.gusdb.fgputil.Timer;
 
 /**
- * Runs the DnaMotif search from command line, given a match pattern and an input file
+ * Runs the DnaMotif search from command line, given a match pattern and an input file.  Several patterns separated
+ * by ';' are searched for together, in a single pass over the file, and their matches are reported per pattern.
+ * With -regression, runs {@link MotifPerfRegression} instead.
  */
 public class MotifSearchPerfCli {
 
@@ -17,25 +24,38 @@ public class MotifSearchPerfCli {
 
     // parse args; some minimal validation
     System.err.println("Args: " + FormatUtil.arrayToString(args, ", "));
-    if (args.length != 2) usageAndExit();
-    String pattern = args[0].trim();
-    if (pattern.isEmpty()) usageAndExit();
+    if (args.length > 0 && args[0].equals("-regression")) {
+      MotifPerfRegression.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
+    if (args.length < 2 || args.length > 3) usageAndExit();
+    List<Pattern> patterns = new ArrayList<>();
+    for (String expression : args[0].split(";")) {
+      if (expression.trim().isEmpty()) usageAndExit();
+      patterns.add(AbstractMotifPlugin.translateExpression(expression.trim(), DnaMotifPlugin.SYMBOL_MAP));
+    }
     File file = new File(args[1]);
     if (!file.isFile() || !file.canRead()) {
       System.err.println(file.getAbsolutePath() + " is not a readable file.");
       System.exit(2);
     }
 
+    Properties properties = new Properties();
+    if (args.length == 3) {
+      properties.setProperty(MotifConfig.FIELD_DNA_SCAN_MODE, args[2].trim());
+    }
+
     // build simple config from DnaMotifPlugin
-    MotifConfig config = new MotifConfig(new Properties(),
+    MotifConfig config = new MotifConfig(properties,
         DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+    System.err.println("Scan mode: " + config.getDnaScanMode());
 
     // instantiate this class (will collect statistics)
-    MotifSearchPerfCli stats = new MotifSearchPerfCli();
+    MotifSearchPerfCli stats = new MotifSearchPerfCli(file.length(), patterns.size());
 
-    // create a DnaMatchFinder and find matches
-    new DnaMatchFinder(config).findMatches(file,
-        AbstractMotifPlugin.translateExpression(pattern, DnaMotifPlugin.SYMBOL_MAP),
+    // create the configured DNA match finder and find matches
+    new DnaMotifPlugin().getMatchFinder(config).findMatches(file,
+        patterns,
         stats::nextMatch,
         org -> "PlasmoDB");
 
@@ -44,30 +64,48 @@ public class MotifSearchPerfCli {
   }
 
   private static void usageAndExit() {
-    System.err.println("USAGE: fgpJava " + MotifSearchPerfCli.class.getName() + " <pattern> <fasta_file>");
+    System.err.println("USAGE: fgpJava " + MotifSearchPerfCli.class.getName() + " <pattern>[;<pattern>...] <fasta_file> [scan_mode]" + NL
+        + "  where scan_mode is one of " + Arrays.toString(DnaScanMode.values()) + " (default " + DnaScanMode.STREAMING + ")" + NL
+        + "   or: fgpJava " + MotifSearchPerfCli.class.getName() + " -regression [options], see " + MotifPerfRegression.class.getSimpleName());
     System.exit(1);
   }
 
+  private final long _fileSize;
   private Timer _timer = new Timer();
   private String _thisSequence = null;
   private long _numSequencesWithMatches = 0;
   private long _numTotalMatches = 0;
   private long _totalLength = 0;
+  private final long[] _patternMatches;
+
+  public MotifSearchPerfCli(long fileSize) {
+    this(fileSize, 1);
+  }
+
+  public MotifSearchPerfCli(long fileSize, int patternCount) {
+    _fileSize = fileSize;
+    _patternMatches = new long[patternCount];
+  }
 
   public void nextMatch(PluginMatch match) {
+    // reverse strand matches are not reported (see PluginMatch)
+    if (!match.hasRow()) return;
+    match.format();
     if (!match.sequenceId.equals(_thisSequence)) {
       _numSequencesWithMatches++;
       _thisSequence = match.sequenceId;
     }
     _numTotalMatches++;
-    _totalLength += match.sequence.length();
+    _patternMatches[match.patternIndex]++;
+    if (match.sequence != null) _totalLength += match.sequence.length();
   }
 
   private void report() {
     long runtimeMillis = _timer.getElapsed();
     double avgMatchesPerSequence = (double)_numTotalMatches / (double)_numSequencesWithMatches;
     double avgMatchLength = (double)_totalLength / (double)_numTotalMatches;
-    long msPerMatch = runtimeMillis / _numTotalMatches;
+    long msPerMatch = runtimeMillis / Math.max(1, _numTotalMatches);
+    double mbPerSecond = (_fileSize / (1024.0 * 1024.0)) / Math.max(0.001, runtimeMillis / 1000.0);
     Runtime rt = Runtime.getRuntime();
     System.out.println(
         "Statistics:"
@@ -77,7 +115,13 @@ public class MotifSearchPerfCli {
         + NL + "  " + avgMatchLength + ": Avg match length (including context and highlighting HTML)"
         + NL + "  " + Timer.getDurationString(runtimeMillis) + " total runtime"
         + NL + "  " + Timer.getDurationString(msPerMatch) + " per match found"
+        + NL + "  " + String.format("%.1f", mbPerSecond) + " MB/s file throughput"
         + NL + "  " + rt.totalMemory() / 1024 + "kb memory allocated to complete this task"
     );
+    if (_patternMatches.length > 1) {
+      for (int i = 0; i < _patternMatches.length; i++) {
+        System.out.println("  " + _patternMatches[i] + ": Number of matches of pattern " + (i + 1));
+      }
+    }
   }
 }
@@ -0,0 +1,137 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+
+/**
+ * Runs a series of tasks on an executor while handing their results to a single consumer, on the calling thread, in
+ * the order the tasks were supplied.  The results of the task at the head of the order are handed over as the task
+ * produces them; tasks running ahead of it hold at most maxBuffered results each, and then wait for their turn.  At
+ * most maxInFlight tasks are submitted at a time, so no more than maxInFlight * maxBuffered results are held,
+ * however many results the tasks produce.
+ *
+ * Tasks must be run in the order they are submitted, as by a thread per task or a pool with a FIFO queue, so that
+ * the task at the head of the order is never queued behind tasks waiting for their turn.
+ */
+public class OrderedTaskRunner {
+
+  /**
+   * A task producing results as it goes
+   */
+  public interface Task<T> {
+    void run(ConsumerWithException<T> output) throws Exception;
+  }
+
+  // marks the end of the results of a task
+  private static final Object END = new Object();
+
+  private OrderedTaskRunner() {}
+
+  /**
+   * @param executor executor the tasks are submitted to
+   * @param maxInFlight maximum number of submitted but not yet consumed tasks
+   * @param maxBuffered maximum number of results a task holds before they are consumed
+   * @param tasks tasks to run, in the order their results should be consumed
+   * @param consumer receives each task's results; always called on the calling thread
+   * @throws Exception the first exception thrown by a task or the consumer, once the results produced before it
+   * have been consumed; remaining tasks are cancelled
+   */
+  public static <T> void run(
+      ExecutorService executor,
+      int maxInFlight,
+      int maxBuffered,
+      Iterator<Task<T>> tasks,
+      ConsumerWithException<T> consumer) throws Exception {
+    Deque<Submitted> inFlight = new ArrayDeque<>();
+    try {
+      while (tasks.hasNext() || !inFlight.isEmpty()) {
+        while (tasks.hasNext() && inFlight.size() < maxInFlight) {
+          inFlight.addLast(new Submitted(executor, maxBuffered, tasks.next()));
+        }
+        Submitted head = inFlight.peekFirst();
+        for (Object result = head.results.take(); result != END; result = head.results.take()) {
+          @SuppressWarnings("unchecked")
+          T typed = (T) result;
+          consumer.accept(typed);
+        }
+        await(head.future);
+        inFlight.removeFirst();
+      }
+    }
+    finally {
+      for (Submitted submitted : inFlight) {
+        submitted.cancel();
+      }
+    }
+  }
+
+  private static class Submitted {
+
+    private final BlockingQueue<Object> results;
+    private final Future<?> future;
+    private volatile boolean cancelled = false;
+
+    <T> Submitted(ExecutorService executor, int maxBuffered, Task<T> task) {
+      results = new ArrayBlockingQueue<>(Math.max(1, maxBuffered));
+      future = executor.submit(() -> {
+        try {
+          task.run(result -> {
+            if (cancelled) {
+              throw new CancellationException();
+            }
+            results.put(result);
+          });
+        }
+        finally {
+          end();
+        }
+        return null;
+      });
+    }
+
+    /**
+     * Stops the task and drops its results, so that it does not wait for room for them, or for its end, which
+     * nobody takes any more
+     */
+    void cancel() {
+      cancelled = true;
+      future.cancel(true);
+      results.clear();
+    }
+
+    private void end() {
+      if (cancelled) {
+        return;
+      }
+      try {
+        results.put(END);
+      }
+      catch (InterruptedException e) {
+        // the task was cancelled, so nobody waits for its end
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static void await(Future<?> future) throws Exception {
+    try {
+      future.get();
+    }
+    catch (ExecutionException e) {
+      // rethrow the task's own exception so callers can handle specific types
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) throw (Exception)cause;
+      if (cause instanceof Error) throw (Error)cause;
+      throw e;
+    }
+  }
+}
@@ -9,10 +9,22 @@ package org.apidb.apicomplexa.wsfplugin.motifsearch;
 public class OrfMotifPlugin extends AAMotifPlugin {
 
   // let's store files in same directory
-  private static final String CUSTOM_FIELD_REGEX = "OrfDeflineRegex";
+  public static final String FIELD_REGEX = "OrfDeflineRegex";
 
   public OrfMotifPlugin() {
-    super(CUSTOM_FIELD_REGEX);
+    super(FIELD_REGEX);
+  }
+
+  /**
+   * ORFs are either read from .fasta files of the ORFs, or translated from the genome .fasta files, see
+   * {@link MotifConfig.OrfScanMode}
+   */
+  @Override
+  protected MatchFinder getMatchFinder(MotifConfig config) {
+    if (config.getOrfScanMode() == MotifConfig.OrfScanMode.TRANSLATED) {
+      return new TranslatedOrfMatchFinder(config);
+    }
+    return super.getMatchFinder(config);
   }
 
 }
@@ -0,0 +1,86 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.File;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.PackedGenome.Entry;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.PackedDnaMotifFinder;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.PackedSequence;
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+import org.gusdb.fgputil.functional.FunctionalInterfaces.FunctionWithException;
+
+/**
+ * DNA match finder that scans the two-bit {@link PackedGenome} copy of a dataset file with
+ * {@link PackedDnaMotifFinder}.  Datasets that have not been packed (or whose packed copy is out of date) are
+ * scanned from the .fasta file as in streaming mode.
+ */
+public class PackedDnaMatchFinder extends DnaMatchFinder {
+
+  private static final Logger LOG = Logger.getLogger(PackedDnaMatchFinder.class);
+
+  public PackedDnaMatchFinder(MotifConfig config) {
+    super(config);
+  }
+
+  /**
+   * Scans the packed copy once for all of the patterns.  A single pattern is matched on the packed bases (see
+   * {@link PackedDnaMotifFinder}); several are matched together against each sequence as it is decoded (see
+   * {@link #matchSequence(Defline, List, CharSequence, ConsumerWithException, FunctionWithException)}).
+   */
+  @Override
+  public void findMatches(
+      File fastaFile,
+      List<Pattern> searchPatterns,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    Optional<PackedGenome> genome = PackedGenome.open(fastaFile);
+    if (!genome.isPresent()) {
+      LOG.debug("No current packed copy of " + fastaFile + "; scanning the .fasta file");
+      super.findMatches(fastaFile, searchPatterns, consumer, orgToProjectId);
+      return;
+    }
+    try (PackedGenome packedGenome = genome.get()) {
+      if (searchPatterns.size() > 1) {
+        LOG.debug("Scanning packed copy of " + fastaFile + " with decoded sequences for " + searchPatterns.size()
+            + " patterns");
+        scanPackedGenome(fastaFile, packedGenome, (defline, bases) ->
+            matchSequence(defline, searchPatterns, bases, consumer, orgToProjectId));
+        return;
+      }
+      PackedDnaMotifFinder motifFinder = new PackedDnaMotifFinder(searchPatterns.get(0), _config.isBothStrands(),
+          _config.getContextLength(), MAX_MATCH_LENGTH, _config.getRegexStepsPerCharacter());
+      LOG.debug("Scanning packed copy of " + fastaFile + (motifFinder.isPackedScan() ? "" : " with decoded sequences"));
+      scanPackedGenome(fastaFile, packedGenome, (defline, bases) -> {
+        SequenceMatchConsumer matchConsumer = new SequenceMatchConsumer(defline, bases.length(), consumer,
+            orgToProjectId);
+        motifFinder.match(bases, matchConsumer);
+        matchConsumer.finish(bases.length());
+      });
+    }
+  }
+
+  /**
+   * Scans the sequences of the packed copy that are not skipped, in file order
+   */
+  private void scanPackedGenome(File fastaFile, PackedGenome packedGenome, PackedSequenceScanner scanner)
+      throws Exception {
+    DeflineParser deflineParser = newDeflineParser(fastaFile, loadIndex(fastaFile));
+    Optional<Entry> sequence = packedGenome.nextSequence();
+    while (sequence.isPresent()) {
+      Defline defline = parseDefline(deflineParser, sequence.get().getDefline());
+      if (!isSkipped(defline)) {
+        PackedSequence bases = sequence.get().getSequence();
+        _metrics.addBytes(bases.length());
+        scanner.scan(defline, bases);
+      }
+      sequence = packedGenome.nextSequence();
+    }
+  }
+
+  private interface PackedSequenceScanner {
+    void scan(Defline defline, PackedSequence bases) throws Exception;
+  }
+}
@@ -0,0 +1,354 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import org.apache.log4j.Logger;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.PackedSequence;
+
+/**
+ * Two-bit packed copy of a DNA dataset file, stored next to it as &lt;dataset&gt;.mf2b.  Each base takes a quarter
+ * of a byte, so scanning the packed copy reads (and keeps in the page cache) about a quarter of the data of the
+ * .fasta file.  Characters other than A, C, G and T (mostly runs of N) and lower case (soft-masked) stretches are
+ * recorded as runs next to the packed bases, so the original sequence can be restored exactly.
+ *
+ * The file starts with a header (all numbers big-endian):
+ *
+ * <pre>
+ * int magic 'MF2B', int version, long size and long lastModified of the dataset file
+ * </pre>
+ *
+ * followed by one record per sequence, in file order:
+ *
+ * <pre>
+ * int deflineLength, byte[] defline, int length,
+ * int exceptionCount, exceptionCount * (int start, int end, byte character),
+ * int maskCount, maskCount * (int start, int end),
+ * byte[(length + 3) / 4] packed bases
+ * </pre>
+ *
+ * A packed file is ignored if the dataset file has changed since it was written.  Each sequence must be shorter
+ * than 2G bases; the file as a whole is not limited.
+ */
+public class PackedGenome implements AutoCloseable {
+
+  private static final Logger LOG = Logger.getLogger(PackedGenome.class);
+
+  public static final String FILE_SUFFIX = ".mf2b";
+
+  private static final int MAGIC = 0x4D463242;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 24;
+  private static final int BUFFER_SIZE = 65536;
+  private static final byte DEF_LINE_START_INDICATOR = '>';
+
+  private final FileChannel channel;
+  private final long fileSize;
+  private long position = HEADER_SIZE;
+
+  private PackedGenome(FileChannel channel) throws IOException {
+    this.channel = channel;
+    this.fileSize = channel.size();
+  }
+
+  public static File getPackedFile(File fastaFile) {
+    return new File(fastaFile.getPath() + FILE_SUFFIX);
+  }
+
+  /**
+   * Opens the packed copy of a dataset file if one exists and is current.
+   *
+   * @return the packed genome, positioned at its first sequence, or empty if there is no usable packed copy
+   */
+  public static Optional<PackedGenome> open(File fastaFile) throws IOException {
+    File packedFile = getPackedFile(fastaFile);
+    if (!packedFile.isFile()) {
+      return Optional.empty();
+    }
+    FileChannel channel = FileChannel.open(packedFile.toPath(), StandardOpenOption.READ);
+    try {
+      ByteBuffer header = read(channel, 0, HEADER_SIZE);
+      if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+        LOG.warn("Ignoring " + packedFile + " with unrecognized header.");
+      }
+      else if (header.getLong() != fastaFile.length() || header.getLong() != fastaFile.lastModified()) {
+        LOG.warn("Ignoring " + packedFile + "; " + fastaFile + " has changed since it was packed.");
+      }
+      else {
+        return Optional.of(new PackedGenome(channel));
+      }
+    }
+    catch (IOException e) {
+      LOG.warn("Ignoring unreadable packed file " + packedFile, e);
+    }
+    channel.close();
+    return Optional.empty();
+  }
+
+  /**
+   * Provides the next sequence of the packed file, or empty if the end of the file is reached.  The packed bases
+   * are memory mapped; previously returned sequences remain valid.
+   */
+  public Optional<Entry> nextSequence() throws IOException {
+    if (position >= fileSize) {
+      return Optional.empty();
+    }
+    int deflineLength = read(channel, position, Integer.BYTES).getInt();
+    position += Integer.BYTES;
+
+    ByteBuffer buffer = read(channel, position, deflineLength + 2 * Integer.BYTES);
+    byte[] deflineBytes = new byte[deflineLength];
+    buffer.get(deflineBytes);
+    String defline = new String(deflineBytes, StandardCharsets.ISO_8859_1);
+    int length = buffer.getInt();
+    int exceptionCount = buffer.getInt();
+    position += buffer.capacity();
+
+    buffer = read(channel, position, exceptionCount * (2 * Integer.BYTES + 1) + Integer.BYTES);
+    int[] exceptionStarts = new int[exceptionCount];
+    int[] exceptionEnds = new int[exceptionCount];
+    byte[] exceptionChars = new byte[exceptionCount];
+    for (int i = 0; i < exceptionCount; i++) {
+      exceptionStarts[i] = buffer.getInt();
+      exceptionEnds[i] = buffer.getInt();
+      exceptionChars[i] = buffer.get();
+    }
+    int maskCount = buffer.getInt();
+    position += buffer.capacity();
+
+    buffer = read(channel, position, maskCount * 2 * Integer.BYTES);
+    int[] maskStarts = new int[maskCount];
+    int[] maskEnds = new int[maskCount];
+    for (int i = 0; i < maskCount; i++) {
+      maskStarts[i] = buffer.getInt();
+      maskEnds[i] = buffer.getInt();
+    }
+    position += buffer.capacity();
+
+    int packedSize = packedSize(length);
+    ByteBuffer packed = channel.map(MapMode.READ_ONLY, position, packedSize);
+    position += packedSize;
+
+    return Optional.of(new Entry(defline, new PackedSequence(packed, length,
+        exceptionStarts, exceptionEnds, exceptionChars, maskStarts, maskEnds)));
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) == -1) {
+        throw new IOException("Unexpected end of packed file.");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static int packedSize(int length) {
+    return (int)((length + 3L) / 4);
+  }
+
+  /**
+   * Writes the packed copy of a dataset file next to it, replacing any existing one.
+   *
+   * @return number of sequences packed
+   */
+  public static int write(File fastaFile) throws IOException {
+    File packedFile = getPackedFile(fastaFile);
+    File tempFile = new File(packedFile.getPath() + ".tmp");
+    int count = 0;
+    try (InputStream in = BgzfFile.openInputStream(fastaFile);
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(fastaFile.length());
+      out.writeLong(fastaFile.lastModified());
+
+      byte[] buffer = new byte[BUFFER_SIZE];
+      ByteArrayOutputStream defline = new ByteArrayOutputStream();
+      SequencePacker sequence = null;
+      boolean inDefline = false;
+      boolean atLineStart = true;
+      int bytesRead;
+      while ((bytesRead = in.read(buffer)) != -1) {
+        for (int i = 0; i < bytesRead; i++) {
+          byte b = buffer[i];
+          if (inDefline) {
+            if (b == '\n') {
+              sequence = new SequencePacker(defline.toString(StandardCharsets.ISO_8859_1.name()));
+              inDefline = false;
+            }
+            else {
+              defline.write(b);
+            }
+          }
+          else if (b == DEF_LINE_START_INDICATOR && atLineStart) {
+            if (sequence != null) {
+              sequence.writeTo(out);
+              count++;
+            }
+            sequence = null;
+            defline.reset();
+            defline.write(b);
+            inDefline = true;
+          }
+          else if (b == '\n') {
+            atLineStart = true;
+          }
+          else {
+            atLineStart = false;
+            if (sequence != null) {
+              sequence.accept(b);
+            }
+          }
+        }
+      }
+      if (inDefline) {
+        // defline without a newline at the end of the file; empty sequence
+        sequence = new SequencePacker(defline.toString(StandardCharsets.ISO_8859_1.name()));
+      }
+      if (sequence != null) {
+        sequence.writeTo(out);
+        count++;
+      }
+    }
+    Files.move(tempFile.toPath(), packedFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return count;
+  }
+
+  /**
+   * Accumulates the packed bases and runs of one sequence while it is read.
+   */
+  private static class SequencePacker {
+
+    private static final int NO_RUN = -1;
+
+    private final String defline;
+    private final ByteArrayOutputStream packed = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream exceptionBytes = new ByteArrayOutputStream();
+    private final DataOutputStream exceptions = new DataOutputStream(exceptionBytes);
+    private final ByteArrayOutputStream maskBytes = new ByteArrayOutputStream();
+    private final DataOutputStream masks = new DataOutputStream(maskBytes);
+
+    private int length = 0;
+    private int bases = 0;
+    private int exceptionCount = 0;
+    private int exceptionStart = NO_RUN;
+    private byte exceptionChar;
+    private int maskCount = 0;
+    private int maskStart = NO_RUN;
+
+    SequencePacker(String defline) {
+      this.defline = defline;
+    }
+
+    void accept(byte b) throws IOException {
+      if (length == Integer.MAX_VALUE) {
+        throw new IOException("Sequence '" + defline + "' is too long to be packed.");
+      }
+      boolean lowerCase = b >= 'a' && b <= 'z';
+      byte upperCase = lowerCase ? (byte)(b - 'a' + 'A') : b;
+      int code = codeOf(upperCase);
+
+      if (exceptionStart != NO_RUN && (code != -1 || upperCase != exceptionChar)) {
+        closeExceptionRun();
+      }
+      if (code == -1 && exceptionStart == NO_RUN) {
+        exceptionStart = length;
+        exceptionChar = upperCase;
+      }
+      if (lowerCase && maskStart == NO_RUN) {
+        maskStart = length;
+      }
+      else if (!lowerCase && maskStart != NO_RUN) {
+        closeMaskRun();
+      }
+
+      bases = (bases << 2) | Math.max(code, 0);
+      length++;
+      if ((length & 3) == 0) {
+        packed.write(bases);
+        bases = 0;
+      }
+    }
+
+    private static int codeOf(byte upperCase) {
+      switch (upperCase) {
+        case 'A': return 0;
+        case 'C': return 1;
+        case 'G': return 2;
+        case 'T': return 3;
+        default: return -1;
+      }
+    }
+
+    private void closeExceptionRun() throws IOException {
+      exceptions.writeInt(exceptionStart);
+      exceptions.writeInt(length);
+      exceptions.writeByte(exceptionChar);
+      exceptionCount++;
+      exceptionStart = NO_RUN;
+    }
+
+    private void closeMaskRun() throws IOException {
+      masks.writeInt(maskStart);
+      masks.writeInt(length);
+      maskCount++;
+      maskStart = NO_RUN;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+      if (exceptionStart != NO_RUN) closeExceptionRun();
+      if (maskStart != NO_RUN) closeMaskRun();
+      if ((length & 3) != 0) {
+        packed.write(bases << (2 * (4 - (length & 3))));
+      }
+      byte[] deflineBytes = defline.getBytes(StandardCharsets.ISO_8859_1);
+      out.writeInt(deflineBytes.length);
+      out.write(deflineBytes);
+      out.writeInt(length);
+      out.writeInt(exceptionCount);
+      exceptionBytes.writeTo(out);
+      out.writeInt(maskCount);
+      maskBytes.writeTo(out);
+      packed.writeTo(out);
+    }
+  }
+
+  public static class Entry {
+
+    private final String defline;
+    private final PackedSequence sequence;
+
+    public Entry(String defline, PackedSequence sequence) {
+      this.defline = defline;
+      this.sequence = sequence;
+    }
+
+    public String getDefline() {
+      return defline;
+    }
+
+    public PackedSequence getSequence() {
+      return sequence;
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import static org.gusdb.fgputil.FormatUtil.NL;
+
+import java.io.File;
+
+import org.gusdb.fgputil.FormatUtil;
+
+/**
+ * Writes the {@link PackedGenome} copies of DNA motif search dataset files, used by the "packed" DnaScanMode.
+ * Should be run whenever dataset files are (re)generated; packed copies older than their dataset file are ignored.
+ */
+public class PackedGenomeCli {
+
+  public static void main(String[] args) throws Exception {
+
+    // parse args; some minimal validation
+    System.err.println("Args: " + FormatUtil.arrayToString(args, ", "));
+    if (args.length < 1) usageAndExit();
+
+    for (String fileName : args) {
+      File file = new File(fileName);
+      if (!file.isFile() || !file.canRead()) {
+        System.err.println(file.getAbsolutePath() + " is not a readable file.");
+        System.exit(2);
+      }
+      int count = PackedGenome.write(file);
+      File packedFile = PackedGenome.getPackedFile(file);
+      System.out.println("Packed " + count + " sequences of " + file + " into " + packedFile
+          + " (" + packedFile.length() + " of " + file.length() + " bytes)");
+    }
+  }
+
+  private static void usageAndExit() {
+    System.err.println("USAGE: fgpJava " + PackedGenomeCli.class.getName() + " <fasta_file> [<fasta_file> ...]" + NL
+        + "  Writes a two-bit packed copy of each DNA dataset file next to it.");
+    System.exit(1);
+  }
+}
@@ -3,6 +3,8 @@ package org.apidb.apicomplexa.wsfplugin.motifsearch;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifMatch;
+
 public class PluginMatch {
 
   public String sourceId;
@@ -18,6 +20,16 @@ public class PluginMatch {
   public List<String> matchSequences = new ArrayList<>();
   public String sequenceId;
 
+  /**
+   * index of the matched pattern among the patterns searched for together, 0 if there was only one
+   */
+  public int patternIndex = 0;
+
+  // the DNA match whose location, source id and context are yet to be formatted (see format()), and the length of
+  // its sequence, which reverse strand matches are located from the end of
+  private MotifMatch motifMatch;
+  private int sequenceLength;
+
   private String getKey() {
     return sourceId + projectId;
   }
@@ -36,6 +48,45 @@ public class PluginMatch {
 
   public PluginMatch() {}
 
+  /**
+   * Creates the row of a count-only search: the number of matches in a sequence, without their locations or context
+   */
+  public static PluginMatch ofCount(String sourceId, String projectId, int matchCount) {
+    PluginMatch match = new PluginMatch();
+    match.sourceId = sourceId;
+    match.projectId = projectId;
+    match.matchCount = matchCount;
+    match.locations = "";
+    match.sequence = "";
+    return match;
+  }
+
+  /**
+   * Creates the row of a match found on the forward strand of a sequence without formatting it: the match is kept
+   * as it was found, and its location, source id and context are only built by {@link #format()}, on the thread
+   * writing the rows rather than the one scanning the sequence.
+   */
+  public static PluginMatch ofForwardMatch(MotifMatch motifMatch, String projectId, String sequenceId) {
+    PluginMatch match = new PluginMatch();
+    match.projectId = projectId;
+    match.sequenceId = sequenceId;
+    match.matchCount = 1;
+    match.patternIndex = motifMatch.getPatternIndex();
+    match.motifMatch = motifMatch;
+    return match;
+  }
+
+  /**
+   * Creates the row of a match found on the reverse strand of a forward strand sequence of the given length without
+   * formatting it (see {@link #ofForwardMatch}).
+   */
+  public static PluginMatch ofReverseMatch(MotifMatch motifMatch, int sequenceLength, String projectId,
+      String sequenceId) {
+    PluginMatch match = ofForwardMatch(motifMatch, projectId, sequenceId);
+    match.sequenceLength = sequenceLength;
+    return match;
+  }
+
   public PluginMatch(int start,
                      int stop,
                      String projectId,
@@ -54,24 +105,103 @@ public class PluginMatch {
       // this.locations = AbstractMotifPlugin.formatLocation(motif.length(), start+1, stop, reversed);
     }
     else {
-      this.locations = AbstractMotifPlugin.formatLocation(motif.length(), start, stop-1, reversed);
-      this.sequenceId = sequenceId;
-      this.sourceId = sequenceId + ":" + this.locations + ":" + strand;
-
-      // create matching context
-      if (beforeContext != null && !beforeContext.isBlank()) {
-        this.matchSequences.add(motif);
-        this.matchCount = matchCount;
-        this.sequence = new StringBuilder()
-            .append("...")
-            .append(beforeContext)
-            .append("<span class=\"" + AbstractMotifPlugin.MOTIF_STYLE_CLASS + "\">")
-            .append(motif)
-            .append("</span>")
-            .append(afterContext)
-            .append("...")
-            .toString();
-      }
+      setForwardMatch(start, stop, sequenceId, strand, matchCount, beforeContext, afterContext, motif);
+    }
+  }
+
+  /**
+   * Creates a match found on the reverse strand of a forward strand sequence of the given length.  start and stop
+   * are the forward strand positions of the matched bases; the location is reported on the reverse strand, and the
+   * contexts and motif read along it.
+   */
+  public PluginMatch(int start,
+                     int stop,
+                     int sequenceLength,
+                     String projectId,
+                     String sequenceId,
+                     String beforeContext,
+                     String afterContext,
+                     String motif) {
+    this.projectId = projectId;
+    this.matchCount = 1;
+    setReverseMatch(start, stop, sequenceLength, sequenceId, beforeContext, afterContext, motif);
+  }
+
+  /**
+   * @return the match created with {@link #ofForwardMatch} or {@link #ofReverseMatch} that is yet to be formatted,
+   * or null if the match is formatted already
+   */
+  MotifMatch getUnformattedMatch() {
+    return motifMatch;
+  }
+
+  /**
+   * @return length of the sequence a reverse strand match yet to be formatted was found in
+   */
+  int getSequenceLength() {
+    return sequenceLength;
+  }
+
+  /**
+   * @return true if the match is reported as a row; matches without a source id are not
+   */
+  public boolean hasRow() {
+    return sourceId != null || motifMatch != null;
+  }
+
+  /**
+   * Builds the location, source id and context of a match created with {@link #ofForwardMatch} or
+   * {@link #ofReverseMatch}, which must be done before they are read; other matches are formatted already.
+   *
+   * @return this match
+   */
+  public PluginMatch format() {
+    MotifMatch match = motifMatch;
+    if (match == null) {
+      return this;
+    }
+    motifMatch = null;
+    if (match.isReversed()) {
+      setReverseMatch(match.getStartPos(), match.getEndPos(), sequenceLength, sequenceId, match.getLeadingContext(),
+          match.getTrailingContext(), match.getMatch());
+    }
+    else {
+      setForwardMatch(match.getStartPos(), match.getEndPos(), sequenceId, "f", 1, match.getLeadingContext(),
+          match.getTrailingContext(), match.getMatch());
+    }
+    return this;
+  }
+
+  private void setForwardMatch(int start, int stop, String sequenceId, String strand, int matchCount,
+      String beforeContext, String afterContext, String motif) {
+    this.locations = AbstractMotifPlugin.formatLocation(motif.length(), start, stop-1, false);
+    setMatch(sequenceId, strand, matchCount, beforeContext, afterContext, motif);
+  }
+
+  private void setReverseMatch(int start, int stop, int sequenceLength, String sequenceId, String beforeContext,
+      String afterContext, String motif) {
+    this.locations = AbstractMotifPlugin.formatLocation(sequenceLength, start + 1, stop, true);
+    setMatch(sequenceId, "r", 1, beforeContext, afterContext, motif);
+  }
+
+  private void setMatch(String sequenceId, String strand, int matchCount, String beforeContext,
+      String afterContext, String motif) {
+    this.sequenceId = sequenceId;
+    this.sourceId = sequenceId + ":" + this.locations + ":" + strand;
+
+    // create matching context
+    if (beforeContext != null && !beforeContext.isBlank()) {
+      this.matchSequences.add(motif);
+      this.matchCount = matchCount;
+      this.sequence = new StringBuilder()
+          .append("...")
+          .append(beforeContext)
+          .append("<span class=\"" + AbstractMotifPlugin.MOTIF_STYLE_CLASS + "\">")
+          .append(motif)
+          .append("</span>")
+          .append(afterContext)
+          .append("...")
+          .toString();
     }
   }
 
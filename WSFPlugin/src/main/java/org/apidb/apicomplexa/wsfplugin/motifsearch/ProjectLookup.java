@@ -0,0 +1,36 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.gusdb.fgputil.functional.FunctionalInterfaces.FunctionWithException;
+
+/**
+ * Looks up the project of each organism of a search once: the datasets of a search hold thousands of sequences of a
+ * handful of organisms, and each lookup of the project mapper is synchronized across the dataset workers.  The
+ * projects are remembered for the one search only, so changes to the mapper are seen by the next one.
+ */
+public class ProjectLookup implements FunctionWithException<String, String> {
+
+  private final FunctionWithException<String, String> lookup;
+  private final ConcurrentHashMap<String, String> projects = new ConcurrentHashMap<>();
+
+  /**
+   * @param lookup function that looks up projectId by organism
+   */
+  public ProjectLookup(FunctionWithException<String, String> lookup) {
+    this.lookup = lookup;
+  }
+
+  @Override
+  public String apply(String organism) throws Exception {
+    String project = projects.get(organism);
+    if (project == null) {
+      // workers may look the same organism up at once; either answer will do
+      project = lookup.apply(organism);
+      if (project != null) {
+        projects.putIfAbsent(organism, project);
+      }
+    }
+    return project;
+  }
+}
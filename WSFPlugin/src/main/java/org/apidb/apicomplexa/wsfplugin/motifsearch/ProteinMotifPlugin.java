@@ -15,10 +15,10 @@ public class ProteinMotifPlugin extends AAMotifPlugin {
   private static final String COLUMN_GENE_SOURCE_ID = "gene_source_id";
   private static final String COLUMN_MATCHED_RESULT = "matched_result";
 
-  private static final String CUSTOM_FIELD_REGEX = "ProteinDeflineRegex";
+  public static final String FIELD_REGEX = "ProteinDeflineRegex";
 
   public ProteinMotifPlugin() {
-    super(CUSTOM_FIELD_REGEX);
+    super(FIELD_REGEX);
   }
 
   @Override
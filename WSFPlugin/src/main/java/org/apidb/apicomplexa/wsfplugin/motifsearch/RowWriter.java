@@ -0,0 +1,142 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+
+/**
+ * Writes the rows of a search on a thread of its own, so the thread finding matches does not spend its time
+ * formatting and emitting rows.  Matches are handed over in batches through a bounded queue: when the writer falls
+ * behind, because the response is slow to take rows, the queue fills up and {@link #accept(PluginMatch)} blocks
+ * until there is room again, so matches never pile up in memory.
+ *
+ * If writing a row fails (or a {@link MatchLimit} is reached), the next call to accept or {@link #finish()} throws
+ * the writer's exception, which ends the scan.  Matches must be passed from a single thread.
+ */
+public class RowWriter implements ConsumerWithException<PluginMatch>, AutoCloseable {
+
+  // matches are queued this many at a time, so the threads synchronize once per batch rather than once per match
+  private static final int BATCH_SIZE = 64;
+
+  // marks the end of the matches
+  private static final List<PluginMatch> END = new ArrayList<>(0);
+
+  private final ConsumerWithException<PluginMatch> rows;
+  private final BlockingQueue<List<PluginMatch>> queue;
+  private final Thread thread;
+
+  private List<PluginMatch> batch = new ArrayList<>(BATCH_SIZE);
+  private boolean finished = false;
+
+  // set by the writer thread
+  private volatile Throwable failure;
+  // set once the matches still queued are not wanted
+  private volatile boolean cancelled = false;
+
+  /**
+   * Starts the writer thread.
+   *
+   * @param capacity number of matches that may wait to be written
+   * @param rows writes a match as a row; only called on the writer thread
+   */
+  public RowWriter(int capacity, ConsumerWithException<PluginMatch> rows) {
+    this.rows = rows;
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity / BATCH_SIZE));
+    this.thread = new Thread(this::write, "motif-row-writer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public void accept(PluginMatch match) throws Exception {
+    checkFailure();
+    batch.add(match);
+    if (batch.size() == BATCH_SIZE) {
+      flush();
+    }
+  }
+
+  /**
+   * Waits until every match passed is written.
+   *
+   * @throws Exception the exception that writing a row failed with, if any
+   */
+  public void finish() throws Exception {
+    checkFailure();
+    flush();
+    queue.put(END);
+    finished = true;
+    thread.join();
+    checkFailure();
+  }
+
+  /**
+   * Stops the writer thread if the matches were not all passed, dropping any that were not written yet.
+   *
+   * @throws IOException if interrupted while waiting for the writer thread to stop
+   */
+  @Override
+  public void close() throws IOException {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    cancelled = true;
+    // the writer takes nothing but this queue's batches, so there is room for the end once it is cleared
+    queue.clear();
+    try {
+      queue.put(END);
+      thread.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while stopping the row writer", e);
+    }
+  }
+
+  private void flush() throws InterruptedException {
+    if (batch.isEmpty()) {
+      return;
+    }
+    queue.put(batch);
+    batch = new ArrayList<>(BATCH_SIZE);
+  }
+
+  private void checkFailure() throws Exception {
+    Throwable t = failure;
+    if (t instanceof Error) throw (Error) t;
+    if (t != null) throw (Exception) t;
+  }
+
+  private void write() {
+    try {
+      for (List<PluginMatch> matches = queue.take(); matches != END; matches = queue.take()) {
+        for (int i = 0; i < matches.size() && !cancelled; i++) {
+          rows.accept(matches.get(i));
+        }
+      }
+    }
+    catch (Throwable t) {
+      failure = t;
+      if (!(t instanceof InterruptedException)) {
+        drain();
+      }
+    }
+  }
+
+  /**
+   * Takes the remaining batches without writing them, so the scanning thread is not blocked
+   */
+  private void drain() {
+    try {
+      while (queue.take() != END);
+    }
+    catch (InterruptedException e) {
+      // the writer is being shut down
+    }
+  }
+}
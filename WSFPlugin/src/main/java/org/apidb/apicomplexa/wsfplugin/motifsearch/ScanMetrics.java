@@ -0,0 +1,175 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+import org.gusdb.fgputil.functional.FunctionalInterfaces.FunctionWithException;
+import org.json.JSONObject;
+
+/**
+ * What searching one dataset cost: the bytes and sequences scanned, the matches found, and where the time went.
+ * The time of the search is split into
+ * <ul>
+ *   <li>read: reading and decoding the dataset file, where it is read through a buffer (scans of mapped, cached or
+ *   packed content read it as they scan, so their reading counts as scanning)</li>
+ *   <li>format: parsing deflines and looking up the project of each organism</li>
+ *   <li>emit: passing matches on to be written as rows, including any wait for the row writer</li>
+ *   <li>scan: the rest, mostly running the pattern over the sequences</li>
+ * </ul>
+ * Sequences of a dataset may be scanned concurrently, in which case the times of the threads add up, and the read,
+ * format and emit times may add up to more than the elapsed time.  Counters may be updated by several threads.
+ */
+public class ScanMetrics {
+
+  private final String dataset;
+
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder sequences = new LongAdder();
+  private final LongAdder matches = new LongAdder();
+  private final LongAdder readNanos = new LongAdder();
+  private final LongAdder formatNanos = new LongAdder();
+  private final LongAdder emitNanos = new LongAdder();
+  private volatile long elapsedNanos;
+  private volatile boolean cached;
+
+  /**
+   * @param dataset name of the dataset scanned, or null if the metrics are not reported
+   */
+  public ScanMetrics(String dataset) {
+    this.dataset = dataset;
+  }
+
+  /**
+   * Records reading the given number of bytes (or characters) of the dataset, which took the given time
+   */
+  public void addRead(long byteCount, long nanos) {
+    bytes.add(byteCount);
+    readNanos.add(nanos);
+  }
+
+  /**
+   * Records scanning bytes that did not need reading, such as mapped or cached content
+   */
+  public void addBytes(long byteCount) {
+    bytes.add(byteCount);
+  }
+
+  public void addSequence() {
+    sequences.increment();
+  }
+
+  public void addFormat(long nanos) {
+    formatNanos.add(nanos);
+  }
+
+  public void addEmit(long nanos) {
+    emitNanos.add(nanos);
+  }
+
+  /**
+   * Records the time the whole dataset took, from the start of its scan to its last match
+   */
+  public void setElapsedNanos(long nanos) {
+    elapsedNanos = nanos;
+  }
+
+  /**
+   * Records that the matches were answered from the result cache, without scanning the dataset
+   */
+  public void setCached(boolean cached) {
+    this.cached = cached;
+  }
+
+  /**
+   * @return a consumer passing matches on to the given one, counting them and timing the calls as emitting
+   */
+  public ConsumerWithException<PluginMatch> timeEmit(ConsumerWithException<PluginMatch> consumer) {
+    return match -> {
+      long start = System.nanoTime();
+      try {
+        consumer.accept(match);
+      }
+      finally {
+        emitNanos.add(System.nanoTime() - start);
+      }
+      matches.increment();
+    };
+  }
+
+  /**
+   * @return a function looking up projects by organism with the given one, timing the lookups as formatting
+   */
+  public FunctionWithException<String, String> timeLookup(FunctionWithException<String, String> orgToProjectId) {
+    return organism -> {
+      long start = System.nanoTime();
+      try {
+        return orgToProjectId.apply(organism);
+      }
+      finally {
+        formatNanos.add(System.nanoTime() - start);
+      }
+    };
+  }
+
+  public String getDataset() {
+    return dataset;
+  }
+
+  public long getBytes() {
+    return bytes.sum();
+  }
+
+  public long getSequences() {
+    return sequences.sum();
+  }
+
+  public long getMatches() {
+    return matches.sum();
+  }
+
+  public long getReadNanos() {
+    return readNanos.sum();
+  }
+
+  public long getFormatNanos() {
+    return formatNanos.sum();
+  }
+
+  public long getEmitNanos() {
+    return emitNanos.sum();
+  }
+
+  /**
+   * @return the elapsed time not spent reading, formatting or emitting
+   */
+  public long getScanNanos() {
+    return Math.max(0, elapsedNanos - getReadNanos() - getFormatNanos() - getEmitNanos());
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  public boolean isCached() {
+    return cached;
+  }
+
+  public JSONObject toJson() {
+    JSONObject json = new JSONObject();
+    json.put("dataset", dataset);
+    json.put("cached", cached);
+    json.put("bytes", getBytes());
+    json.put("sequences", getSequences());
+    json.put("matches", getMatches());
+    json.put("elapsedMs", toMillis(elapsedNanos));
+    json.put("readMs", toMillis(getReadNanos()));
+    json.put("scanMs", toMillis(getScanNanos()));
+    json.put("formatMs", toMillis(getFormatNanos()));
+    json.put("emitMs", toMillis(getEmitNanos()));
+    return json;
+  }
+
+  static double toMillis(long nanos) {
+    return Math.round(nanos / 1e4) / 100.0;
+  }
+}
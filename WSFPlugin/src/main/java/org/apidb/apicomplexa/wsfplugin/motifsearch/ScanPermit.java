@@ -0,0 +1,46 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * A scan's claim on one of the permits to scan shared by all searches.  The scan holds the permit while it scans,
+ * and may hand it back while it waits for its file to be read, so another scan can run; whether it holds the permit
+ * is tracked here, so a scan interrupted while waiting to get it back never returns a permit it does not hold.
+ */
+public class ScanPermit implements AutoCloseable {
+
+  private final Semaphore permits;
+  private boolean held = false;
+
+  /**
+   * @param permits permits shared by the scans
+   */
+  public ScanPermit(Semaphore permits) {
+    this.permits = permits;
+  }
+
+  /**
+   * Waits for a permit, unless the scan already holds one
+   */
+  public void acquire() throws InterruptedException {
+    if (!held) {
+      permits.acquire();
+      held = true;
+    }
+  }
+
+  /**
+   * Hands the permit back, if the scan holds it
+   */
+  public void release() {
+    if (held) {
+      held = false;
+      permits.release();
+    }
+  }
+
+  @Override
+  public void close() {
+    release();
+  }
+}
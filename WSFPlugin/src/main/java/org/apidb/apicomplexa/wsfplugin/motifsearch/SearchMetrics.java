@@ -0,0 +1,101 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * What one motif search cost, as a whole and for each of its datasets (see {@link ScanMetrics}).  The search is
+ * logged as a single JSON line once it ends, and added to the totals and histograms of the
+ * {@link MotifSearchMonitor}.
+ */
+public class SearchMetrics {
+
+  private final String pattern;
+  private final boolean countOnly;
+  private final long startNanos = System.nanoTime();
+
+  private final List<ScanMetrics> datasets = new ArrayList<>();
+  private final LongAdder rows = new LongAdder();
+  private final LongAdder writeNanos = new LongAdder();
+  private long elapsedNanos;
+  private String failure;
+
+  public SearchMetrics(String pattern, boolean countOnly) {
+    this.pattern = pattern;
+    this.countOnly = countOnly;
+  }
+
+  /**
+   * @return the metrics of the scan of a dataset of the search; called in the order of the datasets
+   */
+  public synchronized ScanMetrics newDataset(String dataset) {
+    ScanMetrics metrics = new ScanMetrics(dataset);
+    datasets.add(metrics);
+    return metrics;
+  }
+
+  /**
+   * @return a consumer writing rows with the given one, counting them and timing the writes
+   */
+  public ConsumerWithException<PluginMatch> timeRows(ConsumerWithException<PluginMatch> consumer) {
+    return match -> {
+      long start = System.nanoTime();
+      consumer.accept(match);
+      writeNanos.add(System.nanoTime() - start);
+      rows.increment();
+    };
+  }
+
+  /**
+   * Records that the search failed with the given exception
+   */
+  public void setFailure(Exception e) {
+    failure = e.getClass().getSimpleName() + ": " + e.getMessage();
+  }
+
+  /**
+   * Records the end of the search
+   */
+  public void finish() {
+    elapsedNanos = System.nanoTime() - startNanos;
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  public long getRows() {
+    return rows.sum();
+  }
+
+  public boolean isFailed() {
+    return failure != null;
+  }
+
+  public synchronized List<ScanMetrics> getDatasets() {
+    return new ArrayList<>(datasets);
+  }
+
+  public JSONObject toJson() {
+    JSONObject json = new JSONObject();
+    json.put("pattern", pattern);
+    json.put("mode", countOnly ? AbstractMotifPlugin.RESULT_MODE_COUNT : AbstractMotifPlugin.RESULT_MODE_MATCHES);
+    if (failure != null) {
+      json.put("failure", failure);
+    }
+    json.put("elapsedMs", ScanMetrics.toMillis(elapsedNanos));
+    json.put("rows", getRows());
+    json.put("writeMs", ScanMetrics.toMillis(writeNanos.sum()));
+    JSONArray datasetsJson = new JSONArray();
+    for (ScanMetrics dataset : getDatasets()) {
+      datasetsJson.put(dataset.toJson());
+    }
+    json.put("datasets", datasetsJson);
+    return json;
+  }
+}
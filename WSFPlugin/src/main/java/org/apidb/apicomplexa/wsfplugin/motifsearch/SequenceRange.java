@@ -0,0 +1,209 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The location of a single sequence's data within a .fasta file: the defline, and the byte range between the end
+ * of the defline and the start of the next defline (or the end of the file).  Ranges can be read independently of
+ * each other, which allows the sequences of one file to be scanned in parallel.
+ *
+ * A range also records the number of sequence characters it holds and, if all of its lines but the last have the
+ * same width, that width.  Offsets are those of the uncompressed content if the file is a {@link BgzfFile}.
+ */
+public class SequenceRange {
+
+  /**
+   * Content of a dataset file that can be read at any offset, by several threads at once
+   */
+  public interface Source extends Closeable {
+    /**
+     * Reads bytes at the given offset of the content, as {@link java.nio.channels.FileChannel#read(ByteBuffer, long)}
+     * does.
+     *
+     * @return number of bytes read, or -1 if the offset is at or beyond the end of the content
+     */
+    int read(ByteBuffer dst, long position) throws IOException;
+  }
+
+  private static final int BUFFER_SIZE = 65536;
+  private static final byte DEF_LINE_START_INDICATOR = '>';
+
+  private final String defline;
+  private final long start;
+  private final long end;
+  private final long length;
+  private final int lineWidth;
+
+  public SequenceRange(String defline, long start, long end, long length, int lineWidth) {
+    this.defline = defline;
+    this.start = start;
+    this.end = end;
+    this.length = length;
+    this.lineWidth = lineWidth;
+  }
+
+  public String getDefline() {
+    return defline;
+  }
+
+  /**
+   * @return byte offset of the first byte of sequence data (the byte after the defline's newline)
+   */
+  public long getStart() {
+    return start;
+  }
+
+  /**
+   * @return byte offset just past the last byte of sequence data
+   */
+  public long getEnd() {
+    return end;
+  }
+
+  /**
+   * @return number of sequence characters in the range, excluding newlines
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * @return number of sequence characters on every line but the last, or 0 if lines are not of uniform width
+   */
+  public int getLineWidth() {
+    return lineWidth;
+  }
+
+  /**
+   * Reads the whole file once and records where each sequence starts and ends.
+   *
+   * @param fastaFile file to scan
+   * @return ranges of all sequences in the file, in file order
+   */
+  public static List<SequenceRange> scan(File fastaFile) throws IOException {
+    List<SequenceRange> ranges = new ArrayList<>();
+    try (InputStream in = BgzfFile.openInputStream(fastaFile)) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      ByteArrayOutputStream defline = new ByteArrayOutputStream();
+      String currentDefline = null;
+      long currentStart = 0;
+      LineLayout layout = new LineLayout();
+      long offset = 0;
+      boolean inDefline = false;
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        for (int i = 0; i < count; i++, offset++) {
+          byte b = buffer[i];
+          if (inDefline) {
+            if (b == '\n') {
+              currentDefline = defline.toString(StandardCharsets.ISO_8859_1.name());
+              currentStart = offset + 1;
+              layout = new LineLayout();
+              inDefline = false;
+            }
+            else {
+              defline.write(b);
+            }
+          }
+          else if (b == DEF_LINE_START_INDICATOR && layout.atLineStart()) {
+            if (currentDefline != null) {
+              ranges.add(new SequenceRange(currentDefline, currentStart, offset, layout.getLength(), layout.getLineWidth()));
+            }
+            defline.reset();
+            defline.write(b);
+            inDefline = true;
+          }
+          else {
+            layout.accept(b);
+          }
+        }
+      }
+      if (inDefline) {
+        // defline without a newline at the end of the file; empty sequence
+        currentDefline = defline.toString(StandardCharsets.ISO_8859_1.name());
+        currentStart = offset;
+        layout = new LineLayout();
+      }
+      if (currentDefline != null) {
+        ranges.add(new SequenceRange(currentDefline, currentStart, offset, layout.getLength(), layout.getLineWidth()));
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * Opens a reader over this range's sequence data with newlines removed.  Reads are positional, so readers for
+   * different ranges may share the same source and be used concurrently.
+   *
+   * @param source open source (see {@link BgzfFile#openSource(File)}) of the file this range was scanned from
+   */
+  public Reader newReader(Source source) {
+    return new RangeReader(source, start, end);
+  }
+
+  private static class RangeReader extends Reader {
+
+    private final Source source;
+    private final long end;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long position;
+    private boolean closed = false;
+
+    RangeReader(Source source, long start, long end) {
+      this.source = source;
+      this.end = end;
+      this.position = start;
+      buffer.limit(0);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      if (closed) {
+        throw new IOException("Reader has already been closed.");
+      }
+      int charsRead = 0;
+      while (charsRead < len) {
+        if (!buffer.hasRemaining() && !fillBuffer()) {
+          break;
+        }
+        byte b = buffer.get();
+        if (b != '\n') {
+          cbuf[off + charsRead] = (char)(b & 0xff);
+          charsRead++;
+        }
+      }
+      return charsRead == 0 && len > 0 ? -1 : charsRead;
+    }
+
+    private boolean fillBuffer() throws IOException {
+      if (position >= end) {
+        return false;
+      }
+      buffer.clear();
+      buffer.limit((int)Math.min(buffer.capacity(), end - position));
+      int bytesRead = 0;
+      while (buffer.hasRemaining()) {
+        int count = source.read(buffer, position + bytesRead);
+        if (count == -1) break;
+        bytesRead += count;
+      }
+      buffer.flip();
+      position += bytesRead;
+      return bytesRead > 0;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
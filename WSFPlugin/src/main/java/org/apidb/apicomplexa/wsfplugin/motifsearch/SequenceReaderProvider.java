@@ -2,12 +2,10 @@ package org.apidb.apicomplexa.wsfplugin.motifsearch;
 
 import java.io.*;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
- * Takes a .fasta file as input and serially returns FastaReader objects that contain sequence metadata parsed from def
- * lines and return raw sequence data when read.
+ * Takes a .fasta file as input and serially returns FastaReader objects that contain the def line of each sequence
+ * and return raw sequence data when read.
  *
  * Note that this can also take a file with alternating lines of sequence data and def lines.
  */
@@ -16,19 +14,42 @@ public class SequenceReaderProvider implements AutoCloseable {
     private static final char DEF_LINE_START_INDICATOR = '>';
 
     private final char[] buffer = new char[BUFFER_SIZE];
-    private final FileReader fileReader;
-    private final Pattern deflinePattern;
+    private final Reader fileReader;
+    private final ScanMetrics metrics;
+    private final ScanPermit scanPermit;
     private FastaReader currentStream = null;
     private int currentPos = BUFFER_SIZE;
 
     /**
-     * The current limit of the buffer. The maximum of buffer size or the number of chars left to the end of the file.
+     * The current limit of the buffer: the number of chars read into it by the last fill, or -1 at the end of the file.
      */
     private int limit = BUFFER_SIZE;
 
-    public SequenceReaderProvider(File input, Pattern defLinePattern) throws FileNotFoundException {
-        this.fileReader = new FileReader(input);
-        this.deflinePattern = defLinePattern;
+    /**
+     * @param input .fasta file, which may be compressed (see {@link BgzfFile})
+     */
+    public SequenceReaderProvider(File input) throws IOException {
+        this(input, new ScanMetrics(null));
+    }
+
+    /**
+     * @param input .fasta file, which may be compressed (see {@link BgzfFile})
+     * @param metrics records the characters read from the file and the time reading them took
+     */
+    public SequenceReaderProvider(File input, ScanMetrics metrics) throws IOException {
+        this(input, metrics, null);
+    }
+
+    /**
+     * @param input .fasta file, which may be compressed (see {@link BgzfFile})
+     * @param metrics records the characters read from the file and the time reading them took
+     * @param scanPermit permit to scan, which the caller holds; it is handed back around each read of the file, so
+     * another scan can run while this one waits for its file.  Null if scans are not limited.
+     */
+    public SequenceReaderProvider(File input, ScanMetrics metrics, ScanPermit scanPermit) throws IOException {
+        this.fileReader = new InputStreamReader(BgzfFile.openInputStream(input));
+        this.metrics = metrics;
+        this.scanPermit = scanPermit;
     }
 
     /**
@@ -51,22 +72,48 @@ public class SequenceReaderProvider implements AutoCloseable {
         return Optional.of(currentStream);
     }
 
-    private void fillBuffer() throws IOException {
-        if (currentPos >= buffer.length) {
-            limit = fileReader.read(buffer);
+    /**
+     * Refills the buffer once all of its characters have been consumed.
+     *
+     * @return false if the end of the file is reached
+     */
+    private boolean fillBuffer() throws IOException {
+        if (currentPos >= limit) {
+            final long start = System.nanoTime();
+            if (scanPermit == null) {
+                limit = fileReader.read(buffer);
+            } else {
+                // any read of the file may block, as reads of files on network storage do, so the permit is handed
+                // back around each of them
+                scanPermit.release();
+                try {
+                    limit = fileReader.read(buffer);
+                } finally {
+                    reacquire();
+                }
+            }
+            metrics.addRead(Math.max(0, limit), System.nanoTime() - start);
             currentPos = 0;
         }
+        return currentPos < limit;
+    }
+
+    private void reacquire() throws InterruptedIOException {
+        try {
+            scanPermit.acquire();
+        } catch (InterruptedException e) {
+            // the search was cancelled
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to scan");
+        }
     }
 
     private String readLine() throws IOException {
         StringBuilder defLine = new StringBuilder();
         while (true) {
-            if (currentPos > limit) {
+            if (!fillBuffer()) {
                 return null;
             }
-            if (currentPos >= buffer.length) {
-                fillBuffer();
-            }
             if (buffer[currentPos] == '\n') {
                 currentPos++;
                 return defLine.toString();
@@ -87,10 +134,6 @@ public class SequenceReaderProvider implements AutoCloseable {
         private boolean endReached;
 
         public FastaReader(String defline) {
-            final Matcher defLineMatcher = deflinePattern.matcher(defline);
-            if (!defLineMatcher.find()) {
-                throw new RuntimeException("Cannot read definition line " + defline);
-            }
             this.defline = defline;
             this.endReached = false;
             this.closed = false;
@@ -122,10 +165,7 @@ public class SequenceReaderProvider implements AutoCloseable {
             int charsRead = 0;
             int i = off;
             while (i < off + len) {
-                if (currentPos >= buffer.length) {
-                    fillBuffer();
-                }
-                if (buffer[currentPos] == DEF_LINE_START_INDICATOR || currentPos > limit) {
+                if (!fillBuffer() || buffer[currentPos] == DEF_LINE_START_INDICATOR) {
                     endReached = true;
                     return charsRead;
                 } else if (buffer[currentPos] != '\n') {
@@ -0,0 +1,118 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.File;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.log4j.Logger;
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+import org.gusdb.fgputil.functional.FunctionalInterfaces.FunctionWithException;
+
+/**
+ * DNA match finder that splits a .fasta file into per-sequence byte ranges and scans the ranges concurrently on a
+ * pool of SequenceParallelism threads shared by all searches.  Matches of each sequence are handed to the consumer
+ * in file order (see {@link OrderedTaskRunner}), so the output is identical to that of {@link DnaMatchFinder}: those
+ * of the first sequence still being scanned as they are found, while each sequence scanned ahead of it holds at most
+ * RowQueueSize matches.  If the file has a {@link FastaIndex},
+ * the ranges are taken from it instead of being found by reading the whole file first.  Datasets held in the
+ * {@link GenomeCache} are scanned in place, the ranges viewed in the cached content.
+ */
+public class ShardedDnaMatchFinder extends DnaMatchFinder {
+
+  private static final Logger LOG = Logger.getLogger(ShardedDnaMatchFinder.class);
+
+  // threads sequences are scanned on, shared by all searches
+  private static ExecutorService _sequencePool;
+
+  public ShardedDnaMatchFinder(MotifConfig config) {
+    super(config);
+  }
+
+  public ShardedDnaMatchFinder(MotifConfig config, GenomeCache genomeCache) {
+    super(config, genomeCache);
+  }
+
+  @Override
+  public void findMatches(
+      File fastaFile,
+      List<Pattern> searchPatterns,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    Optional<FastaIndex> index = loadIndex(fastaFile);
+    List<SequenceRange> ranges = index.isPresent() ? index.get().getRanges() : SequenceRange.scan(fastaFile);
+    long start = System.nanoTime();
+    List<Defline> deflines = index.isPresent() ? index.get().getDeflines() : parseDeflines(fastaFile, ranges);
+    _metrics.addFormat(System.nanoTime() - start);
+    int parallelism = Math.min(_config.getSequenceParallelism(), ranges.size());
+    LOG.debug("Scanning " + ranges.size() + " sequences of " + fastaFile + " with parallelism " + parallelism);
+    if (parallelism == 0) {
+      return;
+    }
+    Optional<GenomeCache.Content> content = getCachedContent(fastaFile);
+    ExecutorService pool = getSequencePool(_config);
+    try (GenomeCache.Content lease = content.orElse(null);
+         SequenceRange.Source source = lease != null ? null : BgzfFile.openSource(fastaFile);
+         MappedSequenceProvider cached = lease != null ? new MappedSequenceProvider(lease.getBuffer(), index) : null) {
+      Iterator<OrderedTaskRunner.Task<PluginMatch>> tasks = IntStream.range(0, ranges.size())
+          .mapToObj(i -> (OrderedTaskRunner.Task<PluginMatch>) output ->
+              findMatchesInRange(ranges.get(i), deflines.get(i), source, cached, searchPatterns, output,
+                  orgToProjectId))
+          .iterator();
+      OrderedTaskRunner.run(pool, parallelism, Math.max(1, _config.getRowQueueSize()), tasks, consumer);
+    }
+  }
+
+  /**
+   * @return the pool sequences are scanned on, shared by all searches, with as many threads as configured
+   * (SequenceParallelism) by the first search that uses it
+   */
+  private static synchronized ExecutorService getSequencePool(MotifConfig config) {
+    if (_sequencePool == null) {
+      _sequencePool = Executors.newFixedThreadPool(config.getSequenceParallelism(), r -> {
+        Thread thread = new Thread(r, "motif-sequence-scan");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return _sequencePool;
+  }
+
+  private List<Defline> parseDeflines(File fastaFile, List<SequenceRange> ranges) {
+    DeflineParser deflineParser = newDeflineParser(fastaFile, Optional.empty());
+    return ranges.stream()
+        .map(range -> deflineParser.parse(range.getDefline()))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Scans the range of the file in place if its content is cached, and reads it from the file otherwise
+   */
+  private void findMatchesInRange(
+      SequenceRange range,
+      Defline defline,
+      SequenceRange.Source source,
+      MappedSequenceProvider cached,
+      List<Pattern> searchPatterns,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    _metrics.addSequence();
+    if (isSkipped(checkDefline(defline, range.getDefline()))) {
+      return;
+    }
+    _metrics.addBytes(range.getEnd() - range.getStart());
+    if (cached != null) {
+      matchSequence(defline, searchPatterns, cached.map(range).getSequence(), consumer, orgToProjectId);
+      return;
+    }
+    try (Reader sequence = range.newReader(source)) {
+      matchSequence(defline, searchPatterns, sequence, getReadLength(range), consumer, orgToProjectId);
+    }
+  }
+}
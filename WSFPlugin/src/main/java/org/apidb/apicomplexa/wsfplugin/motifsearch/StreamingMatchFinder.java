@@ -7,6 +7,8 @@ import org.gusdb.fgputil.functional.FunctionalInterfaces.FunctionWithException;
 
 import java.io.File;
 import java.io.Reader;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.regex.Pattern;
 
@@ -17,19 +19,50 @@ import java.util.regex.Pattern;
  */
 public abstract class StreamingMatchFinder implements MatchFinder {
 
+
   protected final MotifConfig _config;
+  protected ScanMetrics _metrics = new ScanMetrics(null);
+  protected ScanPermit _scanPermit = null;
 
   public StreamingMatchFinder(MotifConfig config) {
     _config = config;
   }
 
-  protected abstract void findMatchesInSequence(String defLine, Pattern searchPattern, Reader sequence,
+  @Override
+  public void setMetrics(ScanMetrics metrics) {
+    _metrics = metrics;
+  }
+
+  @Override
+  public void setScanPermit(ScanPermit scanPermit) {
+    _scanPermit = scanPermit;
+  }
+
+  /**
+   * @return layout of the groups captured by the configured defline regex
+   */
+  protected abstract Defline.Format getDeflineFormat();
+
+  /**
+   * @return regex of the deflines of the dataset files: the one configured for the plugin
+   */
+  protected Pattern getDeflinePattern() {
+    return _config.getDeflinePattern();
+  }
+
+  /**
+   * Finds the matches of all the patterns in a single pass over the sequence, tagging each with the index of its
+   * pattern in {@link PluginMatch#patternIndex}.  The range of the sequence is known up front if the file is
+   * indexed.
+   */
+  protected abstract void findMatchesInSequence(Defline defline, List<Pattern> searchPatterns, Reader sequence,
+                                                Optional<SequenceRange> range,
                                                 ConsumerWithException<PluginMatch> consumer,
                                                 FunctionWithException<String, String> orgToProjectId) throws Exception;
 
   /**
-   * Delegates to {@link SequenceReaderProvider} to break the file into sequence Readers that are processed individually
-   * in serial by the abstract method findMatchesInSequence. Finds and consumes matches across all sequences.
+   * Breaks the file into sequences (see {@link #scanSequences}) that are processed individually in serial by the
+   * abstract method findMatchesInSequence. Finds and consumes matches across all sequences.
    * @param fastaFile file to read
    * @param searchPattern pattern to search for
    * @param consumer consumes the matches, writing them to the plugin response
@@ -40,13 +73,113 @@ public abstract class StreamingMatchFinder implements MatchFinder {
                           Pattern searchPattern,
                           ConsumerWithException<PluginMatch> consumer,
                           FunctionWithException<String, String> orgToProjectId) throws Exception {
-    try (SequenceReaderProvider sequenceProvider = new SequenceReaderProvider(fastaFile, _config.getDeflinePattern())) {
+    findMatches(fastaFile, Collections.singletonList(searchPattern), consumer, orgToProjectId);
+  }
+
+  /**
+   * Reads the file once for all of the patterns: each sequence is scanned for all of them together.
+   */
+  @Override
+  public void findMatches(File fastaFile,
+                          List<Pattern> searchPatterns,
+                          ConsumerWithException<PluginMatch> consumer,
+                          FunctionWithException<String, String> orgToProjectId) throws Exception {
+    scanSequences(fastaFile, loadIndex(fastaFile), searchPatterns, (defline, range, sequence) ->
+        findMatchesInSequence(defline, searchPatterns, sequence, range, consumer, orgToProjectId));
+  }
+
+  /**
+   * Counts the matches of each sequence without building their locations and context.
+   */
+  @Override
+  public void countMatches(File fastaFile,
+                           Pattern searchPattern,
+                           ConsumerWithException<PluginMatch> consumer,
+                           FunctionWithException<String, String> orgToProjectId) throws Exception {
+    scanSequences(fastaFile, loadIndex(fastaFile), Collections.singletonList(searchPattern), (defline, range, sequence) ->
+        countMatchesInSequence(defline, searchPattern, sequence, consumer, orgToProjectId));
+  }
+
+  /**
+   * Counts the matches of the pattern in the sequence, and passes the count on (see {@link PluginMatch#ofCount})
+   * unless there are none.
+   */
+  protected abstract void countMatchesInSequence(Defline defline, Pattern searchPattern, Reader sequence,
+                                                 ConsumerWithException<PluginMatch> consumer,
+                                                 FunctionWithException<String, String> orgToProjectId) throws Exception;
+
+  /**
+   * Scans a sequence with a valid defline, and its indexed range if the file is indexed
+   */
+  protected interface SequenceScanner {
+    void scan(Defline defline, Optional<SequenceRange> range, Reader sequence) throws Exception;
+  }
+
+  /**
+   * Delegates to {@link SequenceReaderProvider} to break the file into sequence Readers that are processed
+   * individually in serial by the scanner.  Deflines are parsed with the help of the file's {@link FastaIndex}, if
+   * it has one.  Subclasses that can tell which sequences may match the patterns skip the others.
+   *
+   * @param fastaFile file to read
+   * @param index the file's index, if it has one
+   * @param searchPatterns patterns the sequences are scanned for
+   * @param scanner scans each sequence
+   */
+  protected void scanSequences(File fastaFile,
+                               Optional<FastaIndex> index,
+                               List<Pattern> searchPatterns,
+                               SequenceScanner scanner) throws Exception {
+    DeflineParser deflineParser = newDeflineParser(fastaFile, index);
+    try (SequenceReaderProvider sequenceProvider = new SequenceReaderProvider(fastaFile, _metrics, _scanPermit)) {
       Optional<FastaReader> fastaReader = sequenceProvider.nextSequence();
       while (fastaReader.isPresent()) {
         final FastaReader reader = fastaReader.get();
-        findMatchesInSequence(reader.getDefline(), searchPattern, reader, consumer, orgToProjectId);
+        final Defline defline = parseDefline(deflineParser, reader.getDefline());
+        scanner.scan(defline, deflineParser.getIndexedRange(), reader);
         fastaReader = sequenceProvider.nextSequence();
       }
     }
   }
+
+  /**
+   * Parses the defline of a sequence about to be scanned, recording the sequence and the time parsing took in the
+   * metrics of the scan
+   *
+   * @throws RuntimeException if the defline does not match the defline pattern
+   */
+  protected Defline parseDefline(DeflineParser deflineParser, String defline) {
+    long start = System.nanoTime();
+    Defline parsed = deflineParser.parse(defline);
+    _metrics.addFormat(System.nanoTime() - start);
+    _metrics.addSequence();
+    return checkDefline(parsed, defline);
+  }
+
+  /**
+   * @param parsed the defline parsed, or null if it does not match the defline pattern
+   * @param defline the defline as it is in the file
+   * @return the parsed defline
+   * @throws RuntimeException if the defline could not be parsed, as a file with a malformed defline cannot be searched
+   */
+  protected Defline checkDefline(Defline parsed, String defline) {
+    if (parsed == null) {
+      throw new RuntimeException("Cannot read definition line " + defline + " Against Pattern "
+          + getDeflinePattern().pattern());
+    }
+    return parsed;
+  }
+
+  /**
+   * @return a parser of the deflines of the file, which takes them from its index if it has one, and from the
+   * {@link DeflineCache} otherwise
+   */
+  protected DeflineParser newDeflineParser(File fastaFile, Optional<FastaIndex> index) {
+    Optional<DeflineCache.Deflines> cached = index.isPresent() ? Optional.empty()
+        : DeflineCache.getInstance(_config).get(fastaFile, getDeflinePattern(), getDeflineFormat());
+    return new DeflineParser(getDeflinePattern(), getDeflineFormat(), index, cached);
+  }
+
+  protected Optional<FastaIndex> loadIndex(File fastaFile) {
+    return FastaIndex.load(fastaFile, getDeflinePattern(), getDeflineFormat());
+  }
 }
@@ -0,0 +1,42 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of distinct strings, so that the strings parsed over and over from deflines (organism names, strands) are
+ * kept as a single instance each.  Unlike String.intern(), lookups do not go through the JVM's global string table,
+ * the table holds at most a given number of strings (later ones are returned as they are), and its strings are
+ * collected with it.  Strings may be looked up by several threads.
+ */
+public class StringTable {
+
+  private final int maxSize;
+  private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+
+  public StringTable(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @return the instance of the table equal to the given string, which is added to the table if it has room; null
+   * if the string is null
+   */
+  public String get(String string) {
+    if (string == null) {
+      return null;
+    }
+    String existing = strings.get(string);
+    if (existing != null) {
+      return existing;
+    }
+    if (strings.size() >= maxSize) {
+      return string;
+    }
+    existing = strings.putIfAbsent(string, string);
+    return existing != null ? existing : string;
+  }
+
+  public int size() {
+    return strings.size();
+  }
+}
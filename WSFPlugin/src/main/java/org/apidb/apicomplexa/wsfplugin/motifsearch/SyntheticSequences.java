@@ -0,0 +1,204 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.ReverseComplement;
+
+/**
+ * Generates pseudo-random dataset files, so benchmarks and regression runs need no real datasets.  Files are
+ * generated from a seed, so runs compare like with like, and have the deflines of the exported datasets.  A motif
+ * can be planted at a given density on top of the random sequence; every sequence starts with one, so each
+ * sequence has at least one match.
+ */
+public class SyntheticSequences {
+
+  /**
+   * Kinds of dataset files
+   */
+  public enum Type {
+    /** chromosomes, each followed by its reverse strand */
+    DNA("ACGT"),
+    /** annotated proteins */
+    PROTEIN("ACDEFGHIKLMNPQRSTVWY"),
+    /** translated open reading frames */
+    ORF("ACDEFGHIKLMNPQRSTVWY");
+
+    private final String alphabet;
+
+    private Type(String alphabet) {
+      this.alphabet = alphabet;
+    }
+  }
+
+  /**
+   * Defline regex of ORF datasets as deployed (see motifSearch-config.xml); ORF deflines have no transcript.
+   */
+  public static final String ORF_DEFLINE_REGEX = ">(?:\\w*\\|)*([^|\\s]+)\\s*\\|.*?\\s*organism=([^|\\s]+)";
+
+  private static final String ORGANISM = "Plasmodium_falciparum_3D7";
+
+  // FASTA files wrap sequences at this many characters per line
+  private static final int LINE_LENGTH = 60;
+
+  private final Type type;
+  private long seed = 1;
+  private int sequences = 1;
+  private int minLength = 1000;
+  private int maxLength = 1000;
+  private String motif = null;
+  private double motifsPerKb = 0;
+
+  public SyntheticSequences(Type type) {
+    this.type = type;
+  }
+
+  public SyntheticSequences seed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  /**
+   * @param sequences number of sequences (for DNA, of forward strands)
+   */
+  public SyntheticSequences sequences(int sequences) {
+    this.sequences = sequences;
+    return this;
+  }
+
+  /**
+   * Sets the range of sequence lengths; lengths are uniformly distributed in it
+   */
+  public SyntheticSequences lengths(int minLength, int maxLength) {
+    this.minLength = minLength;
+    this.maxLength = maxLength;
+    return this;
+  }
+
+  /**
+   * Plants a motif (a literal string) at random positions, on average motifsPerKb times per 1000 characters
+   */
+  public SyntheticSequences plant(String motif, double motifsPerKb) {
+    this.motif = motif;
+    this.motifsPerKb = motifsPerKb;
+    return this;
+  }
+
+  /**
+   * Writes the dataset to a temporary file, deleted on exit
+   */
+  public File write() throws IOException {
+    File file = File.createTempFile(type.name().toLowerCase(), ".fasta");
+    file.deleteOnExit();
+    write(file);
+    return file;
+  }
+
+  public void write(File file) throws IOException {
+    Random random = new Random(seed);
+    try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.US_ASCII)) {
+      for (int i = 0; i < sequences; i++) {
+        int length = minLength + random.nextInt(maxLength - minLength + 1);
+        String sequence = plant(random, generate(random, length));
+        switch (type) {
+          case DNA:
+            String chromosome = String.format("Pf3D7_%02d_v3", i + 1);
+            writeSequence(out, deflineOfChromosome(chromosome, "+", length), sequence);
+            writeSequence(out, deflineOfChromosome(chromosome, "-", length), ReverseComplement.of(sequence));
+            break;
+          case PROTEIN:
+            String gene = String.format("PF3D7_%02d%05d", 1 + i / 1000, (i % 1000) * 100 + 100);
+            writeSequence(out, ">" + gene + ".1-p1 | transcript=" + gene + ".1 | gene=" + gene + " | organism="
+                + ORGANISM + " | gene_product=conserved protein, unknown function | protein_length=" + length, sequence);
+            break;
+          case ORF:
+            String contig = String.format("Pf3D7_%02d_v3", 1 + i % 14);
+            int start = 1 + random.nextInt(1000000);
+            int end = start + 3 * length - 1;
+            writeSequence(out, ">" + contig + "-" + (1 + i % 6) + "-" + start + "-" + end + " | organism=" + ORGANISM
+                + " | location=" + contig + ":" + start + "-" + end + "(+) | length=" + length, sequence);
+            break;
+        }
+      }
+    }
+  }
+
+  private static String deflineOfChromosome(String chromosome, String strand, int length) {
+    return ">" + chromosome + " | strand=(" + strand + ") | organism=" + ORGANISM + " | version=2015-06-18 | length="
+        + length + " | SO=chromosome";
+  }
+
+  private String generate(Random random, int length) {
+    if (type == Type.DNA) {
+      return dna(random, length);
+    }
+    StringBuilder sequence = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      sequence.append(type.alphabet.charAt(random.nextInt(type.alphabet.length())));
+    }
+    return sequence.toString();
+  }
+
+  private String plant(Random random, String sequence) {
+    if (motif == null || sequence.length() < motif.length()) {
+      return sequence;
+    }
+    StringBuilder planted = new StringBuilder(sequence);
+    int count = 1 + (int) (sequence.length() * motifsPerKb / 1000);
+    for (int i = 0; i < count; i++) {
+      int position = i == 0 ? 0 : random.nextInt(sequence.length() - motif.length() + 1);
+      planted.replace(position, position + motif.length(), motif);
+    }
+    return planted.toString();
+  }
+
+  /**
+   * @return a DNA sequence of the given length, with occasional runs of N as in assembly gaps
+   */
+  public static String dna(long seed, int length) {
+    return dna(new Random(seed), length);
+  }
+
+  private static String dna(Random random, int length) {
+    StringBuilder sequence = new StringBuilder(length);
+    while (sequence.length() < length) {
+      if (random.nextInt(10000) == 0) {
+        for (int gap = 100 + random.nextInt(900); gap > 0 && sequence.length() < length; gap--) {
+          sequence.append('N');
+        }
+      }
+      else {
+        sequence.append(Type.DNA.alphabet.charAt(random.nextInt(4)));
+      }
+    }
+    return sequence.toString();
+  }
+
+  /**
+   * Writes a genome of the given number of chromosomes, with both strands of each
+   */
+  public static File writeGenome(long seed, int chromosomes, int chromosomeLength) throws IOException {
+    return new SyntheticSequences(Type.DNA).seed(seed).sequences(chromosomes)
+        .lengths(chromosomeLength, chromosomeLength).write();
+  }
+
+  /**
+   * Writes a proteome of proteins of random lengths up to maxLength
+   */
+  public static File writeProteome(long seed, int proteins, int maxLength) throws IOException {
+    return new SyntheticSequences(Type.PROTEIN).seed(seed).sequences(proteins).lengths(1, maxLength).write();
+  }
+
+  private static void writeSequence(Writer out, String defline, String sequence) throws IOException {
+    out.write(defline);
+    out.write('\n');
+    for (int i = 0; i < sequence.length(); i += LINE_LENGTH) {
+      out.write(sequence, i, Math.min(LINE_LENGTH, sequence.length() - i));
+      out.write('\n');
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import java.io.Reader;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.BufferedDnaMotifFinder;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifMatch;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.OrfTranslator;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.OrfTranslator.Orf;
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+import org.gusdb.fgputil.functional.FunctionalInterfaces.FunctionWithException;
+
+/**
+ * Finds protein motifs in the ORFs of genomes, translated from the genome .fasta files as they are scanned (see
+ * {@link OrfTranslator}) instead of read from .fasta files of the ORFs, which have to be generated again whenever
+ * a genome changes.  Each forward strand sequence of a dataset is translated in all six frames in a single pass,
+ * and the patterns are matched against each ORF of at least {@link MotifConfig#getOrfMinLength()} residues as it is
+ * produced; reverse strand sequences stored in the datasets are skipped.
+ *
+ * The matches of an ORF are summarized into a single {@link PluginMatch}, as those of a protein are by
+ * {@link AAMatchFinder}.  ORFs are named as in the ORF .fasta files, {@code <sequence>-<frame>-<start>-<end>},
+ * with the 1-based positions of the first and last bases of their codons in the genomic sequence; the start of a
+ * reverse strand ORF is its last base on the forward strand, so the forward and reverse ORFs of a stretch bounded by
+ * unknown codons or the ends of the sequence have different names.  The locations of their matches are those of the codons of the matched residues in the genomic sequence, the start of a reverse
+ * strand match being its last base on the forward strand.
+ */
+public class TranslatedOrfMatchFinder extends StreamingMatchFinder {
+
+  public TranslatedOrfMatchFinder(MotifConfig config) {
+    super(config);
+  }
+
+  @Override
+  protected Defline.Format getDeflineFormat() {
+    return Defline.Format.DNA;
+  }
+
+  /**
+   * @return the regex of the deflines of genome .fasta files, rather than that of the ORF files
+   */
+  @Override
+  protected Pattern getDeflinePattern() {
+    return _config.getGenomeDeflinePattern();
+  }
+
+  @Override
+  protected void findMatchesInSequence(
+      Defline defline,
+      List<Pattern> searchPatterns,
+      Reader sequence,
+      Optional<SequenceRange> range,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    if (defline.getStrand().equals("-")) {
+      // translated in the reverse frames of the forward strand
+      sequence.skip(Long.MAX_VALUE);
+      return;
+    }
+    String projectId = orgToProjectId.apply(defline.getOrganism());
+    int contextLength = _config.getContextLength();
+    new OrfTranslator(_config.getOrfMinLength()).translate(sequence, orf -> {
+      AAMatchFinder.MatchSummary[] summaries = new AAMatchFinder.MatchSummary[searchPatterns.size()];
+      for (int i = 0; i < summaries.length; i++) {
+        PluginMatch match = new PluginMatch();
+        match.sourceId = getOrfId(defline, orf);
+        match.projectId = projectId;
+        match.patternIndex = i;
+        summaries[i] = new AAMatchFinder.MatchSummary(match, contextLength) {
+          @Override
+          String formatLocation(MotifMatch motifMatch) {
+            return TranslatedOrfMatchFinder.formatLocation(orf, motifMatch.getStartPos(), motifMatch.getEndPos());
+          }
+        };
+      }
+      // as for proteins, the context of a match is up to twice the context length of the gap before it, plus one
+      // character to tell whether the ORF goes on beyond the context after the last match
+      BufferedDnaMotifFinder.match(orf.getProtein(), searchPatterns, false, 2 * contextLength + 1,
+          AAMatchFinder.BUFFER_SIZE, _config.getProteinMaxMatchLength(), _config.getRegexStepsPerCharacter(),
+          motifMatch -> summaries[motifMatch.getPatternIndex()].add(motifMatch));
+      AAMatchFinder.passSummaries(summaries, consumer);
+    });
+  }
+
+  @Override
+  protected void countMatchesInSequence(
+      Defline defline,
+      Pattern searchPattern,
+      Reader sequence,
+      ConsumerWithException<PluginMatch> consumer,
+      FunctionWithException<String, String> orgToProjectId) throws Exception {
+    if (defline.getStrand().equals("-")) {
+      sequence.skip(Long.MAX_VALUE);
+      return;
+    }
+    String projectId = orgToProjectId.apply(defline.getOrganism());
+    new OrfTranslator(_config.getOrfMinLength()).translate(sequence, orf -> {
+      int matchCount = BufferedDnaMotifFinder.count(orf.getProtein(), searchPattern, false,
+          _config.getProteinMaxMatchLength(), _config.getRegexStepsPerCharacter());
+      if (matchCount == 0) return;
+      consumer.accept(PluginMatch.ofCount(getOrfId(defline, orf), projectId, matchCount));
+    });
+  }
+
+  /**
+   * @return name of the ORF, as in the ORF .fasta files
+   */
+  static String getOrfId(Defline defline, Orf orf) {
+    return defline.getSourceId() + "-" + orf.getFrame() + "-" + (orf.isReversed()
+        ? orf.getEnd() + "-" + (orf.getStart() + 1)
+        : (orf.getStart() + 1) + "-" + orf.getEnd());
+  }
+
+  /**
+   * @return location in the genomic sequence of the codons of the residues of the ORF between the given positions
+   * (the end excluded), at base 1; reverse strand locations run from their last base on the forward strand to
+   * their first
+   */
+  static String formatLocation(Orf orf, int start, int end) {
+    int first = orf.getSequenceStart(start, end) + 1;
+    int last = orf.getSequenceEnd(start, end);
+    return orf.isReversed() ? last + "-" + first : first + "-" + last;
+  }
+}
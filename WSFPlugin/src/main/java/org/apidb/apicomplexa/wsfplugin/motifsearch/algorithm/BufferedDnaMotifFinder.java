@@ -1,169 +1,537 @@
 package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
 
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.StepLimitedSequence.BudgetExceededException;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.exception.MotifTooComplexException;
 import org.apidb.apicomplexa.wsfplugin.motifsearch.exception.MotifTooLongException;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.exception.UnsupportedMotifException;
 import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
 
 import java.io.*;
-import java.nio.CharBuffer;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
  * Finds bounded-length motifs in a DNA sequence. This bounds the amount of memory used for scalability, as practically
- * we do not need to support large motifs.
+ * we do not need to support large motifs.  Patterns are matched through {@link CompiledMotif}, so regular motifs are
+ * scanned in linear time.  The reverse strand can be searched in the same pass by also matching the reverse
+ * complement of the pattern, see {@link MotifMatch#isReversed()}.
  */
 public class BufferedDnaMotifFinder {
 
+  /**
+   * Finds motifs on the forward strand of a sequence, with the default step budget.
+   *
+   * @see #match(Reader, Pattern, boolean, int, int, int, long, ConsumerWithException)
+   */
+  public static int match(Reader sequenceInput,
+                          Pattern pattern,
+                          int contextLength,
+                          int bufferSize,
+                          int maxMatchLength,
+                          ConsumerWithException<MotifMatch> matchConsumer) throws Exception {
+    return match(sequenceInput, pattern, false, contextLength, bufferSize, maxMatchLength,
+        CompiledMotif.DEFAULT_REGEX_STEPS_PER_CHARACTER, matchConsumer);
+  }
+
   /**
    * @param sequenceInput A FastaReader containing exclusively sequence data.
    * @param pattern       Pattern to match against the sequenceInput.
+   * @param bothStrands   Whether to also match the pattern on the reverse strand, in the same pass.
    * @param contextLength The amount of context returned on either end of the match.
    * @param bufferSize    The total size that will be buffered into memory at once.
+   * @param regexStepsPerCharacter Step budget of patterns matched with java.util.regex, see
+   *                      {@link CompiledMotif#withRegexBudget(long)}.
+   * @return the length of the sequence
    * @throws MotifTooLongException If the motif match exceeds {@param maxMatchLength} characters in length.
+   * @throws UnsupportedMotifException If both strands are searched and the pattern cannot be reverse complemented.
+   * @throws MotifTooComplexException If matching the pattern exceeded its step budget.
    */
-  public static void match(Reader sequenceInput,
-                           Pattern pattern,
-                           int contextLength,
-                           int bufferSize,
-                           int maxMatchLength,
-                           ConsumerWithException<MotifMatch> matchConsumer) throws Exception {
-    boolean first = true;
-    boolean reachedNewline = false;
-    final Set<Integer> startPositions = new HashSet<>();
+  public static int match(Reader sequenceInput,
+                          Pattern pattern,
+                          boolean bothStrands,
+                          int contextLength,
+                          int bufferSize,
+                          int maxMatchLength,
+                          long regexStepsPerCharacter,
+                          ConsumerWithException<MotifMatch> matchConsumer) throws Exception {
+    return match(sequenceInput, Collections.singletonList(pattern), bothStrands, contextLength, bufferSize,
+        maxMatchLength, regexStepsPerCharacter, matchConsumer);
+  }
+
+  /**
+   * Finds the motifs of several patterns in a single pass over the sequence.  Each window of the sequence is read
+   * once and first scanned for a literal of each pattern (see {@link LiteralPrefilter}); only the patterns whose
+   * literal occurs in it are then matched against it.  Matches are passed on as each window is scanned, tagged with
+   * the index of their pattern (see {@link MotifMatch#getPatternIndex()}), so the matches of different patterns are
+   * interleaved; those of each pattern are found in the same order as if it were searched for alone.
+   *
+   * @param patterns Patterns to match against the sequenceInput.
+   * @see #match(Reader, Pattern, boolean, int, int, int, long, ConsumerWithException)
+   */
+  public static int match(Reader sequenceInput,
+                          List<Pattern> patterns,
+                          boolean bothStrands,
+                          int contextLength,
+                          int bufferSize,
+                          int maxMatchLength,
+                          long regexStepsPerCharacter,
+                          ConsumerWithException<MotifMatch> matchConsumer) throws Exception {
+    return scan(sequenceInput, patterns, bothStrands, contextLength, bufferSize, maxMatchLength,
+        regexStepsPerCharacter, matchConsumer, null);
+  }
+
+  /**
+   * Counts the motifs of a pattern in a sequence without building the matches: neither the matched text nor its
+   * context is extracted from the buffer.
+   *
+   * @return the number of matches, on both strands if bothStrands is set
+   * @see #match(Reader, Pattern, boolean, int, int, int, long, ConsumerWithException)
+   */
+  public static int count(Reader sequenceInput,
+                          Pattern pattern,
+                          boolean bothStrands,
+                          int bufferSize,
+                          int maxMatchLength,
+                          long regexStepsPerCharacter) throws Exception {
+    final int[] counts = new int[1];
+    scan(sequenceInput, Collections.singletonList(pattern), bothStrands, 0, bufferSize, maxMatchLength,
+        regexStepsPerCharacter, null, counts);
+    return counts[0];
+  }
+
+  /**
+   * Scans the sequence, passing the matches to the matchConsumer or, if there is none, only counting them per
+   * pattern.  The scan stops between buffers if the thread is interrupted, as when a search is cancelled.
+   */
+  private static int scan(Reader sequenceInput,
+                          List<Pattern> patterns,
+                          boolean bothStrands,
+                          int contextLength,
+                          int bufferSize,
+                          int maxMatchLength,
+                          long regexStepsPerCharacter,
+                          ConsumerWithException<MotifMatch> matchConsumer,
+                          int[] counts) throws Exception {
+    final int strands = bothStrands ? 2 : 1;
+    final CompiledMotif[] motifs = new CompiledMotif[patterns.size() * strands];
+    for (int i = 0; i < patterns.size(); i++) {
+      System.arraycopy(strands(patterns.get(i), bothStrands, regexStepsPerCharacter), 0, motifs, i * strands,
+          strands);
+    }
+    final LiteralPrefilter prefilter = patterns.size() > 1 ? newPrefilter(patterns, bothStrands) : null;
     final SequenceBuffer sequenceBuffer = new SequenceBuffer(maxMatchLength, contextLength, bufferSize);
+    // The matchers run on the buffer itself, so scanning a window copies nothing.
+    final MotifMatcher[] matchers = new MotifMatcher[motifs.length];
+    // With the overlapping buffers, it's possible for us to come across the same match twice.  Each motif resumes
+    // at the end of its last match instead, as a scan of the whole sequence would.
+    final int[] resumePositions = new int[motifs.length];
+    for (int motif = 0; motif < motifs.length; motif++) {
+      matchers[motif] = motifs[motif].matcher(sequenceBuffer);
+    }
+    boolean first = true;
     int bytesRead;
     do {
+      if (Thread.interrupted()) {
+        throw new InterruptedException("Motif search cancelled");
+      }
       if (first) {
         first = false;
       } else {
-        // Shift the buffer backward to make space for a bufferSize and an overlap window worth of new data
+        // Move the window forward, keeping its overlap window, to make space for new data
         sequenceBuffer.shiftBuffers();
       }
       bytesRead = sequenceBuffer.read(sequenceInput);
-      String subsequence = sequenceBuffer.readCurrentSubsequence();
-      final Matcher matcher = pattern.matcher(subsequence);
-      while (matcher.find()) {
-        boolean atEnd = bytesRead == -1 || reachedNewline;
-        if (matcher.start() > bufferSize + sequenceBuffer.getOverlapWindow() && !atEnd) {
-          break;
-        }
-        // With the overlapping buffers, it's possible for us to come across the same match twice.
-        if (startPositions.contains(matcher.start() + sequenceBuffer.getSequencePosition())) {
+      final int sequencePosition = sequenceBuffer.getSequencePosition();
+      final BitSet candidates = prefilter == null ? null : prefilter.scan(sequenceBuffer, 0, sequenceBuffer.length());
+      for (int motif = 0; motif < motifs.length; motif++) {
+        if (candidates != null && !candidates.get(motif)) {
           continue;
         }
-        if (matcher.group().length() > maxMatchLength) {
-          throw new MotifTooLongException(String.format("The motif pattern you provided, '%s', produced at " +
-                  "least one match that is greater than %d base pairs. " +
-                  "Please adjust the motif pattern to avoid matches this long.", pattern, maxMatchLength));
+        final Pattern pattern = patterns.get(motif / strands);
+        final MotifMatcher matcher = matchers[motif];
+        try {
+          boolean found = matcher.find(Math.max(0, resumePositions[motif] - sequencePosition));
+          for (; found; found = matcher.find()) {
+            if (matcher.start() > sequenceBuffer.getLastMatchStart() && bytesRead != -1) {
+              break;
+            }
+            if (matcher.end() - matcher.start() > maxMatchLength) {
+              throw tooLong(pattern, maxMatchLength);
+            }
+            resumePositions[motif] = sequencePosition + Math.max(matcher.end(), matcher.start() + 1);
+            if (matchConsumer == null) {
+              counts[motif / strands]++;
+              continue;
+            }
+            // Only now that the match is reported are its strings built.
+            final int end = Math.min(sequenceBuffer.length(), matcher.end() + contextLength);
+            final String trailingContext = sequenceBuffer.subSequence(matcher.end(), end).toString();
+            final String leadingContext = sequenceBuffer.getLeadingContext(matcher.start());
+            matchConsumer.accept(newMatch(motif % strands == 1, matcher.group(),
+                matcher.start() + sequencePosition,
+                matcher.end() + sequencePosition,
+                leadingContext, trailingContext, motif / strands));
+          }
+        }
+        catch (BudgetExceededException e) {
+          throw tooComplex(pattern, e);
         }
-        final String trailingContext = subsequence.substring(matcher.end(), Math.min(subsequence.length(), matcher.end() + contextLength));
-        final String leadingContext = matcher.start() > contextLength
-                ? subsequence.substring(matcher.start() - contextLength, matcher.start())
-                : sequenceBuffer.getLeadingContext(matcher);
-        startPositions.add(matcher.start() + sequenceBuffer.getSequencePosition());
-        matchConsumer.accept(new MotifMatch.Builder()
-            .match(matcher.group())
-            .startPos(matcher.start() + sequenceBuffer.getSequencePosition())
-            .endPos(matcher.end() + sequenceBuffer.getSequencePosition())
-            .leadingContext(leadingContext)
-            .trailingContext(trailingContext)
-            .build());
       }
-    } while (bytesRead != -1 && !reachedNewline);
+    } while (bytesRead != -1);
+    return sequenceBuffer.getSequencePosition() + sequenceBuffer.length();
   }
 
   /**
-   * Utility class used for "Shifting" a CharBuffer without re-creating it for memory efficiency.
+   * @return prefilter of the motifs of the patterns, in the order of {@link #strands(Pattern, boolean, long)}
    */
-  private static class SequenceBuffer {
-    private final CharBuffer buffer1;
-    private final CharBuffer buffer2;
-    private final CharBuffer contextBuffer;
+  private static LiteralPrefilter newPrefilter(List<Pattern> patterns, boolean bothStrands) {
+    List<String> literals = new ArrayList<>();
+    for (Pattern pattern : patterns) {
+      String literal = MotifFactors.longestLiteral(pattern).orElse(null);
+      literals.add(literal);
+      if (bothStrands) {
+        literals.add(literal == null ? null : ReverseComplement.of(literal));
+      }
+    }
+    return new LiteralPrefilter(literals);
+  }
+
+  /**
+   * Finds motifs on the forward strand of a sequence that is fully addressable, with the default step budget.
+   *
+   * @see #match(CharSequence, Pattern, boolean, int, int, long, ConsumerWithException)
+   */
+  public static void match(CharSequence sequence,
+                           Pattern pattern,
+                           int contextLength,
+                           int maxMatchLength,
+                           ConsumerWithException<MotifMatch> matchConsumer) throws Exception {
+    match(sequence, pattern, false, contextLength, maxMatchLength, CompiledMotif.DEFAULT_REGEX_STEPS_PER_CHARACTER,
+        matchConsumer);
+  }
+
+  /**
+   * Finds motifs in a sequence that is already fully addressable, such as a view of a memory-mapped file, so no
+   * buffering is needed.  Context is taken directly from the sequence on either side of each match.
+   *
+   * @param sequence       Sequence data to match against.
+   * @param pattern        Pattern to match against the sequence.
+   * @param bothStrands    Whether to also match the pattern on the reverse strand.
+   * @param contextLength  The amount of context returned on either end of the match.
+   * @param maxMatchLength Maximum allowed length of a match.
+   * @param regexStepsPerCharacter Step budget of patterns matched with java.util.regex, see
+   *                       {@link CompiledMotif#withRegexBudget(long)}.
+   * @throws MotifTooLongException If the motif match exceeds {@param maxMatchLength} characters in length.
+   * @throws UnsupportedMotifException If both strands are searched and the pattern cannot be reverse complemented.
+   * @throws MotifTooComplexException If matching the pattern exceeded its step budget.
+   */
+  public static void match(CharSequence sequence,
+                           Pattern pattern,
+                           boolean bothStrands,
+                           int contextLength,
+                           int maxMatchLength,
+                           long regexStepsPerCharacter,
+                           ConsumerWithException<MotifMatch> matchConsumer) throws Exception {
+    final CompiledMotif[] motifs = strands(pattern, bothStrands, regexStepsPerCharacter);
+    for (int strand = 0; strand < motifs.length; strand++) {
+      final MotifMatcher matcher = motifs[strand].matcher(sequence);
+      try {
+        while (matcher.find()) {
+          if (matcher.end() - matcher.start() > maxMatchLength) {
+            throw tooLong(pattern, maxMatchLength);
+          }
+          matchConsumer.accept(newMatch(strand == 1, matcher.group(), matcher.start(), matcher.end(),
+              sequence.subSequence(Math.max(0, matcher.start() - contextLength), matcher.start()).toString(),
+              sequence.subSequence(matcher.end(), Math.min(sequence.length(), matcher.end() + contextLength)).toString()));
+        }
+      }
+      catch (BudgetExceededException e) {
+        throw tooComplex(pattern, e);
+      }
+    }
+  }
+
+  /**
+   * Finds the motifs of several patterns in a sequence that is fully addressable in a single pass, as for a
+   * {@link Reader}: the sequence is scanned in windows of bufferSize characters, each prefiltered once for all of
+   * the patterns.  A single pattern is matched directly against the sequence instead, without buffering it.
+   *
+   * @param patterns Patterns to match against the sequence.
+   * @see #match(Reader, List, boolean, int, int, int, long, ConsumerWithException)
+   */
+  public static void match(CharSequence sequence,
+                           List<Pattern> patterns,
+                           boolean bothStrands,
+                           int contextLength,
+                           int bufferSize,
+                           int maxMatchLength,
+                           long regexStepsPerCharacter,
+                           ConsumerWithException<MotifMatch> matchConsumer) throws Exception {
+    if (patterns.size() == 1) {
+      match(sequence, patterns.get(0), bothStrands, contextLength, maxMatchLength, regexStepsPerCharacter,
+          matchConsumer);
+      return;
+    }
+    match(new CharSequenceReader(sequence), patterns, bothStrands, contextLength, bufferSize, maxMatchLength,
+        regexStepsPerCharacter, matchConsumer);
+  }
+
+  /**
+   * Counts the motifs of a pattern in a sequence that is fully addressable, without building the matches.
+   *
+   * @return the number of matches, on both strands if bothStrands is set
+   * @see #match(CharSequence, Pattern, boolean, int, int, long, ConsumerWithException)
+   */
+  public static int count(CharSequence sequence,
+                          Pattern pattern,
+                          boolean bothStrands,
+                          int maxMatchLength,
+                          long regexStepsPerCharacter) throws Exception {
+    int count = 0;
+    for (CompiledMotif motif : strands(pattern, bothStrands, regexStepsPerCharacter)) {
+      final MotifMatcher matcher = motif.matcher(sequence);
+      try {
+        while (matcher.find()) {
+          if (matcher.end() - matcher.start() > maxMatchLength) {
+            throw tooLong(pattern, maxMatchLength);
+          }
+          count++;
+        }
+      }
+      catch (BudgetExceededException e) {
+        throw tooComplex(pattern, e);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the motif of the pattern, followed by that of its reverse complement if both strands are searched
+   */
+  static CompiledMotif[] strands(Pattern pattern, boolean bothStrands, long regexStepsPerCharacter)
+      throws UnsupportedMotifException {
+    final CompiledMotif motif = CompiledMotif.compile(pattern).withRegexBudget(regexStepsPerCharacter);
+    if (!bothStrands) {
+      return new CompiledMotif[] { motif };
+    }
+    // the reverse complement is only compiled for regular motifs, which have no step budget
+    return new CompiledMotif[] {
+        motif,
+        CompiledMotif.compileReverseComplement(pattern).orElseThrow(() -> new UnsupportedMotifException(String.format(
+            "The motif pattern you provided, '%s', cannot be searched for on the reverse strand. " +
+            "Please use a pattern without anchors, back references or lookaround.", pattern)))
+    };
+  }
+
+  /**
+   * Creates a match from the matched forward strand text and its context.  Reverse strand matches read along the
+   * reverse strand, so their text is reverse complemented and their contexts swapped.
+   */
+  static MotifMatch newMatch(boolean reversed, String match, int start, int end, String leadingContext,
+      String trailingContext) {
+    return newMatch(reversed, match, start, end, leadingContext, trailingContext, 0);
+  }
+
+  static MotifMatch newMatch(boolean reversed, String match, int start, int end, String leadingContext,
+      String trailingContext, int patternIndex) {
+    return new MotifMatch.Builder()
+        .patternIndex(patternIndex)
+        .reversed(reversed)
+        .match(reversed ? ReverseComplement.of(match) : match)
+        .startPos(start)
+        .endPos(end)
+        .leadingContext(reversed ? ReverseComplement.of(trailingContext) : leadingContext)
+        .trailingContext(reversed ? ReverseComplement.of(leadingContext) : trailingContext)
+        .build();
+  }
+
+  static MotifTooComplexException tooComplex(Pattern pattern, BudgetExceededException cause) {
+    MotifTooComplexException e = new MotifTooComplexException(String.format("The motif pattern you provided, " +
+        "'%s', takes too long to match and its search was stopped. " +
+        "Please simplify the motif pattern, for example by avoiding repeated groups of repetitions.", pattern));
+    e.initCause(cause);
+    return e;
+  }
+
+  static MotifTooLongException tooLong(Pattern pattern, int maxMatchLength) {
+    return new MotifTooLongException(String.format("The motif pattern you provided, '%s', produced at " +
+        "least one match that is greater than %d base pairs. " +
+        "Please adjust the motif pattern to avoid matches this long.", pattern, maxMatchLength));
+  }
+
+  /**
+   * A window of the sequence held in a single ring buffer, so that moving to the next window copies nothing: the
+   * overlap with the previous window stays where it is, and new data is read in behind it.  The buffer is also a
+   * view of the current window, wrapping around the end of the array, so matchers can scan it in place.
+   *
+   * The buffer holds {@code 2 * overlapWindow + bufferSize} characters: the window, and the context preceding it.
+   * The overlap window holds the longest match and its trailing context past the last match start of a window,
+   * plus as much again to detect longer matches, so every match reported is reported with its full context.
+   *
+   * The array starts small and grows as the first window is read, so a sequence shorter than the window, such as a
+   * protein, takes about as much memory as its length rather than the full bound.  The window only moves once it
+   * is full, so the array has reached its full size by then.
+   */
+  private static class SequenceBuffer implements CharSequence {
+    // size of the array before the first window grows it
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int capacity;
+    private char[] chars;
 
     private final int overlapWindow;
-    private final int totalBufferSize;
     private final int contextLength;
-    private final int bufferSize;
+    private final int windowSize;
+    private final int shift;
 
-    private CharBuffer currentBuffer;
-    private boolean hasLeadingContext;
+    // index in chars of the start of the window
+    private int start = 0;
+    private int length = 0;
     private int sequencePosition = 0;
 
     public SequenceBuffer(int maxLength, int contextLength, int bufferSize) {
-      // The leading overlap window only may only need to be equal to contextLength.
-      this.overlapWindow = 2 * maxLength;
+      this.overlapWindow = 2 * maxLength + contextLength;
       this.contextLength = contextLength;
-      this.bufferSize = bufferSize;
-      // Total buffer contains one overlap window at the beginning and one at the end (hence 2 * overlapWindow).
-      this.totalBufferSize = 2 * overlapWindow + bufferSize;
-      // Allocate two copies of the buffer, to allow us to shift the buffers without re-allocating anything.
-      this.buffer1 = CharBuffer.allocate(totalBufferSize);
-      this.buffer2 = CharBuffer.allocate(totalBufferSize);
-      this.contextBuffer = CharBuffer.allocate(contextLength);
-      this.currentBuffer = buffer1;
+      // One overlap window at the beginning and one at the end (hence 2 * overlapWindow); the context preceding
+      // the window takes up part of the one at the beginning.
+      this.capacity = 2 * overlapWindow + bufferSize;
+      this.chars = new char[Math.min(capacity, INITIAL_CAPACITY)];
+      this.windowSize = capacity - contextLength;
+      this.shift = windowSize - overlapWindow;
     }
 
+    /**
+     * Fills the rest of the window, reading into the array directly (unlike Reader.read(CharBuffer), which may copy
+     * through a temporary array).
+     *
+     * @return -1 if the end of the sequence was reached
+     */
     public int read(Reader reader) throws IOException {
       int bytesRead;
       do {
-        bytesRead = reader.read(currentBuffer);
-      } while (currentBuffer.remaining() != 0 && bytesRead != -1);
+        if (length == chars.length && chars.length < capacity) {
+          // still reading the first window, which starts at the beginning of the array
+          chars = Arrays.copyOf(chars, (int) Math.min(capacity, 2L * chars.length));
+        }
+        final int end = index(length);
+        bytesRead = reader.read(chars, end, Math.min(windowSize - length, chars.length - end));
+        if (bytesRead > 0) {
+          length += bytesRead;
+        }
+      } while (length != windowSize && bytesRead != -1);
       return bytesRead;
     }
 
     /**
-     * Returns leading context from a dedicated buffer that keeps track of previously seen characters.
+     * Returns the leading context of a match, which for a match starting less than contextLength characters into
+     * the window is partly taken from before it.
      */
-    public String getLeadingContext(Matcher matcher) {
-      if (!hasLeadingContext) {
-        return "";
+    public String getLeadingContext(int matchStart) {
+      return text(Math.max(matchStart - contextLength, -Math.min(contextLength, sequencePosition)), matchStart);
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index >= length) {
+        throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+      }
+      int i = start + index;
+      return chars[i < chars.length ? i : i - chars.length];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      if (start < 0 || end > length || start > end) {
+        throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
       }
-      contextBuffer.position(contextLength - (contextLength - matcher.start()));
-      return contextBuffer.toString();
+      return text(start, end);
     }
 
-    public String readCurrentSubsequence() {
-      int limit = totalBufferSize - currentBuffer.remaining();
-      currentBuffer.position(0);
-      currentBuffer.limit(limit);
-      return currentBuffer.toString();
+    @Override
+    public String toString() {
+      return text(0, length);
     }
 
     public int getSequencePosition() {
       return sequencePosition;
     }
 
-    public int getOverlapWindow() {
-      return overlapWindow;
+    /**
+     * @return the last position of the window at which matches are reported; matches starting after it are found
+     * again in the next window, with their full context
+     */
+    public int getLastMatchStart() {
+      return shift;
+    }
+
+    /**
+     * Moves the window forward, keeping the overlap window at its end, so that the next read appends to it.  Only
+     * the start of the window moves; the characters stay where they are in the ring.
+     */
+    public void shiftBuffers() {
+      start = index(shift);
+      length -= shift;
+      sequencePosition += shift;
     }
 
     /**
-     * Copies the end of {@link SequenceBuffer#currentBuffer} to the beginning of whichever of
-     * {@link SequenceBuffer#buffer1} and {@link SequenceBuffer#buffer2} is not the currentBuffer. Sets the current
-     * buffer to the destination of the copy. This effectively shifts all of the data in the buffer backward.
-     *
-     * @return this SequenceBuffer
+     * @return the characters between the given positions of the window, where negative positions are before it
      */
-    public CharBuffer shiftBuffers() {
-      if (buffer1 == currentBuffer) {
-        contextBuffer.position(0);
-        buffer2.put(buffer1.array(), bufferSize + overlapWindow, overlapWindow);
-        contextBuffer.position(0);
-        contextBuffer.put(buffer1.array(), totalBufferSize - contextLength, contextLength);
-        currentBuffer = buffer2;
-      } else {
-        contextBuffer.position(0);
-        buffer1.put(buffer2.array(), bufferSize + overlapWindow, overlapWindow);
-        contextBuffer.position(0);
-        contextBuffer.put(buffer2.array(), totalBufferSize - contextLength, contextLength);
-        currentBuffer = buffer1;
+    private String text(int from, int to) {
+      final int begin = index(from);
+      final int count = to - from;
+      if (begin + count <= chars.length) {
+        return new String(chars, begin, count);
       }
-      sequencePosition += bufferSize + overlapWindow;
-      hasLeadingContext = true;
-      currentBuffer.position(overlapWindow);
-      return currentBuffer;
+      final int head = chars.length - begin;
+      return new StringBuilder(count).append(chars, begin, head).append(chars, 0, count - head).toString();
+    }
+
+    /**
+     * @return index in the ring of a position of the window, which may be negative, down to -contextLength
+     */
+    private int index(int position) {
+      int i = start + position;
+      return i < 0 ? i + chars.length : i < chars.length ? i : i - chars.length;
+    }
+  }
+
+  /**
+   * Reads a sequence that is fully addressable into the buffer of a scan
+   */
+  private static class CharSequenceReader extends Reader {
+
+    private final CharSequence sequence;
+    private int position = 0;
+
+    CharSequenceReader(CharSequence sequence) {
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+      if (position == sequence.length()) {
+        return -1;
+      }
+      final int read = Math.min(len, sequence.length() - position);
+      for (int i = 0; i < read; i++) {
+        cbuf[off + i] = sequence.charAt(position++);
+      }
+      return read;
+    }
+
+    @Override
+    public void close() {
+      // nothing to release
     }
   }
 }
@@ -0,0 +1,194 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.Node;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.CharSet;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.UnsupportedPatternException;
+
+/**
+ * A motif pattern compiled for scanning sequences in time linear in their length.  Motifs are matched with the
+ * same leftmost-first semantics (same matches, same order) as {@link java.util.regex.Matcher#find()}, but without
+ * backtracking, so patterns like "(A|T)*C" cannot take exponential time.
+ *
+ * Depending on the pattern, one of the following engines is used:
+ * <ul>
+ *   <li>{@link ShiftAndMotif}: fixed-length motifs of up to 64 character classes, e.g. "GGA[AG]{2}TCC", are
+ *       matched bit-parallel with the shift-and algorithm</li>
+ *   <li>{@link NfaMotif}: other regular motifs, e.g. "GA{2,4}(TC|CT)+", are compiled into a Thompson NFA that
+ *       follows all alternatives at once in priority order, scanned with a lazily built DFA</li>
+ *   <li>{@link RegexMotif}: patterns outside the subset {@link MotifParser} accepts fall back to
+ *       {@link java.util.regex.Pattern} itself</li>
+ * </ul>
+ */
+public abstract class CompiledMotif {
+
+  private static final Logger LOG = Logger.getLogger(CompiledMotif.class);
+
+  // a search matches the same pattern against every sequence of every dataset; keep the last few compiled
+  private static final int CACHE_SIZE = 64;
+  private static final Map<Pattern, CompiledMotif> CACHE = newCache();
+  private static final Map<Pattern, Optional<CompiledMotif>> REVERSE_COMPLEMENT_CACHE = newCache();
+
+  /**
+   * Steps a java.util.regex search may take per character it advances, unless a search sets its own budget
+   */
+  public static final long DEFAULT_REGEX_STEPS_PER_CHARACTER = 1000;
+
+  private static <T> Map<Pattern, T> newCache() {
+    return Collections.synchronizedMap(new LinkedHashMap<Pattern, T>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Pattern, T> eldest) {
+        return size() > CACHE_SIZE;
+      }
+    });
+  }
+
+  /**
+   * Compiles a motif pattern, or returns the previous compilation of the same pattern instance.
+   */
+  public static CompiledMotif compile(Pattern pattern) {
+    return CACHE.computeIfAbsent(pattern, CompiledMotif::doCompile);
+  }
+
+  /**
+   * Compiles a motif matching the reverse complements of the matches of a DNA motif pattern, so that scanning a
+   * forward strand with it finds the matches of the pattern on the reverse strand.  Overlapping matches are resolved
+   * in forward strand order.
+   *
+   * @return the compiled motif, or empty if the pattern is not regular and so cannot be reversed
+   */
+  public static Optional<CompiledMotif> compileReverseComplement(Pattern pattern) {
+    return REVERSE_COMPLEMENT_CACHE.computeIfAbsent(pattern, p -> {
+      try {
+        CompiledMotif motif = compile(p, MotifParser.parse(p).reverseComplement());
+        if (motif == null) {
+          LOG.debug("Reverse complement of motif " + p + " is too large for an automaton");
+        }
+        return Optional.ofNullable(motif);
+      }
+      catch (UnsupportedPatternException e) {
+        LOG.debug("Motif " + p + " is not regular (" + e.getMessage() + "); it has no reverse complement");
+        return Optional.empty();
+      }
+    });
+  }
+
+  private static CompiledMotif doCompile(Pattern pattern) {
+    try {
+      CompiledMotif motif = compile(pattern, MotifParser.parse(pattern));
+      if (motif != null) {
+        LOG.debug("Compiled motif " + pattern + " into " + motif.getClass().getSimpleName());
+        return motif;
+      }
+      LOG.debug("Motif " + pattern + " is too large for an automaton; using java.util.regex");
+    }
+    catch (UnsupportedPatternException e) {
+      LOG.debug("Motif " + pattern + " is not regular (" + e.getMessage() + "); using java.util.regex");
+    }
+    return new RegexMotif(pattern, DEFAULT_REGEX_STEPS_PER_CHARACTER);
+  }
+
+  /**
+   * @return the automaton for the syntax tree, or null if it is too large
+   */
+  private static CompiledMotif compile(Pattern pattern, Node node) {
+    List<CharSet> positions = node.getPositions();
+    return positions != null && positions.size() <= ShiftAndMotif.MAX_LENGTH
+        ? new ShiftAndMotif(pattern, positions)
+        : NfaMotif.compile(pattern, node);
+  }
+
+  private final Pattern pattern;
+
+  protected CompiledMotif(Pattern pattern) {
+    this.pattern = pattern;
+  }
+
+  public Pattern getPattern() {
+    return pattern;
+  }
+
+  /**
+   * Returns this motif with the given budget for its searches if it is matched with java.util.regex, which unlike
+   * the automata can backtrack exponentially: a search that reads more than this many characters per character it
+   * advances is aborted, and {@link BufferedDnaMotifFinder} reports a {@link
+   * org.apidb.apicomplexa.wsfplugin.motifsearch.exception.MotifTooComplexException}.  The automata need no budget
+   * and are returned as they are.
+   *
+   * @param stepsPerCharacter the budget; 0 or less disables it
+   */
+  public CompiledMotif withRegexBudget(long stepsPerCharacter) {
+    return this;
+  }
+
+  /**
+   * Creates a matcher over the given sequence.  Matchers are not thread safe, but any number of them may be used
+   * concurrently on the same motif.
+   */
+  public abstract MotifMatcher matcher(CharSequence sequence);
+
+  /**
+   * Base of the matchers of the automaton engines, which report non-empty matches only
+   */
+  static abstract class AbstractMatcher implements MotifMatcher {
+
+    protected final CharSequence sequence;
+    protected int start = -1;
+    protected int end = 0;
+
+    AbstractMatcher(CharSequence sequence) {
+      this.sequence = sequence;
+    }
+
+    /**
+     * Finds the first match starting at or after from, setting start and end if one is found.
+     */
+    protected abstract boolean search(int from);
+
+    @Override
+    public boolean find() {
+      return find(end);
+    }
+
+    @Override
+    public boolean find(int from) {
+      if (search(from)) {
+        return true;
+      }
+      start = -1;
+      return false;
+    }
+
+    @Override
+    public int start() {
+      checkMatch();
+      return start;
+    }
+
+    @Override
+    public int end() {
+      checkMatch();
+      return end;
+    }
+
+    @Override
+    public String group() {
+      checkMatch();
+      return sequence.subSequence(start, end).toString();
+    }
+
+    private void checkMatch() {
+      if (start == -1) {
+        throw new IllegalStateException("No match available");
+      }
+    }
+  }
+}
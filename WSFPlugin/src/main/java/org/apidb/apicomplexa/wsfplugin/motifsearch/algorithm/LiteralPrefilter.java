@@ -0,0 +1,108 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Shared prefilter of the motifs searched for together: an Aho-Corasick automaton of a literal each motif's
+ * matches contain finds, in one pass over a stretch of sequence, which motifs can match in it.  The other motifs'
+ * matchers need not run over it at all.  Letters are compared case-insensitively.
+ */
+class LiteralPrefilter {
+
+  private static final int ALPHABET_SIZE = 128;
+
+  // transitions of the automaton, with failure links already followed
+  private final int[][] table;
+  // motifs whose literal ends in each state, or null if none does
+  private final BitSet[] matched;
+  // motifs without a literal, which always run
+  private final BitSet unfiltered = new BitSet();
+
+  /**
+   * @param literals for each motif, a literal all its matches contain, or null if it has none
+   */
+  LiteralPrefilter(List<String> literals) {
+    List<int[]> transitions = new ArrayList<>();
+    List<BitSet> outputs = new ArrayList<>();
+    transitions.add(new int[ALPHABET_SIZE]);
+    outputs.add(new BitSet());
+
+    // the trie of the literals
+    for (int motif = 0; motif < literals.size(); motif++) {
+      String literal = literals.get(motif);
+      int state = 0;
+      for (int i = 0; literal != null && i < literal.length() && state != -1; i++) {
+        int c = fold(literal.charAt(i));
+        if (c == -1) {
+          state = -1;
+        }
+        else {
+          if (transitions.get(state)[c] == 0) {
+            transitions.get(state)[c] = transitions.size();
+            transitions.add(new int[ALPHABET_SIZE]);
+            outputs.add(new BitSet());
+          }
+          state = transitions.get(state)[c];
+        }
+      }
+      if (state <= 0) {
+        // no literal to look up; the motif runs everywhere
+        unfiltered.set(motif);
+      }
+      else {
+        outputs.get(state).set(motif);
+      }
+    }
+
+    // breadth first, point missing transitions where the failure link of the state leads
+    int[] failure = new int[transitions.size()];
+    Deque<Integer> queue = new ArrayDeque<>();
+    for (int c = 0; c < ALPHABET_SIZE; c++) {
+      int child = transitions.get(0)[c];
+      if (child != 0) queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+      outputs.get(state).or(outputs.get(failure[state]));
+      for (int c = 0; c < ALPHABET_SIZE; c++) {
+        int child = transitions.get(state)[c];
+        if (child != 0) {
+          failure[child] = transitions.get(failure[state])[c];
+          queue.add(child);
+        }
+        else {
+          transitions.get(state)[c] = transitions.get(failure[state])[c];
+        }
+      }
+    }
+
+    table = transitions.toArray(new int[0][]);
+    matched = new BitSet[outputs.size()];
+    for (int state = 0; state < matched.length; state++) {
+      if (!outputs.get(state).isEmpty()) matched[state] = outputs.get(state);
+    }
+  }
+
+  /**
+   * @return the motifs that can match in the given range of the sequence
+   */
+  BitSet scan(CharSequence sequence, int from, int to) {
+    BitSet present = (BitSet) unfiltered.clone();
+    int state = 0;
+    for (int i = from; i < to; i++) {
+      int c = fold(sequence.charAt(i));
+      state = c == -1 ? 0 : table[state][c];
+      if (matched[state] != null) present.or(matched[state]);
+    }
+    return present;
+  }
+
+  private static int fold(char c) {
+    if (c >= 'a' && c <= 'z') return c - 'a' + 'A';
+    return c < ALPHABET_SIZE ? c : -1;
+  }
+}
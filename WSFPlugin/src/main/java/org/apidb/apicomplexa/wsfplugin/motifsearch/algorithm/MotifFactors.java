@@ -0,0 +1,148 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.CharSet;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.Concat;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.Node;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.Repeat;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.UnsupportedPatternException;
+
+/**
+ * Factors of a motif pattern that every match must contain: runs of consecutive positions, each accepting a fixed
+ * set of characters.  For example every match of "N[^P][ST].{2,5}C{2}W" contains the run N, [^P], [ST] and the run
+ * C, C, W.  Indexes use the factors to select the sequences that can match before running the pattern over them.
+ *
+ * Only letters are reported, upper cased; a position that accepts anything but letters (such as '.' or [^P]) is
+ * reported as null, meaning that it does not constrain the sequence.  Characters beyond the first 256 are ignored,
+ * as sequence files are ASCII.
+ */
+public class MotifFactors {
+
+  private MotifFactors() {}
+
+  /**
+   * @param pattern a motif pattern
+   * @return runs of positions every match of the pattern contains, each position the sorted upper case letters it
+   * accepts, or null if it accepts other characters; empty if the pattern is outside the subset {@link MotifParser}
+   * accepts
+   */
+  public static List<char[][]> of(Pattern pattern) {
+    Node node;
+    try {
+      node = MotifParser.parse(pattern);
+    }
+    catch (UnsupportedPatternException e) {
+      return Collections.emptyList();
+    }
+    List<List<CharSet>> runs = new ArrayList<>();
+    collect(node, runs);
+    List<char[][]> factors = new ArrayList<>();
+    for (List<CharSet> run : runs) {
+      if (run.isEmpty()) continue;
+      char[][] positions = new char[run.size()][];
+      for (int i = 0; i < positions.length; i++) {
+        positions[i] = letters(run.get(i));
+      }
+      factors.add(positions);
+    }
+    return factors;
+  }
+
+  /**
+   * @param pattern a motif pattern
+   * @return the longest string of letters (upper case) that every match of the pattern contains, or empty if there
+   * is none
+   */
+  public static Optional<String> longestLiteral(Pattern pattern) {
+    String longest = "";
+    for (char[][] factor : of(pattern)) {
+      StringBuilder literal = new StringBuilder();
+      for (char[] position : factor) {
+        if (position != null && position.length == 1) {
+          literal.append(position[0]);
+          if (literal.length() > longest.length()) longest = literal.toString();
+        }
+        else {
+          literal.setLength(0);
+        }
+      }
+    }
+    return longest.isEmpty() ? Optional.empty() : Optional.of(longest);
+  }
+
+  private static void collect(Node node, List<List<CharSet>> runs) {
+    List<CharSet> positions = node.getPositions();
+    if (positions != null) {
+      runs.add(positions);
+    }
+    else if (node instanceof Concat) {
+      // consecutive fixed-length parts form a single run, broken by parts of variable length
+      List<CharSet> run = new ArrayList<>();
+      for (Node part : ((Concat) node).nodes) {
+        List<CharSet> partPositions = part.getPositions();
+        if (partPositions != null) {
+          run.addAll(partPositions);
+          continue;
+        }
+        List<CharSet> repeated = getRepeatedPositions(part);
+        if (repeated != null) {
+          // the first and the last min repetitions of a fixed-length body join the runs before and after them
+          run.addAll(repeated);
+          runs.add(run);
+          run = new ArrayList<>(repeated);
+        }
+        else {
+          runs.add(run);
+          collect(part, runs);
+          run = new ArrayList<>();
+        }
+      }
+      runs.add(run);
+    }
+    else if (node instanceof Repeat && ((Repeat) node).min > 0) {
+      List<CharSet> repeated = getRepeatedPositions(node);
+      if (repeated != null) {
+        runs.add(repeated);
+      }
+      else {
+        collect(((Repeat) node).body, runs);
+      }
+    }
+    // optional repeats and alternatives of different lengths require nothing in particular
+  }
+
+  /**
+   * @return positions of the minimum number of repetitions of a repeated fixed-length body, or null if the node is
+   * something else
+   */
+  private static List<CharSet> getRepeatedPositions(Node node) {
+    if (!(node instanceof Repeat)) return null;
+    Repeat repeat = (Repeat) node;
+    List<CharSet> bodyPositions = repeat.body.getPositions();
+    if (bodyPositions == null || repeat.min == 0) return null;
+    List<CharSet> positions = new ArrayList<>();
+    for (int i = 0; i < repeat.min; i++) {
+      positions.addAll(bodyPositions);
+    }
+    return positions;
+  }
+
+  private static char[] letters(CharSet set) {
+    StringBuilder letters = new StringBuilder();
+    for (char c = 0; c < 256; c++) {
+      if (!set.contains(c)) continue;
+      if (c > 'z' || !Character.isLetter(c)) return null;
+      char upper = Character.toUpperCase(c);
+      if (letters.indexOf(String.valueOf(upper)) == -1) letters.append(upper);
+    }
+    char[] sorted = letters.toString().toCharArray();
+    Arrays.sort(sorted);
+    return sorted;
+  }
+}
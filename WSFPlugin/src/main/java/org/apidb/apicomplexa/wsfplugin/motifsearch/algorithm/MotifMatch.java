@@ -1,18 +1,30 @@
 package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
 
 public class MotifMatch {
+  private boolean reversed;
   private String leadingContext;
   private String match;
   private String trailingContext;
   private int startPos;
   private int endPos;
+  private int patternIndex;
 
   private MotifMatch(Builder builder) {
+    reversed = builder.reversed;
     leadingContext = builder.leadingContext;
     match = builder.match;
     trailingContext = builder.trailingContext;
     startPos = builder.startPos;
     endPos = builder.endPos;
+    patternIndex = builder.patternIndex;
+  }
+
+  /**
+   * @return true if the match is on the reverse strand of the scanned sequence; its start and end positions are then
+   * the forward strand positions of the matched bases, while the match and its context read along the reverse strand
+   */
+  public boolean isReversed() {
+    return reversed;
   }
 
   public String getLeadingContext() {
@@ -35,16 +47,30 @@ public class MotifMatch {
     return endPos;
   }
 
+  /**
+   * @return index of the matched pattern among the patterns searched for together, 0 if there was only one
+   */
+  public int getPatternIndex() {
+    return patternIndex;
+  }
+
   public static final class Builder {
+    private boolean reversed;
     private String leadingContext;
     private String match;
     private String trailingContext;
     private int startPos;
     private int endPos;
+    private int patternIndex;
 
     public Builder() {
     }
 
+    public Builder reversed(boolean val) {
+      reversed = val;
+      return this;
+    }
+
     public Builder leadingContext(String val) {
       leadingContext = val;
       return this;
@@ -70,6 +96,11 @@ public class MotifMatch {
       return this;
     }
 
+    public Builder patternIndex(int val) {
+      patternIndex = val;
+      return this;
+    }
+
     public MotifMatch build() {
       return new MotifMatch(this);
     }
@@ -0,0 +1,38 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+/**
+ * Finds the successive matches of a {@link CompiledMotif} in one sequence.  Mirrors the subset of
+ * {@link java.util.regex.Matcher} that the finders use.
+ */
+public interface MotifMatcher {
+
+  /**
+   * Finds the next match, starting at the end of the previous one (or the start of the sequence).
+   *
+   * @return true if a match was found
+   */
+  boolean find();
+
+  /**
+   * Resets the matcher and finds the first match starting at or after the given index, so a matcher can be reused
+   * as the contents of its sequence change.
+   *
+   * @return true if a match was found
+   */
+  boolean find(int from);
+
+  /**
+   * @return index of the first character of the current match
+   */
+  int start();
+
+  /**
+   * @return index just past the last character of the current match
+   */
+  int end();
+
+  /**
+   * @return characters of the current match
+   */
+  String group();
+}
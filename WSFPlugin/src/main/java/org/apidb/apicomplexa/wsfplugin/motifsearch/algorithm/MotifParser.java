@@ -0,0 +1,395 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the regular subset of {@link Pattern} syntax that motifs are written in into a syntax tree that
+ * {@link CompiledMotif} can build an automaton from.  Supported are literal characters, '.', character classes
+ * without nesting or intersections, the escapes \d \D \w \W \s \S and escaped punctuation, groups (capturing or
+ * non-capturing), alternation, and greedy or lazy ?, *, + and {m,n} quantifiers.
+ *
+ * Anything else (anchors, lookaround, back references, possessive quantifiers, inline flags, flags other than
+ * CASE_INSENSITIVE) is reported as unsupported, as are constructs whose backtracking semantics an automaton does
+ * not reproduce exactly: repetition of a sub-expression that can match the empty string, and patterns that can
+ * match the empty string at all.
+ */
+class MotifParser {
+
+  /**
+   * Thrown when the pattern uses a construct outside the supported subset
+   */
+  static class UnsupportedPatternException extends Exception {
+    private static final long serialVersionUID = 1L;
+    UnsupportedPatternException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Set of characters accepted by a single-character atom of the pattern.  Membership of the first 256 characters
+   * is precomputed; others (which do not occur in sequence files) are tested against the atom itself.
+   */
+  static class CharSet {
+
+    private static final int TABLE_SIZE = 256;
+
+    private final Pattern atom;
+    private final long[] table = new long[TABLE_SIZE / Long.SIZE];
+
+    CharSet(String atom, int flags) {
+      this.atom = Pattern.compile(atom, flags);
+      for (int c = 0; c < TABLE_SIZE; c++) {
+        if (this.atom.matcher(String.valueOf((char) c)).matches()) {
+          table[c >>> 6] |= 1L << c;
+        }
+      }
+    }
+
+    private CharSet(Pattern atom, long[] table) {
+      this.atom = atom;
+      System.arraycopy(table, 0, this.table, 0, table.length);
+    }
+
+    boolean contains(char c) {
+      return c < TABLE_SIZE
+          ? (table[c >>> 6] & (1L << c)) != 0
+          : atom.matcher(String.valueOf(c)).matches();
+    }
+
+    /**
+     * @return the set of the complements of the nucleotide codes in this set
+     */
+    CharSet complement() {
+      long[] complement = new long[table.length];
+      for (int c = 0; c < TABLE_SIZE; c++) {
+        if (contains((char) c)) {
+          char d = ReverseComplement.complement((char) c);
+          complement[d >>> 6] |= 1L << d;
+        }
+      }
+      // characters beyond the table have no complement
+      return new CharSet(atom, complement);
+    }
+
+    CharSet union(CharSet other) {
+      long[] union = new long[table.length];
+      for (int i = 0; i < table.length; i++) {
+        union[i] = table[i] | other.table[i];
+      }
+      return new CharSet(Pattern.compile("(?:" + atom.pattern() + ")|(?:" + other.atom.pattern() + ")", atom.flags()), union);
+    }
+  }
+
+  /**
+   * Node of the syntax tree
+   */
+  static abstract class Node {
+
+    /**
+     * @return true if the node can match the empty string
+     */
+    abstract boolean isNullable();
+
+    /**
+     * @return the sets of the characters this node matches, one per position, if it always matches the same number
+     * of characters and has no alternatives of different lengths; otherwise null
+     */
+    abstract List<CharSet> getPositions();
+
+    /**
+     * @return a node matching the reverse complements of the strings this node matches
+     */
+    abstract Node reverseComplement();
+  }
+
+  static class Chars extends Node {
+
+    final CharSet set;
+
+    Chars(CharSet set) {
+      this.set = set;
+    }
+
+    @Override
+    boolean isNullable() {
+      return false;
+    }
+
+    @Override
+    List<CharSet> getPositions() {
+      return Collections.singletonList(set);
+    }
+
+    @Override
+    Node reverseComplement() {
+      return new Chars(set.complement());
+    }
+  }
+
+  static class Concat extends Node {
+
+    final List<Node> nodes;
+
+    Concat(List<Node> nodes) {
+      this.nodes = nodes;
+    }
+
+    @Override
+    boolean isNullable() {
+      return nodes.stream().allMatch(Node::isNullable);
+    }
+
+    @Override
+    List<CharSet> getPositions() {
+      List<CharSet> positions = new ArrayList<>();
+      for (Node node : nodes) {
+        List<CharSet> nodePositions = node.getPositions();
+        if (nodePositions == null) return null;
+        positions.addAll(nodePositions);
+      }
+      return positions;
+    }
+
+    @Override
+    Node reverseComplement() {
+      List<Node> reversed = new ArrayList<>();
+      for (int i = nodes.size() - 1; i >= 0; i--) {
+        reversed.add(nodes.get(i).reverseComplement());
+      }
+      return new Concat(reversed);
+    }
+  }
+
+  static class Alternation extends Node {
+
+    final List<Node> alternatives;
+
+    Alternation(List<Node> alternatives) {
+      this.alternatives = alternatives;
+    }
+
+    @Override
+    boolean isNullable() {
+      return alternatives.stream().anyMatch(Node::isNullable);
+    }
+
+    @Override
+    List<CharSet> getPositions() {
+      // alternatives of single characters are equivalent to a character class
+      CharSet union = null;
+      for (Node alternative : alternatives) {
+        List<CharSet> positions = alternative.getPositions();
+        if (positions == null || positions.size() != 1) return null;
+        union = union == null ? positions.get(0) : union.union(positions.get(0));
+      }
+      return Collections.singletonList(union);
+    }
+
+    @Override
+    Node reverseComplement() {
+      List<Node> complements = new ArrayList<>();
+      for (Node alternative : alternatives) {
+        complements.add(alternative.reverseComplement());
+      }
+      return new Alternation(complements);
+    }
+  }
+
+  static class Repeat extends Node {
+
+    static final int UNBOUNDED = -1;
+
+    final Node body;
+    final int min;
+    final int max;
+    final boolean greedy;
+
+    Repeat(Node body, int min, int max, boolean greedy) {
+      this.body = body;
+      this.min = min;
+      this.max = max;
+      this.greedy = greedy;
+    }
+
+    @Override
+    boolean isNullable() {
+      return min == 0 || body.isNullable();
+    }
+
+    @Override
+    List<CharSet> getPositions() {
+      List<CharSet> bodyPositions = body.getPositions();
+      if (bodyPositions == null || min != max) return null;
+      List<CharSet> positions = new ArrayList<>();
+      for (int i = 0; i < min; i++) {
+        positions.addAll(bodyPositions);
+      }
+      return positions;
+    }
+
+    @Override
+    Node reverseComplement() {
+      return new Repeat(body.reverseComplement(), min, max, greedy);
+    }
+  }
+
+  private final String regex;
+  private final int flags;
+  private int pos = 0;
+
+  private MotifParser(String regex, int flags) {
+    this.regex = regex;
+    this.flags = flags;
+  }
+
+  /**
+   * @param pattern a compiled (so syntactically valid) pattern
+   * @return syntax tree of the pattern
+   * @throws UnsupportedPatternException if the pattern uses constructs outside the supported subset
+   */
+  static Node parse(Pattern pattern) throws UnsupportedPatternException {
+    if ((pattern.flags() & ~Pattern.CASE_INSENSITIVE) != 0) {
+      throw new UnsupportedPatternException("flags " + pattern.flags());
+    }
+    MotifParser parser = new MotifParser(pattern.pattern(), pattern.flags());
+    Node node = parser.parseAlternation();
+    if (parser.pos != parser.regex.length()) {
+      throw new UnsupportedPatternException("unbalanced ')' at " + parser.pos);
+    }
+    if (node.isNullable()) {
+      throw new UnsupportedPatternException("pattern matches the empty string");
+    }
+    return node;
+  }
+
+  private boolean atEnd() {
+    return pos == regex.length();
+  }
+
+  private char peek() {
+    return regex.charAt(pos);
+  }
+
+  private Node parseAlternation() throws UnsupportedPatternException {
+    List<Node> alternatives = new ArrayList<>();
+    alternatives.add(parseConcat());
+    while (!atEnd() && peek() == '|') {
+      pos++;
+      alternatives.add(parseConcat());
+    }
+    return alternatives.size() == 1 ? alternatives.get(0) : new Alternation(alternatives);
+  }
+
+  private Node parseConcat() throws UnsupportedPatternException {
+    List<Node> nodes = new ArrayList<>();
+    while (!atEnd() && peek() != '|' && peek() != ')') {
+      nodes.add(parseRepeat());
+    }
+    return nodes.size() == 1 ? nodes.get(0) : new Concat(nodes);
+  }
+
+  private Node parseRepeat() throws UnsupportedPatternException {
+    Node atom = parseAtom();
+    if (atEnd()) return atom;
+
+    int min, max;
+    switch (peek()) {
+      case '?': min = 0; max = 1; pos++; break;
+      case '*': min = 0; max = Repeat.UNBOUNDED; pos++; break;
+      case '+': min = 1; max = Repeat.UNBOUNDED; pos++; break;
+      case '{':
+        int close = regex.indexOf('}', pos);
+        String[] bounds = regex.substring(pos + 1, close).split(",", -1);
+        try {
+          min = Integer.parseInt(bounds[0].trim());
+          max = bounds.length == 1 ? min
+              : bounds[1].trim().isEmpty() ? Repeat.UNBOUNDED
+              : Integer.parseInt(bounds[1].trim());
+        }
+        catch (NumberFormatException e) {
+          throw new UnsupportedPatternException("quantifier " + regex.substring(pos, close + 1));
+        }
+        pos = close + 1;
+        break;
+      default:
+        return atom;
+    }
+
+    boolean greedy = true;
+    if (!atEnd() && peek() == '?') {
+      greedy = false;
+      pos++;
+    }
+    else if (!atEnd() && peek() == '+') {
+      throw new UnsupportedPatternException("possessive quantifier at " + pos);
+    }
+    if (!atEnd() && "?*+{".indexOf(peek()) != -1) {
+      throw new UnsupportedPatternException("repeated quantifier at " + pos);
+    }
+    if (atom.isNullable()) {
+      throw new UnsupportedPatternException("quantified sub-expression matches the empty string");
+    }
+    return new Repeat(atom, min, max, greedy);
+  }
+
+  private Node parseAtom() throws UnsupportedPatternException {
+    char c = peek();
+    switch (c) {
+      case '(':
+        pos++;
+        if (!atEnd() && peek() == '?') {
+          if (pos + 1 < regex.length() && regex.charAt(pos + 1) == ':') {
+            pos += 2;
+          }
+          else {
+            throw new UnsupportedPatternException("special group at " + pos);
+          }
+        }
+        Node group = parseAlternation();
+        if (atEnd() || peek() != ')') {
+          throw new UnsupportedPatternException("unbalanced '(' at " + pos);
+        }
+        pos++;
+        return group;
+
+      case '[':
+        int close = regex.indexOf(']', pos + 1);
+        String members = close == -1 ? "" : regex.substring(pos + 1, close);
+        // leave nested classes, intersections, escapes and other edge cases to the regex engine
+        if (members.isEmpty() || members.equals("^") || members.contains("[")
+            || members.contains("&&") || members.contains("\\")) {
+          throw new UnsupportedPatternException("character class at " + pos);
+        }
+        pos = close + 1;
+        return new Chars(new CharSet(regex.substring(pos - members.length() - 2, pos), flags));
+
+      case '.':
+        pos++;
+        return new Chars(new CharSet(".", flags));
+
+      case '\\':
+        if (pos + 1 == regex.length()) {
+          throw new UnsupportedPatternException("trailing '\\'");
+        }
+        char escaped = regex.charAt(pos + 1);
+        if ("dDwWsS".indexOf(escaped) == -1 && Character.isLetterOrDigit(escaped)) {
+          throw new UnsupportedPatternException("escape \\" + escaped);
+        }
+        pos += 2;
+        return new Chars(new CharSet("\\" + escaped, flags));
+
+      case '^': case '$': case '?': case '*': case '+': case '{': case '}': case ']': case ')': case '|':
+        throw new UnsupportedPatternException("'" + c + "' at " + pos);
+
+      default:
+        if (Character.isSurrogate(c)) {
+          throw new UnsupportedPatternException("supplementary character at " + pos);
+        }
+        pos++;
+        return new Chars(new CharSet(Pattern.quote(String.valueOf(c)), flags));
+    }
+  }
+}
@@ -0,0 +1,602 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.Alternation;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.CharSet;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.Chars;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.Concat;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.Node;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.Repeat;
+
+/**
+ * Regular motif compiled into a Thompson NFA.  The threads of the NFA (each a program counter and the start index of
+ * its match) advance through the sequence in lock step, at most one thread per program counter, so each character
+ * costs at most one step per instruction regardless of the pattern.
+ *
+ * Threads are kept in the priority order a backtracking matcher would try them in: alternatives left to right,
+ * greedy quantifiers preferring one more iteration, lazy ones one fewer, and threads started earlier before
+ * threads started later.  When a thread matches, all lower-priority threads are dropped, which yields exactly the
+ * leftmost-first match {@link java.util.regex.Matcher#find()} would return.
+ *
+ * Since the end of that match does not depend on where the threads started, it is found with a DFA whose states
+ * are the ordered lists of program counters, built lazily as the scan reaches them (one table lookup per
+ * character).  The start of the match is then the leftmost position from which the motif matches up to that end,
+ * found by running the NFA of the reversed motif backwards from the end.  A motif whose DFA grows beyond
+ * MAX_DFA_STATES states, or a sequence with characters beyond the first 256, is matched by simulating the NFA
+ * directly (a Pike VM).
+ */
+class NfaMotif extends CompiledMotif {
+
+  // limit on the number of instructions, as bounded repeats are expanded
+  private static final int MAX_PROGRAM_SIZE = 10000;
+
+  // limit on the number of DFA states built per thread
+  private static final int MAX_DFA_STATES = 4096;
+
+  private static final int ALPHABET_SIZE = 256;
+
+  private static final byte CHAR = 0;
+  private static final byte SPLIT = 1;
+  private static final byte JUMP = 2;
+  private static final byte MATCH = 3;
+
+  private final Automaton forward;
+  private final Automaton reverse;
+
+  // characters that may start a match
+  private final CharSet firstChars;
+  private final boolean[] firstTable = new boolean[ALPHABET_SIZE];
+
+  // characters no instruction tells apart share a class, and DFA transitions are kept per class
+  private final int[] classOf = new int[ALPHABET_SIZE];
+  private final char[] classChars;
+
+  // DFAs are built as they are used, so each thread builds its own
+  private final ThreadLocal<Dfa> dfas = ThreadLocal.withInitial(Dfa::new);
+
+  /**
+   * @return the compiled motif, or null if the pattern expands into too many instructions
+   */
+  static NfaMotif compile(Pattern pattern, Node node) {
+    Program forward = new Program(false);
+    Program reverse = new Program(true);
+    if (!forward.emit(node) || !reverse.emit(node)) {
+      return null;
+    }
+    return new NfaMotif(pattern, forward.build(), reverse.build());
+  }
+
+  private NfaMotif(Pattern pattern, Automaton forward, Automaton reverse) {
+    super(pattern);
+    this.forward = forward;
+    this.reverse = reverse;
+
+    // union of the character sets reachable from the start without consuming a character
+    ThreadList initial = new ThreadList(forward.size());
+    forward.addThread(initial, 0, 0);
+    CharSet first = null;
+    for (int i = 0; i < initial.size; i++) {
+      CharSet set = forward.sets[initial.pcs[i]];
+      first = first == null ? set : first.union(set);
+    }
+    firstChars = first;
+    for (int c = 0; c < ALPHABET_SIZE; c++) {
+      firstTable[c] = firstChars.contains((char) c);
+    }
+
+    // a character's class is given by the set of instructions accepting it
+    Map<BitSet, Integer> classes = new HashMap<>();
+    StringBuilder representatives = new StringBuilder();
+    for (int c = 0; c < ALPHABET_SIZE; c++) {
+      BitSet accepting = new BitSet(forward.size());
+      for (int pc = 0; pc < forward.size(); pc++) {
+        if (forward.ops[pc] == CHAR && forward.sets[pc].contains((char) c)) {
+          accepting.set(pc);
+        }
+      }
+      Integer cls = classes.get(accepting);
+      if (cls == null) {
+        cls = classes.size();
+        classes.put(accepting, cls);
+        representatives.append((char) c);
+      }
+      classOf[c] = cls;
+    }
+    classChars = representatives.toString().toCharArray();
+  }
+
+  private boolean canStart(char c) {
+    return c < ALPHABET_SIZE ? firstTable[c] : firstChars.contains(c);
+  }
+
+  @Override
+  public MotifMatcher matcher(CharSequence sequence) {
+    return new DfaMatcher(sequence);
+  }
+
+  /**
+   * Instructions of an NFA
+   */
+  private static class Automaton {
+
+    final byte[] ops;
+    final int[] arg1;
+    final int[] arg2;
+    final CharSet[] sets;
+
+    Automaton(byte[] ops, int[] arg1, int[] arg2, CharSet[] sets) {
+      this.ops = ops;
+      this.arg1 = arg1;
+      this.arg2 = arg2;
+      this.sets = sets;
+    }
+
+    int size() {
+      return ops.length;
+    }
+
+    /**
+     * Adds the thread at pc to the list, following jumps and splits in priority order
+     */
+    void addThread(ThreadList list, int pc, int start) {
+      int[] stack = list.stack;
+      int top = 0;
+      stack[top++] = pc;
+      while (top > 0) {
+        pc = stack[--top];
+        if (list.marks[pc] == list.generation) {
+          // a higher-priority thread already reached this instruction
+          continue;
+        }
+        list.marks[pc] = list.generation;
+        switch (ops[pc]) {
+          case JUMP:
+            stack[top++] = arg1[pc];
+            break;
+          case SPLIT:
+            stack[top++] = arg2[pc];
+            stack[top++] = arg1[pc];
+            break;
+          default:
+            list.pcs[list.size] = pc;
+            list.starts[list.size] = start;
+            list.size++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Builds the instructions of the NFA
+   */
+  private static class Program {
+
+    final List<Byte> ops = new ArrayList<>();
+    final List<Integer> arg1 = new ArrayList<>();
+    final List<Integer> arg2 = new ArrayList<>();
+    final List<CharSet> sets = new ArrayList<>();
+
+    // whether to build the NFA of the reversed motif
+    private final boolean reversed;
+
+    Program(boolean reversed) {
+      this.reversed = reversed;
+    }
+
+    int add(byte op, int a1, int a2, CharSet set) {
+      ops.add(op);
+      arg1.add(a1);
+      arg2.add(a2);
+      sets.add(set);
+      return ops.size() - 1;
+    }
+
+    int next() {
+      return ops.size();
+    }
+
+    void patch(int pc, int a1, int a2) {
+      arg1.set(pc, a1);
+      arg2.set(pc, a2);
+    }
+
+    Automaton build() {
+      add(MATCH, 0, 0, null);
+      int size = ops.size();
+      byte[] opArray = new byte[size];
+      int[] arg1Array = new int[size];
+      int[] arg2Array = new int[size];
+      for (int pc = 0; pc < size; pc++) {
+        opArray[pc] = ops.get(pc);
+        arg1Array[pc] = arg1.get(pc);
+        arg2Array[pc] = arg2.get(pc);
+      }
+      return new Automaton(opArray, arg1Array, arg2Array, sets.toArray(new CharSet[size]));
+    }
+
+    /**
+     * Appends the instructions of the node.
+     *
+     * @return false if the program grew too large
+     */
+    boolean emit(Node node) {
+      if (ops.size() > MAX_PROGRAM_SIZE) {
+        return false;
+      }
+      if (node instanceof Chars) {
+        add(CHAR, 0, 0, ((Chars) node).set);
+      }
+      else if (node instanceof Concat) {
+        List<Node> nodes = new ArrayList<>(((Concat) node).nodes);
+        if (reversed) {
+          Collections.reverse(nodes);
+        }
+        for (Node child : nodes) {
+          if (!emit(child)) return false;
+        }
+      }
+      else if (node instanceof Alternation) {
+        // split L1, next; L1: a; jump end; next: split L2, next2; L2: b; jump end; ... last alternative
+        List<Node> alternatives = ((Alternation) node).alternatives;
+        List<Integer> jumps = new ArrayList<>();
+        for (int i = 0; i < alternatives.size(); i++) {
+          if (i < alternatives.size() - 1) {
+            int split = add(SPLIT, 0, 0, null);
+            if (!emit(alternatives.get(i))) return false;
+            jumps.add(add(JUMP, 0, 0, null));
+            patch(split, split + 1, next());
+          }
+          else if (!emit(alternatives.get(i))) {
+            return false;
+          }
+        }
+        for (int jump : jumps) {
+          patch(jump, next(), 0);
+        }
+      }
+      else {
+        Repeat repeat = (Repeat) node;
+        for (int i = 0; i < repeat.min; i++) {
+          if (!emit(repeat.body)) return false;
+        }
+        if (repeat.max == Repeat.UNBOUNDED) {
+          // loop: split body, end; body; jump loop
+          int split = add(SPLIT, 0, 0, null);
+          if (!emit(repeat.body)) return false;
+          add(JUMP, split, 0, null);
+          patchSplit(split, split + 1, next(), repeat.greedy);
+        }
+        else {
+          // optional iterations: split body, end; body; split body, end; body; ... end
+          List<Integer> splits = new ArrayList<>();
+          for (int i = repeat.min; i < repeat.max; i++) {
+            splits.add(add(SPLIT, 0, 0, null));
+            if (!emit(repeat.body)) return false;
+          }
+          for (int split : splits) {
+            patchSplit(split, split + 1, next(), repeat.greedy);
+          }
+        }
+      }
+      return ops.size() <= MAX_PROGRAM_SIZE;
+    }
+
+    private void patchSplit(int split, int body, int exit, boolean greedy) {
+      if (greedy) patch(split, body, exit);
+      else patch(split, exit, body);
+    }
+  }
+
+  /**
+   * Threads at one position of the sequence, in priority order
+   */
+  private static class ThreadList {
+
+    final int[] pcs;
+    final int[] starts;
+    int size = 0;
+
+    // marks[pc] == generation if pc has been visited while building this list
+    final int[] marks;
+    int generation = 1;
+
+    // an instruction may be pushed once by each of the (at most two) instructions leading to it
+    final int[] stack;
+
+    ThreadList(int programSize) {
+      pcs = new int[programSize];
+      starts = new int[programSize];
+      marks = new int[programSize];
+      stack = new int[2 * programSize + 1];
+    }
+
+    void clear() {
+      size = 0;
+      generation++;
+    }
+  }
+
+  /**
+   * Lazily built DFA of the forward NFA.  A state is the ordered list of the threads' program counters at a
+   * position, plus whether a match has been seen (after which no new threads are started); state 0 is the initial
+   * state, with the threads of a match starting at the current position only.
+   */
+  private class Dfa {
+
+    private static final byte MATCHED = 1;
+    private static final byte HAS_MATCH = 2;
+    private static final byte MATCH_FIRST = 4;
+    private static final byte DEAD = 8;
+
+    private final Map<StateKey, Integer> ids = new HashMap<>();
+    private final List<int[]> states = new ArrayList<>();
+    private byte[] flags = new byte[16];
+    // transitions[state * classCount + class] is the next state + 1, or 0 if not built yet
+    private int[] transitions = new int[16 * classChars.length];
+
+    private final ThreadList scratch = new ThreadList(forward.size());
+
+    Dfa() {
+      scratch.clear();
+      forward.addThread(scratch, 0, 0);
+      state(scratch, false);
+    }
+
+    byte flags(int state) {
+      return flags[state];
+    }
+
+    /**
+     * @return the state following the given one on the character, or -1 if the DFA is too large to add it
+     */
+    int next(int state, char c) {
+      int index = state * classChars.length + classOf[c];
+      int next = transitions[index] - 1;
+      if (next < 0) {
+        next = build(state, classChars[classOf[c]]);
+        if (next >= 0) {
+          transitions[index] = next + 1;
+        }
+      }
+      return next;
+    }
+
+    private int build(int state, char c) {
+      boolean matched = (flags[state] & MATCHED) != 0;
+      scratch.clear();
+      for (int pc : states.get(state)) {
+        if (forward.ops[pc] == MATCH) {
+          // drop the lower-priority threads
+          matched = true;
+          break;
+        }
+        if (forward.sets[pc].contains(c)) {
+          forward.addThread(scratch, pc + 1, 0);
+        }
+      }
+      if (!matched) {
+        // a match starting at the next position has lower priority than the matches in progress
+        forward.addThread(scratch, 0, 0);
+      }
+      return state(scratch, matched);
+    }
+
+    private int state(ThreadList threads, boolean matched) {
+      StateKey key = new StateKey(Arrays.copyOf(threads.pcs, threads.size), matched);
+      Integer id = ids.get(key);
+      if (id != null) {
+        return id;
+      }
+      if (states.size() == MAX_DFA_STATES) {
+        return -1;
+      }
+      id = states.size();
+      states.add(key.pcs);
+      ids.put(key, id);
+      if (id == flags.length) {
+        flags = Arrays.copyOf(flags, 2 * id);
+        transitions = Arrays.copyOf(transitions, 2 * id * classChars.length);
+      }
+      byte stateFlags = matched ? MATCHED : 0;
+      for (int i = 0; i < key.pcs.length; i++) {
+        if (forward.ops[key.pcs[i]] == MATCH) {
+          stateFlags |= i == 0 ? HAS_MATCH | MATCH_FIRST : HAS_MATCH;
+        }
+      }
+      if (key.pcs.length == 0) {
+        stateFlags |= DEAD;
+      }
+      flags[id] = stateFlags;
+      return id;
+    }
+  }
+
+  private static class StateKey {
+
+    final int[] pcs;
+    final boolean matched;
+
+    StateKey(int[] pcs, boolean matched) {
+      this.pcs = pcs;
+      this.matched = matched;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Arrays.hashCode(pcs) + (matched ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof StateKey)) return false;
+      StateKey other = (StateKey) obj;
+      return matched == other.matched && Arrays.equals(pcs, other.pcs);
+    }
+  }
+
+  private class DfaMatcher extends AbstractMatcher {
+
+    private final Dfa dfa = dfas.get();
+    private ThreadList current = new ThreadList(reverse.size());
+    private ThreadList next = new ThreadList(reverse.size());
+    private Simulation simulation;
+
+    DfaMatcher(CharSequence sequence) {
+      super(sequence);
+    }
+
+    @Override
+    protected boolean search(int from) {
+      int length = sequence.length();
+      int matchEnd = -1;
+      int state = 0;
+      for (int position = from; ; position++) {
+        if (state == 0) {
+          // no match in progress; skip to the next character that can start one
+          while (position < length && !canStart(sequence.charAt(position))) {
+            position++;
+          }
+        }
+        byte flags = dfa.flags(state);
+        if ((flags & Dfa.HAS_MATCH) != 0) {
+          matchEnd = position;
+          if ((flags & Dfa.MATCH_FIRST) != 0) {
+            // no higher-priority thread left to extend the match
+            break;
+          }
+        }
+        if ((flags & Dfa.DEAD) != 0 || position == length) {
+          break;
+        }
+        char c = sequence.charAt(position);
+        state = c < ALPHABET_SIZE ? dfa.next(state, c) : -1;
+        if (state < 0) {
+          return simulate(from);
+        }
+      }
+      if (matchEnd == -1) {
+        return false;
+      }
+      start = findStart(from, matchEnd);
+      end = matchEnd;
+      return true;
+    }
+
+    /**
+     * @return the leftmost position at or after from at which a match ending at matchEnd starts
+     */
+    private int findStart(int from, int matchEnd) {
+      int matchStart = matchEnd;
+      current.clear();
+      reverse.addThread(current, 0, 0);
+      for (int position = matchEnd; current.size > 0; position--) {
+        if (containsMatch(current)) {
+          matchStart = position;
+        }
+        if (position == from) {
+          break;
+        }
+        char c = sequence.charAt(position - 1);
+        next.clear();
+        for (int i = 0; i < current.size; i++) {
+          int pc = current.pcs[i];
+          if (reverse.ops[pc] == CHAR && reverse.sets[pc].contains(c)) {
+            reverse.addThread(next, pc + 1, 0);
+          }
+        }
+        ThreadList swap = current;
+        current = next;
+        next = swap;
+      }
+      return matchStart;
+    }
+
+    private boolean containsMatch(ThreadList threads) {
+      // the match instruction is the last one
+      return threads.marks[reverse.size() - 1] == threads.generation;
+    }
+
+    private boolean simulate(int from) {
+      if (simulation == null) {
+        simulation = new Simulation(sequence);
+      }
+      if (!simulation.search(from)) {
+        return false;
+      }
+      start = simulation.start;
+      end = simulation.end;
+      return true;
+    }
+  }
+
+  /**
+   * Pike VM: simulates the forward NFA, carrying the start of each thread's match along
+   */
+  private class Simulation extends AbstractMatcher {
+
+    private ThreadList current = new ThreadList(forward.size());
+    private ThreadList next = new ThreadList(forward.size());
+
+    Simulation(CharSequence sequence) {
+      super(sequence);
+    }
+
+    @Override
+    protected boolean search(int from) {
+      int length = sequence.length();
+      int matchStart = -1;
+      int matchEnd = -1;
+      current.clear();
+      for (int position = from; position <= length; position++) {
+        if (matchStart == -1) {
+          if (current.size == 0) {
+            // no match in progress; skip to the next character that can start one
+            while (position < length && !canStart(sequence.charAt(position))) {
+              position++;
+            }
+            if (position == length) {
+              return false;
+            }
+          }
+          // a match starting here has lower priority than the matches in progress
+          forward.addThread(current, 0, position);
+        }
+        else if (current.size == 0) {
+          break;
+        }
+
+        char c = position < length ? sequence.charAt(position) : 0;
+        next.clear();
+        for (int i = 0; i < current.size; i++) {
+          int pc = current.pcs[i];
+          if (forward.ops[pc] == MATCH) {
+            // drop the lower-priority threads; higher-priority ones may still find a match
+            matchStart = current.starts[i];
+            matchEnd = position;
+            break;
+          }
+          if (position < length && forward.sets[pc].contains(c)) {
+            forward.addThread(next, pc + 1, current.starts[i]);
+          }
+        }
+        ThreadList swap = current;
+        current = next;
+        next = swap;
+      }
+      if (matchStart == -1) {
+        return false;
+      }
+      start = matchStart;
+      end = matchEnd;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,223 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+import java.io.Reader;
+import java.util.Arrays;
+
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+
+/**
+ * Translates a DNA sequence in all six frames in a single streaming pass, producing its open reading frames (ORFs)
+ * as they end.  An ORF is a stretch of codons of one frame without a stop codon, bounded by stop codons or the ends
+ * of the sequence, of at least a minimum number of residues.  Codons with bases other than A, C, G and T (such as
+ * the Ns of scaffold gaps) also end an ORF, which bounds the memory used to the longest ORF.
+ *
+ * Reverse strand ORFs are read along the reverse strand: their residues are those of the reverse complement of the
+ * codons, from the end of the stretch back to its start.  Frames of both strands are numbered 1 to 3 by the offset
+ * of their codons from the start of the sequence, so the sequence need not be read to its end to number them.
+ */
+public class OrfTranslator {
+
+  // amino acid of each codon, indexed by its bases (A=0, C=1, G=2, T=3) in order of significance; '*' for stops
+  private static final String CODONS =
+      "KNKNTTTTRSRSIIMIQHQHPPPPRRRRLLLLEDEDAAAAGGGGVVVV*Y*YSSSS*CWCLFLF";
+
+  private static final char STOP = '*';
+  private static final int UNKNOWN = -1;
+
+  private static final int[] BASES = new int[128];
+  private static final char[] FORWARD = new char[64];
+  private static final char[] REVERSE = new char[64];
+
+  static {
+    Arrays.fill(BASES, UNKNOWN);
+    String bases = "ACGT";
+    for (int i = 0; i < bases.length(); i++) {
+      BASES[bases.charAt(i)] = i;
+      BASES[Character.toLowerCase(bases.charAt(i))] = i;
+    }
+    for (int codon = 0; codon < 64; codon++) {
+      FORWARD[codon] = CODONS.charAt(codon);
+      // the complement of base b is 3 - b, and the reverse complement reads the bases in reverse order
+      int first = codon >> 4, second = (codon >> 2) & 3, third = codon & 3;
+      REVERSE[codon] = CODONS.charAt(((3 - third) << 4) | ((3 - second) << 2) | (3 - first));
+    }
+  }
+
+  /**
+   * An open reading frame of a sequence
+   */
+  public static class Orf {
+
+    private final int frame;
+    private final boolean reversed;
+    private final int start;
+    private final int end;
+    private final String protein;
+
+    Orf(int frame, boolean reversed, int start, int end, String protein) {
+      this.frame = frame;
+      this.reversed = reversed;
+      this.start = start;
+      this.end = end;
+      this.protein = protein;
+    }
+
+    /**
+     * @return 1, 2 or 3: one more than the offset of the codons from the start of the sequence, modulo 3
+     */
+    public int getFrame() {
+      return frame;
+    }
+
+    /**
+     * @return true if the ORF is read along the reverse strand
+     */
+    public boolean isReversed() {
+      return reversed;
+    }
+
+    /**
+     * @return position in the sequence of the first base of the codons of the ORF, whichever its strand
+     */
+    public int getStart() {
+      return start;
+    }
+
+    /**
+     * @return position in the sequence after the last base of the codons of the ORF, whichever its strand
+     */
+    public int getEnd() {
+      return end;
+    }
+
+    /**
+     * @return the residues of the ORF, from its N-terminus, without the stop codon
+     */
+    public String getProtein() {
+      return protein;
+    }
+
+    /**
+     * @return position in the sequence of the first base of the codons of the residues between the given indexes of
+     * the protein (the last one excluded); for a reverse strand ORF, that of the last residue
+     */
+    public int getSequenceStart(int from, int to) {
+      return reversed ? end - 3 * to : start + 3 * from;
+    }
+
+    /**
+     * @return position in the sequence after the last base of the codons of the residues between the given indexes
+     * of the protein (the last one excluded); for a reverse strand ORF, that of the first residue
+     */
+    public int getSequenceEnd(int from, int to) {
+      return reversed ? end - 3 * from : start + 3 * to;
+    }
+  }
+
+  private final int minLength;
+
+  /**
+   * @param minLength minimum number of residues of the ORFs produced
+   */
+  public OrfTranslator(int minLength) {
+    this.minLength = minLength;
+  }
+
+  /**
+   * Translates the sequence, passing its ORFs to the consumer as they end, so that no more than an ORF of each
+   * frame is held at a time.  Whitespace in the sequence is skipped.
+   *
+   * @return the length of the sequence
+   */
+  public int translate(Reader sequence, ConsumerWithException<Orf> orfConsumer) throws Exception {
+    final Frame[] forward = new Frame[3];
+    final Frame[] reverse = new Frame[3];
+    for (int frame = 0; frame < 3; frame++) {
+      forward[frame] = new Frame(frame, false);
+      reverse[frame] = new Frame(frame, true);
+    }
+    final char[] buffer = new char[8192];
+    int position = 0;
+    // the last two bases read, UNKNOWN before the start of the sequence
+    int previous = UNKNOWN, beforePrevious = UNKNOWN;
+    int read;
+    while ((read = sequence.read(buffer, 0, buffer.length)) != -1) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException("Motif search cancelled");
+      }
+      for (int i = 0; i < read; i++) {
+        final char c = buffer[i];
+        if (c <= ' ') {
+          continue;
+        }
+        final int base = c < BASES.length ? BASES[c] : UNKNOWN;
+        if (position >= 2) {
+          // the codon ending at this base starts two bases back
+          final int codonStart = position - 2;
+          final int frame = codonStart % 3;
+          if (beforePrevious == UNKNOWN || previous == UNKNOWN || base == UNKNOWN) {
+            forward[frame].end(codonStart, orfConsumer);
+            reverse[frame].end(codonStart, orfConsumer);
+          }
+          else {
+            final int codon = (beforePrevious << 4) | (previous << 2) | base;
+            forward[frame].add(FORWARD[codon], codonStart, orfConsumer);
+            reverse[frame].add(REVERSE[codon], codonStart, orfConsumer);
+          }
+        }
+        beforePrevious = previous;
+        previous = base;
+        position++;
+      }
+    }
+    for (int frame = 0; frame < 3; frame++) {
+      forward[frame].end(forward[frame].next, orfConsumer);
+      reverse[frame].end(reverse[frame].next, orfConsumer);
+    }
+    return position;
+  }
+
+  /**
+   * The open stretch of codons of a frame of one strand
+   */
+  private class Frame {
+
+    private final int frame;
+    private final boolean reversed;
+    private final StringBuilder residues = new StringBuilder();
+    // start of the stretch, and of the codon after its last one
+    private int start;
+    private int next;
+
+    Frame(int frame, boolean reversed) {
+      this.frame = frame;
+      this.reversed = reversed;
+      this.start = frame;
+      this.next = frame;
+    }
+
+    void add(char residue, int codonStart, ConsumerWithException<Orf> orfConsumer) throws Exception {
+      if (residue == STOP) {
+        end(codonStart, orfConsumer);
+        return;
+      }
+      residues.append(residue);
+      next = codonStart + 3;
+    }
+
+    /**
+     * Ends the stretch before the codon at the given position, which is not part of any ORF
+     */
+    void end(int codonStart, ConsumerWithException<Orf> orfConsumer) throws Exception {
+      if (residues.length() >= minLength && residues.length() > 0) {
+        if (reversed) {
+          residues.reverse();
+        }
+        orfConsumer.accept(new Orf(frame + 1, reversed, start, next, residues.toString()));
+      }
+      residues.setLength(0);
+      start = codonStart + 3;
+      next = start;
+    }
+  }
+}
@@ -0,0 +1,191 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.exception.MotifTooLongException;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.exception.UnsupportedMotifException;
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+
+import java.nio.ByteBuffer;
+import java.util.regex.Pattern;
+
+/**
+ * Finds motifs in {@link PackedSequence}s without decoding them.
+ *
+ * Motifs that {@link CompiledMotif} matches with shift-and (fixed-length strings of up to 64 characters and
+ * character classes, which covers IUPAC expressions like "GGA[AG]{2}TCC") are scanned one packed base at a time
+ * using the motif's per-character bitmasks; exception runs (N's) are looked up per run rather than per base.
+ * Matches are reported with the same leftmost, non-overlapping semantics as {@link java.util.regex.Matcher#find()}.
+ *
+ * Other motifs are matched against the decoded sequence.
+ *
+ * If both strands are searched, the reverse complement of the motif is scanned over the same bases.
+ */
+public class PackedDnaMotifFinder {
+
+  private static final int ALPHABET_SIZE = 256;
+
+  private final Pattern pattern;
+  private final boolean bothStrands;
+  private final int contextLength;
+  private final int maxMatchLength;
+  private final long regexStepsPerCharacter;
+
+  // per-character bitmasks of the motif positions, one array per strand, or null if the motif is not matched
+  // with shift-and
+  private final long[][] masks;
+  private final int motifLength;
+
+  /**
+   * @param pattern        Pattern to match against sequences.
+   * @param contextLength  The amount of context returned on either end of the match.
+   * @param maxMatchLength Maximum allowed length of a match.
+   */
+  public PackedDnaMotifFinder(Pattern pattern, int contextLength, int maxMatchLength) throws UnsupportedMotifException {
+    this(pattern, false, contextLength, maxMatchLength, CompiledMotif.DEFAULT_REGEX_STEPS_PER_CHARACTER);
+  }
+
+  /**
+   * @param pattern        Pattern to match against sequences.
+   * @param bothStrands    Whether to also match the pattern on the reverse strand.
+   * @param contextLength  The amount of context returned on either end of the match.
+   * @param maxMatchLength Maximum allowed length of a match.
+   * @param regexStepsPerCharacter Step budget of the pattern if it is matched with java.util.regex against the
+   *                       decoded sequence, see {@link CompiledMotif#withRegexBudget(long)}.
+   * @throws UnsupportedMotifException If both strands are searched and the pattern cannot be reverse complemented.
+   */
+  public PackedDnaMotifFinder(Pattern pattern, boolean bothStrands, int contextLength, int maxMatchLength,
+      long regexStepsPerCharacter) throws UnsupportedMotifException {
+    this.pattern = pattern;
+    this.bothStrands = bothStrands;
+    this.contextLength = contextLength;
+    this.maxMatchLength = maxMatchLength;
+    this.regexStepsPerCharacter = regexStepsPerCharacter;
+    CompiledMotif[] motifs = BufferedDnaMotifFinder.strands(pattern, bothStrands, regexStepsPerCharacter);
+    // the masks are looked up for upper case characters only
+    if (motifs[0] instanceof ShiftAndMotif && (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0) {
+      this.motifLength = ((ShiftAndMotif) motifs[0]).getLength();
+      this.masks = new long[motifs.length][ALPHABET_SIZE];
+      for (int strand = 0; strand < motifs.length; strand++) {
+        // the reverse complement of a fixed-length motif has the same length
+        ShiftAndMotif shiftAnd = (ShiftAndMotif) motifs[strand];
+        for (int c = 0; c < ALPHABET_SIZE; c++) {
+          masks[strand][c] = shiftAnd.getMask((char) c);
+        }
+      }
+    }
+    else {
+      this.motifLength = 0;
+      this.masks = null;
+    }
+  }
+
+  /**
+   * @return true if the pattern is matched on the packed bases, false if sequences are decoded for it
+   */
+  public boolean isPackedScan() {
+    return masks != null;
+  }
+
+  /**
+   * @param sequence      Sequence to match against.
+   * @param matchConsumer Consumer of the matches, called in sequence order.
+   * @throws MotifTooLongException If the motif match exceeds maxMatchLength characters in length.
+   */
+  public void match(PackedSequence sequence, ConsumerWithException<MotifMatch> matchConsumer) throws Exception {
+    if (masks == null) {
+      BufferedDnaMotifFinder.match(sequence, pattern, bothStrands, contextLength, maxMatchLength,
+          regexStepsPerCharacter, matchConsumer);
+      return;
+    }
+    for (int strand = 0; strand < masks.length; strand++) {
+      scan(sequence, masks[strand], new Scan(sequence, strand == 1, matchConsumer));
+    }
+  }
+
+  private void scan(PackedSequence sequence, long[] masks, Scan scan) throws Exception {
+    final ByteBuffer packed = sequence.getPacked();
+    final int[] exceptionStarts = sequence.getExceptionStarts();
+    final int[] exceptionEnds = sequence.getExceptionEnds();
+    final byte[] exceptionChars = sequence.getExceptionChars();
+    final long[] baseMasks = { masks['A'], masks['C'], masks['G'], masks['T'] };
+
+    int position = 0;
+    int run = 0;
+    while (position < sequence.length()) {
+      // packed bases up to the next exception run
+      final int segmentEnd = run < exceptionStarts.length ? exceptionStarts[run] : sequence.length();
+      while (position < segmentEnd) {
+        if ((position & 3) == 0 && position + 4 <= segmentEnd) {
+          final int bases = packed.get(position >>> 2);
+          scan.step(baseMasks[(bases >>> 6) & 3], position);
+          scan.step(baseMasks[(bases >>> 4) & 3], position + 1);
+          scan.step(baseMasks[(bases >>> 2) & 3], position + 2);
+          scan.step(baseMasks[bases & 3], position + 3);
+          position += 4;
+        }
+        else {
+          scan.step(baseMasks[sequence.codeAt(position)], position);
+          position++;
+        }
+      }
+
+      // the exception run itself
+      if (run < exceptionStarts.length) {
+        final long mask = masks[exceptionChars[run] & 0xff];
+        if (mask == 0) {
+          // no motif position accepts the character, so no match can span the run
+          scan.reset();
+          position = exceptionEnds[run];
+        }
+        else {
+          for (; position < exceptionEnds[run]; position++) {
+            scan.step(mask, position);
+          }
+        }
+        run++;
+      }
+    }
+  }
+
+  /**
+   * Shift-and state of the scan of one sequence
+   */
+  private class Scan {
+
+    private final PackedSequence sequence;
+    private final boolean reversed;
+    private final ConsumerWithException<MotifMatch> matchConsumer;
+    private final long accept = 1L << (motifLength - 1);
+
+    private long state = 0;
+    // matches may not start before the end of the previous match
+    private int nextStart = 0;
+
+    Scan(PackedSequence sequence, boolean reversed, ConsumerWithException<MotifMatch> matchConsumer) {
+      this.sequence = sequence;
+      this.reversed = reversed;
+      this.matchConsumer = matchConsumer;
+    }
+
+    void step(long mask, int position) throws Exception {
+      state = ((state << 1) | 1) & mask;
+      if ((state & accept) != 0 && position + 1 - motifLength >= nextStart) {
+        report(position + 1 - motifLength, position + 1);
+        nextStart = position + 1;
+      }
+    }
+
+    void reset() {
+      state = 0;
+    }
+
+    private void report(int start, int end) throws Exception {
+      if (end - start > maxMatchLength) {
+        throw BufferedDnaMotifFinder.tooLong(pattern, maxMatchLength);
+      }
+      matchConsumer.accept(BufferedDnaMotifFinder.newMatch(reversed, sequence.subSequence(start, end).toString(),
+          start, end,
+          sequence.subSequence(Math.max(0, start - contextLength), start).toString(),
+          sequence.subSequence(end, Math.min(sequence.length(), end + contextLength)).toString()));
+    }
+  }
+}
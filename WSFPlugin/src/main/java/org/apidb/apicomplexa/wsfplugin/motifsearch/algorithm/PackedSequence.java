@@ -0,0 +1,133 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A DNA sequence stored with two bits per base (A=0, C=1, G=2, T=3, four bases per byte, first base in the high
+ * bits), plus two lists of runs that restore what two bits cannot hold:
+ * <ul>
+ *   <li>exception runs: stretches of a single non-ACGT character (typically N), whose packed bits are ignored</li>
+ *   <li>mask runs: stretches of lower case (soft-masked) characters</li>
+ * </ul>
+ * Runs are given as sorted, non-overlapping [start, end) ranges.
+ *
+ * The sequence is also a {@link CharSequence} that decodes the original characters on access, so it can be
+ * matched with {@link java.util.regex.Pattern}s that {@link PackedDnaMotifFinder} cannot run on the packed bits.
+ * Run lookups remember the last run visited to make sequential access cheap, so an instance must not be read by
+ * more than one thread at a time.
+ */
+public class PackedSequence implements CharSequence {
+
+  private static final char[] BASES = { 'A', 'C', 'G', 'T' };
+
+  private final ByteBuffer packed;
+  private final int length;
+  private final Runs exceptions;
+  private final Runs masks;
+
+  /**
+   * @param packed buffer holding the packed bases, starting at index 0
+   * @param length number of bases
+   * @param exceptionStarts start positions of the exception runs
+   * @param exceptionEnds end positions (exclusive) of the exception runs
+   * @param exceptionChars upper case character of each exception run
+   * @param maskStarts start positions of the lower case runs
+   * @param maskEnds end positions (exclusive) of the lower case runs
+   */
+  public PackedSequence(ByteBuffer packed, int length,
+      int[] exceptionStarts, int[] exceptionEnds, byte[] exceptionChars,
+      int[] maskStarts, int[] maskEnds) {
+    this.packed = packed;
+    this.length = length;
+    this.exceptions = new Runs(exceptionStarts, exceptionEnds, exceptionChars);
+    this.masks = new Runs(maskStarts, maskEnds, null);
+  }
+
+  ByteBuffer getPacked() {
+    return packed;
+  }
+
+  int[] getExceptionStarts() {
+    return exceptions.starts;
+  }
+
+  int[] getExceptionEnds() {
+    return exceptions.ends;
+  }
+
+  byte[] getExceptionChars() {
+    return exceptions.values;
+  }
+
+  /**
+   * @return two-bit code of the base at the given position; meaningless inside exception runs
+   */
+  int codeAt(int index) {
+    return (packed.get(index >>> 2) >>> (6 - ((index & 3) << 1))) & 3;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    Objects.checkIndex(index, length);
+    int exception = exceptions.find(index);
+    char c = exception == -1 ? BASES[codeAt(index)] : (char)(exceptions.values[exception] & 0xff);
+    return masks.find(index) == -1 ? c : Character.toLowerCase(c);
+  }
+
+  /**
+   * Decodes the given range of the sequence.  The returned sequence is a copy rather than a view, as
+   * sub-sequences are only needed for match text and context.
+   */
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    Objects.checkFromToIndex(start, end, length);
+    char[] chars = new char[end - start];
+    for (int i = start; i < end; i++) {
+      chars[i - start] = charAt(i);
+    }
+    return new String(chars);
+  }
+
+  @Override
+  public String toString() {
+    return subSequence(0, length).toString();
+  }
+
+  private static class Runs {
+
+    private final int[] starts;
+    private final int[] ends;
+    private final byte[] values;
+
+    // index of the first run ending after the last position looked up
+    private int cursor = 0;
+
+    Runs(int[] starts, int[] ends, byte[] values) {
+      this.starts = starts;
+      this.ends = ends;
+      this.values = values;
+    }
+
+    /**
+     * @return index of the run containing the given position, or -1 if it is not in a run
+     */
+    int find(int position) {
+      if (cursor > 0 && ends[cursor - 1] > position) {
+        // moved backwards; fall back to a search
+        int found = Arrays.binarySearch(ends, 0, cursor, position);
+        cursor = found >= 0 ? found + 1 : -found - 1;
+      }
+      while (cursor < ends.length && ends[cursor] <= position) {
+        cursor++;
+      }
+      return cursor < starts.length && starts[cursor] <= position ? cursor : -1;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.UnsupportedPatternException;
+
+/**
+ * Pre-flight estimate of the cost of matching a motif pattern.  Patterns that {@link MotifParser} accepts are
+ * matched by automata in linear time whatever their shape.  The others are matched by java.util.regex, which
+ * backtracks; for them a repeated group that itself contains an unbounded repetition or alternatives, such as
+ * "(A*)*C" or "(A|AT)+\1", can take time exponential in the length of the sequence, and is rejected up front.
+ * Searches of the remaining patterns are still bounded by the step budget of {@link StepLimitedSequence}.
+ */
+public class PatternComplexity {
+
+  private PatternComplexity() {}
+
+  /**
+   * Group of the pattern being scanned, and what it contains so far
+   */
+  private static class Group {
+    boolean unboundedRepeat = false;
+    boolean alternation = false;
+  }
+
+  /**
+   * @param pattern a compiled motif pattern
+   * @return why the pattern is too costly to match, or empty if it is not
+   */
+  public static Optional<String> findHazard(Pattern pattern) {
+    try {
+      MotifParser.parse(pattern);
+      return Optional.empty();
+    }
+    catch (UnsupportedPatternException e) {
+      // matched with java.util.regex
+    }
+
+    String regex = pattern.pattern();
+    Deque<Group> groups = new ArrayDeque<>();
+    groups.push(new Group());
+    Group closed = null;
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      Group repeated = closed;
+      closed = null;
+      switch (c) {
+        case '\\':
+          i++;
+          break;
+        case '[':
+          // skip the class, including any nested classes
+          for (int depth = 0; i < regex.length(); i++) {
+            char d = regex.charAt(i);
+            if (d == '\\') i++;
+            else if (d == '[') depth++;
+            else if (d == ']' && --depth == 0) break;
+          }
+          break;
+        case '(':
+          groups.push(new Group());
+          break;
+        case ')':
+          if (groups.size() > 1) {
+            closed = groups.pop();
+            // what a group contains, its enclosing group contains too
+            groups.peek().unboundedRepeat |= closed.unboundedRepeat;
+            groups.peek().alternation |= closed.alternation;
+          }
+          break;
+        case '|':
+          groups.peek().alternation = true;
+          break;
+        case '*':
+        case '+':
+        case '{':
+          int close = c == '{' ? regex.indexOf('}', i) : i;
+          if (close == -1) break;
+          boolean unbounded = c != '{' || regex.substring(i, close).endsWith(",");
+          boolean repeats = unbounded || !regex.substring(i, close + 1).matches("\\{\\s*[01]?\\s*(,\\s*[01]\\s*)?}");
+          if (repeated != null && repeats) {
+            if (repeated.unboundedRepeat) {
+              return Optional.of("it repeats a group that contains an unbounded repetition");
+            }
+            if (repeated.alternation) {
+              return Optional.of("it repeats a group of alternatives");
+            }
+          }
+          if (unbounded) groups.peek().unboundedRepeat = true;
+          i = close;
+          break;
+        default:
+          break;
+      }
+    }
+    return Optional.empty();
+  }
+}
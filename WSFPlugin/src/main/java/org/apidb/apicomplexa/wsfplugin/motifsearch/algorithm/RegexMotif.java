@@ -0,0 +1,60 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Motif matched with {@link java.util.regex.Pattern}, for patterns no automaton is built for.  Such patterns can
+ * backtrack without bound, so each search reads the sequence through a {@link StepLimitedSequence} and is aborted
+ * if it exceeds its step budget (see {@link CompiledMotif#withRegexBudget(long)}).
+ */
+class RegexMotif extends CompiledMotif {
+
+  private final long stepsPerCharacter;
+
+  RegexMotif(Pattern pattern, long stepsPerCharacter) {
+    super(pattern);
+    this.stepsPerCharacter = stepsPerCharacter;
+  }
+
+  @Override
+  public CompiledMotif withRegexBudget(long stepsPerCharacter) {
+    return stepsPerCharacter == this.stepsPerCharacter ? this : new RegexMotif(getPattern(), stepsPerCharacter);
+  }
+
+  @Override
+  public MotifMatcher matcher(CharSequence sequence) {
+    if (stepsPerCharacter <= 0) {
+      Matcher matcher = getPattern().matcher(sequence);
+      return new MotifMatcher() {
+        @Override public boolean find() { return matcher.find(); }
+        @Override public boolean find(int from) { return matcher.find(from); }
+        @Override public int start() { return matcher.start(); }
+        @Override public int end() { return matcher.end(); }
+        @Override public String group() { return matcher.group(); }
+      };
+    }
+    StepLimitedSequence limited = new StepLimitedSequence(sequence, stepsPerCharacter);
+    Matcher matcher = getPattern().matcher(limited);
+    return new MotifMatcher() {
+      // where find() continues, for the budget of its search
+      private int next = 0;
+
+      @Override public boolean find() {
+        limited.begin(next);
+        return found(matcher.find());
+      }
+      @Override public boolean find(int from) {
+        limited.begin(from);
+        return found(matcher.find(from));
+      }
+      private boolean found(boolean found) {
+        if (found) next = matcher.end();
+        return found;
+      }
+      @Override public int start() { return matcher.start(); }
+      @Override public int end() { return matcher.end(); }
+      @Override public String group() { return matcher.group(); }
+    };
+  }
+}
@@ -0,0 +1,38 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+/**
+ * Complements of IUPAC nucleotide codes, and reverse complements of sequences.  Characters that are not nucleotide
+ * codes are their own complement.
+ */
+public class ReverseComplement {
+
+  private static final String CODES = "ACGTRYKMBVDHSWN";
+  private static final String COMPLEMENTS = "TGCAYRMKVBHDSWN";
+
+  private static final char[] TABLE = new char[128];
+
+  static {
+    for (char c = 0; c < TABLE.length; c++) {
+      TABLE[c] = c;
+    }
+    for (int i = 0; i < CODES.length(); i++) {
+      TABLE[CODES.charAt(i)] = COMPLEMENTS.charAt(i);
+      TABLE[Character.toLowerCase(CODES.charAt(i))] = Character.toLowerCase(COMPLEMENTS.charAt(i));
+    }
+  }
+
+  public static char complement(char c) {
+    return c < TABLE.length ? TABLE[c] : c;
+  }
+
+  /**
+   * @return the reverse complement of the sequence
+   */
+  public static String of(CharSequence sequence) {
+    char[] reversed = new char[sequence.length()];
+    for (int i = 0; i < reversed.length; i++) {
+      reversed[reversed.length - 1 - i] = complement(sequence.charAt(i));
+    }
+    return new String(reversed);
+  }
+}
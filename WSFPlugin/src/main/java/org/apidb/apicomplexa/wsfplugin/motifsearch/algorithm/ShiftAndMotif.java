@@ -0,0 +1,73 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifParser.CharSet;
+
+/**
+ * Fixed-length motif of up to 64 character classes, matched with the shift-and algorithm.  Bit i of the mask of
+ * a character is set if the i-th position of the motif accepts it; bit i of the state is set if the last i + 1
+ * characters read match the first i + 1 positions.  Since all matches have the same length, the first match
+ * found ending at the lowest index is also the leftmost one.
+ */
+class ShiftAndMotif extends CompiledMotif {
+
+  static final int MAX_LENGTH = Long.SIZE;
+
+  private static final int TABLE_SIZE = 256;
+
+  private final List<CharSet> positions;
+  private final long[] masks = new long[TABLE_SIZE];
+  private final long accept;
+
+  ShiftAndMotif(Pattern pattern, List<CharSet> positions) {
+    super(pattern);
+    this.positions = positions;
+    for (int c = 0; c < TABLE_SIZE; c++) {
+      masks[c] = computeMask((char) c);
+    }
+    this.accept = 1L << (positions.size() - 1);
+  }
+
+  private long computeMask(char c) {
+    long mask = 0;
+    for (int i = 0; i < positions.size(); i++) {
+      if (positions.get(i).contains(c)) {
+        mask |= 1L << i;
+      }
+    }
+    return mask;
+  }
+
+  /**
+   * @return bitmask of the motif positions that accept the given character
+   */
+  long getMask(char c) {
+    return c < TABLE_SIZE ? masks[c] : computeMask(c);
+  }
+
+  int getLength() {
+    return positions.size();
+  }
+
+  @Override
+  public MotifMatcher matcher(CharSequence sequence) {
+    return new AbstractMatcher(sequence) {
+      @Override
+      protected boolean search(int from) {
+        long state = 0;
+        for (int i = from; i < sequence.length(); i++) {
+          char c = sequence.charAt(i);
+          state = ((state << 1) | 1) & (c < TABLE_SIZE ? masks[c] : computeMask(c));
+          if ((state & accept) != 0) {
+            start = i + 1 - positions.size();
+            end = i + 1;
+            return true;
+          }
+        }
+        return false;
+      }
+    };
+  }
+}
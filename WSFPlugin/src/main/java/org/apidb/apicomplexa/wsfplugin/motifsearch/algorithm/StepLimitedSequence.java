@@ -0,0 +1,86 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+/**
+ * Sequence handed to {@link java.util.regex.Matcher} by {@link RegexMotif}, counting the characters the matcher
+ * reads.  A backtracking matcher reads each character a few times on ordinary patterns, but exponentially often on
+ * runaway ones; once the reads of a search exceed the step budget per character it has advanced, the search is
+ * aborted with {@link BudgetExceededException}.  The search is also aborted if its thread is interrupted, so
+ * cancelled searches release their thread.
+ */
+class StepLimitedSequence implements CharSequence {
+
+  /**
+   * Thrown from {@link #charAt(int)} to abort the search in progress
+   */
+  static class BudgetExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    BudgetExceededException(String message) {
+      super(message);
+    }
+  }
+
+  // reads allowed before any budget applies, so short bursts of backtracking pass
+  private static final long FREE_STEPS = 1L << 20;
+  // the budget and the interrupt flag are checked every this many reads
+  private static final long CHECK_INTERVAL = 1L << 16;
+
+  private final CharSequence sequence;
+  private final long stepsPerCharacter;
+
+  private long steps;
+  private long nextCheck;
+  private int origin;
+  private int frontier;
+
+  /**
+   * @param sequence sequence to read
+   * @param stepsPerCharacter reads allowed per character a search advances
+   */
+  StepLimitedSequence(CharSequence sequence, long stepsPerCharacter) {
+    this.sequence = sequence;
+    this.stepsPerCharacter = stepsPerCharacter;
+    begin(0);
+  }
+
+  /**
+   * Starts counting the reads of a search starting at the given index
+   */
+  void begin(int from) {
+    steps = 0;
+    nextCheck = CHECK_INTERVAL;
+    origin = from;
+    frontier = from;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index > frontier) frontier = index;
+    if (++steps >= nextCheck) check();
+    return sequence.charAt(index);
+  }
+
+  private void check() {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new BudgetExceededException("search interrupted");
+    }
+    if (steps > FREE_STEPS + stepsPerCharacter * (frontier - origin + 1L)) {
+      throw new BudgetExceededException(steps + " steps over " + (frontier - origin + 1) + " characters");
+    }
+    nextCheck = steps + CHECK_INTERVAL;
+  }
+
+  @Override
+  public int length() {
+    return sequence.length();
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return sequence.subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return sequence.toString();
+  }
+}
@@ -0,0 +1,12 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.exception;
+
+import org.gusdb.wsf.plugin.PluginModelException;
+
+/**
+ * Exception indicating that matching a motif pattern took too many steps and was aborted.
+ */
+public class MotifTooComplexException extends PluginModelException {
+    public MotifTooComplexException(String message) {
+        super(message);
+    }
+}
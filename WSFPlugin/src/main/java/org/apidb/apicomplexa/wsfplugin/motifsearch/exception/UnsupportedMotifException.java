@@ -0,0 +1,12 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.exception;
+
+import org.gusdb.wsf.plugin.PluginModelException;
+
+/**
+ * Exception indicating that a motif pattern uses constructs the configured search does not support.
+ */
+public class UnsupportedMotifException extends PluginModelException {
+    public UnsupportedMotifException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,303 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.exception.MotifTooLongException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class AAMatchFinderTest {
+
+    private static final String DEFLINE = ">gene%d-p1 | transcript=gene%d-t1 | organism=Plasmodium_falciparum_3D7";
+    private static final String RESIDUES = "ACDEFGHIKLMNPQRSTVWY";
+
+    /**
+     * Writes proteins of varying lengths (one spanning several scan buffers, one with CRLF line endings) and verifies
+     * that the streaming finder summarizes their matches exactly as reading each protein into a string does.
+     */
+    @Test
+    public void testSameSummaryAsInMemory() throws Exception {
+        final File fasta = File.createTempFile("proteins", ".fasta");
+        fasta.deleteOnExit();
+        final Random random = new Random(7);
+        final StringBuilder content = new StringBuilder();
+        final List<String> proteins = new ArrayList<>();
+        final int[] lengths = { 300, 5, 0, 200000, 41, 1000 };
+        for (int i = 0; i < lengths.length; i++) {
+            final StringBuilder protein = new StringBuilder();
+            for (int j = 0; j < lengths[i]; j++) {
+                protein.append(RESIDUES.charAt(random.nextInt(RESIDUES.length())));
+            }
+            proteins.add(protein.toString());
+            final String newline = i == 4 ? "\r\n" : "\n";
+            content.append(String.format(DEFLINE, i, i)).append(newline);
+            for (int j = 0; j < lengths[i]; j += 60) {
+                content.append(protein, j, Math.min(lengths[i], j + 60)).append(newline);
+            }
+        }
+        Files.write(fasta.toPath(), content.toString().getBytes());
+
+        final Properties properties = new Properties();
+        properties.setProperty(MotifConfig.FIELD_CONTEXT_LENGTH, "5");
+        final MotifConfig config = new MotifConfig(properties, ProteinMotifPlugin.FIELD_REGEX, AAMotifPlugin.DEFAULT_REGEX);
+        for (String expression : new String[] { "A", "C[DE]", "W.{0,20}Y" }) {
+            final Pattern pattern = Pattern.compile(expression, Pattern.CASE_INSENSITIVE);
+            final List<String> expected = new ArrayList<>();
+            for (int i = 0; i < proteins.size(); i++) {
+                final String summary = summarize(pattern, proteins.get(i), 5);
+                if (summary != null) expected.add("gene" + i + "-t1|PlasmoDB|" + summary);
+            }
+            final List<String> actual = new ArrayList<>();
+            new AAMatchFinder(config).findMatches(fasta, pattern, m -> actual.add(m.sourceId + "|" + m.projectId + "|"
+                + m.matchCount + "|" + m.matchSequences.size() + "|" + m.locations + "|" + m.sequence), org -> "PlasmoDB");
+            Assert.assertEquals(expression, expected, actual);
+        }
+    }
+
+    /**
+     * Verifies that searching a panel of patterns together reports one summary per protein and pattern, the same as
+     * searching each pattern alone, with and without a k-mer index.
+     */
+    @Test
+    public void testPatternPanel() throws Exception {
+        final File fasta = new SyntheticSequences(SyntheticSequences.Type.PROTEIN).seed(9).sequences(200)
+            .lengths(50, 2000).write();
+        final MotifConfig config = new MotifConfig(new Properties(), ProteinMotifPlugin.FIELD_REGEX, AAMotifPlugin.DEFAULT_REGEX);
+        final List<Pattern> patterns = new ArrayList<>();
+        for (String expression : new String[] { "WHW", "C..C", "N[^P][ST]", "KR{2,}" }) {
+            patterns.add(Pattern.compile(expression, Pattern.CASE_INSENSITIVE));
+        }
+        for (boolean indexed : new boolean[] { false, true }) {
+            if (indexed) {
+                FastaIndex.getIndexFile(fasta).deleteOnExit();
+                KmerIndex.getIndexFile(fasta).deleteOnExit();
+                final FastaIndex index = FastaIndex.build(fasta, Pattern.compile(AAMotifPlugin.DEFAULT_REGEX),
+                    Defline.Format.PROTEIN);
+                index.write();
+                KmerIndex.write(index);
+            }
+            final List<List<String>> actual = new ArrayList<>();
+            for (int i = 0; i < patterns.size(); i++) actual.add(new ArrayList<>());
+            new AAMatchFinder(config).findMatches(fasta, patterns, m -> actual.get(m.patternIndex).add(m.sourceId + "|"
+                + m.matchCount + "|" + m.locations + "|" + m.sequence), org -> "PlasmoDB");
+            for (int i = 0; i < patterns.size(); i++) {
+                final List<String> expected = new ArrayList<>();
+                new AAMatchFinder(config).findMatches(fasta, patterns.get(i), m -> expected.add(m.sourceId + "|"
+                    + m.matchCount + "|" + m.locations + "|" + m.sequence), org -> "PlasmoDB");
+                Assert.assertTrue(patterns.get(i).pattern(), expected.size() > 0);
+                Assert.assertEquals(patterns.get(i).pattern(), expected, actual.get(i));
+            }
+        }
+    }
+
+    /**
+     * Verifies that scanning mapped proteomes in place reports the same summaries as streaming them, for proteins
+     * with uniform, ragged and CRLF lines, with and without a k-mer index.
+     */
+    @Test
+    public void testMappedSameAsStreaming() throws Exception {
+        final File fasta = new SyntheticSequences(SyntheticSequences.Type.PROTEIN).seed(12).sequences(150)
+            .lengths(50, 3000).write();
+        Files.write(fasta.toPath(), (String.format(DEFLINE, 150, 150) + "\nMWHWC\nACWHWCKKC\nC\n"
+            + String.format(DEFLINE, 151, 151) + "\n"
+            + String.format(DEFLINE, 152, 152) + "\r\nMWH\r\nWCA\r\nCW\r\n").getBytes(), StandardOpenOption.APPEND);
+        final Properties properties = new Properties();
+        properties.setProperty(MotifConfig.FIELD_CONTEXT_LENGTH, "5");
+        final MotifConfig config = new MotifConfig(properties, ProteinMotifPlugin.FIELD_REGEX, AAMotifPlugin.DEFAULT_REGEX);
+        final List<Pattern> patterns = new ArrayList<>();
+        for (String expression : new String[] { "WHW", "C..C", "N[^P][ST]" }) {
+            patterns.add(Pattern.compile(expression, Pattern.CASE_INSENSITIVE));
+        }
+        for (boolean indexed : new boolean[] { false, true }) {
+            if (indexed) {
+                FastaIndex.getIndexFile(fasta).deleteOnExit();
+                KmerIndex.getIndexFile(fasta).deleteOnExit();
+                final FastaIndex index = FastaIndex.build(fasta, Pattern.compile(AAMotifPlugin.DEFAULT_REGEX),
+                    Defline.Format.PROTEIN);
+                index.write();
+                KmerIndex.write(index);
+            }
+            final List<String> expected = new ArrayList<>();
+            new AAMatchFinder(config).findMatches(fasta, patterns, m -> expected.add(m.sourceId + "|" + m.patternIndex
+                + "|" + m.matchCount + "|" + m.locations + "|" + m.sequence), org -> "PlasmoDB");
+            final List<String> actual = new ArrayList<>();
+            new MappedAAMatchFinder(config).findMatches(fasta, patterns, m -> actual.add(m.sourceId + "|"
+                + m.patternIndex + "|" + m.matchCount + "|" + m.locations + "|" + m.sequence), org -> "PlasmoDB");
+            Assert.assertTrue(expected.size() > 10);
+            // the ragged protein MWHWCACWHWCKKCC, whose matches span line breaks
+            final String motif = "<span class=\"" + AbstractMotifPlugin.MOTIF_STYLE_CLASS + "\">WHW</span>";
+            Assert.assertTrue(expected.contains("gene150-t1|0|2|(2-4), (8-10)|M" + motif + "CAC" + motif + "CKKCC"));
+            // the protein with CRLF line endings, MWHWCACW
+            Assert.assertTrue(expected.contains("gene152-t1|0|1|(2-4)|M" + motif + "CACW"));
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * Verifies that counting matches reports the match count of each protein summary, with and without a k-mer
+     * index.
+     */
+    @Test
+    public void testCountOnly() throws Exception {
+        final File fasta = new SyntheticSequences(SyntheticSequences.Type.PROTEIN).seed(10).sequences(100)
+            .lengths(50, 2000).write();
+        final MotifConfig config = new MotifConfig(new Properties(), ProteinMotifPlugin.FIELD_REGEX, AAMotifPlugin.DEFAULT_REGEX);
+        final Pattern pattern = Pattern.compile("C..C", Pattern.CASE_INSENSITIVE);
+        for (boolean indexed : new boolean[] { false, true }) {
+            if (indexed) {
+                FastaIndex.getIndexFile(fasta).deleteOnExit();
+                KmerIndex.getIndexFile(fasta).deleteOnExit();
+                final FastaIndex index = FastaIndex.build(fasta, Pattern.compile(AAMotifPlugin.DEFAULT_REGEX),
+                    Defline.Format.PROTEIN);
+                index.write();
+                KmerIndex.write(index);
+            }
+            final List<String> expected = new ArrayList<>();
+            new AAMatchFinder(config).findMatches(fasta, pattern, m -> expected.add(m.sourceId + "|" + m.matchCount),
+                org -> "PlasmoDB");
+            final List<String> actual = new ArrayList<>();
+            new AAMatchFinder(config).countMatches(fasta, pattern, m -> actual.add(m.sourceId + "|" + m.matchCount),
+                org -> "PlasmoDB");
+            Assert.assertTrue(expected.size() > 10);
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * Verifies that matches longer than a scan buffer are found by streaming, mapping and counting, and that a
+     * search fails once a match exceeds the configured maximum length.
+     */
+    @Test
+    public void testLongMatches() throws Exception {
+        final StringBuilder sequence = new StringBuilder("C");
+        final Random random = new Random(13);
+        for (int i = 0; i < 80000; i++) {
+            // residues other than A and C
+            sequence.append(RESIDUES.charAt(2 + random.nextInt(RESIDUES.length() - 2)));
+            if (i % 60 == 59) sequence.append('\n');
+        }
+        sequence.append("C\n");
+        final File fasta = File.createTempFile("proteins", ".fasta");
+        fasta.deleteOnExit();
+        Files.write(fasta.toPath(), (String.format(DEFLINE, 1, 1) + "\n" + sequence).getBytes());
+        final Pattern pattern = Pattern.compile("C[^C]*C");
+
+        final Properties properties = new Properties();
+        properties.setProperty(MotifConfig.FIELD_PROTEIN_MAX_MATCH_LENGTH, "100000");
+        final MotifConfig config = new MotifConfig(properties, ProteinMotifPlugin.FIELD_REGEX, AAMotifPlugin.DEFAULT_REGEX);
+        final List<String> found = new ArrayList<>();
+        new AAMatchFinder(config).findMatches(fasta, pattern, m -> found.add(m.locations), org -> "PlasmoDB");
+        new MappedAAMatchFinder(config).findMatches(fasta, pattern, m -> found.add(m.locations), org -> "PlasmoDB");
+        new AAMatchFinder(config).countMatches(fasta, pattern, m -> found.add(String.valueOf(m.matchCount)),
+            org -> "PlasmoDB");
+        Assert.assertEquals(List.of("(1-80002)", "(1-80002)", "1"), found);
+
+        // streamed scans detect matches up to twice the maximum length
+        properties.setProperty(MotifConfig.FIELD_PROTEIN_MAX_MATCH_LENGTH, "60000");
+        final MotifConfig limited = new MotifConfig(properties, ProteinMotifPlugin.FIELD_REGEX,
+            AAMotifPlugin.DEFAULT_REGEX);
+        for (AAMatchFinder finder : new AAMatchFinder[] { new AAMatchFinder(limited), new MappedAAMatchFinder(limited) }) {
+            try {
+                finder.findMatches(fasta, pattern, m -> { }, org -> "PlasmoDB");
+                Assert.fail("a match longer than the maximum length was found");
+            }
+            catch (MotifTooLongException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Verifies that a search of a file with a malformed defline fails rather than leaving out the sequence, whether
+     * the file is streamed or mapped and with or without a k-mer index.
+     */
+    @Test
+    public void testMalformedDefline() throws Exception {
+        final File fasta = File.createTempFile("proteins", ".fasta");
+        fasta.deleteOnExit();
+        Files.write(fasta.toPath(), (String.format(DEFLINE, 1, 1) + "\nMWHWC\n>gene2-p1 without fields\nCWHWK\n")
+            .getBytes());
+        final Pattern pattern = Pattern.compile("WHW");
+        final MotifConfig config = new MotifConfig(new Properties(), ProteinMotifPlugin.FIELD_REGEX, AAMotifPlugin.DEFAULT_REGEX);
+        for (boolean indexed : new boolean[] { false, true }) {
+            if (indexed) {
+                FastaIndex.getIndexFile(fasta).deleteOnExit();
+                KmerIndex.getIndexFile(fasta).deleteOnExit();
+                final FastaIndex index = FastaIndex.build(fasta, Pattern.compile(AAMotifPlugin.DEFAULT_REGEX),
+                    Defline.Format.PROTEIN);
+                index.write();
+                KmerIndex.write(index);
+            }
+            for (AAMatchFinder finder : new AAMatchFinder[] { new AAMatchFinder(config), new MappedAAMatchFinder(config) }) {
+                try {
+                    finder.findMatches(fasta, pattern, m -> { }, org -> "PlasmoDB");
+                    Assert.fail("a file with a malformed defline was searched");
+                }
+                catch (RuntimeException e) {
+                    Assert.assertTrue(e.getMessage(), e.getMessage().startsWith(
+                        "Cannot read definition line >gene2-p1 without fields"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Summary of the matches in a protein, computed on the whole sequence
+     */
+    private static String summarize(Pattern pattern, String sequence, int contextLength) {
+        final StringBuilder sbLoc = new StringBuilder();
+        final StringBuilder sbSeq = new StringBuilder();
+        int prev = 0;
+        int count = 0;
+        int shown = 0;
+        boolean longLoc = false, longSeq = false;
+        final Matcher matcher = pattern.matcher(sequence);
+        while (matcher.find()) {
+            if (!longLoc) {
+                final String location = "(" + AbstractMotifPlugin.formatLocation(0, matcher.start(), matcher.end() - 1, false) + ")";
+                if (sbLoc.length() + location.length() >= 3997) {
+                    sbLoc.append("...");
+                    longLoc = true;
+                } else {
+                    if (sbLoc.length() != 0) sbLoc.append(", ");
+                    sbLoc.append(location);
+                }
+            }
+            if (!longSeq) {
+                final StringBuilder seq = new StringBuilder();
+                if (matcher.start() - prev <= contextLength * 2) {
+                    seq.append(sequence, prev, matcher.start());
+                } else {
+                    if (prev != 0) seq.append(sequence, prev, prev + contextLength);
+                    seq.append("... ").append(sequence, matcher.start() - contextLength, matcher.start());
+                }
+                shown++;
+                seq.append("<span class=\"" + AbstractMotifPlugin.MOTIF_STYLE_CLASS + "\">").append(matcher.group()).append("</span>");
+                if (sbSeq.length() + seq.length() >= 3997) {
+                    sbSeq.append("...");
+                    longSeq = true;
+                } else {
+                    sbSeq.append(seq);
+                }
+            }
+            prev = matcher.end();
+            count++;
+        }
+        if (count == 0) return null;
+        if (!longSeq) {
+            final String remain = prev + contextLength < sequence.length()
+                ? sequence.substring(prev, prev + contextLength) + "..."
+                : sequence.substring(prev);
+            if (remain.length() + sbSeq.length() < 4000) sbSeq.append(remain);
+        }
+        return count + "|" + shown + "|" + sbLoc + "|" + sbSeq;
+    }
+}
@@ -0,0 +1,117 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+public class BgzfFileTest {
+
+    /**
+     * Compresses a file into several blocks and verifies that reading it sequentially, and at positions spanning
+     * block boundaries, returns the original bytes, with and without the .gzi index.
+     */
+    @Test
+    public void testReadBack() throws Exception {
+        final File fasta = SyntheticSequences.writeGenome(3, 4, 60000);
+        final File compressed = new File(fasta.getPath() + ".gz");
+        compressed.deleteOnExit();
+        BgzfFile.getIndexFile(compressed).deleteOnExit();
+        final int blocks = BgzfFile.compress(fasta, compressed);
+        final byte[] expected = Files.readAllBytes(fasta.toPath());
+        Assert.assertTrue(blocks > 3);
+        Assert.assertTrue(BgzfFile.isBgzf(compressed));
+        Assert.assertFalse(BgzfFile.isBgzf(fasta));
+
+        for (boolean indexed : new boolean[] { true, false }) {
+            if (!indexed) Assert.assertTrue(BgzfFile.getIndexFile(compressed).delete());
+            try (InputStream in = BgzfFile.openInputStream(compressed)) {
+                Assert.assertArrayEquals(expected, in.readAllBytes());
+            }
+            try (BgzfFile bgzf = BgzfFile.open(compressed)) {
+                // the empty block ending the file counts too
+                Assert.assertEquals(blocks + 1, bgzf.getBlockCount());
+                Assert.assertEquals(expected.length, bgzf.getUncompressedSize());
+                for (long position : new long[] { 0, 0xff00 - 10, 3 * 0xff00 - 1, expected.length - 20 }) {
+                    final ByteBuffer buffer = ByteBuffer.allocate(100);
+                    while (buffer.hasRemaining() && bgzf.read(buffer, position + buffer.position()) > 0);
+                    final int end = (int) Math.min(expected.length, position + 100);
+                    Assert.assertArrayEquals(Arrays.copyOfRange(expected, (int) position, end),
+                        Arrays.copyOf(buffer.array(), buffer.position()));
+                }
+                Assert.assertEquals(-1, bgzf.read(ByteBuffer.allocate(10), expected.length));
+            }
+        }
+    }
+
+    /**
+     * Verifies that every DNA finder, and the protein finder with its indexes, reports the same matches in a
+     * compressed dataset as in the uncompressed one.
+     */
+    @Test
+    public void testSameMatchesAsUncompressed() throws Exception {
+        final File genome = SyntheticSequences.writeGenome(5, 3, 150000);
+        final File compressedGenome = compress(genome);
+        final Properties properties = new Properties();
+        properties.setProperty(MotifConfig.FIELD_SEQUENCE_PARALLELISM, "3");
+        final MotifConfig dnaConfig = new MotifConfig(properties, DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+        final Pattern dnaPattern = AbstractMotifPlugin.translateExpression("GGATNC", DnaMotifPlugin.SYMBOL_MAP);
+        final List<String> expected = new ArrayList<>();
+        new DnaMatchFinder(dnaConfig).findMatches(genome, dnaPattern, m -> expected.add(describe(m)), org -> "PlasmoDB");
+        Assert.assertTrue(expected.size() > 100);
+        PackedGenome.getPackedFile(compressedGenome).deleteOnExit();
+        PackedGenome.write(compressedGenome);
+        for (StreamingMatchFinder finder : new StreamingMatchFinder[] { new DnaMatchFinder(dnaConfig),
+            new ShardedDnaMatchFinder(dnaConfig), new MappedDnaMatchFinder(dnaConfig), new PackedDnaMatchFinder(dnaConfig) }) {
+            final List<String> actual = new ArrayList<>();
+            finder.findMatches(compressedGenome, dnaPattern, m -> actual.add(describe(m)), org -> "PlasmoDB");
+            Assert.assertEquals(finder.getClass().getSimpleName(), expected, actual);
+        }
+
+        final File proteome = SyntheticSequences.writeProteome(6, 300, 3000);
+        final File compressedProteome = compress(proteome);
+        final MotifConfig proteinConfig = new MotifConfig(new Properties(), ProteinMotifPlugin.FIELD_REGEX,
+            AAMotifPlugin.DEFAULT_REGEX);
+        final Pattern proteinPattern = Pattern.compile("C..C", Pattern.CASE_INSENSITIVE);
+        final List<String> expectedProteins = new ArrayList<>();
+        new AAMatchFinder(proteinConfig).findMatches(proteome, proteinPattern, m -> expectedProteins.add(describe(m)),
+            org -> "PlasmoDB");
+        Assert.assertTrue(expectedProteins.size() > 10);
+        for (boolean indexed : new boolean[] { false, true }) {
+            if (indexed) {
+                FastaIndex.getIndexFile(compressedProteome).deleteOnExit();
+                KmerIndex.getIndexFile(compressedProteome).deleteOnExit();
+                final FastaIndex index = FastaIndex.build(compressedProteome, Pattern.compile(AAMotifPlugin.DEFAULT_REGEX),
+                    Defline.Format.PROTEIN);
+                index.write();
+                KmerIndex.write(index);
+            }
+            final List<String> actual = new ArrayList<>();
+            new AAMatchFinder(proteinConfig).findMatches(compressedProteome, proteinPattern, m -> actual.add(describe(m)),
+                org -> "PlasmoDB");
+            Assert.assertEquals(expectedProteins, actual);
+        }
+    }
+
+    private static File compress(File file) throws Exception {
+        final File compressed = new File(file.getPath() + ".gz");
+        compressed.deleteOnExit();
+        BgzfFile.getIndexFile(compressed).deleteOnExit();
+        BgzfFile.compress(file, compressed);
+        return compressed;
+    }
+
+    private static String describe(PluginMatch match) {
+        match.format();
+        return match.sourceId + "|" + match.projectId + "|" + match.matchCount + "|" + match.locations + "|"
+            + match.sequence;
+    }
+}
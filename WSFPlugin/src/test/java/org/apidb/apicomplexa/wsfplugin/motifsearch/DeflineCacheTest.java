@@ -0,0 +1,123 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+public class DeflineCacheTest {
+
+    private static final Pattern DEFLINE_PATTERN = Pattern.compile(AAMotifPlugin.DEFAULT_REGEX);
+    private static final String DEFLINE = ">gene%d-p1 | transcript=gene%d-t1 | organism=Plasmodium_falciparum_3D7";
+
+    /**
+     * Verifies that a defline is parsed once per release of its file, that the organisms of the deflines are shared,
+     * and that a file is parsed again once it changes.
+     */
+    @Test
+    public void testParsedOncePerRelease() throws Exception {
+        final File fasta = File.createTempFile("proteins", ".fasta");
+        fasta.deleteOnExit();
+        final DeflineCache cache = new DeflineCache(1000);
+
+        final DeflineCache.Deflines deflines = cache.get(fasta, DEFLINE_PATTERN, Defline.Format.PROTEIN).get();
+        final Defline first = deflines.parse(String.format(DEFLINE, 1, 1));
+        final Defline second = deflines.parse(String.format(DEFLINE, 2, 2));
+        Assert.assertEquals("gene1-t1", first.getSourceId());
+        Assert.assertEquals("Plasmodium falciparum 3D7", first.getOrganism());
+        Assert.assertSame(first.getOrganism(), second.getOrganism());
+        Assert.assertNull(deflines.parse(">not a defline"));
+
+        Assert.assertSame(first, cache.get(fasta, DEFLINE_PATTERN, Defline.Format.PROTEIN).get()
+            .parse(String.format(DEFLINE, 1, 1)));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(3, cache.getMisses());
+        Assert.assertEquals(2, cache.getSize());
+
+        Files.write(fasta.toPath(), String.format(DEFLINE, 1, 1).getBytes());
+        final Defline reparsed = cache.get(fasta, DEFLINE_PATTERN, Defline.Format.PROTEIN).get()
+            .parse(String.format(DEFLINE, 1, 1));
+        Assert.assertEquals("gene1-t1", reparsed.getSourceId());
+        Assert.assertEquals(4, cache.getMisses());
+        Assert.assertEquals(1, cache.getSize());
+    }
+
+    /**
+     * Verifies that the cache evicts the least recently searched datasets to stay within its bound.
+     */
+    @Test
+    public void testBound() throws Exception {
+        final File a = File.createTempFile("first", ".fasta");
+        final File b = File.createTempFile("second", ".fasta");
+        a.deleteOnExit();
+        b.deleteOnExit();
+        final DeflineCache cache = new DeflineCache(3);
+
+        final DeflineCache.Deflines deflinesA = cache.get(a, DEFLINE_PATTERN, Defline.Format.PROTEIN).get();
+        deflinesA.parse(String.format(DEFLINE, 1, 1));
+        deflinesA.parse(String.format(DEFLINE, 2, 2));
+        final DeflineCache.Deflines deflinesB = cache.get(b, DEFLINE_PATTERN, Defline.Format.PROTEIN).get();
+        deflinesB.parse(String.format(DEFLINE, 3, 3));
+        Assert.assertEquals(3, cache.getSize());
+        deflinesB.parse(String.format(DEFLINE, 4, 4));
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(2, cache.getSize());
+
+        // the first dataset was evicted, so its deflines are parsed again
+        Assert.assertNotSame(deflinesA, cache.get(a, DEFLINE_PATTERN, Defline.Format.PROTEIN).get());
+        final DeflineCache.Deflines readded = cache.get(a, DEFLINE_PATTERN, Defline.Format.PROTEIN).get();
+        readded.parse(String.format(DEFLINE, 1, 1));
+        readded.parse(String.format(DEFLINE, 1, 1));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(3, cache.getSize());
+
+        Assert.assertFalse(new DeflineCache(0).get(a, DEFLINE_PATTERN, Defline.Format.PROTEIN).isPresent());
+    }
+
+    /**
+     * Verifies that a finder searching a proteome again takes its deflines from the shared cache, with the same
+     * matches, and that the projects of a search are looked up once per organism.
+     */
+    @Test
+    public void testFinderAndProjectLookup() throws Exception {
+        final File proteome = SyntheticSequences.writeProteome(5, 200, 300);
+        final MotifConfig config = new MotifConfig(new Properties(), ProteinMotifPlugin.FIELD_REGEX,
+            AAMotifPlugin.DEFAULT_REGEX);
+        final Pattern pattern = Pattern.compile("CC");
+        final DeflineCache cache = DeflineCache.getInstance(config);
+        final int[] lookups = new int[1];
+        final ProjectLookup projects = new ProjectLookup(organism -> {
+            lookups[0]++;
+            return "PlasmoDB";
+        });
+
+        final List<String> first = new ArrayList<>();
+        new AAMatchFinder(config).findMatches(proteome, pattern, m -> first.add(m.sourceId + "|" + m.locations),
+            projects);
+        final long hits = cache.getHits();
+        final List<String> second = new ArrayList<>();
+        new AAMatchFinder(config).findMatches(proteome, pattern, m -> second.add(m.sourceId + "|" + m.locations),
+            projects);
+        Assert.assertTrue(first.size() > 0);
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(hits + 200, cache.getHits());
+        Assert.assertEquals(1, lookups[0]);
+    }
+
+    @Test
+    public void testStringTable() {
+        final StringTable table = new StringTable(2);
+        final String a = table.get(new String("a"));
+        Assert.assertSame(a, table.get(new String("a")));
+        table.get("b");
+        final String c = new String("c");
+        Assert.assertSame(c, table.get(c));
+        Assert.assertEquals(2, table.size());
+        Assert.assertNull(table.get(null));
+    }
+}
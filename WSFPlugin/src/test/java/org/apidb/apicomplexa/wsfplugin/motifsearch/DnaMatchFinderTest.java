@@ -0,0 +1,344 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.ReverseComplement;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.exception.UnsupportedMotifException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class DnaMatchFinderTest {
+
+    private static final String DEFLINE = ">%s | strand=(%s) | organism=Plasmodium_falciparum_3D7 | length=%d";
+
+    /**
+     * Writes forward strands followed by their reverse strands, and verifies that searching both strands of the
+     * forward strands reports the hits of scanning each strand separately, in every scan mode.
+     */
+    @Test
+    public void testBothStrands() throws Exception {
+        final File fasta = File.createTempFile("strands", ".fasta");
+        fasta.deleteOnExit();
+        final Random random = new Random(8);
+        final List<String> forward = new ArrayList<>();
+        final StringBuilder content = new StringBuilder();
+        final int[] lengths = { 100000, 7, 30000 };
+        for (int i = 0; i < lengths.length; i++) {
+            final StringBuilder sequence = new StringBuilder();
+            for (int j = 0; j < lengths[i]; j++) {
+                sequence.append(random.nextInt(100) == 0 ? 'N' : "ACGT".charAt(random.nextInt(4)));
+            }
+            forward.add(sequence.toString());
+            content.append(String.format(DEFLINE, "seq" + i, "+", lengths[i])).append('\n').append(sequence).append('\n');
+        }
+        for (int i = 0; i < lengths.length; i++) {
+            content.append(String.format(DEFLINE, "seq" + i, "-", lengths[i])).append('\n')
+                .append(ReverseComplement.of(forward.get(i))).append('\n');
+        }
+        Files.write(fasta.toPath(), content.toString().getBytes());
+        PackedGenome.write(fasta);
+
+        final Pattern pattern = AbstractMotifPlugin.translateExpression("GAT[AT]NCA", DnaMotifPlugin.SYMBOL_MAP);
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < forward.size(); i++) {
+            expected.addAll(strandMatches(pattern, "seq" + i, forward.get(i), "f"));
+            expected.addAll(strandMatches(pattern, "seq" + i, ReverseComplement.of(forward.get(i)), "r"));
+        }
+        Assert.assertTrue(expected.size() > 50);
+        // reverse strand rows are passed on as they are found where the length of the sequence is known up front,
+        // and after the forward strand rows where it is not
+        expected.sort(null);
+
+        for (MotifConfig.DnaScanMode mode : MotifConfig.DnaScanMode.values()) {
+            final Properties properties = new Properties();
+            properties.setProperty(MotifConfig.FIELD_BOTH_STRANDS, "true");
+            properties.setProperty(MotifConfig.FIELD_CONTEXT_LENGTH, "10");
+            properties.setProperty(MotifConfig.FIELD_DNA_SCAN_MODE, mode.name());
+            final MotifConfig config = new MotifConfig(properties, DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+            final List<String> actual = new ArrayList<>();
+            new DnaMotifPlugin().getMatchFinder(config).findMatches(fasta, pattern, m -> actual.add(describe(m)), org -> "PlasmoDB");
+            actual.sort(null);
+            Assert.assertEquals(mode.name(), expected, actual);
+        }
+    }
+
+    /**
+     * Verifies that the matches of a DNA scan are passed on unformatted, and formatted by the thread writing their
+     * rows.
+     */
+    @Test
+    public void testRowsFormattedByWriter() throws Exception {
+        final File fasta = File.createTempFile("rows", ".fasta");
+        fasta.deleteOnExit();
+        Files.write(fasta.toPath(), (String.format(DEFLINE, "seq1", "+", 16) + "\nCCGATTACCTAATCGG\n").getBytes());
+        final Properties properties = new Properties();
+        properties.setProperty(MotifConfig.FIELD_BOTH_STRANDS, "true");
+        properties.setProperty(MotifConfig.FIELD_CONTEXT_LENGTH, "2");
+        final MotifConfig config = new MotifConfig(properties, DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+        final Thread scanner = Thread.currentThread();
+        final List<String> rows = new ArrayList<>();
+        try (RowWriter writer = new RowWriter(256, match -> {
+            Assert.assertFalse(scanner == Thread.currentThread());
+            rows.add(describe(match));
+        })) {
+            new DnaMatchFinder(config).findMatches(fasta, Pattern.compile("GATTA"), match -> {
+                Assert.assertTrue(match.hasRow());
+                Assert.assertNull(match.sourceId);
+                Assert.assertNull(match.sequence);
+                writer.accept(match);
+            }, org -> "PlasmoDB");
+            writer.finish();
+        }
+        Assert.assertEquals(List.of(
+            "seq1:3-7:f|PlasmoDB|3-7|...CC<span class=\"motif\">GATTA</span>CC...|[GATTA]",
+            "seq1:3-7:r|PlasmoDB|3-7|...CC<span class=\"motif\">GATTA</span>GG...|[GATTA]"), rows);
+    }
+
+    /**
+     * Verifies that searching a panel of patterns together reports, for each pattern, the matches of searching it
+     * alone, tagged with its index, in every scan mode.
+     */
+    @Test
+    public void testPatternPanel() throws Exception {
+        final File fasta = new SyntheticSequences(SyntheticSequences.Type.DNA).seed(3).sequences(4)
+            .lengths(1000, 150000).plant("TTAGGGTTAGGG", 0.05).write();
+        final String[] expressions = { "GATC", "GAT[AT]NCA", "TTAGGG", "C{3,}G", "[AT]{9}", "GGGTTAGGG" };
+        final List<Pattern> patterns = new ArrayList<>();
+        for (String expression : expressions) {
+            patterns.add(AbstractMotifPlugin.translateExpression(expression, DnaMotifPlugin.SYMBOL_MAP));
+        }
+
+        for (MotifConfig.DnaScanMode mode : MotifConfig.DnaScanMode.values()) {
+            final Properties properties = new Properties();
+            properties.setProperty(MotifConfig.FIELD_BOTH_STRANDS, "true");
+            properties.setProperty(MotifConfig.FIELD_DNA_SCAN_MODE, mode.name());
+            final MotifConfig config = new MotifConfig(properties, DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+            final AbstractMotifPlugin.MatchFinder finder = new DnaMotifPlugin().getMatchFinder(config);
+            final List<List<String>> actual = new ArrayList<>();
+            for (int i = 0; i < patterns.size(); i++) actual.add(new ArrayList<>());
+            finder.findMatches(fasta, patterns, m -> actual.get(m.patternIndex).add(describe(m)), org -> "PlasmoDB");
+            for (int i = 0; i < patterns.size(); i++) {
+                final List<String> expected = new ArrayList<>();
+                finder.findMatches(fasta, patterns.get(i), m -> expected.add(describe(m)), org -> "PlasmoDB");
+                Assert.assertTrue(expressions[i], expected.size() > 0);
+                // a pattern alone is matched against addressable sequences one strand after the other, and a panel of
+                // them window by window
+                expected.sort(null);
+                actual.get(i).sort(null);
+                Assert.assertEquals(mode.name() + " " + expressions[i], expected, actual.get(i));
+            }
+        }
+    }
+
+    /**
+     * Verifies that the matches of a panel of patterns are passed on as they are found, long before the end of the
+     * sequence is read, and so are those on the reverse strand if the length of the sequence is known up front.
+     */
+    @Test
+    public void testPatternPanelStreamed() throws Exception {
+        final Random random = new Random(10);
+        final StringBuilder sequence = new StringBuilder();
+        for (int i = 0; i < 1 << 20; i++) {
+            sequence.append("ACGT".charAt(random.nextInt(4)));
+        }
+        final List<Pattern> patterns = new ArrayList<>();
+        for (String expression : new String[] { "GATC", "TTAGGG" }) {
+            patterns.add(AbstractMotifPlugin.translateExpression(expression, DnaMotifPlugin.SYMBOL_MAP));
+        }
+        final Properties properties = new Properties();
+        properties.setProperty(MotifConfig.FIELD_BOTH_STRANDS, "true");
+        final MotifConfig config = new MotifConfig(properties, DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+
+        final List<List<String>> rows = new ArrayList<>();
+        for (int sequenceLength : new int[] { -1, sequence.length() }) {
+            final int[] read = new int[1];
+            final Reader reader = new FilterReader(new StringReader(sequence.toString())) {
+                @Override
+                public int read(char[] cbuf, int off, int len) throws IOException {
+                    final int n = super.read(cbuf, off, len);
+                    read[0] += Math.max(0, n);
+                    return n;
+                }
+            };
+            // characters read by the first match of each pattern on each strand
+            final Map<String, Integer> readAtFirstMatch = new LinkedHashMap<>();
+            final List<String> sequenceRows = new ArrayList<>();
+            new DnaMatchFinder(config).matchSequence(new Defline("seq1", "Plasmodium_falciparum_3D7", "+"), patterns,
+                reader, sequenceLength, m -> {
+                    final String row = describe(m);
+                    readAtFirstMatch.putIfAbsent(m.patternIndex + m.sourceId.substring(m.sourceId.length() - 2),
+                        read[0]);
+                    sequenceRows.add(m.patternIndex + "|" + row);
+                }, org -> "PlasmoDB");
+            Assert.assertEquals(sequence.length(), read[0]);
+            Assert.assertEquals(4, readAtFirstMatch.size());
+            for (Map.Entry<String, Integer> first : readAtFirstMatch.entrySet()) {
+                final boolean streamed = sequenceLength != -1 || !first.getKey().endsWith(":r");
+                Assert.assertEquals(first.getKey() + " after " + first.getValue() + " characters", streamed,
+                    first.getValue() < sequence.length() / 4);
+            }
+            sequenceRows.sort(null);
+            rows.add(sequenceRows);
+        }
+        Assert.assertEquals(rows.get(0), rows.get(1));
+    }
+
+    /**
+     * Verifies that counting matches reports the number of matches of each sequence, and that a search with a limit
+     * stops after the first rows of the full search.
+     */
+    @Test
+    public void testCountAndLimit() throws Exception {
+        final File fasta = new SyntheticSequences(SyntheticSequences.Type.DNA).seed(4).sequences(3)
+            .lengths(20000, 100000).write();
+        final Pattern pattern = AbstractMotifPlugin.translateExpression("ATATAT", DnaMotifPlugin.SYMBOL_MAP);
+        for (boolean bothStrands : new boolean[] { false, true }) {
+            final Properties properties = new Properties();
+            properties.setProperty(MotifConfig.FIELD_BOTH_STRANDS, Boolean.toString(bothStrands));
+            final MotifConfig config = new MotifConfig(properties, DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+            final DnaMatchFinder finder = new DnaMatchFinder(config);
+
+            final List<String> matches = new ArrayList<>();
+            final Map<String, Integer> expected = new LinkedHashMap<>();
+            finder.findMatches(fasta, pattern, m -> {
+                // matches on reverse strand sequences are not reported
+                if (!m.hasRow()) return;
+                matches.add(describe(m));
+                expected.merge(m.sequenceId, 1, Integer::sum);
+            }, org -> "PlasmoDB");
+            final Map<String, Integer> counts = new LinkedHashMap<>();
+            finder.countMatches(fasta, pattern, m -> {
+                Assert.assertEquals("", m.sequence);
+                counts.put(m.sourceId, m.matchCount);
+            }, org -> "PlasmoDB");
+            Assert.assertEquals(3, counts.size());
+            Assert.assertEquals(expected, counts);
+
+            final List<String> limited = new ArrayList<>();
+            try {
+                finder.findMatches(fasta, pattern, new MatchLimit(matches.size() / 2).limit(m -> limited.add(describe(m))),
+                    org -> "PlasmoDB");
+                Assert.fail("the search should stop at the limit");
+            }
+            catch (MatchLimit.ReachedException e) {
+                Assert.assertEquals(matches.subList(0, matches.size() / 2), limited);
+            }
+        }
+    }
+
+    /**
+     * Verifies that a streaming scan holding a scan permit hands it back around each read of its file, plain or
+     * compressed, and holds it again once the scan is over, with the same matches as an unlimited scan.
+     */
+    @Test
+    public void testScanPermits() throws Exception {
+        final File genome = SyntheticSequences.writeGenome(13, 2, 300000);
+        final File compressed = new File(genome.getPath() + ".gz");
+        compressed.deleteOnExit();
+        BgzfFile.getIndexFile(compressed).deleteOnExit();
+        BgzfFile.compress(genome, compressed);
+        final MotifConfig config = new MotifConfig(new Properties(), DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+        final Pattern pattern = AbstractMotifPlugin.translateExpression("GGATNC", DnaMotifPlugin.SYMBOL_MAP);
+        final List<String> expected = new ArrayList<>();
+        new DnaMatchFinder(config, new GenomeCache(0)).findMatches(genome, pattern, m -> expected.add(describe(m)),
+            org -> "PlasmoDB");
+
+        for (File file : new File[] { genome, compressed }) {
+            final AtomicInteger releases = new AtomicInteger();
+            final Semaphore permits = new Semaphore(1) {
+                @Override
+                public void release() {
+                    Assert.assertEquals(0, availablePermits());
+                    releases.incrementAndGet();
+                    super.release();
+                }
+            };
+            final ScanPermit permit = new ScanPermit(permits);
+            permit.acquire();
+            final DnaMatchFinder finder = new DnaMatchFinder(config, new GenomeCache(0));
+            finder.setScanPermit(permit);
+            final List<String> actual = new ArrayList<>();
+            finder.findMatches(file, pattern, m -> actual.add(describe(m)), org -> "PlasmoDB");
+            Assert.assertEquals(expected, actual);
+            Assert.assertEquals(0, permits.availablePermits());
+            // a read fills the 64 KB buffer of the reader
+            Assert.assertTrue(releases.get() + " releases", releases.get() >= genome.length() / 65536);
+            permit.close();
+            Assert.assertEquals(1, permits.availablePermits());
+        }
+    }
+
+    /**
+     * Verifies that a permit is only handed back by the scan holding it, so a scan interrupted while waiting for a
+     * permit does not return one.
+     */
+    @Test
+    public void testScanPermitInterrupted() throws Exception {
+        final Semaphore permits = new Semaphore(1);
+        final ScanPermit holder = new ScanPermit(permits);
+        holder.acquire();
+        final ScanPermit waiter = new ScanPermit(permits);
+        Thread.currentThread().interrupt();
+        try {
+            waiter.acquire();
+            Assert.fail("the wait for a permit was not interrupted");
+        }
+        catch (InterruptedException e) {
+            // expected
+        }
+        waiter.close();
+        Assert.assertEquals(0, permits.availablePermits());
+        holder.close();
+        holder.close();
+        Assert.assertEquals(1, permits.availablePermits());
+    }
+
+    @Test(expected = UnsupportedMotifException.class)
+    public void testIrreversibleMotif() throws Exception {
+        final File fasta = File.createTempFile("strands", ".fasta");
+        fasta.deleteOnExit();
+        Files.write(fasta.toPath(), String.format(DEFLINE + "\nGATC\n", "seq", "+", 4).getBytes());
+        final Properties properties = new Properties();
+        properties.setProperty(MotifConfig.FIELD_BOTH_STRANDS, "true");
+        final MotifConfig config = new MotifConfig(properties, DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+        new DnaMatchFinder(config).findMatches(fasta, Pattern.compile("(GA)\\1"), m -> {}, org -> "PlasmoDB");
+    }
+
+    /**
+     * Matches of a scan of one strand, as they would be reported by a forward scan of it
+     */
+    private static List<String> strandMatches(Pattern pattern, String sequenceId, String strand, String strandCode) {
+        final List<String> matches = new ArrayList<>();
+        final Matcher matcher = pattern.matcher(strand);
+        while (matcher.find()) {
+            final PluginMatch match = new PluginMatch(matcher.start(), matcher.end(), "PlasmoDB", sequenceId, 1, "f",
+                strand.substring(Math.max(0, matcher.start() - 10), matcher.start()),
+                strand.substring(matcher.end(), Math.min(strand.length(), matcher.end() + 10)),
+                matcher.group());
+            match.sourceId = sequenceId + ":" + match.locations + ":" + strandCode;
+            matches.add(describe(match));
+        }
+        return matches;
+    }
+
+    private static String describe(PluginMatch match) {
+        match.format();
+        return match.sourceId + "|" + match.projectId + "|" + match.locations + "|" + match.sequence + "|"
+            + match.matchSequences;
+    }
+}
@@ -0,0 +1,97 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+public class FastaIndexTest {
+
+    private static final String MALFORMED = ">not a valid defline\nGGATCC\n";
+
+    private static final String FASTA =
+        ">gb|chr1 | strand=(+) | organism=Toxoplasma_gondii_ME49 | length=14\n" +
+        "GGATCCAA\nTTGGAT\n" +
+        MALFORMED +
+        ">gb|chr2 | strand=(-) | organism=Toxoplasma_gondii_ME49 | length=12\n" +
+        "AAGGA\nTCCAAG\nG\n";
+
+    @Test
+    public void testWriteAndLoad() throws Exception {
+        final File fasta = writeFasta(FASTA);
+        final Pattern pattern = Pattern.compile(DnaMotifPlugin.DEFAULT_REGEX);
+        FastaIndex.build(fasta, pattern, Defline.Format.DNA).write();
+
+        final Optional<FastaIndex> index = FastaIndex.load(fasta, pattern, Defline.Format.DNA);
+        Assert.assertTrue(index.isPresent());
+        Assert.assertEquals(3, index.get().getRanges().size());
+        final SequenceRange first = index.get().getRanges().get(0);
+        Assert.assertEquals(14, first.getLength());
+        Assert.assertEquals(8, first.getLineWidth());
+        Assert.assertEquals(0, index.get().getRanges().get(2).getLineWidth());
+        final Defline defline = index.get().getDeflines().get(0);
+        Assert.assertEquals("chr1", defline.getSourceId());
+        Assert.assertEquals("Toxoplasma gondii ME49", defline.getOrganism());
+        Assert.assertEquals("+", defline.getStrand());
+        Assert.assertNull(index.get().getDeflines().get(1));
+
+        // an index built with another regex or for an older file is not used
+        Assert.assertFalse(FastaIndex.load(fasta, Pattern.compile(">(\\S+)"), Defline.Format.DNA).isPresent());
+        Assert.assertTrue(fasta.setLastModified(fasta.lastModified() - 10000));
+        Assert.assertFalse(FastaIndex.load(fasta, pattern, Defline.Format.DNA).isPresent());
+    }
+
+    /**
+     * Verifies that the DNA finders report the same matches whether or not the dataset is indexed, and that they fail
+     * on a sequence whose defline the index could not parse.
+     */
+    @Test
+    public void testFindersUseIndex() throws Exception {
+        final File fasta = writeFasta(FASTA.replace(MALFORMED, ""));
+        final MotifConfig config = new MotifConfig(new Properties(), DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+        final Pattern pattern = AbstractMotifPlugin.translateExpression("GGATCC", DnaMotifPlugin.SYMBOL_MAP);
+        final List<String> expected = findMatches(new DnaMatchFinder(config), fasta, pattern);
+        Assert.assertEquals(1, expected.size());
+
+        FastaIndex.build(fasta, config.getDeflinePattern(), Defline.Format.DNA).write();
+        Assert.assertEquals(expected, findMatches(new DnaMatchFinder(config), fasta, pattern));
+        Assert.assertEquals(expected, findMatches(new ShardedDnaMatchFinder(config), fasta, pattern));
+        Assert.assertEquals(1, findMatches(new MappedDnaMatchFinder(config), fasta, pattern).size());
+
+        final File malformed = writeFasta(FASTA);
+        FastaIndex.build(malformed, config.getDeflinePattern(), Defline.Format.DNA).write();
+        for (AbstractMotifPlugin.MatchFinder finder : new AbstractMotifPlugin.MatchFinder[] {
+                new DnaMatchFinder(config), new ShardedDnaMatchFinder(config), new MappedDnaMatchFinder(config) }) {
+            try {
+                findMatches(finder, malformed, pattern);
+                Assert.fail(finder.getClass().getSimpleName() + " searched a file with a malformed defline");
+            }
+            catch (RuntimeException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Cannot read definition line >not a valid"));
+            }
+        }
+    }
+
+    private static File writeFasta(String content) throws Exception {
+        final File fasta = File.createTempFile("indexed", ".fasta");
+        fasta.deleteOnExit();
+        FastaIndex.getIndexFile(fasta).deleteOnExit();
+        Files.write(fasta.toPath(), content.getBytes());
+        return fasta;
+    }
+
+    private static List<String> findMatches(AbstractMotifPlugin.MatchFinder finder, File fasta, Pattern pattern)
+            throws Exception {
+        final List<String> matches = new ArrayList<>();
+        finder.findMatches(fasta, pattern, match -> {
+            if (match.hasRow()) matches.add(match.format().sourceId + "|" + match.sequence);
+        }, org -> "ToxoDB");
+        return matches;
+    }
+}
@@ -0,0 +1,164 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+public class GenomeCacheTest {
+
+    /**
+     * Verifies that the cache holds the content of the files, evicts the least recently used ones to stay within
+     * its bound, rejects files larger than the bound and reads a file again once it changes.
+     */
+    @Test
+    public void testBoundAndEviction() throws Exception {
+        final File a = writeFile(1000, 'A');
+        final File b = writeFile(1000, 'C');
+        final File c = writeFile(1000, 'G');
+        final File large = writeFile(3000, 'T');
+        final GenomeCache cache = new GenomeCache(2500);
+
+        try (GenomeCache.Content lease = cache.get(a).get()) {
+            final ByteBuffer content = lease.getBuffer();
+            Assert.assertTrue(content.isDirect());
+            Assert.assertTrue(content.isReadOnly());
+            final byte[] bytes = new byte[content.remaining()];
+            content.get(bytes);
+            Assert.assertArrayEquals(Files.readAllBytes(a.toPath()), bytes);
+        }
+
+        read(cache, b);
+        read(cache, a);
+        read(cache, c);
+        Assert.assertEquals(3, cache.getMisses());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(2000, cache.getBytes());
+
+        // b was the least recently used, so it was evicted
+        read(cache, a);
+        Assert.assertEquals(2, cache.getHits());
+        read(cache, b);
+        Assert.assertEquals(4, cache.getMisses());
+
+        Assert.assertFalse(cache.get(large).isPresent());
+        Assert.assertEquals(1, cache.getRejections());
+        Assert.assertTrue(cache.getBytes() <= 2500);
+
+        // a new release of a dataset is read again
+        Files.write(b.toPath(), new byte[1200]);
+        Assert.assertTrue(b.setLastModified(b.lastModified() + 5000));
+        Assert.assertEquals(1200, read(cache, b));
+        Assert.assertEquals(5, cache.getMisses());
+        Assert.assertTrue(cache.getBytes() <= 2500);
+
+        Assert.assertFalse(new GenomeCache(0).get(a).isPresent());
+    }
+
+    /**
+     * Verifies that leased content is not evicted, and that replaced content counts against the bound until its
+     * lease is closed.
+     */
+    @Test
+    public void testLeasedContentKept() throws Exception {
+        final File a = writeFile(1000, 'A');
+        final File b = writeFile(1000, 'C');
+        final File c = writeFile(1000, 'G');
+        final GenomeCache cache = new GenomeCache(2500);
+
+        // a is the least recently used, but leased, so b is evicted to make room for c
+        final GenomeCache.Content leaseA = cache.get(a).get();
+        read(cache, b);
+        read(cache, c);
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(1000, read(cache, a));
+        Assert.assertEquals(1, cache.getHits());
+
+        // a new release of a replaces the old one, which is still leased, as is c, so there is no room for it
+        final GenomeCache.Content leaseC = cache.get(c).get();
+        Files.write(a.toPath(), new byte[1200]);
+        Assert.assertTrue(a.setLastModified(a.lastModified() + 5000));
+        Assert.assertFalse(cache.get(a).isPresent());
+        Assert.assertEquals(1, cache.getRejections());
+        Assert.assertEquals(2000, cache.getBytes());
+        Assert.assertEquals(1000, leaseA.getBuffer().remaining());
+
+        leaseA.close();
+        leaseA.close();
+        Assert.assertEquals(1000, cache.getBytes());
+        Assert.assertEquals(1200, read(cache, a));
+        Assert.assertEquals(2200, cache.getBytes());
+        leaseC.close();
+    }
+
+    /**
+     * Verifies that the DNA finders scanning cached genomes, plain and compressed, report exactly the matches of
+     * streaming the dataset file.
+     */
+    @Test
+    public void testSameMatchesAsStreaming() throws Exception {
+        final File genome = SyntheticSequences.writeGenome(11, 3, 120000);
+        final File compressed = new File(genome.getPath() + ".gz");
+        compressed.deleteOnExit();
+        BgzfFile.getIndexFile(compressed).deleteOnExit();
+        BgzfFile.compress(genome, compressed);
+
+        final Properties properties = new Properties();
+        properties.setProperty(MotifConfig.FIELD_SEQUENCE_PARALLELISM, "3");
+        properties.setProperty(MotifConfig.FIELD_BOTH_STRANDS, "true");
+        final MotifConfig config = new MotifConfig(properties, DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+        final List<Pattern> patterns = Arrays.asList(
+            AbstractMotifPlugin.translateExpression("GGATNC", DnaMotifPlugin.SYMBOL_MAP),
+            AbstractMotifPlugin.translateExpression("TATA(A){2,4}", DnaMotifPlugin.SYMBOL_MAP));
+        final List<String> expected = new ArrayList<>();
+        new DnaMatchFinder(config, new GenomeCache(0)).findMatches(genome, patterns, m -> expected.add(describe(m)),
+            org -> "PlasmoDB");
+        Assert.assertTrue(expected.size() > 100);
+        // reverse strand rows are passed on as they are found where the length of a sequence is known up front
+        expected.sort(null);
+
+        final GenomeCache cache = new GenomeCache(1L << 30);
+        for (File file : new File[] { genome, compressed }) {
+            for (DnaMatchFinder finder : new DnaMatchFinder[] { new DnaMatchFinder(config, cache),
+                new ShardedDnaMatchFinder(config, cache), new MappedDnaMatchFinder(config, cache) }) {
+                final List<String> actual = new ArrayList<>();
+                finder.findMatches(file, patterns, m -> actual.add(describe(m)), org -> "PlasmoDB");
+                actual.sort(null);
+                Assert.assertEquals(finder.getClass().getSimpleName(), expected, actual);
+            }
+        }
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(4, cache.getHits());
+    }
+
+    /**
+     * @return size of the cached content of the file, whose lease is closed right away
+     */
+    private static int read(GenomeCache cache, File file) throws Exception {
+        try (GenomeCache.Content lease = cache.get(file).get()) {
+            return lease.getBuffer().remaining();
+        }
+    }
+
+    private static File writeFile(int length, char base) throws Exception {
+        final File file = File.createTempFile("genome", ".fasta");
+        file.deleteOnExit();
+        final char[] bases = new char[length - 3];
+        Arrays.fill(bases, base);
+        Files.write(file.toPath(), (">s\n" + new String(bases)).getBytes());
+        return file;
+    }
+
+    private static String describe(PluginMatch match) {
+        match.format();
+        return match.patternIndex + "|" + match.sourceId + "|" + match.locations + "|" + match.sequence;
+    }
+}
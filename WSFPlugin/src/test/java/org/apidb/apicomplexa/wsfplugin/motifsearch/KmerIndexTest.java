@@ -0,0 +1,108 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.SyntheticSequences.Type;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+public class KmerIndexTest {
+
+    private static final String FASTA =
+        ">p0 | transcript=t0 | organism=Plasmodium_falciparum_3D7\n" +
+        "MKWHEATLLN\nGS\n" +
+        ">p1 | transcript=t1 | organism=Plasmodium_falciparum_3D7\n" +
+        "MKWHQATLLNGSCC\n" +
+        ">p2 | transcript=t2 | organism=Plasmodium_falciparum_3D7\n" +
+        "mkwheatxccw\n";
+
+    @Test
+    public void testCandidates() throws Exception {
+        final File fasta = File.createTempFile("kmers", ".fasta");
+        fasta.deleteOnExit();
+        Files.write(fasta.toPath(), FASTA.getBytes());
+        final KmerIndex index = writeIndexes(fasta, AAMotifPlugin.DEFAULT_REGEX);
+
+        Assert.assertEquals(bits(0, 2), candidates(index, "WHEAT"));
+        Assert.assertEquals(bits(0, 1, 2), candidates(index, "WH[EQ]AT"));
+        // k-mers spanning a line break, and factors around a variable-length gap
+        Assert.assertEquals(bits(0, 1), candidates(index, "LLNGS"));
+        Assert.assertEquals(bits(2), candidates(index, "MKW.{2,8}CCW"));
+        Assert.assertEquals(bits(0, 1), candidates(index, "TL{2,}NGS"));
+        Assert.assertEquals(bits(), candidates(index, "WHEEL"));
+        // nothing to look up: every sequence has to be scanned
+        Assert.assertFalse(index.getCandidates(Pattern.compile("W.A", Pattern.CASE_INSENSITIVE)).isPresent());
+        Assert.assertFalse(index.getCandidates(Pattern.compile("WHE|CCW", Pattern.CASE_INSENSITIVE)).isPresent());
+
+        // the index is not used once the dataset file changes
+        Assert.assertTrue(fasta.setLastModified(fasta.lastModified() - 10000));
+        final Pattern deflinePattern = Pattern.compile(AAMotifPlugin.DEFAULT_REGEX);
+        FastaIndex.build(fasta, deflinePattern, Defline.Format.PROTEIN).write();
+        Assert.assertFalse(KmerIndex.load(FastaIndex.load(fasta, deflinePattern, Defline.Format.PROTEIN).get())
+            .isPresent());
+    }
+
+    /**
+     * Verifies that searches report the same matches whether or not the proteome has a k-mer index.
+     */
+    @Test
+    public void testSameMatchesAsFullScan() throws Exception {
+        final File fasta = new SyntheticSequences(Type.PROTEIN).seed(5).sequences(300).lengths(50, 1500).write();
+        final MotifConfig config = new MotifConfig(new Properties(), ProteinMotifPlugin.FIELD_REGEX,
+            AAMotifPlugin.DEFAULT_REGEX);
+        final ProteinMotifPlugin plugin = new ProteinMotifPlugin();
+        final String[] expressions = { "WH0A", "C..C.{10,20}H..H", "N[^P][ST]", "(KR){2,}W", "M(WHE|CC)" };
+        final List<List<String>> expected = new ArrayList<>();
+        for (String expression : expressions) {
+            expected.add(findMatches(config, fasta, AbstractMotifPlugin.translateExpression(expression,
+                plugin.getSymbols())));
+        }
+
+        final KmerIndex index = writeIndexes(fasta, AAMotifPlugin.DEFAULT_REGEX);
+        for (int i = 0; i < expressions.length; i++) {
+            final Pattern pattern = AbstractMotifPlugin.translateExpression(expressions[i], plugin.getSymbols());
+            Assert.assertEquals(expressions[i], expected.get(i), findMatches(config, fasta, pattern));
+        }
+        Assert.assertTrue(expected.get(0).size() > 0);
+        final BitSet candidates = index.getCandidates(
+            AbstractMotifPlugin.translateExpression("WH0A", plugin.getSymbols())).get();
+        // every protein with a match is a candidate, and only a few without one are
+        Assert.assertTrue(candidates.cardinality() >= expected.get(0).size());
+        Assert.assertTrue(candidates.cardinality() < 300 / 4);
+    }
+
+    private static KmerIndex writeIndexes(File fasta, String regex) throws Exception {
+        FastaIndex.getIndexFile(fasta).deleteOnExit();
+        KmerIndex.getIndexFile(fasta).deleteOnExit();
+        final FastaIndex fastaIndex = FastaIndex.build(fasta, Pattern.compile(regex), Defline.Format.PROTEIN);
+        fastaIndex.write();
+        KmerIndex.write(fastaIndex);
+        final Optional<KmerIndex> index = KmerIndex.load(fastaIndex);
+        Assert.assertTrue(index.isPresent());
+        return index.get();
+    }
+
+    private static BitSet candidates(KmerIndex index, String regex) {
+        return index.getCandidates(Pattern.compile(regex, Pattern.CASE_INSENSITIVE)).get();
+    }
+
+    private static BitSet bits(int... indexes) {
+        final BitSet bits = new BitSet();
+        for (int index : indexes) bits.set(index);
+        return bits;
+    }
+
+    private static List<String> findMatches(MotifConfig config, File fasta, Pattern pattern) throws Exception {
+        final List<String> matches = new ArrayList<>();
+        new AAMatchFinder(config).findMatches(fasta, pattern, m -> matches.add(m.sourceId + "|" + m.matchCount + "|"
+            + m.locations + "|" + m.sequence), org -> "PlasmoDB");
+        return matches;
+    }
+}
@@ -0,0 +1,75 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.MappedSequenceProvider.MappedSequence;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+public class MappedSequenceProviderTest {
+
+    /**
+     * Reads sequences with fixed-width lines (viewed in place), ragged lines (compacted) and no data, and verifies
+     * that each is presented without newlines.
+     */
+    @Test
+    public void testSequencesWithoutNewlines() throws Exception {
+        final File fasta = File.createTempFile("mapped", ".fasta");
+        fasta.deleteOnExit();
+        Files.write(fasta.toPath(), (">fixed\nACGT\nACGT\nAC\n" +
+            ">ragged\nAC\nGTA\n\nC\n" +
+            ">empty\n" +
+            ">last\nTTTT\nGG").getBytes());
+
+        final List<MappedSequence> sequences = new ArrayList<>();
+        try (MappedSequenceProvider provider = new MappedSequenceProvider(fasta)) {
+            Optional<MappedSequence> sequence;
+            while ((sequence = provider.nextSequence()).isPresent()) {
+                sequences.add(sequence.get());
+            }
+        }
+
+        Assert.assertEquals(4, sequences.size());
+        Assert.assertEquals(">fixed", sequences.get(0).getDefline());
+        Assert.assertEquals("ACGTACGTAC", sequences.get(0).getSequence().toString());
+        Assert.assertEquals("GTAC", sequences.get(0).getSequence().subSequence(2, 6).toString());
+        Assert.assertEquals("ACGTAC", sequences.get(1).getSequence().toString());
+        Assert.assertEquals(0, sequences.get(2).getSequence().length());
+        Assert.assertEquals("TTTTGG", sequences.get(3).getSequence().toString());
+    }
+
+    /**
+     * Reads a file with CRLF line endings, with and without an index, and verifies that the carriage returns are
+     * not presented as sequence characters, and that the sequences mapped at indexed offsets are those scanned.
+     */
+    @Test
+    public void testCarriageReturns() throws Exception {
+        final File fasta = File.createTempFile("crlf", ".fasta");
+        fasta.deleteOnExit();
+        FastaIndex.getIndexFile(fasta).deleteOnExit();
+        Files.write(fasta.toPath(), (">p1 | transcript=t1 | organism=Plasmodium_falciparum_3D7\r\nMKWH\r\nEATL\r\nC\r\n" +
+            ">p2 | transcript=t2 | organism=Plasmodium_falciparum_3D7\r\nCC W\r\n").getBytes());
+
+        for (boolean indexed : new boolean[] { false, true }) {
+            if (indexed) {
+                FastaIndex.build(fasta, Pattern.compile(AAMotifPlugin.DEFAULT_REGEX), Defline.Format.PROTEIN).write();
+            }
+            final Optional<FastaIndex> index = FastaIndex.load(fasta, Pattern.compile(AAMotifPlugin.DEFAULT_REGEX),
+                Defline.Format.PROTEIN);
+            Assert.assertEquals(indexed, index.isPresent());
+            final List<String> sequences = new ArrayList<>();
+            try (MappedSequenceProvider provider = new MappedSequenceProvider(fasta, index)) {
+                Optional<MappedSequence> sequence;
+                while ((sequence = provider.nextSequence()).isPresent()) {
+                    sequences.add(sequence.get().getSequence().toString());
+                }
+            }
+            Assert.assertEquals(List.of("MKWHEATLC", "CCW"), sequences);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifMatch;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+public class MotifResultCacheTest {
+
+    @Test
+    public void testRoundTripThroughDisk() throws Exception {
+        final File dir = Files.createTempDirectory("matches").toFile();
+        final PluginMatch match = new PluginMatch();
+        match.sourceId = "gene1-t1";
+        match.projectId = "PlasmoDB";
+        match.locations = "(3-5), (9-11)";
+        match.matchCount = 2;
+        match.sequence = "AC<span class=\"motif\">DEF</span>...";
+        match.matchSequences.addAll(Arrays.asList("DEF", "DEG"));
+
+        final MotifResultCache cache = new MotifResultCache(1 << 20, Optional.of(dir), 1 << 20);
+        Assert.assertFalse(cache.get("key").isPresent());
+        final MotifResultCache.Recorder recorder = cache.newRecorder("key");
+        recorder.accept(match);
+        recorder.accept(match);
+        recorder.finish();
+        Assert.assertEquals(2, cache.get("key").get().size());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+
+        // a new cache, as after a restart, finds the matches on disk
+        final MotifResultCache restarted = new MotifResultCache(1 << 20, Optional.of(dir), 1 << 20);
+        final List<PluginMatch> matches = restarted.get("key").get();
+        Assert.assertEquals(1, restarted.getDiskHits());
+        Assert.assertEquals(describe(match), describe(matches.get(1)));
+        Assert.assertFalse(restarted.get("other").isPresent());
+    }
+
+    /**
+     * Verifies that DNA matches are recorded without being formatted, and are read back unformatted, to be formatted
+     * into the same rows by the writer.
+     */
+    @Test
+    public void testUnformattedMatches() throws Exception {
+        final MotifMatch forward = new MotifMatch.Builder().startPos(10).endPos(16).leadingContext("AC")
+            .match("GGATCC").trailingContext("TT").build();
+        final MotifMatch reverse = new MotifMatch.Builder().reversed(true).startPos(40).endPos(44)
+            .leadingContext("CA").match("GATC").trailingContext("AG").build();
+        final PluginMatch[] matches = {
+            PluginMatch.ofForwardMatch(forward, "ToxoDB", "chr1"),
+            PluginMatch.ofReverseMatch(reverse, 100, "ToxoDB", "chr1")
+        };
+
+        final MotifResultCache cache = new MotifResultCache(1 << 20, Optional.empty(), 0);
+        final MotifResultCache.Recorder recorder = cache.newRecorder("key");
+        for (PluginMatch match : matches) {
+            recorder.accept(match);
+            Assert.assertNotNull(match.getUnformattedMatch());
+        }
+        recorder.finish();
+
+        final List<PluginMatch> cached = cache.get("key").get();
+        Assert.assertEquals(matches.length, cached.size());
+        for (int i = 0; i < matches.length; i++) {
+            Assert.assertNotNull(cached.get(i).getUnformattedMatch());
+            Assert.assertEquals(describe(matches[i].format()), describe(cached.get(i).format()));
+        }
+    }
+
+    /**
+     * Verifies that matches found with a different maximum protein match length or regex step limit, which may
+     * truncate or stop a search, are cached under a different key.
+     */
+    @Test
+    public void testKeyIncludesLimits() throws Exception {
+        final File fasta = File.createTempFile("proteins", ".fasta");
+        fasta.deleteOnExit();
+        final Pattern pattern = Pattern.compile("WHW");
+        final Properties properties = new Properties();
+        final String key = MotifResultCache.key(ProteinMotifPlugin.class, pattern, fasta,
+            new MotifConfig(properties, ProteinMotifPlugin.FIELD_REGEX, AAMotifPlugin.DEFAULT_REGEX));
+
+        properties.setProperty(MotifConfig.FIELD_PROTEIN_MAX_MATCH_LENGTH, "50");
+        final String shorter = MotifResultCache.key(ProteinMotifPlugin.class, pattern, fasta,
+            new MotifConfig(properties, ProteinMotifPlugin.FIELD_REGEX, AAMotifPlugin.DEFAULT_REGEX));
+        Assert.assertFalse(key.equals(shorter));
+
+        properties.setProperty(MotifConfig.FIELD_REGEX_STEPS_PER_CHARACTER, "10");
+        final String limited = MotifResultCache.key(ProteinMotifPlugin.class, pattern, fasta,
+            new MotifConfig(properties, ProteinMotifPlugin.FIELD_REGEX, AAMotifPlugin.DEFAULT_REGEX));
+        Assert.assertFalse(shorter.equals(limited));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final MotifResultCache cache = new MotifResultCache(1 << 10, Optional.empty(), 0);
+        for (int i = 0; i < 100; i++) {
+            final PluginMatch match = new PluginMatch();
+            match.sourceId = "gene" + i;
+            final MotifResultCache.Recorder recorder = cache.newRecorder("key" + i);
+            recorder.accept(match);
+            recorder.finish();
+        }
+        Assert.assertTrue(cache.getEvictions() > 0);
+        Assert.assertTrue(cache.getMemoryBytes() <= 1 << 10);
+        Assert.assertTrue(cache.get("key99").isPresent());
+        Assert.assertFalse(cache.get("key0").isPresent());
+    }
+
+    @Test
+    public void testMonitorCounters() throws Exception {
+        final MotifResultCache cache = new MotifResultCache(1 << 20, Optional.empty(), 0);
+        final MotifSearchMonitor monitor = new MotifSearchMonitor();
+        Assert.assertEquals(0, monitor.getResultCacheMisses());
+        monitor.setResultCache(cache);
+        Assert.assertFalse(cache.get("key").isPresent());
+        final MotifResultCache.Recorder recorder = cache.newRecorder("key");
+        recorder.accept(PluginMatch.ofCount("gene1", "PlasmoDB", 1));
+        recorder.finish();
+        Assert.assertTrue(cache.get("key").isPresent());
+        Assert.assertEquals(1, monitor.getResultCacheHits());
+        Assert.assertEquals(1, monitor.getResultCacheMisses());
+        Assert.assertEquals(1, monitor.getResultCacheEntries());
+        Assert.assertEquals(cache.getMemoryBytes(), monitor.getResultCacheBytes());
+
+        // the counters are cleared, the entries kept
+        monitor.reset();
+        Assert.assertEquals(0, monitor.getResultCacheHits());
+        Assert.assertEquals(0, monitor.getResultCacheMisses());
+        Assert.assertEquals(1, monitor.getResultCacheEntries());
+    }
+
+    private static String describe(PluginMatch match) {
+        return match.sourceId + "|" + match.projectId + "|" + match.locations + "|" + match.matchCount + "|"
+            + match.sequence + "|" + match.sequenceId + "|" + match.matchSequences;
+    }
+}
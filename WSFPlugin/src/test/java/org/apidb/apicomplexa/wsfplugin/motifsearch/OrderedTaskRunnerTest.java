@@ -0,0 +1,161 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.gusdb.fgputil.functional.FunctionalInterfaces.ConsumerWithException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OrderedTaskRunnerTest {
+
+    /**
+     * Verifies that the results of tasks finishing in random order are consumed in task order.
+     */
+    @Test
+    public void testOrder() throws Exception {
+        final Random random = new Random(1);
+        final List<OrderedTaskRunner.Task<Integer>> tasks = new ArrayList<>();
+        final List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final int task = i;
+            final int delay = random.nextInt(20);
+            tasks.add(output -> {
+                for (int j = 0; j < 10; j++) {
+                    if (j == 5) Thread.sleep(delay);
+                    output.accept(task * 10 + j);
+                }
+            });
+            for (int j = 0; j < 10; j++) expected.add(i * 10 + j);
+        }
+        final List<Integer> actual = new ArrayList<>();
+        run(4, 3, tasks, actual::add);
+        Assert.assertEquals(expected, actual);
+    }
+
+    /**
+     * Verifies that the results of the task at the head of the order are consumed while it is still running, and
+     * that a task running ahead of it holds no more than the buffered results until its turn.
+     */
+    @Test
+    public void testHeadStreamedAndOthersBounded() throws Exception {
+        final CountDownLatch firstConsumed = new CountDownLatch(1);
+        final AtomicInteger producedAhead = new AtomicInteger();
+        final int[] heldAhead = new int[1];
+        final List<OrderedTaskRunner.Task<Integer>> tasks = new ArrayList<>();
+        tasks.add(output -> {
+            output.accept(0);
+            Assert.assertTrue(firstConsumed.await(10, TimeUnit.SECONDS));
+            while (producedAhead.get() < 5) Thread.sleep(1);
+            Thread.sleep(100);
+            heldAhead[0] = producedAhead.get();
+            output.accept(1);
+        });
+        tasks.add(output -> {
+            for (int i = 0; i < 100; i++) {
+                output.accept(100 + i);
+                producedAhead.incrementAndGet();
+            }
+        });
+        final List<Integer> actual = new ArrayList<>();
+        run(2, 5, tasks, result -> {
+            actual.add(result);
+            firstConsumed.countDown();
+        });
+        Assert.assertEquals(5, heldAhead[0]);
+        Assert.assertEquals(102, actual.size());
+        Assert.assertEquals(Integer.valueOf(1), actual.get(1));
+    }
+
+    /**
+     * Verifies that the exception of a task is thrown once the results produced before it are consumed, and that
+     * the tasks after it are cancelled.
+     */
+    @Test
+    public void testTaskFailure() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final List<OrderedTaskRunner.Task<Integer>> tasks = new ArrayList<>();
+        tasks.add(output -> output.accept(0));
+        tasks.add(output -> {
+            output.accept(1);
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            throw new IllegalStateException("failed");
+        });
+        tasks.add(blocking(started, cancelled));
+        final List<Integer> actual = new ArrayList<>();
+        try {
+            run(3, 2, tasks, actual::add);
+            Assert.fail("the task's exception was not thrown");
+        }
+        catch (IllegalStateException e) {
+            Assert.assertEquals("failed", e.getMessage());
+        }
+        Assert.assertEquals(List.of(0, 1), actual);
+        Assert.assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Verifies that the exception of the consumer is thrown, and that the running tasks are cancelled.
+     */
+    @Test
+    public void testConsumerFailure() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final List<OrderedTaskRunner.Task<Integer>> tasks = new ArrayList<>();
+        tasks.add(output -> output.accept(0));
+        tasks.add(blocking(started, cancelled));
+        try {
+            run(2, 2, tasks, result -> {
+                Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+                throw new MatchLimit.ReachedException(1);
+            });
+            Assert.fail("the consumer's exception was not thrown");
+        }
+        catch (MatchLimit.ReachedException e) {
+            // expected
+        }
+        Assert.assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * @return a task counting down the started latch, then producing results until it is cancelled, which counts
+     * down the cancelled latch
+     */
+    private static OrderedTaskRunner.Task<Integer> blocking(CountDownLatch started, CountDownLatch cancelled) {
+        return output -> {
+            started.countDown();
+            try {
+                for (int i = 0; ; i++) {
+                    output.accept(i);
+                }
+            }
+            catch (InterruptedException | CancellationException e) {
+                cancelled.countDown();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Runs the tasks on a pool of their own, checking that none of them is left running
+     */
+    private static void run(int maxInFlight, int maxBuffered, List<OrderedTaskRunner.Task<Integer>> tasks,
+            ConsumerWithException<Integer> consumer) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            OrderedTaskRunner.run(executor, maxInFlight, maxBuffered, tasks.iterator(), consumer);
+        }
+        finally {
+            executor.shutdown();
+            Assert.assertTrue("a task was left running", executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+}
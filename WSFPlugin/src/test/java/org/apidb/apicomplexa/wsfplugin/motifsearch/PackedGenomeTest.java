@@ -0,0 +1,148 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.BufferedDnaMotifFinder;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.MotifMatch;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.PackedDnaMotifFinder;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.PackedSequence;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+public class PackedGenomeTest {
+
+    private static final String[] EXPRESSIONS = {
+        "GGATCC", "RGATCY", "AT{3}N{2}C", "N{40}", "C.G", "[^A]TTA", "GA[CT]{2}", "NNNNNNNNNN",
+        // not scanned on the packed bases
+        "A+T", "(GA|TC)T", "G{2,4}C", "N{65}"
+    };
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final List<String> sequences = randomSequences(new Random(7));
+        final File fasta = writeFasta(sequences);
+        Assert.assertEquals(sequences.size(), PackedGenome.write(fasta));
+
+        try (PackedGenome genome = PackedGenome.open(fasta).get()) {
+            for (int i = 0; i < sequences.size(); i++) {
+                final PackedGenome.Entry entry = genome.nextSequence().get();
+                Assert.assertEquals(">seq" + i, entry.getDefline());
+                Assert.assertEquals(sequences.get(i), entry.getSequence().toString());
+                // random access after sequential access
+                if (!sequences.get(i).isEmpty()) {
+                    Assert.assertEquals(sequences.get(i).charAt(sequences.get(i).length() / 2),
+                        entry.getSequence().charAt(entry.getSequence().length() / 2));
+                }
+            }
+            Assert.assertFalse(genome.nextSequence().isPresent());
+        }
+
+        // a packed copy of an older version of the file is not used
+        Assert.assertTrue(fasta.setLastModified(fasta.lastModified() - 10000));
+        Assert.assertFalse(PackedGenome.open(fasta).isPresent());
+    }
+
+    /**
+     * Verifies that the packed scan finds the same matches, with the same context, as the regex engine.
+     */
+    @Test
+    public void testSameMatchesAsRegex() throws Exception {
+        final List<String> sequences = randomSequences(new Random(11));
+        final File fasta = writeFasta(sequences);
+        PackedGenome.write(fasta);
+        for (String expression : EXPRESSIONS) {
+            final Pattern pattern = AbstractMotifPlugin.translateExpression(expression, DnaMotifPlugin.SYMBOL_MAP);
+            final PackedDnaMotifFinder finder = new PackedDnaMotifFinder(pattern, 5, 1024);
+            Assert.assertEquals(expression, expression.indexOf('+') == -1 && expression.indexOf('(') == -1
+                && expression.indexOf(',') == -1 && !expression.equals("N{65}"), finder.isPackedScan());
+            try (PackedGenome genome = PackedGenome.open(fasta).get()) {
+                for (String sequence : sequences) {
+                    final PackedSequence packed = genome.nextSequence().get().getSequence();
+                    final List<String> expected = new ArrayList<>();
+                    BufferedDnaMotifFinder.match(sequence, pattern, 5, 1024, match -> expected.add(toString(match)));
+                    final List<String> actual = new ArrayList<>();
+                    finder.match(packed, match -> actual.add(toString(match)));
+                    Assert.assertEquals(expression, expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPackedFinder() throws Exception {
+        final File fasta = File.createTempFile("packed", ".fasta");
+        fasta.deleteOnExit();
+        PackedGenome.getPackedFile(fasta).deleteOnExit();
+        Files.write(fasta.toPath(), (
+            ">gb|chr1 | strand=(+) | organism=Toxoplasma_gondii_ME49 | length=14\n" +
+            "GGATCCAA\nTTggat\n" +
+            ">gb|chr2 | strand=(+) | organism=Toxoplasma_gondii_ME49 | length=12\n" +
+            "NNGGA\nTCCAAG\nG\n").getBytes());
+        final MotifConfig config = new MotifConfig(new Properties(), DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+        final Pattern pattern = AbstractMotifPlugin.translateExpression("GGATCC", DnaMotifPlugin.SYMBOL_MAP);
+
+        // falls back to the .fasta file until the packed copy is written
+        final List<String> expected = findMatches(new DnaMatchFinder(config), fasta, pattern);
+        Assert.assertEquals(expected, findMatches(new PackedDnaMatchFinder(config), fasta, pattern));
+        PackedGenome.write(fasta);
+        Assert.assertEquals(expected, findMatches(new PackedDnaMatchFinder(config), fasta, pattern));
+    }
+
+    private static List<String> findMatches(DnaMatchFinder finder, File fasta, Pattern pattern) throws Exception {
+        final List<String> matches = new ArrayList<>();
+        finder.findMatches(fasta, pattern, match -> {
+            if (match.hasRow()) matches.add(match.format().sourceId + "|" + match.locations);
+        }, org -> "ToxoDB");
+        return matches;
+    }
+
+    private static String toString(MotifMatch match) {
+        return match.getStartPos() + "-" + match.getEndPos() + ":" + match.getLeadingContext() + "|"
+            + match.getMatch() + "|" + match.getTrailingContext();
+    }
+
+    /**
+     * Generates sequences with runs of N, other IUPAC codes and soft-masked stretches.
+     */
+    private static List<String> randomSequences(Random random) {
+        final List<String> sequences = new ArrayList<>();
+        sequences.add("");
+        sequences.add("a");
+        for (int i = 0; i < 20; i++) {
+            final StringBuilder sequence = new StringBuilder();
+            final int length = random.nextInt(3000);
+            while (sequence.length() < length) {
+                final int kind = random.nextInt(20);
+                final int run = 1 + random.nextInt(kind == 0 ? 80 : 30);
+                for (int j = 0; j < run; j++) {
+                    final char base = kind == 0 ? 'N' : kind == 1 ? "RYKMN".charAt(random.nextInt(5)) : "ACGT".charAt(random.nextInt(4));
+                    sequence.append(kind % 3 == 2 ? Character.toLowerCase(base) : base);
+                }
+            }
+            sequences.add(sequence.toString());
+        }
+        return sequences;
+    }
+
+    private static File writeFasta(List<String> sequences) throws Exception {
+        final File fasta = File.createTempFile("packed", ".fasta");
+        fasta.deleteOnExit();
+        PackedGenome.getPackedFile(fasta).deleteOnExit();
+        final StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < sequences.size(); i++) {
+            contents.append(">seq").append(i).append('\n');
+            final String sequence = sequences.get(i);
+            for (int j = 0; j < sequence.length(); j += 60) {
+                contents.append(sequence, j, Math.min(sequence.length(), j + 60)).append('\n');
+            }
+        }
+        Files.write(fasta.toPath(), contents.toString().getBytes());
+        return fasta;
+    }
+}
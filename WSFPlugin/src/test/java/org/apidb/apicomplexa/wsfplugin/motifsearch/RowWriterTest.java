@@ -0,0 +1,61 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RowWriterTest {
+
+    /**
+     * Verifies that rows are written in order on the writer thread, and that a slow writer holds back the scanning
+     * thread instead of letting matches pile up.
+     */
+    @Test
+    public void testOrderAndBackPressure() throws Exception {
+        final List<String> rows = new ArrayList<>();
+        final AtomicInteger written = new AtomicInteger();
+        final Thread scanner = Thread.currentThread();
+        int maxWaiting = 0;
+        try (RowWriter writer = new RowWriter(256, match -> {
+            Assert.assertFalse(scanner == Thread.currentThread());
+            if (written.get() % 100 == 0) Thread.sleep(5);
+            rows.add(match.sourceId);
+            written.incrementAndGet();
+        })) {
+            for (int i = 0; i < 5000; i++) {
+                writer.accept(PluginMatch.ofCount("seq" + i, "PlasmoDB", 1));
+                maxWaiting = Math.max(maxWaiting, i + 1 - written.get());
+            }
+            writer.finish();
+        }
+        Assert.assertEquals(5000, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Assert.assertEquals("seq" + i, rows.get(i));
+        }
+        // the queued batches, the batch being filled and the batch being written
+        Assert.assertTrue(Integer.toString(maxWaiting), maxWaiting <= 256 + 2 * 64);
+    }
+
+    /**
+     * Verifies that the exception a row fails with is thrown to the scanning thread.
+     */
+    @Test
+    public void testFailure() throws Exception {
+        final MatchLimit limit = new MatchLimit(100);
+        int passed = 0;
+        try (RowWriter writer = new RowWriter(256, limit.limit(match -> {}))) {
+            for (; passed < 100000; passed++) {
+                writer.accept(PluginMatch.ofCount("seq" + passed, "PlasmoDB", 1));
+            }
+            writer.finish();
+            Assert.fail("the limit should have been reached");
+        }
+        catch (MatchLimit.ReachedException e) {
+            Assert.assertTrue(limit.isReached());
+            Assert.assertTrue(Integer.toString(passed), passed < 100000);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+public class SearchMetricsTest {
+
+    /**
+     * Verifies that the finders record the sequences and bytes they scan, and that the matches passed on are
+     * counted, whichever way the dataset is scanned.
+     */
+    @Test
+    public void testScanMetrics() throws Exception {
+        final File genome = SyntheticSequences.writeGenome(12, 4, 50000);
+        final MotifConfig config = new MotifConfig(new Properties(), DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+        final Pattern pattern = AbstractMotifPlugin.translateExpression("GGATNC", DnaMotifPlugin.SYMBOL_MAP);
+        final GenomeCache noCache = new GenomeCache(0);
+        for (DnaMatchFinder finder : new DnaMatchFinder[] { new DnaMatchFinder(config, noCache),
+            new ShardedDnaMatchFinder(config, noCache), new MappedDnaMatchFinder(config, noCache) }) {
+            final ScanMetrics metrics = new ScanMetrics(genome.getPath());
+            finder.setMetrics(metrics);
+            final List<PluginMatch> matches = new ArrayList<>();
+            finder.findMatches(genome, pattern, metrics.timeEmit(matches::add), metrics.timeLookup(org -> "PlasmoDB"));
+            final String name = finder.getClass().getSimpleName();
+            // both strands of each chromosome
+            Assert.assertEquals(name, 8, metrics.getSequences());
+            Assert.assertTrue(name, metrics.getBytes() >= 8 * 50000 && metrics.getBytes() <= genome.length());
+            Assert.assertEquals(name, matches.size(), metrics.getMatches());
+            Assert.assertTrue(name, matches.size() > 0);
+            Assert.assertTrue(name, metrics.getFormatNanos() > 0);
+        }
+
+        final ScanMetrics streamed = new ScanMetrics(genome.getPath());
+        final DnaMatchFinder finder = new DnaMatchFinder(config, noCache);
+        finder.setMetrics(streamed);
+        finder.findMatches(genome, pattern, match -> {}, org -> "PlasmoDB");
+        Assert.assertEquals(genome.length(), streamed.getBytes());
+        Assert.assertTrue(streamed.getReadNanos() > 0);
+    }
+
+    /**
+     * Verifies that a search is reported with its datasets, and added to the totals and histograms of the monitor.
+     */
+    @Test
+    public void testSearchMetrics() throws Exception {
+        final SearchMetrics search = new SearchMetrics("GGAT.C", false);
+        final ScanMetrics first = search.newDataset("first");
+        first.addRead(1000, 2000000);
+        first.addSequence();
+        first.timeEmit(match -> {}).accept(new PluginMatch());
+        first.setElapsedNanos(5000000);
+        final ScanMetrics second = search.newDataset("second");
+        second.setCached(true);
+        search.timeRows(match -> {}).accept(new PluginMatch());
+        search.finish();
+
+        final JSONObject json = search.toJson();
+        Assert.assertEquals("GGAT.C", json.getString("pattern"));
+        Assert.assertEquals(1, json.getLong("rows"));
+        Assert.assertEquals(2, json.getJSONArray("datasets").length());
+        final JSONObject dataset = json.getJSONArray("datasets").getJSONObject(0);
+        Assert.assertEquals(1000, dataset.getLong("bytes"));
+        Assert.assertEquals(1, dataset.getLong("matches"));
+        Assert.assertEquals(2.0, dataset.getDouble("readMs"), 0.001);
+
+        final MotifSearchMonitor monitor = new MotifSearchMonitor();
+        monitor.record(search);
+        Assert.assertEquals(1, monitor.getSearches());
+        Assert.assertEquals(1, monitor.getDatasetScans());
+        Assert.assertEquals(1, monitor.getDatasetCacheHits());
+        Assert.assertEquals(1000, monitor.getBytesScanned());
+        Assert.assertEquals(8, monitor.getDatasetMillisP99());
+        Assert.assertEquals(json.toString(), monitor.getSlowestSearch());
+        monitor.reset();
+        Assert.assertEquals(0, monitor.getSearches());
+        Assert.assertEquals(0, monitor.getDatasetMillisP50());
+    }
+
+    @Test
+    public void testHistogram() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) histogram.record(500000);
+        for (int i = 0; i < 10; i++) histogram.record(3000000000L);
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(1, histogram.getPercentileMillis(0.5));
+        Assert.assertEquals(1, histogram.getPercentileMillis(0.9));
+        Assert.assertEquals(4096, histogram.getPercentileMillis(0.95));
+        Assert.assertEquals(90, histogram.getCounts()[0]);
+    }
+}
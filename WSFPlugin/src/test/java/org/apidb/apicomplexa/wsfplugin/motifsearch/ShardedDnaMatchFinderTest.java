@@ -0,0 +1,71 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+public class ShardedDnaMatchFinderTest {
+
+    private static final String DEFLINE = ">%s | strand=(%s) | organism=Plasmodium_falciparum_3D7 | length=%d";
+
+    /**
+     * Writes sequences of varying lengths (some spanning several scan buffers) and verifies that the sharded finder
+     * reports exactly the matches of the streaming finder, in the same order.
+     */
+    @Test
+    public void testSameMatchesAsStreaming() throws Exception {
+        final File fasta = File.createTempFile("sharded", ".fasta");
+        fasta.deleteOnExit();
+        final Random random = new Random(42);
+        final StringBuilder content = new StringBuilder();
+        final int[] lengths = { 150000, 10, 0, 70000, 3, 200000 };
+        for (int i = 0; i < lengths.length; i++) {
+            content.append(String.format(DEFLINE, "seq" + i, i % 2 == 0 ? "+" : "-", lengths[i])).append('\n');
+            for (int j = 0; j < lengths[i]; j++) {
+                content.append("ACGT".charAt(random.nextInt(4)));
+                if (j % 60 == 59 || j == lengths[i] - 1) content.append('\n');
+            }
+        }
+        Files.write(fasta.toPath(), content.toString().getBytes());
+
+        final Properties properties = new Properties();
+        properties.setProperty(MotifConfig.FIELD_SEQUENCE_PARALLELISM, "3");
+        final MotifConfig config = new MotifConfig(properties, DnaMotifPlugin.FIELD_REGEX, DnaMotifPlugin.DEFAULT_REGEX);
+        final Pattern pattern = AbstractMotifPlugin.translateExpression("GGATNC", DnaMotifPlugin.SYMBOL_MAP);
+
+        final List<String> expected = new ArrayList<>();
+        new DnaMatchFinder(config).findMatches(fasta, pattern, m -> expected.add(describe(m)), org -> "PlasmoDB");
+        final List<String> actual = new ArrayList<>();
+        new ShardedDnaMatchFinder(config).findMatches(fasta, pattern, m -> actual.add(describe(m)), org -> "PlasmoDB");
+
+        Assert.assertTrue(expected.size() > 100);
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testScanRanges() throws Exception {
+        final File fasta = File.createTempFile("ranges", ".fasta");
+        fasta.deleteOnExit();
+        Files.write(fasta.toPath(), ">a\nAC\nGT\n>b\n>c\nTT".getBytes());
+        final List<SequenceRange> ranges = SequenceRange.scan(fasta);
+        Assert.assertEquals(3, ranges.size());
+        Assert.assertEquals(">a", ranges.get(0).getDefline());
+        Assert.assertEquals(3, ranges.get(0).getStart());
+        Assert.assertEquals(9, ranges.get(0).getEnd());
+        Assert.assertEquals(ranges.get(1).getStart(), ranges.get(1).getEnd());
+        Assert.assertEquals(">c", ranges.get(2).getDefline());
+        Assert.assertEquals(17, ranges.get(2).getEnd());
+    }
+
+    private static String describe(PluginMatch match) {
+        match.format();
+        return match.sourceId + "|" + match.projectId + "|" + match.locations + "|" + match.sequence;
+    }
+}
@@ -0,0 +1,45 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.SyntheticSequences.Type;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class SyntheticSequencesTest {
+
+    /**
+     * Verifies that generated deflines are parsed by the defline regexes of the plugins, and that every sequence
+     * starts with the planted motif.
+     */
+    @Test
+    public void testDeflinesAndPlantedMotifs() throws Exception {
+        final Pattern orfRegex = Pattern.compile(SyntheticSequences.ORF_DEFLINE_REGEX);
+        final Pattern proteinRegex = Pattern.compile(AAMotifPlugin.DEFAULT_REGEX);
+        final Pattern dnaRegex = Pattern.compile(DnaMotifPlugin.DEFAULT_REGEX);
+        for (Type type : Type.values()) {
+            final String motif = type == Type.DNA ? "GATTACA" : "WHEAT";
+            final File file = new SyntheticSequences(type).seed(3).sequences(5).lengths(100, 2000)
+                .plant(motif, 1).write();
+            final List<String> lines = Files.readAllLines(file.toPath());
+            final List<Defline> deflines = new ArrayList<>();
+            for (int i = 0; i < lines.size(); i++) {
+                if (!lines.get(i).startsWith(">")) continue;
+                final Defline defline = type == Type.DNA
+                    ? Defline.parse(lines.get(i), dnaRegex, Defline.Format.DNA)
+                    : Defline.parse(lines.get(i), type == Type.ORF ? orfRegex : proteinRegex, Defline.Format.PROTEIN);
+                Assert.assertNotNull(lines.get(i), defline);
+                Assert.assertEquals("Plasmodium falciparum 3D7", defline.getOrganism());
+                if (!"-".equals(defline.getStrand())) {
+                    Assert.assertTrue(lines.get(i + 1).startsWith(motif));
+                }
+                deflines.add(defline);
+            }
+            Assert.assertEquals(type == Type.DNA ? 10 : 5, deflines.size());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm.ReverseComplement;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+public class TranslatedOrfMatchFinderTest {
+
+    private static final String DEFLINE = ">%s | strand=(%s) | organism=Plasmodium_falciparum_3D7 | length=%d";
+
+    /**
+     * Verifies the names of the ORFs translated from a genome and the genomic locations of their matches, on both
+     * strands, and that the reverse strand sequences of the dataset are not translated again.
+     */
+    @Test
+    public void testGenomicLocations() throws Exception {
+        // frame 3 reads ATG AAA TGG TAA (MKW); its reverse frame reads TTA CCA TTT CAT (LPFH) along the reverse strand
+        final String sequence = "CCATGAAATGGTAA";
+        final File fasta = File.createTempFile("genome", ".fasta");
+        fasta.deleteOnExit();
+        Files.write(fasta.toPath(), (String.format(DEFLINE, "chr1", "+", sequence.length()) + "\n" + sequence + "\n"
+            + String.format(DEFLINE, "chr1", "-", sequence.length()) + "\n" + ReverseComplement.of(sequence) + "\n")
+            .getBytes());
+
+        final MotifConfig config = newConfig(3);
+        final List<String> actual = new ArrayList<>();
+        new OrfMotifPlugin().getMatchFinder(config).findMatches(fasta, Pattern.compile("KW|PF"),
+            m -> actual.add(m.sourceId + "|" + m.matchCount + "|" + m.locations + "|" + m.matchSequences),
+            org -> "PlasmoDB");
+        Assert.assertEquals(List.of("chr1-3-3-11|1|(6-11)|[KW]", "chr1-3-14-3|1|(11-6)|[PF]"), actual);
+    }
+
+    /**
+     * Verifies that the forward and reverse ORFs of a stretch of codons bounded by unknown codons, which have the
+     * same bounds, are named apart.
+     */
+    @Test
+    public void testStrandsNamedApart() throws Exception {
+        // frame 1 reads NNN GCA GCA GCA NNN: AAA on the forward strand, CCC (the codons TGC) on the reverse strand
+        final String sequence = "NNNGCAGCAGCANNN";
+        final File fasta = File.createTempFile("genome", ".fasta");
+        fasta.deleteOnExit();
+        Files.write(fasta.toPath(), (String.format(DEFLINE, "chr1", "+", sequence.length()) + "\n" + sequence + "\n")
+            .getBytes());
+
+        final MotifConfig config = newConfig(3);
+        final List<String> actual = new ArrayList<>();
+        final StreamingMatchFinder finder = new TranslatedOrfMatchFinder(config);
+        finder.findMatches(fasta, Pattern.compile("AAA|CCC"),
+            m -> actual.add(m.sourceId + "|" + m.locations + "|" + m.matchSequences), org -> "PlasmoDB");
+        Assert.assertEquals(List.of("chr1-1-4-12|(4-12)|[AAA]", "chr1-1-12-4|(12-4)|[CCC]"), actual);
+
+        final List<String> counted = new ArrayList<>();
+        finder.countMatches(fasta, Pattern.compile("AAA|CCC"), m -> counted.add(m.sourceId), org -> "PlasmoDB");
+        Assert.assertEquals(List.of("chr1-1-4-12", "chr1-1-12-4"), counted);
+    }
+
+    /**
+     * Verifies that counting the matches of a genome's ORFs agrees with finding them.
+     */
+    @Test
+    public void testCountsSameAsMatches() throws Exception {
+        final File fasta = SyntheticSequences.writeGenome(4, 3, 20000);
+        final MotifConfig config = newConfig(20);
+        final Pattern pattern = Pattern.compile("C.{0,3}H");
+        final List<String> found = new ArrayList<>();
+        final StreamingMatchFinder finder = new TranslatedOrfMatchFinder(config);
+        finder.findMatches(fasta, pattern, m -> found.add(m.sourceId + "|" + m.matchCount), org -> "PlasmoDB");
+        final List<String> counted = new ArrayList<>();
+        finder.countMatches(fasta, pattern, m -> counted.add(m.sourceId + "|" + m.matchCount), org -> "PlasmoDB");
+        Assert.assertTrue(found.size() > 10);
+        Assert.assertEquals(found, counted);
+    }
+
+    private static MotifConfig newConfig(int orfMinLength) throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(MotifConfig.FIELD_ORF_SCAN_MODE, MotifConfig.OrfScanMode.TRANSLATED.name());
+        properties.setProperty(MotifConfig.FIELD_ORF_MIN_LENGTH, String.valueOf(orfMinLength));
+        properties.setProperty(MotifConfig.FIELD_CONTEXT_LENGTH, "5");
+        return new MotifConfig(properties, OrfMotifPlugin.FIELD_REGEX, AAMotifPlugin.DEFAULT_REGEX);
+    }
+}
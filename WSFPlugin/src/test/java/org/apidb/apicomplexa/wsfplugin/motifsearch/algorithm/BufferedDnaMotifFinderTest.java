@@ -2,11 +2,15 @@ package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
 
 import org.apidb.apicomplexa.wsfplugin.motifsearch.exception.MotifTooLongException;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
+import java.io.Reader;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.regex.Pattern;
 
 public class BufferedDnaMotifFinderTest {
@@ -56,6 +60,62 @@ public class BufferedDnaMotifFinderTest {
         Assert.assertEquals("XXXX", matches.get(0).getMatch());
     }
 
+    /**
+     * Tests matches starting less than the context length into a window, whose leading context is partly taken from
+     * before the window.
+     */
+    @Test
+    public void testLeadingContextAtWindowStart() throws Exception {
+        final List<MotifMatch> matches = new ArrayList<>();
+        BufferedDnaMotifFinder.match(new StringReader("abcdefghijklmnopqrstuvwxyz"),
+                Pattern.compile("[bl]"), 3, 4, 3, matches::add);
+        Assert.assertEquals(2, matches.size());
+        Assert.assertEquals("a", matches.get(0).getLeadingContext());
+        Assert.assertEquals(11, matches.get(1).getStartPos());
+        Assert.assertEquals("ijk", matches.get(1).getLeadingContext());
+        Assert.assertEquals("mno", matches.get(1).getTrailingContext());
+    }
+
+
+    /**
+     * Tests contexts longer than the longest match, on both sides of window boundaries: the buffered scan reports the
+     * same matches, with the same contexts, as a scan of the whole sequence.
+     */
+    @Test
+    public void testContextLongerThanMatchAcrossWindows() throws Exception {
+        final StringBuilder sequence = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            sequence.append("abcdefghijklmnopqrstuvwxyz");
+        }
+        final Pattern pattern = Pattern.compile("[aeiou]y?");
+        final List<String> expected = new ArrayList<>();
+        BufferedDnaMotifFinder.match(sequence, pattern, 7, 2, match -> expected.add(toString(match)));
+        for (int bufferSize = 1; bufferSize < 40; bufferSize += 3) {
+            final List<String> matches = new ArrayList<>();
+            BufferedDnaMotifFinder.match(new StringReader(sequence.toString()), pattern, 7, bufferSize, 2,
+                match -> matches.add(toString(match)));
+            Assert.assertEquals("buffer size " + bufferSize, expected, matches);
+        }
+    }
+
+    private static String toString(MotifMatch match) {
+        return match.getStartPos() + ":" + match.getLeadingContext() + "[" + match.getMatch() + "]" +
+            match.getTrailingContext();
+    }
+
+    /**
+     * Tests a match running into the next window, whose end is also a match but overlaps it, so a scan of the whole
+     * sequence would not report it.
+     */
+    @Test
+    public void testNoOverlappingMatchesAcrossWindows() throws Exception {
+        final List<MotifMatch> matches = new ArrayList<>();
+        BufferedDnaMotifFinder.match(new StringReader("XXXXXXXXXAGXXXXXXXX"),
+                Pattern.compile("A?G"), 2, 4, 3, matches::add);
+        Assert.assertEquals(1, matches.size());
+        Assert.assertEquals(9, matches.get(0).getStartPos());
+        Assert.assertEquals("AG", matches.get(0).getMatch());
+    }
 
     @Test(expected = MotifTooLongException.class)
     public void testMatchExceedsMaxLength() throws Exception {
@@ -70,4 +130,151 @@ public class BufferedDnaMotifFinderTest {
         Assert.assertEquals("AT", matches.get(0).getTrailingContext());
         Assert.assertEquals("XXXX", matches.get(0).getMatch());
     }
+
+    /**
+     * Measures the memory allocated by scans of generated sequences: a scan without matches allocates a constant
+     * amount however long the sequence, and a scan with matches a bounded amount per match.
+     */
+    @Test
+    public void testAllocationPerMatch() throws Exception {
+        final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        final Pattern pattern = Pattern.compile("GAT[AT]ACA");
+        final int[] matchCount = new int[1];
+
+        // warm up, so compilation does not count
+        BufferedDnaMotifFinder.match(new GeneratedReader(1 << 20, "ACGT"), pattern, 20, 65536, 1024, m -> matchCount[0]++);
+
+        final long[] allocated = new long[2];
+        final int[] lengths = { 4 << 20, 64 << 20 };
+        for (int i = 0; i < lengths.length; i++) {
+            final long before = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+            BufferedDnaMotifFinder.match(new GeneratedReader(lengths[i], "AC"), pattern, 20, 65536, 1024, m -> matchCount[0]++);
+            allocated[i] = allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        }
+        // the buffers, but no copies of the sequence
+        Assert.assertTrue(allocated[1] + " bytes allocated", allocated[1] < 1 << 20);
+        Assert.assertTrue(allocated[1] - allocated[0] + " more bytes allocated", allocated[1] - allocated[0] < 64 << 10);
+
+        matchCount[0] = 0;
+        final long before = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+        BufferedDnaMotifFinder.match(new GeneratedReader(64 << 20, "ACGT"), pattern, 20, 65536, 1024, m -> matchCount[0]++);
+        final long perMatch = (allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - before) / matchCount[0];
+        Assert.assertTrue(matchCount[0] > 1000);
+        Assert.assertTrue(perMatch + " bytes allocated per match", perMatch < 1024);
+    }
+
+    /**
+     * Verifies that a scan of a sequence much shorter than the buffer, such as a protein, does not allocate the whole
+     * buffer, while a long sequence is still scanned across buffer sizes.
+     */
+    @Test
+    public void testShortSequenceAllocation() throws Exception {
+        final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        final Pattern pattern = Pattern.compile("GAT[AT]");
+        final int[] matchCount = new int[1];
+        BufferedDnaMotifFinder.match(new GeneratedReader(400, "ACGT"), pattern, 20, 65536, 50000, m -> matchCount[0]++);
+
+        final long before = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+        BufferedDnaMotifFinder.match(new GeneratedReader(400, "ACGT"), pattern, 20, 65536, 50000, m -> matchCount[0]++);
+        final long allocated = allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        Assert.assertTrue(allocated + " bytes allocated", allocated < 16 << 10);
+
+        final Random random = new Random(5);
+        final StringBuilder sequence = new StringBuilder();
+        for (int i = 0; i < 1 << 18; i++) {
+            sequence.append("GATC".charAt(random.nextInt(4)));
+        }
+        final List<String> expected = new ArrayList<>();
+        BufferedDnaMotifFinder.match(sequence, pattern, 7, 4, match -> expected.add(toString(match)));
+        final List<String> actual = new ArrayList<>();
+        BufferedDnaMotifFinder.match(new StringReader(sequence.toString()), pattern, 7, 4096, 4,
+            match -> actual.add(toString(match)));
+        Assert.assertTrue(expected.size() > 100);
+        Assert.assertEquals(expected, actual);
+    }
+
+    /**
+     * Verifies that a panel of patterns finds the same matches in an addressable sequence as in a reader of it, and
+     * for each pattern and strand the matches of scanning the pattern alone.
+     */
+    @Test
+    public void testPatternPanelInAddressableSequence() throws Exception {
+        final Random random = new Random(6);
+        final StringBuilder sequence = new StringBuilder();
+        for (int i = 0; i < 300000; i++) {
+            sequence.append("GATC".charAt(random.nextInt(4)));
+        }
+        final List<Pattern> patterns = new ArrayList<>();
+        for (String expression : new String[] { "GAT[AT]", "CCGG", "A{3,5}C" }) {
+            patterns.add(Pattern.compile(expression, Pattern.CASE_INSENSITIVE));
+        }
+        final long steps = CompiledMotif.DEFAULT_REGEX_STEPS_PER_CHARACTER;
+        final List<MotifMatch> expected = new ArrayList<>();
+        BufferedDnaMotifFinder.match(new StringReader(sequence.toString()), patterns, true, 7, 4096, 16, steps,
+            expected::add);
+        final List<MotifMatch> actual = new ArrayList<>();
+        BufferedDnaMotifFinder.match(sequence, patterns, true, 7, 4096, 16, steps, actual::add);
+        Assert.assertEquals(describe(expected, -1, false), describe(actual, -1, false));
+        Assert.assertEquals(describe(expected, -1, true), describe(actual, -1, true));
+
+        for (int i = 0; i < patterns.size(); i++) {
+            final List<MotifMatch> alone = new ArrayList<>();
+            BufferedDnaMotifFinder.match(sequence, patterns.get(i), true, 7, 16, steps, alone::add);
+            Assert.assertTrue(patterns.get(i).pattern(), alone.size() > 100);
+            for (boolean reversed : new boolean[] { false, true }) {
+                Assert.assertEquals(patterns.get(i).pattern(), describe(alone, 0, reversed),
+                    describe(actual, i, reversed));
+            }
+        }
+    }
+
+    /**
+     * @return the matches of the pattern with the given index (or of all patterns if it is -1) on the given strand
+     */
+    private static List<String> describe(List<MotifMatch> matches, int patternIndex, boolean reversed) {
+        final List<String> described = new ArrayList<>();
+        for (MotifMatch match : matches) {
+            if ((patternIndex == -1 || match.getPatternIndex() == patternIndex) && match.isReversed() == reversed) {
+                described.add((patternIndex == -1 ? match.getPatternIndex() + "|" : "") + toString(match));
+            }
+        }
+        return described;
+    }
+
+    /**
+     * Reader of a pseudo-random sequence over the given alphabet, generated without allocating
+     */
+    private static class GeneratedReader extends Reader {
+
+        private final String alphabet;
+        private int remaining;
+        private long seed = 42;
+
+        GeneratedReader(int length, String alphabet) {
+            this.remaining = length;
+            this.alphabet = alphabet;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (remaining == 0) {
+                return -1;
+            }
+            final int read = Math.min(len, remaining);
+            for (int i = off; i < off + read; i++) {
+                seed = seed * 6364136223846793005L + 1442695040888963407L;
+                cbuf[i] = alphabet.charAt((int) (seed >>> 33) % alphabet.length());
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
@@ -0,0 +1,220 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+import org.apidb.apicomplexa.wsfplugin.motifsearch.AbstractMotifPlugin;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.DnaMotifPlugin;
+import org.apidb.apicomplexa.wsfplugin.motifsearch.exception.MotifTooComplexException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class CompiledMotifTest {
+
+    @Test
+    public void testEngineSelection() {
+        Assert.assertTrue(compile("GGATCC") instanceof ShiftAndMotif);
+        Assert.assertTrue(compile("RGA{2}TCY.") instanceof ShiftAndMotif);
+        Assert.assertTrue(compile("(A|T)GC") instanceof ShiftAndMotif);
+        Assert.assertTrue(compile("GA{2,4}TC") instanceof NfaMotif);
+        Assert.assertTrue(compile("(A|T)*C") instanceof NfaMotif);
+        Assert.assertTrue(compile("N{65}") instanceof NfaMotif);
+        Assert.assertTrue(compile("^GATC") instanceof RegexMotif);
+        Assert.assertTrue(compile("(GA)\\1") instanceof RegexMotif);
+        Assert.assertTrue(compile("A*") instanceof RegexMotif);
+        Assert.assertTrue(compile("(A?)+C") instanceof RegexMotif);
+        Assert.assertSame(CompiledMotif.compile(Pattern.compile("GATC")).getClass(), ShiftAndMotif.class);
+    }
+
+    /**
+     * Patterns that make the backtracking matcher take exponential time, or recurse once per character, are
+     * matched in linear time.
+     */
+    @Test(timeout = 10000)
+    public void testNoCatastrophicBacktracking() {
+        final StringBuilder sequence = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sequence.append("AT".charAt(i % 2));
+        }
+        Assert.assertFalse(compile("(A|T)*C").matcher(sequence).find());
+        Assert.assertFalse(compile("(A|AT|ATA)+C").matcher(sequence).find());
+        final MotifMatcher matcher = compile("(A|AT|T)+").matcher(sequence);
+        Assert.assertTrue(matcher.find());
+        Assert.assertEquals(sequence.length(), matcher.end());
+    }
+
+    /**
+     * Compares the matches of random regular motifs with those of java.util.regex.
+     */
+    @Test
+    public void testSameMatchesAsRegex() {
+        final Random random = new Random(1);
+        final List<String> sequences = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            sequences.add(randomSequence(random, 500));
+        }
+        int automata = 0;
+        for (int i = 0; i < 3000; i++) {
+            final String expression = randomExpression(random, 3, true, new int[] { 2 });
+            final Pattern pattern;
+            try {
+                pattern = AbstractMotifPlugin.translateExpression(expression, DnaMotifPlugin.SYMBOL_MAP);
+            }
+            catch (RuntimeException e) {
+                continue;
+            }
+            final CompiledMotif motif = CompiledMotif.compile(pattern);
+            if (motif instanceof RegexMotif) continue;
+            automata++;
+            for (String sequence : sequences) {
+                Assert.assertEquals(pattern.pattern(), regexMatches(pattern, sequence), motifMatches(motif, sequence));
+            }
+        }
+        Assert.assertTrue(automata > 1000);
+    }
+
+    /**
+     * A motif whose DFA has exponentially many states is matched by simulating the NFA once the DFA grows too large.
+     */
+    @Test
+    public void testLargeDfa() {
+        final String sequence = randomSequence(new Random(2), 50000);
+        final Pattern pattern = AbstractMotifPlugin.translateExpression("R.{14,15}C", DnaMotifPlugin.SYMBOL_MAP);
+        final CompiledMotif motif = CompiledMotif.compile(pattern);
+        Assert.assertTrue(motif instanceof NfaMotif);
+        Assert.assertEquals(regexMatches(pattern, sequence), motifMatches(motif, sequence));
+    }
+
+    /**
+     * A pattern that backtracks exponentially on java.util.regex is stopped once it exceeds its step budget, while
+     * ordinary patterns on the same engine are not.
+     */
+    @Test(timeout = 10000)
+    public void testStepBudget() throws Exception {
+        final StringBuilder sequence = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sequence.append('A');
+        }
+        sequence.append("GATC");
+        final Pattern runaway = Pattern.compile("(A+)+\\1C");
+        Assert.assertTrue(CompiledMotif.compile(runaway) instanceof RegexMotif);
+        try {
+            BufferedDnaMotifFinder.match(sequence, runaway, 10, 1000, match -> {});
+            Assert.fail("Expected the search to be stopped");
+        }
+        catch (MotifTooComplexException e) {
+            // expected
+        }
+        final List<MotifMatch> matches = new ArrayList<>();
+        BufferedDnaMotifFinder.match(new StringReader(sequence.toString()), Pattern.compile("A{3}(?=G)"), 10, 64,
+            1000, matches::add);
+        Assert.assertEquals(1, matches.size());
+        Assert.assertEquals(197, matches.get(0).getStartPos());
+    }
+
+    /**
+     * The step budget is that of each search, so searches of the same pattern with different budgets do not affect
+     * one another.
+     */
+    @Test(timeout = 10000)
+    public void testStepBudgetPerSearch() throws Exception {
+        // past the steps every search may take, but few enough to search to the end without a budget
+        final String sequence = "AAAAAAAAAAAAAAAAAAAAAAGATC";
+        final Pattern backtracking = Pattern.compile("(A+)+\\1C");
+        try {
+            BufferedDnaMotifFinder.count(sequence, backtracking, false, 1000, 2);
+            Assert.fail("Expected the search to be stopped");
+        }
+        catch (MotifTooComplexException e) {
+            // expected
+        }
+        Assert.assertEquals(0, BufferedDnaMotifFinder.count(sequence, backtracking, false, 1000, 0));
+        Assert.assertSame(CompiledMotif.compile(backtracking),
+            CompiledMotif.compile(backtracking).withRegexBudget(CompiledMotif.DEFAULT_REGEX_STEPS_PER_CHARACTER));
+    }
+
+    @Test
+    public void testPatternComplexity() {
+        for (String hazard : new String[] { "(A*)*C", "(A|AT)+\\1", "((GA)+T){2,}(?=C)", "(?:A|T){1,20}$" }) {
+            Assert.assertTrue(hazard, PatternComplexity.findHazard(Pattern.compile(hazard)).isPresent());
+        }
+        for (String safe : new String[] { "(A|T)*C", "(GA+T)+C", "(GA)\\1", "A{2,}(?=C)", "(A|T)?[(|)]*$", "(AT*){1}$" }) {
+            Assert.assertFalse(safe, PatternComplexity.findHazard(Pattern.compile(safe)).isPresent());
+        }
+    }
+
+    private static CompiledMotif compile(String expression) {
+        return CompiledMotif.compile(AbstractMotifPlugin.translateExpression(expression, DnaMotifPlugin.SYMBOL_MAP));
+    }
+
+    private static List<String> regexMatches(Pattern pattern, String sequence) {
+        final List<String> matches = new ArrayList<>();
+        final Matcher matcher = pattern.matcher(sequence);
+        while (matcher.find()) {
+            matches.add(matcher.start() + "-" + matcher.end() + ":" + matcher.group());
+        }
+        return matches;
+    }
+
+    private static List<String> motifMatches(CompiledMotif motif, String sequence) {
+        final List<String> matches = new ArrayList<>();
+        final MotifMatcher matcher = motif.matcher(sequence);
+        while (matcher.find()) {
+            matches.add(matcher.start() + "-" + matcher.end() + ":" + matcher.group());
+        }
+        return matches;
+    }
+
+    private static String randomSequence(Random random, int length) {
+        final StringBuilder sequence = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            final int r = random.nextInt(40);
+            sequence.append(r == 0 ? 'N' : r == 1 ? 'n' : r < 6 ? "acgt".charAt(r - 2) : "ACGT".charAt(r % 4));
+        }
+        return sequence.toString();
+    }
+
+    /**
+     * Generates a random motif.  Nested or ambiguous loops, or more than a couple of them, make java.util.regex take
+     * exponential or high polynomial time, so quantified groups contain no quantifiers themselves, only single
+     * characters are repeated without bound, and at most two quantifiers are unbounded.
+     */
+    private static String randomExpression(Random random, int depth, boolean quantifiers, int[] unbounded) {
+        final StringBuilder expression = new StringBuilder();
+        final int terms = 1 + random.nextInt(4);
+        for (int i = 0; i < terms; i++) {
+            final boolean quantified = quantifiers && random.nextInt(3) == 0;
+            final int kind = random.nextInt(depth > 0 ? 7 : 5);
+            if (kind < 2) expression.append("ACGTRYN".charAt(random.nextInt(7)));
+            else if (kind == 2) expression.append(random.nextBoolean() ? "[AC]" : "[^G]");
+            else if (kind == 3) expression.append('.');
+            else if (kind == 4) expression.append("acgt".charAt(random.nextInt(4)));
+            else {
+                expression.append(random.nextBoolean() ? "(" : "(?:")
+                    .append(randomExpression(random, depth - 1, quantifiers && !quantified, unbounded));
+                while (random.nextInt(3) == 0) {
+                    expression.append('|').append(randomExpression(random, depth - 1, quantifiers && !quantified, unbounded));
+                }
+                expression.append(')');
+            }
+            if (quantified) {
+                final int min = random.nextInt(3);
+                final String[] bounded = { "?", "{" + min + "}", "{" + min + "," + (min + random.nextInt(3)) + "}" };
+                final String[] unboundedSyntax = { "*", "+", "{" + min + ",}" };
+                if (kind < 5 && unbounded[0] > 0 && random.nextBoolean()) {
+                    unbounded[0]--;
+                    expression.append(unboundedSyntax[random.nextInt(unboundedSyntax.length)]);
+                }
+                else {
+                    expression.append(bounded[random.nextInt(bounded.length)]);
+                }
+                if (random.nextInt(4) == 0) expression.append('?');
+            }
+        }
+        return expression.toString();
+    }
+}
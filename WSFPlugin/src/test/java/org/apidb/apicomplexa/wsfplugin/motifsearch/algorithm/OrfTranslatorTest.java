@@ -0,0 +1,125 @@
+package org.apidb.apicomplexa.wsfplugin.motifsearch.algorithm;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class OrfTranslatorTest {
+
+    // the standard genetic code, with the bases of each codon in TCAG order
+    private static final String BASES = "TCAG";
+    private static final String CODE = "FFLLSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG";
+
+    @Test
+    public void testSmallSequence() throws Exception {
+        // forward: ATG AAA TGG TAA (MKW), T GAA ATG GTA (EMV) and TGA AAT GGT (stop, then NG, too short);
+        // reverse strand TTACCATTTCAT: TTA CCA TTT CAT (LPFH), T TAC CAT TTC (YHF) and TA CCA TTT CA (TIS)
+        final List<OrfTranslator.Orf> orfs = new ArrayList<>();
+        new OrfTranslator(3).translate(new StringReader("ATGAAATGGTAA"), orfs::add);
+        final List<String> found = new ArrayList<>();
+        OrfTranslator.Orf reverse = null;
+        for (OrfTranslator.Orf orf : orfs) {
+            found.add(toString(orf));
+            if (orf.isReversed() && orf.getFrame() == 1) {
+                reverse = orf;
+            }
+        }
+        Collections.sort(found);
+        Assert.assertEquals("[+1 0-9 MKW, +3 2-11 EMV, -1 0-12 LPFH, -2 1-10 TIS, -3 2-11 YHF]", found.toString());
+
+        // the codons of "PF" are CCA and TTT, the reverse complements of TGG at 6-9 and AAA at 3-6
+        Assert.assertEquals(3, reverse.getSequenceStart(1, 3));
+        Assert.assertEquals(9, reverse.getSequenceEnd(1, 3));
+    }
+
+    /**
+     * Verifies that the streaming translation of random sequences, with ambiguous bases, lower case bases and line
+     * breaks, produces the ORFs of a translation of each frame of each strand in turn.
+     */
+    @Test
+    public void testSameOrfsAsFrameByFrame() throws Exception {
+        final Random random = new Random(11);
+        for (int round = 0; round < 20; round++) {
+            final StringBuilder sequence = new StringBuilder();
+            final int length = random.nextInt(3000);
+            for (int i = 0; i < length; i++) {
+                final int r = random.nextInt(200);
+                sequence.append(r == 0 ? 'N' : r == 1 ? 'a' : "ACGT".charAt(r % 4));
+            }
+            final int minLength = 1 + random.nextInt(20);
+
+            final List<String> expected = new ArrayList<>();
+            for (int frame = 0; frame < 3; frame++) {
+                expected.addAll(orfs(sequence, frame, false, minLength));
+                expected.addAll(orfs(sequence, frame, true, minLength));
+            }
+            final StringBuilder withLineBreaks = new StringBuilder();
+            for (int i = 0; i < sequence.length(); i += 60) {
+                withLineBreaks.append(sequence, i, Math.min(sequence.length(), i + 60)).append('\n');
+            }
+            final List<String> actual = new ArrayList<>();
+            final int translated = new OrfTranslator(minLength).translate(new StringReader(withLineBreaks.toString()),
+                orf -> {
+                    Assert.assertTrue(orf.getProtein().length() >= minLength);
+                    Assert.assertEquals(3 * orf.getProtein().length(), orf.getEnd() - orf.getStart());
+                    actual.add(toString(orf));
+                });
+            Assert.assertEquals(length, translated);
+            Collections.sort(expected);
+            Collections.sort(actual);
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * @return the ORFs of a frame of a strand, translated codon by codon
+     */
+    private static List<String> orfs(CharSequence sequence, int frame, boolean reversed, int minLength) {
+        final List<String> orfs = new ArrayList<>();
+        int start = frame;
+        final StringBuilder residues = new StringBuilder();
+        for (int i = frame; i + 3 <= sequence.length() + 3; i += 3) {
+            final char residue = i + 3 <= sequence.length() ? translate(sequence.subSequence(i, i + 3), reversed) : '*';
+            if (residue == '*' || residue == 'X') {
+                if (residues.length() >= minLength && residues.length() > 0) {
+                    if (reversed) {
+                        residues.reverse();
+                    }
+                    orfs.add((reversed ? "-" : "+") + (frame + 1) + " " + start + "-" + i + " " + residues);
+                }
+                residues.setLength(0);
+                start = i + 3;
+            }
+            else {
+                residues.append(residue);
+            }
+        }
+        return orfs;
+    }
+
+    private static char translate(CharSequence codon, boolean reversed) {
+        String bases = codon.toString().toUpperCase();
+        if (reversed) {
+            bases = ReverseComplement.of(bases);
+        }
+        int index = 0;
+        for (int i = 0; i < 3; i++) {
+            final int base = BASES.indexOf(bases.charAt(i));
+            if (base < 0) {
+                return 'X';
+            }
+            index = index * 4 + base;
+        }
+        return CODE.charAt(index);
+    }
+
+    private static String toString(OrfTranslator.Orf orf) {
+        return (orf.isReversed() ? "-" : "+") + orf.getFrame() + " " + orf.getStart() + "-" + orf.getEnd() + " "
+            + orf.getProtein();
+    }
+}